@@ -0,0 +1,99 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.wss4j.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.security.auth.callback.CallbackHandler;
+import javax.xml.parsers.DocumentBuilder;
+
+import org.apache.wss4j.common.crypto.Crypto;
+import org.apache.wss4j.common.util.XMLUtils;
+import org.apache.wss4j.dom.WSSConfig;
+import org.apache.wss4j.dom.WSSecurityEngine;
+import org.apache.wss4j.dom.WSSecurityEngineResult;
+import org.apache.wss4j.dom.common.KeystoreCallbackHandler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w3c.dom.Document;
+
+/**
+ * Benchmarks processing a secured message with WSSecurityEngine.processSecurityHeader. The
+ * "parse" benchmark measures the parsing of the secured message only, which is included in
+ * the "process" benchmark.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Thread)
+public class DOMInboundBenchmark {
+
+    @Param({"10", "1000", "10000"})
+    private int elements;
+
+    @Param({
+        Messages.TIMESTAMP_SIGNATURE, Messages.TIMESTAMP_ENCRYPT, 
+        Messages.TIMESTAMP_SIGNATURE_ENCRYPT
+    })
+    private String actions;
+
+    private String securedMessage;
+    private Crypto crypto;
+    private CallbackHandler callbackHandler;
+    private DocumentBuilder documentBuilder;
+    private WSSecurityEngine secEngine;
+
+    @Setup
+    public void setUp() throws Exception {
+        WSSConfig.init();
+        crypto = Messages.getDOMCrypto();
+        callbackHandler = new KeystoreCallbackHandler();
+        documentBuilder = Messages.createDocumentBuilder();
+        secEngine = new WSSecurityEngine();
+
+        Document doc =
+            documentBuilder.parse(Messages.toInputStream(Messages.createMessage(elements)));
+        securedMessage = XMLUtils.PrettyDocumentToString(Messages.secureDOM(doc, crypto, actions));
+    }
+
+    @Benchmark
+    public Document parse() throws Exception {
+        return documentBuilder.parse(Messages.toInputStream(securedMessage));
+    }
+
+    @Benchmark
+    public List<WSSecurityEngineResult> process() throws Exception {
+        Document doc = documentBuilder.parse(Messages.toInputStream(securedMessage));
+        return secEngine.processSecurityHeader(doc, null, callbackHandler, crypto);
+    }
+}
@@ -0,0 +1,84 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.wss4j.benchmarks;
+
+import java.security.MessageDigest;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.wss4j.common.util.JCEInstanceCache;
+import org.apache.wss4j.dom.util.WSSecurityUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks computing SHA-1 digests from several threads at once, comparing
+ * WSSecurityUtil.generateDigest (backed by the per-thread JCEInstanceCache) to the former
+ * implementation, a single MessageDigest shared by all threads under a lock, and to creating
+ * a new MessageDigest for every digest.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class DigestContentionBenchmark {
+
+    private final byte[] data = new byte[256];
+    private MessageDigest sharedDigest;
+
+    @Setup
+    public void setUp() throws Exception {
+        sharedDigest = MessageDigest.getInstance("SHA-1");
+    }
+
+    @Benchmark
+    public byte[] synchronizedMessageDigest() {
+        synchronized (sharedDigest) {
+            return sharedDigest.digest(data);
+        }
+    }
+
+    @Benchmark
+    public byte[] generateDigest() throws Exception {
+        return WSSecurityUtil.generateDigest(data);
+    }
+
+    @Benchmark
+    public byte[] cachedMessageDigest() throws Exception {
+        return JCEInstanceCache.getMessageDigest("SHA-1").digest(data);
+    }
+
+    @Benchmark
+    public byte[] newMessageDigest() throws Exception {
+        return MessageDigest.getInstance("SHA-1").digest(data);
+    }
+}
@@ -0,0 +1,113 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.wss4j.benchmarks;
+
+import java.security.MessageDigest;
+import java.security.cert.X509Certificate;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.wss4j.common.crypto.Crypto;
+import org.apache.wss4j.common.crypto.CryptoType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the certificate lookups and trust verification of Merlin, using the keystore of
+ * crypto.properties.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MerlinBenchmark {
+
+    private Crypto crypto;
+    private X509Certificate[] certs;
+    private CryptoType aliasType;
+    private CryptoType issuerSerialType;
+    private CryptoType thumbprintType;
+    private CryptoType skiType;
+    private CryptoType subjectType;
+
+    @Setup
+    public void setUp() throws Exception {
+        crypto = Messages.getDOMCrypto();
+
+        aliasType = new CryptoType(CryptoType.TYPE.ALIAS);
+        aliasType.setAlias(Messages.DOM_USER);
+        certs = crypto.getX509Certificates(aliasType);
+        X509Certificate cert = certs[0];
+
+        issuerSerialType = new CryptoType(CryptoType.TYPE.ISSUER_SERIAL);
+        issuerSerialType.setIssuerSerial(
+            cert.getIssuerX500Principal().getName(), cert.getSerialNumber()
+        );
+
+        thumbprintType = new CryptoType(CryptoType.TYPE.THUMBPRINT_SHA1);
+        thumbprintType.setBytes(MessageDigest.getInstance("SHA-1").digest(cert.getEncoded()));
+
+        skiType = new CryptoType(CryptoType.TYPE.SKI_BYTES);
+        skiType.setBytes(crypto.getSKIBytesFromCert(cert));
+
+        subjectType = new CryptoType(CryptoType.TYPE.SUBJECT_DN);
+        subjectType.setSubjectDN(cert.getSubjectX500Principal().getName());
+    }
+
+    @Benchmark
+    public X509Certificate[] getByAlias() throws Exception {
+        return crypto.getX509Certificates(aliasType);
+    }
+
+    @Benchmark
+    public X509Certificate[] getByIssuerSerial() throws Exception {
+        return crypto.getX509Certificates(issuerSerialType);
+    }
+
+    @Benchmark
+    public X509Certificate[] getByThumbprint() throws Exception {
+        return crypto.getX509Certificates(thumbprintType);
+    }
+
+    @Benchmark
+    public X509Certificate[] getBySKI() throws Exception {
+        return crypto.getX509Certificates(skiType);
+    }
+
+    @Benchmark
+    public X509Certificate[] getBySubjectDN() throws Exception {
+        return crypto.getX509Certificates(subjectType);
+    }
+
+    @Benchmark
+    public boolean verifyTrust() throws Exception {
+        return crypto.verifyTrust(certs, false);
+    }
+}
@@ -0,0 +1,141 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.apache.wss4j.common.crypto.Crypto;
+import org.apache.wss4j.common.crypto.CryptoFactory;
+import org.apache.wss4j.common.ext.WSSecurityException;
+import org.apache.wss4j.dom.WSConstants;
+import org.apache.wss4j.dom.message.WSSecEncrypt;
+import org.apache.wss4j.dom.message.WSSecHeader;
+import org.apache.wss4j.dom.message.WSSecSignature;
+import org.apache.wss4j.dom.message.WSSecTimestamp;
+import org.apache.wss4j.stax.ext.WSSConstants;
+import org.w3c.dom.Document;
+
+/**
+ * Utility methods to generate the (plain and secured) messages used by the benchmarks. The
+ * keys are those of the WSS4J DOM and StAX test-jars.
+ */
+final class Messages {
+
+    /**
+     * The alias (and password) of the DOM key that signs and encrypts messages
+     */
+    static final String DOM_USER = "16c73ab6-b892-458f-abf5-2f875f74882e";
+    static final String DOM_PASSWORD = "security";
+
+    /**
+     * The action combinations that are benchmarked
+     */
+    static final String TIMESTAMP_SIGNATURE = "TimestampSignature";
+    static final String TIMESTAMP_ENCRYPT = "TimestampEncrypt";
+    static final String TIMESTAMP_SIGNATURE_ENCRYPT = "TimestampSignatureEncrypt";
+
+    private static final String ITEM =
+        "<ns1:item ns1:id=\"%d\">The quick brown fox jumps over the lazy dog</ns1:item>";
+
+    private Messages() {
+        // complete
+    }
+
+    /**
+     * Create a SOAP 1.1 message with the given number of elements in the SOAP Body
+     */
+    static String createMessage(int elements) {
+        StringBuilder message = new StringBuilder(128 + elements * 80);
+        message.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+        message.append("<soapenv:Envelope xmlns:soapenv=\"http://schemas.xmlsoap.org/soap/envelope/\">");
+        message.append("<soapenv:Header/>");
+        message.append("<soapenv:Body>");
+        message.append("<ns1:request xmlns:ns1=\"http://www.example.com/benchmark\">");
+        for (int i = 0; i < elements; i++) {
+            message.append(String.format(ITEM, i));
+        }
+        message.append("</ns1:request>");
+        message.append("</soapenv:Body>");
+        message.append("</soapenv:Envelope>");
+        return message.toString();
+    }
+
+    static DocumentBuilder createDocumentBuilder() throws ParserConfigurationException {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        return factory.newDocumentBuilder();
+    }
+
+    static InputStream toInputStream(String message) throws UnsupportedEncodingException {
+        return new ByteArrayInputStream(message.getBytes("UTF-8"));
+    }
+
+    static Crypto getDOMCrypto() throws WSSecurityException {
+        return CryptoFactory.getInstance("crypto.properties");
+    }
+
+    /**
+     * Secure the given document using the WSSec* builders
+     */
+    static Document secureDOM(
+        Document doc, Crypto crypto, String actions
+    ) throws WSSecurityException {
+        WSSecHeader secHeader = new WSSecHeader();
+        secHeader.insertSecurityHeader(doc);
+
+        WSSecTimestamp timestamp = new WSSecTimestamp();
+        timestamp.build(doc, secHeader);
+
+        if (!TIMESTAMP_ENCRYPT.equals(actions)) {
+            WSSecSignature signature = new WSSecSignature();
+            signature.setUserInfo(DOM_USER, DOM_PASSWORD);
+            signature.setKeyIdentifierType(WSConstants.ISSUER_SERIAL);
+            signature.build(doc, crypto, secHeader);
+        }
+        if (!TIMESTAMP_SIGNATURE.equals(actions)) {
+            WSSecEncrypt encrypt = new WSSecEncrypt();
+            encrypt.setUserInfo(DOM_USER);
+            encrypt.setKeyIdentifierType(WSConstants.ISSUER_SERIAL);
+            encrypt.setSymmetricEncAlgorithm(WSConstants.AES_128);
+            encrypt.build(doc, crypto, secHeader);
+        }
+        return doc;
+    }
+
+    /**
+     * Get the streaming actions for the given action combination
+     */
+    static WSSConstants.Action[] getStAXActions(String actions) {
+        if (TIMESTAMP_SIGNATURE.equals(actions)) {
+            return new WSSConstants.Action[]{WSSConstants.TIMESTAMP, WSSConstants.SIGNATURE};
+        } else if (TIMESTAMP_ENCRYPT.equals(actions)) {
+            return new WSSConstants.Action[]{WSSConstants.TIMESTAMP, WSSConstants.ENCRYPT};
+        }
+        return new WSSConstants.Action[]{
+            WSSConstants.TIMESTAMP, WSSConstants.SIGNATURE, WSSConstants.ENCRYPT
+        };
+    }
+}
@@ -0,0 +1,122 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.wss4j.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.apache.wss4j.stax.WSSec;
+import org.apache.wss4j.stax.ext.InboundWSSec;
+import org.apache.wss4j.stax.ext.OutboundWSSec;
+import org.apache.wss4j.stax.ext.WSSSecurityProperties;
+import org.apache.wss4j.stax.test.CallbackHandlerImpl;
+import org.apache.wss4j.stax.test.utils.XmlReaderToWriter;
+import org.apache.xml.security.stax.securityEvent.SecurityEvent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks processing a secured message with InboundWSSec. The secured message is created
+ * once with OutboundWSSec, and every benchmark invocation reads it to the end.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Thread)
+public class StAXInboundBenchmark {
+
+    @Param({"10", "1000", "10000"})
+    private int elements;
+
+    @Param({
+        Messages.TIMESTAMP_SIGNATURE, Messages.TIMESTAMP_ENCRYPT, 
+        Messages.TIMESTAMP_SIGNATURE_ENCRYPT
+    })
+    private String actions;
+
+    private byte[] securedMessage;
+    private XMLInputFactory xmlInputFactory;
+    private InboundWSSec inboundWSSec;
+
+    @Setup
+    public void setUp() throws Exception {
+        xmlInputFactory = XMLInputFactory.newInstance();
+
+        OutboundWSSec outboundWSSec =
+            WSSec.getOutboundWSSec(StAXOutboundBenchmark.createSecurityProperties(actions));
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        XMLStreamWriter xmlStreamWriter =
+            outboundWSSec.processOutMessage(output, "UTF-8", new ArrayList<SecurityEvent>());
+        XMLStreamReader xmlStreamReader =
+            xmlInputFactory.createXMLStreamReader(
+                Messages.toInputStream(Messages.createMessage(elements))
+            );
+        XmlReaderToWriter.writeAll(xmlStreamReader, xmlStreamWriter);
+        xmlStreamWriter.close();
+        xmlStreamReader.close();
+        securedMessage = output.toByteArray();
+
+        WSSSecurityProperties securityProperties = new WSSSecurityProperties();
+        securityProperties.setStrictTimestampCheck(false);
+        securityProperties.loadSignatureVerificationKeystore(
+            getClass().getClassLoader().getResource("receiver.jks"), "default".toCharArray()
+        );
+        securityProperties.loadDecryptionKeystore(
+            getClass().getClassLoader().getResource("receiver.jks"), "default".toCharArray()
+        );
+        securityProperties.setCallbackHandler(new CallbackHandlerImpl());
+        inboundWSSec = WSSec.getInboundWSSec(securityProperties);
+    }
+
+    @Benchmark
+    public int process() throws Exception {
+        XMLStreamReader xmlStreamReader =
+            inboundWSSec.processInMessage(
+                xmlInputFactory.createXMLStreamReader(
+                    new ByteArrayInputStream(securedMessage)
+                )
+            );
+        int events = 0;
+        while (xmlStreamReader.hasNext()) {
+            xmlStreamReader.next();
+            events++;
+        }
+        xmlStreamReader.close();
+        return events;
+    }
+}
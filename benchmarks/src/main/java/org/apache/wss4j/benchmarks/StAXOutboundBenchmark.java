@@ -0,0 +1,110 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.wss4j.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.apache.wss4j.stax.WSSec;
+import org.apache.wss4j.stax.ext.OutboundWSSec;
+import org.apache.wss4j.stax.ext.WSSSecurityProperties;
+import org.apache.wss4j.stax.test.CallbackHandlerImpl;
+import org.apache.wss4j.stax.test.utils.XmlReaderToWriter;
+import org.apache.xml.security.stax.securityEvent.SecurityEvent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks securing a message with OutboundWSSec. The OutboundWSSec instance is created once
+ * (as it would be by an application) and is reused for every message.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Thread)
+public class StAXOutboundBenchmark {
+
+    @Param({"10", "1000", "10000"})
+    private int elements;
+
+    @Param({
+        Messages.TIMESTAMP_SIGNATURE, Messages.TIMESTAMP_ENCRYPT, 
+        Messages.TIMESTAMP_SIGNATURE_ENCRYPT
+    })
+    private String actions;
+
+    private String message;
+    private XMLInputFactory xmlInputFactory;
+    private OutboundWSSec outboundWSSec;
+
+    @Setup
+    public void setUp() throws Exception {
+        message = Messages.createMessage(elements);
+        xmlInputFactory = XMLInputFactory.newInstance();
+        outboundWSSec = WSSec.getOutboundWSSec(createSecurityProperties(actions));
+    }
+
+    static WSSSecurityProperties createSecurityProperties(String actions) throws Exception {
+        WSSSecurityProperties securityProperties = new WSSSecurityProperties();
+        securityProperties.setCallbackHandler(new CallbackHandlerImpl());
+        securityProperties.setEncryptionUser("receiver");
+        securityProperties.loadEncryptionKeystore(
+            StAXOutboundBenchmark.class.getClassLoader().getResource("transmitter.jks"),
+            "default".toCharArray()
+        );
+        securityProperties.setSignatureUser("transmitter");
+        securityProperties.loadSignatureKeyStore(
+            StAXOutboundBenchmark.class.getClassLoader().getResource("transmitter.jks"),
+            "default".toCharArray()
+        );
+        securityProperties.setOutAction(Messages.getStAXActions(actions));
+        return securityProperties;
+    }
+
+    @Benchmark
+    public ByteArrayOutputStream secure() throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream(message.length() * 2);
+        XMLStreamWriter xmlStreamWriter =
+            outboundWSSec.processOutMessage(output, "UTF-8", new ArrayList<SecurityEvent>());
+        XMLStreamReader xmlStreamReader =
+            xmlInputFactory.createXMLStreamReader(Messages.toInputStream(message));
+        XmlReaderToWriter.writeAll(xmlStreamReader, xmlStreamWriter);
+        xmlStreamWriter.close();
+        xmlStreamReader.close();
+        return output;
+    }
+}
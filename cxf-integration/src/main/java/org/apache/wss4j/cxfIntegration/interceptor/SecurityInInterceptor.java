@@ -32,7 +32,7 @@ import org.apache.wss4j.common.ext.Attachment;
 import org.apache.wss4j.common.ext.AttachmentRequestCallback;
 import org.apache.wss4j.common.ext.AttachmentResultCallback;
 import org.apache.wss4j.common.ext.WSSecurityException;
-import org.apache.wss4j.stax.WSSec;
+import org.apache.wss4j.stax.ext.CompiledWSSSecurityProperties;
 import org.apache.wss4j.stax.ext.InboundWSSec;
 import org.apache.wss4j.stax.ext.WSSConstants;
 import org.apache.wss4j.stax.ext.WSSSecurityProperties;
@@ -63,12 +63,12 @@ public class SecurityInInterceptor extends AbstractSoapInterceptor {
         HEADERS.add(WSSConstants.TAG_xenc_EncryptedData);
     }
 
-    private WSSSecurityProperties wssSecurityProperties;
+    private CompiledWSSSecurityProperties compiledSecurityProperties;
 
     public SecurityInInterceptor(String p, WSSSecurityProperties wssSecurityProperties) throws Exception {
         super(p);
         getAfter().add(StaxInInterceptor.class.getName());
-        this.wssSecurityProperties = wssSecurityProperties;
+        this.compiledSecurityProperties = CompiledWSSSecurityProperties.compileInbound(wssSecurityProperties);
     }
 
     @Override
@@ -89,7 +89,7 @@ public class SecurityInInterceptor extends AbstractSoapInterceptor {
         try {
             final List<SecurityEvent> requestSecurityEvents = (List<SecurityEvent>) soapMessage.getExchange().get(SecurityEvent.class.getName() + ".out");
 
-            WSSSecurityProperties wssSecurityProperties = new WSSSecurityProperties(this.wssSecurityProperties);
+            WSSSecurityProperties wssSecurityProperties = compiledSecurityProperties.copySecurityProperties();
             wssSecurityProperties.setAttachmentCallbackHandler(new CallbackHandler() {
                 @Override
                 public void handle(Callback[] callbacks) throws IOException, UnsupportedCallbackException {
@@ -159,7 +159,7 @@ public class SecurityInInterceptor extends AbstractSoapInterceptor {
                     }
                 }
             });
-            final InboundWSSec inboundWSSec = WSSec.getInboundWSSec(wssSecurityProperties);
+            final InboundWSSec inboundWSSec = new InboundWSSec(wssSecurityProperties);
             newXmlStreamReader = inboundWSSec.processInMessage(originalXmlStreamReader, requestSecurityEvents, securityEventListener);
             soapMessage.setContent(XMLStreamReader.class, newXmlStreamReader);
 
@@ -31,7 +31,7 @@ import org.apache.cxf.phase.Phase;
 import org.apache.wss4j.common.ext.AttachmentRequestCallback;
 import org.apache.wss4j.common.ext.AttachmentResultCallback;
 import org.apache.wss4j.common.ext.WSSecurityException;
-import org.apache.wss4j.stax.WSSec;
+import org.apache.wss4j.stax.ext.CompiledWSSSecurityProperties;
 import org.apache.wss4j.stax.ext.OutboundWSSec;
 import org.apache.wss4j.stax.ext.WSSSecurityProperties;
 
@@ -58,17 +58,36 @@ public class SecurityOutInterceptor extends AbstractSoapInterceptor {
     public static final String OUTPUT_STREAM_HOLDER = SecurityOutInterceptor.class.getName() + ".outputstream";
     public static final String FORCE_START_DOCUMENT = "org.apache.cxf.stax.force-start-document";
 
-    private WSSSecurityProperties wssSecurityProperties;
+    private CompiledWSSSecurityProperties compiledSecurityProperties;
+    private boolean mtomEnabled = true;
 
     public SecurityOutInterceptor(String p, WSSSecurityProperties wssSecurityProperties) throws Exception {
         super(p);
         getAfter().add(StaxOutInterceptor.class.getName());
-        this.wssSecurityProperties = wssSecurityProperties;
+        this.compiledSecurityProperties = CompiledWSSSecurityProperties.compileOutbound(wssSecurityProperties);
+    }
+
+    public boolean isAllowMTOM() {
+        return mtomEnabled;
+    }
+
+    /**
+     * Enable or disable mtom with WS-Security. MTOM attachments would not get encrypted
+     * or be part of the signature, unless they are secured as (SwA) attachments.
+     * @param allowMTOM
+     */
+    public void setAllowMTOM(boolean allowMTOM) {
+        this.mtomEnabled = allowMTOM;
     }
 
     @Override
     public void handleMessage(final SoapMessage soapMessage) throws Fault {
 
+        //turn off mtom so that binary content is inlined and can be signed/encrypted
+        if (!mtomEnabled) {
+            soapMessage.put(Message.MTOM_ENABLED, false);
+        }
+
         //OutputStream os = soapMessage.getContent(OutputStream.class);
         XMLStreamWriter xwriter = soapMessage.getContent(XMLStreamWriter.class);
 
@@ -87,7 +106,7 @@ public class SecurityOutInterceptor extends AbstractSoapInterceptor {
         try {
             final List<SecurityEvent> requestSecurityEvents = (List<SecurityEvent>) soapMessage.getExchange().get(SecurityEvent.class.getName() + ".in");
 
-            WSSSecurityProperties wssSecurityProperties = new WSSSecurityProperties(this.wssSecurityProperties);
+            WSSSecurityProperties wssSecurityProperties = compiledSecurityProperties.copySecurityProperties();
             wssSecurityProperties.setAttachmentCallbackHandler(new CallbackHandler() {
                 @Override
                 public void handle(Callback[] callbacks) throws IOException, UnsupportedCallbackException {
@@ -150,7 +169,7 @@ public class SecurityOutInterceptor extends AbstractSoapInterceptor {
                     }
                 }
             });
-            final OutboundWSSec outboundWSSec = WSSec.getOutboundWSSec(wssSecurityProperties);
+            final OutboundWSSec outboundWSSec = new OutboundWSSec(wssSecurityProperties);
             newXMLStreamWriter = outboundWSSec.processOutMessage(xwriter, encoding, requestSecurityEvents, securityEventListener);
             soapMessage.setContent(XMLStreamWriter.class, newXMLStreamWriter);
         } catch (WSSecurityException e) {
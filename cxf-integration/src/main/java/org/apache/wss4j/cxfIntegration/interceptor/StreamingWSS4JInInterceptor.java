@@ -0,0 +1,181 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.wss4j.cxfIntegration.interceptor;
+
+import java.security.Principal;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.xml.soap.SOAPException;
+import javax.xml.stream.XMLStreamException;
+
+import org.apache.cxf.binding.soap.SoapMessage;
+import org.apache.cxf.interceptor.Fault;
+import org.apache.cxf.phase.AbstractPhaseInterceptor;
+import org.apache.cxf.phase.Phase;
+import org.apache.wss4j.common.saml.SAMLKeyInfo;
+import org.apache.wss4j.common.saml.SamlAssertionWrapper;
+import org.apache.wss4j.dom.WSConstants;
+import org.apache.wss4j.dom.WSSecurityEngineResult;
+import org.apache.wss4j.dom.handler.WSHandlerConstants;
+import org.apache.wss4j.stax.ConfigurationConverter;
+import org.apache.wss4j.stax.securityEvent.SamlTokenSecurityEvent;
+import org.apache.wss4j.stax.securityEvent.UsernameTokenSecurityEvent;
+import org.apache.wss4j.stax.securityToken.SubjectAndPrincipalSecurityToken;
+import org.apache.wss4j.stax.securityToken.WSSecurityTokenConstants;
+import org.apache.xml.security.exceptions.XMLSecurityException;
+import org.apache.xml.security.stax.securityEvent.SecurityEvent;
+import org.apache.xml.security.stax.securityEvent.TokenSecurityEvent;
+import org.apache.xml.security.stax.securityToken.SecurityToken;
+import org.apache.xml.security.stax.securityToken.SecurityTokenConstants;
+
+/**
+ * A streaming replacement for the WSS4JInInterceptor. It accepts the same (WSHandlerConstants)
+ * configuration, but processes the security header while the message is parsed instead of
+ * building a SAAJ SOAPMessage first. The configuration is converted once, when the interceptor
+ * is created, and shared by all the messages.
+ *
+ * Once the message is read, the principals of the received tokens are stored in the
+ * WSHandlerConstants.RECV_RESULTS and the SecurityContext of the message, in the same way as
+ * by the WSS4JInInterceptor.
+ */
+public class StreamingWSS4JInInterceptor extends SecurityInInterceptor {
+
+    private static final Set<SecurityTokenConstants.TokenUsage> SIGNATURE_TOKEN_USAGES =
+        new HashSet<SecurityTokenConstants.TokenUsage>(Arrays.asList(
+            WSSecurityTokenConstants.TokenUsage_Signature,
+            WSSecurityTokenConstants.TokenUsage_MainSignature,
+            WSSecurityTokenConstants.TokenUsage_EndorsingSupportingTokens,
+            WSSecurityTokenConstants.TokenUsage_SignedEndorsingSupportingTokens,
+            WSSecurityTokenConstants.TokenUsage_EndorsingEncryptedSupportingTokens,
+            WSSecurityTokenConstants.TokenUsage_SignedEndorsingEncryptedSupportingTokens));
+
+    private final String actor;
+    //stores the results like the SAAJ based interceptor does
+    private final WSS4JInInterceptor resultInterceptor = new WSS4JInInterceptor();
+
+    public StreamingWSS4JInInterceptor(Map<String, Object> properties) throws Exception {
+        super(Phase.POST_STREAM, ConfigurationConverter.convert(properties));
+        this.actor = (String) properties.get(WSHandlerConstants.ACTOR);
+    }
+
+    @Override
+    public void handleMessage(SoapMessage soapMessage) throws Fault {
+        super.handleMessage(soapMessage);
+        soapMessage.getInterceptorChain().add(new StreamingWSS4JResultsInterceptor());
+    }
+
+    /**
+     * Converts the received token SecurityEvents with a principal into the
+     * WSSecurityEngineResults of the DOM engine
+     */
+    protected List<WSSecurityEngineResult> convertSecurityEvents(List<SecurityEvent> securityEvents)
+            throws XMLSecurityException {
+        List<WSSecurityEngineResult> results = new ArrayList<WSSecurityEngineResult>();
+        for (int i = 0; i < securityEvents.size(); i++) {
+            SecurityEvent securityEvent = securityEvents.get(i);
+            if (!(securityEvent instanceof TokenSecurityEvent)) {
+                continue;
+            }
+            SecurityToken securityToken = ((TokenSecurityEvent<?>) securityEvent).getSecurityToken();
+            if (!(securityToken instanceof SubjectAndPrincipalSecurityToken)) {
+                continue;
+            }
+            Principal principal = ((SubjectAndPrincipalSecurityToken) securityToken).getPrincipal();
+            if (principal == null) {
+                continue;
+            }
+
+            WSSecurityEngineResult result;
+            if (securityEvent instanceof UsernameTokenSecurityEvent) {
+                result = new WSSecurityEngineResult(WSConstants.UT);
+            } else if (securityEvent instanceof SamlTokenSecurityEvent) {
+                SamlAssertionWrapper samlAssertionWrapper =
+                        ((SamlTokenSecurityEvent) securityEvent).getSamlAssertionWrapper();
+                if (samlAssertionWrapper.isSigned()) {
+                    result = new WSSecurityEngineResult(WSConstants.ST_SIGNED);
+                    SAMLKeyInfo signatureKeyInfo = samlAssertionWrapper.getSignatureKeyInfo();
+                    if (signatureKeyInfo != null && signatureKeyInfo.getCerts() != null
+                            && signatureKeyInfo.getCerts().length > 0) {
+                        result.put(WSSecurityEngineResult.TAG_X509_CERTIFICATE, signatureKeyInfo.getCerts()[0]);
+                    }
+                } else {
+                    result = new WSSecurityEngineResult(WSConstants.ST_UNSIGNED);
+                }
+                result.put(WSSecurityEngineResult.TAG_SAML_ASSERTION, samlAssertionWrapper);
+            } else if (isSignatureToken(securityToken)) {
+                result = new WSSecurityEngineResult(WSConstants.SIGN);
+                X509Certificate[] certificates = securityToken.getX509Certificates();
+                if (certificates != null && certificates.length > 0) {
+                    result.put(WSSecurityEngineResult.TAG_X509_CERTIFICATE, certificates[0]);
+                }
+            } else {
+                continue;
+            }
+            result.put(WSSecurityEngineResult.TAG_PRINCIPAL, principal);
+            results.add(result);
+        }
+        return results;
+    }
+
+    private static boolean isSignatureToken(SecurityToken securityToken) {
+        List<SecurityTokenConstants.TokenUsage> tokenUsages = securityToken.getTokenUsages();
+        for (int i = 0; i < tokenUsages.size(); i++) {
+            if (SIGNATURE_TOKEN_USAGES.contains(tokenUsages.get(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Stores the results once the security header and the body are processed
+     */
+    public class StreamingWSS4JResultsInterceptor extends AbstractPhaseInterceptor<SoapMessage> {
+
+        public StreamingWSS4JResultsInterceptor() {
+            super(Phase.PRE_INVOKE);
+            getAfter().add(SecurityInEndingInterceptor.class.getName());
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void handleMessage(SoapMessage soapMessage) throws Fault {
+            List<SecurityEvent> securityEvents =
+                (List<SecurityEvent>) soapMessage.getExchange().get(SecurityEvent.class.getName() + ".in");
+            if (securityEvents == null) {
+                return;
+            }
+            try {
+                resultInterceptor.doResults(soapMessage, actor, null, null, convertSecurityEvents(securityEvents));
+            } catch (XMLSecurityException e) {
+                throw new Fault(e);
+            } catch (SOAPException e) {
+                throw new Fault(e);
+            } catch (XMLStreamException e) {
+                throw new Fault(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,38 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.wss4j.cxfIntegration.interceptor;
+
+import java.util.Map;
+
+import org.apache.cxf.phase.Phase;
+import org.apache.wss4j.stax.ConfigurationConverter;
+
+/**
+ * A streaming replacement for the WSS4JOutInterceptor. It accepts the same (WSHandlerConstants)
+ * configuration, but secures the message while it is written instead of serializing it into
+ * a SAAJ SOAPMessage first. Like the WSS4JOutInterceptor, MTOM is disabled unless it is
+ * allowed with setAllowMTOM.
+ */
+public class StreamingWSS4JOutInterceptor extends SecurityOutInterceptor {
+
+    public StreamingWSS4JOutInterceptor(Map<String, Object> properties) throws Exception {
+        super(Phase.PRE_STREAM, ConfigurationConverter.convert(properties));
+        setAllowMTOM(false);
+    }
+}
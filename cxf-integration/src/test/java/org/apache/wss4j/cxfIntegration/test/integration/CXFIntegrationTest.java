@@ -22,15 +22,25 @@ import org.apache.commons.lang.RandomStringUtils;
 import org.apache.cxf.endpoint.Client;
 import org.apache.cxf.frontend.ClientProxy;
 import org.apache.cxf.message.Message;
+import org.apache.cxf.phase.AbstractPhaseInterceptor;
+import org.apache.cxf.phase.Phase;
+import org.apache.cxf.security.SecurityContext;
 import org.apache.cxf.staxutils.StaxUtils;
 import org.apache.hello_world_soap_http.Greeter;
 import org.apache.hello_world_soap_http.SOAPService;
+import org.apache.hello_world_soap_http.types.GreetMeResponseType;
 import org.apache.hello_world_soap_http.types.GreetMeType;
+import org.apache.wss4j.dom.WSConstants;
+import org.apache.wss4j.dom.WSSecurityEngineResult;
 import org.apache.wss4j.dom.handler.WSHandlerConstants;
+import org.apache.wss4j.dom.handler.WSHandlerResult;
 import org.apache.xml.security.stax.impl.util.KeyValue;
 import org.springframework.context.support.ClassPathXmlApplicationContext;
+import org.apache.wss4j.cxfIntegration.interceptor.StreamingWSS4JInInterceptor;
+import org.apache.wss4j.cxfIntegration.interceptor.StreamingWSS4JOutInterceptor;
 import org.apache.wss4j.cxfIntegration.interceptor.WSS4JInInterceptor;
 import org.apache.wss4j.cxfIntegration.interceptor.WSS4JOutInterceptor;
+import org.testng.Assert;
 import org.testng.annotations.AfterClass;
 import org.testng.annotations.BeforeClass;
 import org.testng.annotations.DataProvider;
@@ -40,7 +50,9 @@ import javax.xml.stream.XMLInputFactory;
 import javax.xml.ws.Holder;
 import java.lang.reflect.Field;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.ExecutorService;
@@ -202,6 +214,115 @@ public class CXFIntegrationTest {
         domTimes.add(new KeyValue<Integer, Long>(payload.length(), System.currentTimeMillis() - startTime));
     }
 
+    @Test
+    public void testStreamingWSS4JInterceptors() throws Exception {
+        SOAPService soapService = new SOAPService(this.getClass().getClassLoader().getResource("integration/helloWorld.wsdl"));
+        Greeter greeter = soapService.getSoapPort();
+        final Client client = ClientProxy.getClient(greeter);
+
+        Map<String, Object> outProperties = new HashMap<String, Object>();
+        outProperties.put(WSHandlerConstants.ACTION, "Timestamp Signature Encrypt");
+        outProperties.put(WSHandlerConstants.USER, "transmitter");
+        outProperties.put(
+                WSHandlerConstants.SIGNATURE_PARTS,
+                "{Element}{http://docs.oasis-open.org/wss/2004/01/oasis-200401-wss-wssecurity-utility-1.0.xsd}Timestamp;" +
+                        "{Element}{http://schemas.xmlsoap.org/soap/envelope/}Body;");
+        outProperties.put(WSHandlerConstants.ENCRYPTION_USER, "receiver");
+        outProperties.put(WSHandlerConstants.ENCRYPTION_PARTS, "{Content}{http://schemas.xmlsoap.org/soap/envelope/}Body;");
+        outProperties.put(WSHandlerConstants.PW_CALLBACK_CLASS, WSS4JCallbackHandlerImpl.class.getName());
+        outProperties.put(WSHandlerConstants.SIG_PROP_FILE, "transmitter-crypto.properties");
+        outProperties.put(WSHandlerConstants.ENC_PROP_FILE, "transmitter-crypto.properties");
+        client.getOutInterceptors().add(new StreamingWSS4JOutInterceptor(outProperties));
+
+        Map<String, Object> inProperties = new HashMap<String, Object>();
+        inProperties.put(WSHandlerConstants.ACTION, "Timestamp Signature Encrypt");
+        inProperties.put(WSHandlerConstants.PW_CALLBACK_CLASS, WSS4JCallbackHandlerImpl.class.getName());
+        inProperties.put(WSHandlerConstants.SIG_VER_PROP_FILE, "transmitter-crypto.properties");
+        inProperties.put(WSHandlerConstants.DEC_PROP_FILE, "transmitter-crypto.properties");
+        client.getInInterceptors().add(new StreamingWSS4JInInterceptor(inProperties));
+
+        final List<Message> responses = new ArrayList<Message>();
+        client.getInInterceptors().add(new AbstractPhaseInterceptor<Message>(Phase.POST_INVOKE) {
+            @Override
+            public void handleMessage(Message message) {
+                responses.add(message);
+            }
+        });
+
+        GreetMeType greetMeType = new GreetMeType();
+        greetMeType.setRequestType("Streaming");
+        Holder<byte[]> byteHolder = new Holder<byte[]>();
+        byteHolder.value = "Attachment".getBytes();
+        GreetMeResponseType greetMeResponseType = greeter.greetMe(greetMeType, byteHolder);
+        Assert.assertEquals(greetMeResponseType.getResponseType(), "Streaming");
+
+        // the results of the response are stored like by the WSS4JInInterceptor
+        Assert.assertEquals(responses.size(), 1);
+        Message response = responses.get(0);
+        @SuppressWarnings("unchecked")
+        List<WSHandlerResult> results = (List<WSHandlerResult>) response.get(WSHandlerConstants.RECV_RESULTS);
+        Assert.assertNotNull(results);
+        Assert.assertEquals(results.size(), 1);
+        List<WSSecurityEngineResult> engineResults = results.get(0).getResults();
+        Assert.assertFalse(engineResults.isEmpty());
+        Assert.assertEquals(engineResults.get(0).get(WSSecurityEngineResult.TAG_ACTION), WSConstants.SIGN);
+        Assert.assertNotNull(engineResults.get(0).get(WSSecurityEngineResult.TAG_X509_CERTIFICATE));
+
+        SecurityContext securityContext = response.get(SecurityContext.class);
+        Assert.assertNotNull(securityContext);
+        Assert.assertEquals(securityContext.getUserPrincipal(),
+                engineResults.get(0).get(WSSecurityEngineResult.TAG_PRINCIPAL));
+        Assert.assertEquals(response.get(WSS4JInInterceptor.PRINCIPAL_RESULT), securityContext.getUserPrincipal());
+    }
+
+    @Test
+    public void testStreamingWSS4JInInterceptorSignedSAML() throws Exception {
+        SOAPService soapService = new SOAPService(this.getClass().getClassLoader().getResource("integration/helloWorld.wsdl"));
+        Greeter greeter = soapService.getSoapPort();
+        final Client client = ClientProxy.getClient(greeter);
+
+        Map<String, Object> inProperties = new HashMap<String, Object>();
+        inProperties.put(WSHandlerConstants.ACTION, "Timestamp SAMLTokenSigned");
+        inProperties.put(WSHandlerConstants.PW_CALLBACK_CLASS, WSS4JCallbackHandlerImpl.class.getName());
+        inProperties.put(WSHandlerConstants.SIG_VER_PROP_FILE, "receiver-crypto.properties");
+        client.getInInterceptors().add(new StreamingWSS4JInInterceptor(inProperties));
+
+        final List<Message> responses = new ArrayList<Message>();
+        client.getInInterceptors().add(new AbstractPhaseInterceptor<Message>(Phase.POST_INVOKE) {
+            @Override
+            public void handleMessage(Message message) {
+                responses.add(message);
+            }
+        });
+
+        client.getRequestContext().put(Message.ENDPOINT_ADDRESS, "http://localhost:9001/GreeterServiceSAML");
+
+        GreetMeType greetMeType = new GreetMeType();
+        greetMeType.setRequestType("SAML");
+        Holder<byte[]> byteHolder = new Holder<byte[]>();
+        byteHolder.value = "Attachment".getBytes();
+        GreetMeResponseType greetMeResponseType = greeter.greetMe(greetMeType, byteHolder);
+        Assert.assertEquals(greetMeResponseType.getResponseType(), "SAML");
+
+        // the signed assertion must be reported like the DOM engine does, including the signing certificate
+        Assert.assertEquals(responses.size(), 1);
+        @SuppressWarnings("unchecked")
+        List<WSHandlerResult> results =
+                (List<WSHandlerResult>) responses.get(0).get(WSHandlerConstants.RECV_RESULTS);
+        Assert.assertNotNull(results);
+        Assert.assertEquals(results.size(), 1);
+        WSSecurityEngineResult samlResult = null;
+        for (WSSecurityEngineResult engineResult : results.get(0).getResults()) {
+            if (engineResult.get(WSSecurityEngineResult.TAG_SAML_ASSERTION) != null) {
+                samlResult = engineResult;
+            }
+        }
+        Assert.assertNotNull(samlResult);
+        Assert.assertEquals(samlResult.get(WSSecurityEngineResult.TAG_ACTION), WSConstants.ST_SIGNED);
+        Assert.assertNotNull(samlResult.get(WSSecurityEngineResult.TAG_X509_CERTIFICATE));
+        Assert.assertNotNull(samlResult.get(WSSecurityEngineResult.TAG_PRINCIPAL));
+    }
+
     @AfterClass
     public void tearDown() throws Exception {
 
@@ -458,6 +458,40 @@ public final class ConfigurationConstants {
      * is discouraged, and so the default is "false".
      */
     public static final String ALLOW_RSA15_KEY_TRANSPORT_ALGORITHM = "allowRSA15KeyTransportAlgorithm";
+    
+    /**
+     * Whether to cache the decrypted session keys of received EncryptedKey elements, so that
+     * the private key operation is not repeated when the same EncryptedKey is received again.
+     * Only keys transported with RSA-OAEP are cached, never RSA v1.5 keys. The cache instance
+     * can be set via ENCRYPTED_KEY_CACHE_INSTANCE. The default is "false".
+     */
+    public static final String ENABLE_ENCRYPTED_KEY_CACHE = "enableEncryptedKeyCache";
+    
+    /**
+     * Whether to cache signed SAML Assertions after their signature has been verified, so that
+     * the signature verification (and the trust verification of the signing key) is skipped
+     * when the same Assertion is received again. The conditions of the Assertion are still
+     * checked for every message. The cache instance can be set via SAML_ASSERTION_CACHE_INSTANCE.
+     * The default is "false".
+     */
+    public static final String ENABLE_SAML_ASSERTION_CACHE = "enableSamlAssertionCache";
+    
+    /**
+     * Whether to cache the keys derived from received UsernameTokens (with a Salt and an
+     * Iteration count), so that the key derivation is skipped when a client sends the same
+     * Salt again. The cache instance can be set via USERNAME_TOKEN_DERIVED_KEY_CACHE_INSTANCE.
+     * The default is "false".
+     */
+    public static final String ENABLE_USERNAME_TOKEN_DERIVED_KEY_CACHE = 
+        "enableUsernameTokenDerivedKeyCache";
+    
+    /**
+     * Whether to cache the keys derived for received DerivedKeyTokens, so that the key derivation
+     * is skipped when a WS-SecureConversation session derives a key with the same nonce, label,
+     * offset and length from the SecurityContextToken secret again. The cache instance can be
+     * set via DERIVED_KEY_CACHE_INSTANCE. The default is "false".
+     */
+    public static final String ENABLE_DERIVED_KEY_CACHE = "enableDerivedKeyCache";
 
     /**
      * Whether to validate the SubjectConfirmation requirements of a received SAML Token
@@ -466,6 +500,15 @@ public final class ConfigurationConstants {
     public static final String VALIDATE_SAML_SUBJECT_CONFIRMATION = 
         "validateSamlSubjectConfirmation";
     
+    /**
+     * Whether to share a single instance of each of the default Processors and Validators
+     * across all messages, rather than creating new instances for each received message. The
+     * default Processors and Validators do not hold any per-message state. Validators which
+     * are configured via setters, such as the SamlAssertionValidator, are never shared.
+     * The default is false.
+     */
+    public static final String REUSE_PROCESSORS = "reuseProcessors";
+    
     //
     // (Non-boolean) Configuration parameters for the actions/processors
     //
@@ -749,5 +792,40 @@ public final class ConfigurationConstants {
      */
     public static final String TIMESTAMP_CACHE_INSTANCE = "timestampCacheInstance";
     
+    /**
+     * This holds a reference to an EncryptedKeyCache instance used to cache the decrypted
+     * session keys of received EncryptedKey elements, if ENABLE_ENCRYPTED_KEY_CACHE is "true".
+     * The default is an EncryptedKeyCache instance that is shared by all messages processed
+     * by the handler.
+     */
+    public static final String ENCRYPTED_KEY_CACHE_INSTANCE = "encryptedKeyCacheInstance";
+    
+    /**
+     * This holds a reference to a SamlAssertionCache instance used to cache verified signed
+     * SAML Assertions, if ENABLE_SAML_ASSERTION_CACHE is "true". The default is a
+     * SamlAssertionCache instance that is shared by all messages processed by the handler.
+     */
+    public static final String SAML_ASSERTION_CACHE_INSTANCE = "samlAssertionCacheInstance";
+    
+    /**
+     * This holds a reference to a UsernameTokenDerivedKeyCache instance used to cache the keys
+     * derived from UsernameTokens, if ENABLE_USERNAME_TOKEN_DERIVED_KEY_CACHE is "true". The
+     * default is a UsernameTokenDerivedKeyCache instance that is shared by all messages
+     * processed by the handler.
+     */
+    public static final String USERNAME_TOKEN_DERIVED_KEY_CACHE_INSTANCE = 
+        "usernameTokenDerivedKeyCacheInstance";
+    
+    /**
+     * This holds a reference to a DerivedKeyCache instance used to cache the keys derived for
+     * DerivedKeyTokens, if ENABLE_DERIVED_KEY_CACHE is "true". The cached keys expire after the
+     * time-to-live of the cache, and are removed when a different secret, or no secret, is
+     * returned for the SecurityContextToken they were derived from. Pass the instance to remove
+     * the keys of a session via DerivedKeyCache.remove(byte[]) when the session ends, or to
+     * configure a time-to-live that is shorter than the lifetime of the tokens. The default is
+     * a DerivedKeyCache instance that is shared by all messages processed by the handler.
+     */
+    public static final String DERIVED_KEY_CACHE_INSTANCE = "derivedKeyCacheInstance";
+    
 }
 
@@ -0,0 +1,59 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.cache;
+
+import java.util.concurrent.Future;
+
+/**
+ * A ReplayCache that checks and adds identifiers asynchronously, for a cache that is shared
+ * between several nodes. An identifier is checked and added in a single (atomic) step, and may
+ * be queued and sent to the node that holds it together with other identifiers in a single
+ * batch. This allows the replay checks of all the tokens of a message to be sent before the
+ * result of any of them is required, so that a shared cache only costs a single round-trip
+ * per message (or less, if the identifiers of several messages are sent in the same batch).
+ */
+public interface BatchingReplayCache extends ReplayCache {
+
+    /**
+     * Add the given identifier to the cache if it is not contained in it yet. It will be cached
+     * for a default amount of time.
+     * @param identifier The identifier to be added
+     * @return a Future of the result, which is true if the identifier has been added, and false
+     * if it was already contained in the cache, i.e. if a replay has been detected
+     */
+    Future<Boolean> addIfAbsent(String identifier);
+
+    /**
+     * Add the given identifier to the cache if it is not contained in it yet, to be cached for
+     * the given time. A queued identifier is sent at the latest when the result of its Future
+     * is requested.
+     * @param identifier The identifier to be added
+     * @param timeToLive The length of time to cache the Identifier in seconds
+     * @return a Future of the result, which is true if the identifier has been added, and false
+     * if it was already contained in the cache, i.e. if a replay has been detected
+     */
+    Future<Boolean> addIfAbsent(String identifier, long timeToLive);
+
+    /**
+     * Send all the queued identifiers without waiting for their results
+     */
+    void flush();
+
+}
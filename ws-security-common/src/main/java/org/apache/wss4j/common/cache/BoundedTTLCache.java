@@ -0,0 +1,206 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The base class of the bounded in-memory caches of this package. Values are stored under a
+ * String identifier, the least recently used entry is evicted when the cache is full, and
+ * entries expire after the configured time-to-live (or at an earlier, per-entry expiry time).
+ * Subclasses derive the identifier and match the cached value against the request, and may
+ * override copy and destroy to hand out copies of a (secret) value, and to zero it when it is
+ * evicted, expires, is replaced or is cleared.
+ */
+abstract class BoundedTTLCache<V> {
+
+    public static final long DEFAULT_TTL = 60L * 5L;
+    public static final int DEFAULT_MAX_ENTRIES = 1000;
+
+    private final Map<String, Entry<V>> cache;
+    private final int maxEntries;
+    private final long ttl;
+
+    /**
+     * @param maxEntries the maximum number of entries to cache
+     * @param ttl the time-to-live of a cached entry in seconds
+     */
+    protected BoundedTTLCache(int maxEntries, long ttl) {
+        this.maxEntries = maxEntries;
+        this.ttl = ttl;
+        cache = new LinkedHashMap<String, Entry<V>>(16, 0.75f, true) {
+            private static final long serialVersionUID = 7424061738829012512L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry<V>> eldest) {
+                if (size() > BoundedTTLCache.this.maxEntries) {
+                    destroy(eldest.getValue().value);
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Get a copy of the value cached under the given identifier.
+     * @return the copy of the value, or null if it is not cached or has expired
+     */
+    protected V getValue(String identifier) {
+        synchronized (cache) {
+            Entry<V> entry = cache.get(identifier);
+            if (entry == null) {
+                return null;
+            }
+            if (entry.expires <= System.currentTimeMillis()) {
+                cache.remove(identifier);
+                destroy(entry.value);
+                return null;
+            }
+            return copy(entry.value);
+        }
+    }
+
+    /**
+     * Remove the entry of the given identifier.
+     */
+    protected void removeValue(String identifier) {
+        synchronized (cache) {
+            Entry<V> entry = cache.remove(identifier);
+            if (entry != null) {
+                destroy(entry.value);
+            }
+        }
+    }
+
+    /**
+     * Remove all entries whose identifier starts with the given prefix.
+     */
+    protected void removeValues(String identifierPrefix) {
+        synchronized (cache) {
+            for (Iterator<Map.Entry<String, Entry<V>>> iterator = cache.entrySet().iterator();
+                iterator.hasNext();) {
+                Map.Entry<String, Entry<V>> entry = iterator.next();
+                if (entry.getKey().startsWith(identifierPrefix)) {
+                    destroy(entry.getValue().value);
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Cache a value under the given identifier for the configured time-to-live.
+     */
+    protected void putValue(String identifier, V value) {
+        putValue(identifier, value, System.currentTimeMillis() + (ttl * 1000L));
+    }
+
+    /**
+     * Cache a value under the given identifier until the given expiry time (in milliseconds).
+     * The value is stored as is, so the caller must not modify it afterwards.
+     */
+    protected void putValue(String identifier, V value, long expires) {
+        if (maxEntries <= 0) {
+            destroy(value);
+            return;
+        }
+        Entry<V> entry = new Entry<V>(value, expires);
+        synchronized (cache) {
+            Entry<V> previous = cache.put(identifier, entry);
+            if (previous != null) {
+                destroy(previous.value);
+            }
+        }
+    }
+
+    /**
+     * Return the copy of a cached value that is handed out by getValue. It is called while
+     * the cache is locked. The default implementation returns the value itself.
+     */
+    protected V copy(V value) {
+        return value;
+    }
+
+    /**
+     * Release a value that is no longer cached. It is called while the cache is locked. The
+     * default implementation does nothing.
+     */
+    protected void destroy(V value) {
+        // complete
+    }
+
+    /**
+     * Remove all expired entries from the cache
+     */
+    public void purge() {
+        long now = System.currentTimeMillis();
+        synchronized (cache) {
+            for (Iterator<Entry<V>> iterator = cache.values().iterator(); iterator.hasNext();) {
+                Entry<V> entry = iterator.next();
+                if (entry.expires <= now) {
+                    destroy(entry.value);
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Remove all cached entries
+     */
+    public void clear() {
+        synchronized (cache) {
+            for (Entry<V> entry : cache.values()) {
+                destroy(entry.value);
+            }
+            cache.clear();
+        }
+    }
+
+    /**
+     * Get the number of cached entries
+     */
+    public int size() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    public long getTTL() {
+        return ttl;
+    }
+
+    private static final class Entry<V> {
+        private final V value;
+        private final long expires;
+
+        Entry(V value, long expires) {
+            this.value = value;
+            this.expires = expires;
+        }
+    }
+}
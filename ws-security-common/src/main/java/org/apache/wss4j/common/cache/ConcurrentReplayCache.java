@@ -0,0 +1,340 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.cache;
+
+import java.io.Closeable;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An in-memory ReplayCache implementation that does not serialise callers on a global lock.
+ * Identifiers are stored in a ConcurrentHashMap together with their expiry time, and are also
+ * placed into one bucket of a timing wheel, where each bucket covers a fixed slice of time.
+ * Expired buckets are drained in the background by a shared daemon thread, so neither "add"
+ * nor "contains" has to do any expiry work. "contains" still checks the expiry time of the
+ * identifier, so an expired entry is never reported even if the sweeper has not run yet.
+ *
+ * The timing wheel spans the default TTL of the cache. Identifiers with a longer TTL wrap
+ * around the wheel, and are kept in their bucket until they have really expired.
+ *
+ * The number of cached identifiers is bounded by "maxEntries". If the bound is reached, expired
+ * buckets are swept immediately, and if this is not enough the identifiers closest to expiry
+ * are evicted first. As an evicted identifier could be replayed, every such eviction is
+ * logged as a warning and counted (see getEvictionCount()).
+ */
+public class ConcurrentReplayCache implements ReplayCache, Closeable {
+
+    public static final long DEFAULT_TTL = MemoryReplayCache.DEFAULT_TTL;
+    public static final long MAX_TTL = MemoryReplayCache.MAX_TTL;
+    public static final int DEFAULT_MAX_ENTRIES = 1000000;
+    public static final long DEFAULT_BUCKET_DURATION = 1000L;
+
+    private static final org.slf4j.Logger LOG =
+        org.slf4j.LoggerFactory.getLogger(ConcurrentReplayCache.class);
+
+    private static final ScheduledExecutorService SWEEPER =
+        Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "wss4j-replay-cache-sweeper");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+    private static final Clock SYSTEM_CLOCK = new Clock() {
+        public long currentTimeMillis() {
+            return System.currentTimeMillis();
+        }
+    };
+
+    private final ConcurrentHashMap<String, Long> ids;
+    private final Queue<String>[] buckets;
+    private final long bucketDuration;
+    private final long defaultTtl;
+    private final int maxEntries;
+    private final Clock clock;
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicLong evictionCount = new AtomicLong();
+    private final AtomicLong sweptUpTo;
+    private volatile ScheduledFuture<?> sweepTask;
+
+    public ConcurrentReplayCache() {
+        this(DEFAULT_MAX_ENTRIES, DEFAULT_BUCKET_DURATION);
+    }
+
+    /**
+     * Construct a new ConcurrentReplayCache with the default TTL
+     * @param maxEntries the maximum number of identifiers to hold
+     * @param bucketDuration the length of time in milliseconds covered by a single bucket
+     *        of the timing wheel. This is also the interval at which expired identifiers are
+     *        swept in the background.
+     */
+    public ConcurrentReplayCache(int maxEntries, long bucketDuration) {
+        this(maxEntries, bucketDuration, DEFAULT_TTL);
+    }
+
+    /**
+     * Construct a new ConcurrentReplayCache
+     * @param maxEntries the maximum number of identifiers to hold
+     * @param bucketDuration the length of time in milliseconds covered by a single bucket
+     *        of the timing wheel. This is also the interval at which expired identifiers are
+     *        swept in the background.
+     * @param defaultTtl the TTL in seconds of the identifiers which are added without one. The
+     *        size of the timing wheel is derived from it.
+     */
+    public ConcurrentReplayCache(int maxEntries, long bucketDuration, long defaultTtl) {
+        this(maxEntries, bucketDuration, defaultTtl, SYSTEM_CLOCK, true);
+    }
+
+    @SuppressWarnings("unchecked")
+    ConcurrentReplayCache(int maxEntries, long bucketDuration, long defaultTtl, Clock clock, boolean sweep) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("maxEntries must be positive");
+        }
+        if (bucketDuration <= 0) {
+            throw new IllegalArgumentException("bucketDuration must be positive");
+        }
+        if (defaultTtl <= 0 || defaultTtl > MAX_TTL) {
+            throw new IllegalArgumentException("defaultTtl must be positive and at most " + MAX_TTL);
+        }
+        this.maxEntries = maxEntries;
+        this.bucketDuration = bucketDuration;
+        this.defaultTtl = defaultTtl;
+        this.clock = clock;
+        ids = new ConcurrentHashMap<String, Long>(Math.min(maxEntries, 1024), 0.75f, 16);
+
+        // The wheel spans the default TTL, plus one bucket for the current (partial) slice
+        int bucketCount = (int)((defaultTtl * 1000L) / bucketDuration) + 2;
+        buckets = new Queue[bucketCount];
+        for (int i = 0; i < bucketCount; i++) {
+            buckets[i] = new ConcurrentLinkedQueue<String>();
+        }
+        sweptUpTo = new AtomicLong(clock.currentTimeMillis() / bucketDuration);
+
+        if (sweep) {
+            sweepTask =
+                SWEEPER.scheduleWithFixedDelay(
+                    new SweepTask(this), bucketDuration, bucketDuration, TimeUnit.MILLISECONDS
+                );
+        }
+    }
+
+    /**
+     * Add the given identifier to the cache. It will be cached for a default amount of time.
+     * @param identifier The identifier to be added
+     */
+    public void add(String identifier) {
+        add(identifier, defaultTtl);
+    }
+
+    /**
+     * Add the given identifier to the cache to be cached for the given time
+     * @param identifier The identifier to be added
+     * @param timeToLive The length of time to cache the Identifier in seconds
+     */
+    public void add(String identifier, long timeToLive) {
+        if (identifier == null || "".equals(identifier)) {
+            return;
+        }
+
+        long ttl = timeToLive;
+        if (ttl < 0 || ttl > MAX_TTL) {
+            ttl = defaultTtl;
+        }
+
+        long expires = clock.currentTimeMillis() + (ttl * 1000L);
+        Long previous = ids.put(identifier, Long.valueOf(expires));
+        if (previous == null && size.incrementAndGet() > maxEntries) {
+            makeRoom();
+        }
+
+        // The identifier is removed by the sweeper from whichever bucket is drained last,
+        // as the bucket entry is only acted on if the expiry time in the map has passed
+        bucketFor(expires).add(identifier);
+    }
+
+    /**
+     * Return true if the given identifier is contained in the cache
+     * @param identifier The identifier to check
+     */
+    public boolean contains(String identifier) {
+        if (identifier == null || "".equals(identifier)) {
+            return false;
+        }
+        Long expires = ids.get(identifier);
+        return expires != null && expires.longValue() > clock.currentTimeMillis();
+    }
+
+    /**
+     * Get the (approximate) number of identifiers currently held in the cache
+     */
+    public int size() {
+        return size.get();
+    }
+
+    /**
+     * Get the number of unexpired identifiers which have been evicted because the cache was full
+     */
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    /**
+     * Stop the background expiry of this cache, and clear all entries.
+     */
+    public void close() {
+        ScheduledFuture<?> task = sweepTask;
+        if (task != null) {
+            task.cancel(false);
+            sweepTask = null;
+        }
+        ids.clear();
+        for (Queue<String> bucket : buckets) {
+            bucket.clear();
+        }
+        size.set(0);
+    }
+
+    /**
+     * Drain every bucket whose time slice lies entirely in the past.
+     */
+    protected void processTokenExpiry() {
+        long now = clock.currentTimeMillis();
+        long currentSlice = now / bucketDuration;
+        long swept = sweptUpTo.get();
+        // Only a single thread drains the wheel at any one time
+        if (swept >= currentSlice || !sweptUpTo.compareAndSet(swept, currentSlice)) {
+            return;
+        }
+        // There is no point going around the wheel more than once
+        long first = Math.max(swept, currentSlice - buckets.length + 1);
+        for (long slice = first; slice < currentSlice; slice++) {
+            drain(buckets[(int)(slice % buckets.length)], now, now, false);
+        }
+    }
+
+    private Queue<String> bucketFor(long expires) {
+        return buckets[(int)((expires / bucketDuration) % buckets.length)];
+    }
+
+    /**
+     * Remove the identifiers of the given bucket which expire before the given limit.
+     * @return the number of removed identifiers which had not expired yet
+     */
+    private int drain(Queue<String> bucket, long now, long limit, boolean stopWhenBelowMax) {
+        int evicted = 0;
+        List<String> retained = null;
+        String identifier = bucket.poll();
+        while (identifier != null) {
+            Long expires = ids.get(identifier);
+            // Entries which were re-added with a different expiry are found in another bucket
+            if (expires != null && bucketFor(expires.longValue()) == bucket) {
+                if (expires.longValue() <= limit) {
+                    if (ids.remove(identifier, expires)) {
+                        size.decrementAndGet();
+                        if (expires.longValue() > now) {
+                            evicted++;
+                        }
+                    }
+                } else {
+                    // The entry has a later expiry, as it wrapped around the wheel
+                    if (retained == null) {
+                        retained = new ArrayList<String>();
+                    }
+                    retained.add(identifier);
+                }
+            }
+            if (stopWhenBelowMax && size.get() <= maxEntries) {
+                break;
+            }
+            identifier = bucket.poll();
+        }
+        if (retained != null) {
+            bucket.addAll(retained);
+        }
+        return evicted;
+    }
+
+    private void makeRoom() {
+        processTokenExpiry();
+        if (size.get() <= maxEntries) {
+            return;
+        }
+        // Evict the entries that are closest to expiry first. The first round only takes the
+        // entries which expire within one turn of the wheel.
+        long now = clock.currentTimeMillis();
+        long slice = now / bucketDuration;
+        long wheelEnd = (slice + buckets.length) * bucketDuration;
+        int evicted = 0;
+        for (int i = 0; i < buckets.length && size.get() > maxEntries; i++) {
+            evicted += drain(buckets[(int)((slice + i) % buckets.length)], now, wheelEnd, true);
+        }
+        for (int i = 0; i < buckets.length && size.get() > maxEntries; i++) {
+            evicted += drain(buckets[(int)((slice + i) % buckets.length)], now, Long.MAX_VALUE, true);
+        }
+        if (evicted > 0) {
+            evictionCount.addAndGet(evicted);
+            LOG.warn(
+                "ReplayCache has reached its maximum size of {} entries, {} unexpired identifiers "
+                + "have been evicted", maxEntries, evicted
+            );
+        }
+    }
+
+    /**
+     * The source of the current time, which can be replaced in tests
+     */
+    interface Clock {
+        long currentTimeMillis();
+    }
+
+    /**
+     * The sweep task only holds a weak reference to the cache, so that a cache which is
+     * discarded without being closed can still be garbage collected.
+     */
+    private static final class SweepTask implements Runnable {
+
+        private final WeakReference<ConcurrentReplayCache> cacheRef;
+
+        SweepTask(ConcurrentReplayCache cache) {
+            cacheRef = new WeakReference<ConcurrentReplayCache>(cache);
+        }
+
+        public void run() {
+            ConcurrentReplayCache cache = cacheRef.get();
+            if (cache == null) {
+                // Throwing an exception suppresses any subsequent executions of this task
+                throw new IllegalStateException("ReplayCache has been garbage collected");
+            }
+            cache.processTokenExpiry();
+        }
+    }
+}
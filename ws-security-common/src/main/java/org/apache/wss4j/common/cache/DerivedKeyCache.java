@@ -0,0 +1,220 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.wss4j.common.cache;
+
+import java.io.UnsupportedEncodingException;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+import org.apache.wss4j.common.util.JCEInstanceCache;
+
+/**
+ * A bounded in-memory cache of the keys derived from the secrets of SecurityContextTokens (and 
+ * other tokens that DerivedKeyTokens refer to). The keys of a WS-SecureConversation session are
+ * derived from the same secret in every message of the session, so a cache that is shared by
+ * all messages (see RequestData and WSSSecurityProperties) saves the key derivation for every
+ * message but the first one with a given nonce, label, offset and length.
+ *
+ * A key is cached under a SHA-256 digest of the secret it was derived from, followed by a 
+ * SHA-256 digest of the algorithm, seed (label + nonce), offset and length it was derived with.
+ * The keys derived from a secret are therefore only reachable while the secret is known, and
+ * they can be removed together via remove(byte[]). The keys derived from the secret of a
+ * SecurityContextToken are also removed when a different secret, or no secret at all, is
+ * returned for its identifier (see updateSecret). A key expires after the time-to-live of the
+ * cache, which must not be longer than the lifetime of the tokens. Copies of the cached keys
+ * are returned, and a key is zeroed once it is no longer cached.
+ */
+public class DerivedKeyCache extends BoundedTTLCache<byte[]> {
+
+    private final SecretCache secrets;
+
+    public DerivedKeyCache() {
+        this(DEFAULT_MAX_ENTRIES, DEFAULT_TTL);
+    }
+
+    /**
+     * Construct a new DerivedKeyCache
+     * @param maxEntries the maximum number of derived keys to cache
+     * @param ttl the time-to-live of a cached key in seconds, which must not be longer than 
+     *        the lifetime of the SecurityContextTokens
+     */
+    public DerivedKeyCache(int maxEntries, long ttl) {
+        super(maxEntries, ttl);
+        secrets = new SecretCache(maxEntries, ttl);
+    }
+
+    /**
+     * Get a derived key from the cache
+     * @return a copy of the derived key, or null if it is not cached
+     */
+    public byte[] get(String algorithm, byte[] secret, byte[] seed, int offset, int length) {
+        String secretDigest = getDigest(secret);
+        if (secretDigest == null) {
+            return null;
+        }
+        String derivationDigest = getDigest(algorithm, seed, offset, length);
+        if (derivationDigest == null) {
+            return null;
+        }
+        return getValue(secretDigest + derivationDigest);
+    }
+
+    /**
+     * Add a derived key to the cache. A copy of the derived key is stored, so the caller may
+     * safely modify the given array afterwards.
+     */
+    public void add(String algorithm, byte[] secret, byte[] seed, int offset, byte[] key) {
+        if (key == null || getMaxEntries() <= 0) {
+            return;
+        }
+        String secretDigest = getDigest(secret);
+        if (secretDigest == null) {
+            return;
+        }
+        String derivationDigest = getDigest(algorithm, seed, offset, key.length);
+        if (derivationDigest == null) {
+            return;
+        }
+        putValue(secretDigest + derivationDigest, key.clone());
+    }
+
+    /**
+     * Remove (and zero) all cached keys derived from the given secret. This should be called
+     * when the SecurityContextToken that the secret belongs to is cancelled or expires.
+     */
+    public void remove(byte[] secret) {
+        String secretDigest = getDigest(secret);
+        if (secretDigest != null) {
+            removeValues(secretDigest);
+        }
+    }
+
+    /**
+     * Record the secret that was returned for the SecurityContextToken with the given 
+     * identifier. If a different secret was returned for the token before, then the secret
+     * has been renewed, and the keys derived from the previous secret are removed. If no 
+     * secret is returned, then the session has been cancelled or has expired, and the keys 
+     * derived from the previous secret are removed as well.
+     * @param identifier the identifier of the SecurityContextToken
+     * @param secret the secret of the token, or null if there is none
+     */
+    public void updateSecret(String identifier, byte[] secret) {
+        if (identifier == null) {
+            return;
+        }
+        String secretDigest = getDigest(secret);
+        String previousDigest = secrets.update(identifier, secretDigest);
+        if (previousDigest != null && !previousDigest.equals(secretDigest)) {
+            removeValues(previousDigest);
+        }
+    }
+
+    @Override
+    public void clear() {
+        super.clear();
+        secrets.clear();
+    }
+
+    @Override
+    protected byte[] copy(byte[] key) {
+        return key.clone();
+    }
+
+    @Override
+    protected void destroy(byte[] key) {
+        Arrays.fill(key, (byte)0);
+    }
+
+    private static String getDigest(byte[] secret) {
+        if (secret == null || secret.length == 0) {
+            return null;
+        }
+        try {
+            MessageDigest sha = JCEInstanceCache.getMessageDigest("SHA-256");
+            return toHex(sha.digest(secret));
+        } catch (NoSuchAlgorithmException e) {
+            return null;
+        }
+    }
+
+    private static String getDigest(String algorithm, byte[] seed, int offset, int length) {
+        if (seed == null) {
+            return null;
+        }
+        try {
+            MessageDigest sha = JCEInstanceCache.getMessageDigest("SHA-256");
+            byte[] algorithmBytes = algorithm == null ? new byte[0] : algorithm.getBytes("UTF-8");
+            sha.update(toBytes(algorithmBytes.length));
+            sha.update(algorithmBytes);
+            sha.update(toBytes(seed.length));
+            sha.update(seed);
+            sha.update(toBytes(offset));
+            sha.update(toBytes(length));
+            return toHex(sha.digest());
+        } catch (NoSuchAlgorithmException e) {
+            return null;
+        } catch (UnsupportedEncodingException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Convert a SHA-256 digest to a hex string of a fixed length (64), so that the digest of 
+     * the secret is an unambiguous prefix of an identifier
+     */
+    private static String toHex(byte[] digest) {
+        String hex = new BigInteger(1, digest).toString(16);
+        StringBuilder sb = new StringBuilder(64);
+        for (int i = hex.length(); i < 64; i++) {
+            sb.append('0');
+        }
+        return sb.append(hex).toString();
+    }
+
+    private static byte[] toBytes(int value) {
+        return new byte[] {
+            (byte)(value >>> 24), (byte)(value >>> 16), (byte)(value >>> 8), (byte)value
+        };
+    }
+
+    /**
+     * The digest of the last secret that was returned for each SecurityContextToken identifier
+     */
+    private static final class SecretCache extends BoundedTTLCache<String> {
+
+        SecretCache(int maxEntries, long ttl) {
+            super(maxEntries, ttl);
+        }
+
+        /**
+         * Record the digest of the secret of the given identifier, and return the previous one
+         */
+        synchronized String update(String identifier, String secretDigest) {
+            String previousDigest = getValue(identifier);
+            if (secretDigest == null) {
+                removeValue(identifier);
+            } else if (!secretDigest.equals(previousDigest)) {
+                putValue(identifier, secretDigest);
+            }
+            return previousDigest;
+        }
+    }
+}
@@ -0,0 +1,190 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.cache;
+
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.X509Certificate;
+import java.security.spec.AlgorithmParameterSpec;
+import java.security.spec.MGF1ParameterSpec;
+import java.util.Arrays;
+
+import javax.crypto.spec.OAEPParameterSpec;
+import javax.crypto.spec.PSource;
+
+import org.apache.wss4j.common.util.JCEInstanceCache;
+
+/**
+ * A bounded in-memory cache of decrypted (unwrapped) EncryptedKey session keys, so that the
+ * private key operation can be skipped when the same EncryptedKey is received again. An entry
+ * is keyed by the SHA-1 digest of the encrypted key octets (i.e. the EncryptedKeySHA1 value),
+ * and is only returned if the key transport algorithm, the OAEP parameters (digest, MGF and
+ * PSource) and the certificate of the private key that unwrapped it also match.
+ */
+public class EncryptedKeyCache extends BoundedTTLCache<EncryptedKeyCache.CachedKey> {
+
+    public EncryptedKeyCache() {
+        this(DEFAULT_MAX_ENTRIES, DEFAULT_TTL);
+    }
+
+    /**
+     * Construct a new EncryptedKeyCache
+     * @param maxEntries the maximum number of keys to cache
+     * @param ttl the time-to-live of a cached key in seconds
+     */
+    public EncryptedKeyCache(int maxEntries, long ttl) {
+        super(maxEntries, ttl);
+    }
+
+    /**
+     * Get a copy of the cached decrypted key for the given encrypted key octets.
+     * @param encryptedKey the (Base-64 decoded) CipherValue of the EncryptedKey
+     * @param transportAlgorithm the key transport algorithm of the EncryptedKey
+     * @param oaepParameterSpec the OAEP parameters used to unwrap the key (may be null)
+     * @param cert the certificate of the private key used to unwrap the key
+     * @return a copy of the decrypted key bytes, or null if it is not cached
+     */
+    public byte[] get(
+        byte[] encryptedKey, String transportAlgorithm, 
+        OAEPParameterSpec oaepParameterSpec, X509Certificate cert
+    ) {
+        String identifier = getIdentifier(encryptedKey);
+        if (identifier == null) {
+            return null;
+        }
+        CachedKey cachedKey = getValue(identifier);
+        if (cachedKey == null) {
+            return null;
+        }
+        if (!cachedKey.matches(transportAlgorithm, getParameters(oaepParameterSpec), cert)) {
+            cachedKey.destroy();
+            return null;
+        }
+        return cachedKey.secretKey;
+    }
+
+    /**
+     * Cache the decrypted key for the given encrypted key octets. A copy of the decrypted key
+     * is stored, so the caller may safely modify the given array afterwards.
+     * @param encryptedKey the (Base-64 decoded) CipherValue of the EncryptedKey
+     * @param transportAlgorithm the key transport algorithm of the EncryptedKey
+     * @param oaepParameterSpec the OAEP parameters used to unwrap the key (may be null)
+     * @param cert the certificate of the private key used to unwrap the key
+     * @param secretKey the decrypted key bytes
+     */
+    public void add(
+        byte[] encryptedKey, String transportAlgorithm, 
+        OAEPParameterSpec oaepParameterSpec, X509Certificate cert, byte[] secretKey
+    ) {
+        String identifier = getIdentifier(encryptedKey);
+        if (identifier == null || secretKey == null || getMaxEntries() <= 0) {
+            return;
+        }
+        putValue(
+            identifier, 
+            new CachedKey(
+                secretKey.clone(), transportAlgorithm, getParameters(oaepParameterSpec), cert
+            )
+        );
+    }
+
+    @Override
+    protected CachedKey copy(CachedKey cachedKey) {
+        return new CachedKey(
+            cachedKey.secretKey.clone(), cachedKey.transportAlgorithm, cachedKey.parameters,
+            cachedKey.cert
+        );
+    }
+
+    @Override
+    protected void destroy(CachedKey cachedKey) {
+        cachedKey.destroy();
+    }
+
+    private static String getIdentifier(byte[] encryptedKey) {
+        if (encryptedKey == null || encryptedKey.length == 0) {
+            return null;
+        }
+        try {
+            MessageDigest sha = JCEInstanceCache.getMessageDigest("SHA-1");
+            return new BigInteger(1, sha.digest(encryptedKey)).toString(16);
+        } catch (NoSuchAlgorithmException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Get a String identifying the digest, MGF and PSource of the given OAEP parameters
+     */
+    private static String getParameters(OAEPParameterSpec oaepParameterSpec) {
+        if (oaepParameterSpec == null) {
+            return "";
+        }
+        StringBuilder parameters = new StringBuilder();
+        parameters.append(oaepParameterSpec.getDigestAlgorithm()).append('|');
+        parameters.append(oaepParameterSpec.getMGFAlgorithm()).append('|');
+        AlgorithmParameterSpec mgfParameters = oaepParameterSpec.getMGFParameters();
+        if (mgfParameters instanceof MGF1ParameterSpec) {
+            parameters.append(((MGF1ParameterSpec)mgfParameters).getDigestAlgorithm());
+        }
+        parameters.append('|');
+        PSource pSource = oaepParameterSpec.getPSource();
+        if (pSource instanceof PSource.PSpecified) {
+            byte[] pSourceBytes = ((PSource.PSpecified)pSource).getValue();
+            parameters.append(new BigInteger(1, pSourceBytes).toString(16));
+            parameters.append(':').append(pSourceBytes.length);
+        }
+        return parameters.toString();
+    }
+
+    static final class CachedKey {
+        private final byte[] secretKey;
+        private final String transportAlgorithm;
+        private final String parameters;
+        private final X509Certificate cert;
+
+        CachedKey(
+            byte[] secretKey, String transportAlgorithm, String parameters, X509Certificate cert
+        ) {
+            this.secretKey = secretKey;
+            this.transportAlgorithm = transportAlgorithm;
+            this.parameters = parameters;
+            this.cert = cert;
+        }
+
+        boolean matches(
+            String otherTransportAlgorithm, String otherParameters, X509Certificate otherCert
+        ) {
+            if (transportAlgorithm == null ? otherTransportAlgorithm != null
+                : !transportAlgorithm.equals(otherTransportAlgorithm)) {
+                return false;
+            }
+            if (!parameters.equals(otherParameters)) {
+                return false;
+            }
+            return cert == null ? otherCert == null : cert.equals(otherCert);
+        }
+
+        void destroy() {
+            Arrays.fill(secretKey, (byte)0);
+        }
+    }
+}
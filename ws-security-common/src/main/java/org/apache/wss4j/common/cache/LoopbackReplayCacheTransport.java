@@ -0,0 +1,68 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.cache;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A ReplayCacheTransport that delivers the batches to the nodes that are registered with the
+ * same LoopbackReplayCacheTransport instance in this JVM. It is mainly useful for testing.
+ */
+public class LoopbackReplayCacheTransport implements ReplayCacheTransport {
+
+    private final ConcurrentHashMap<String, Receiver> receivers =
+        new ConcurrentHashMap<String, Receiver>();
+    private final AtomicInteger batchCount = new AtomicInteger();
+
+    public void register(String node, Receiver receiver) {
+        receivers.put(node, receiver);
+    }
+
+    public void unregister(String node) {
+        receivers.remove(node);
+    }
+
+    public boolean[] addIfAbsent(String node, String[] identifiers, long[] timesToLive)
+        throws IOException {
+        batchCount.incrementAndGet();
+        return getReceiver(node).addIfAbsent(identifiers, timesToLive);
+    }
+
+    public boolean[] contains(String node, String[] identifiers) throws IOException {
+        return getReceiver(node).contains(identifiers);
+    }
+
+    /**
+     * Get the number of batches of identifiers to be added that have been sent
+     */
+    public int getBatchCount() {
+        return batchCount.get();
+    }
+
+    private Receiver getReceiver(String node) throws IOException {
+        Receiver receiver = receivers.get(node);
+        if (receiver == null) {
+            throw new IOException("The replay cache node " + node + " is not available");
+        }
+        return receiver;
+    }
+}
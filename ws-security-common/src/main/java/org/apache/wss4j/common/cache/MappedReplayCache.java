@@ -0,0 +1,352 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.cache;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import org.apache.wss4j.common.util.JCEInstanceCache;
+
+/**
+ * A ReplayCache implementation that stores the identifiers off-heap, in a fixed-size table in a
+ * memory-mapped file. Instead of the identifier itself, only a 128-bit hash of it (the first
+ * 16 bytes of its SHA-256 digest) is stored, together with its expiry time, so that a cached
+ * identifier does not create any objects on the heap. As the table is held in a file, the
+ * cached identifiers survive a restart of the JVM, so a message can't be replayed after a
+ * restart within the time-to-live of its identifiers.
+ *
+ * The table uses open addressing: an identifier is stored in the first free (empty or expired)
+ * slot of a probe window of PROBE_WINDOW slots that starts at the slot given by its hash. If
+ * the whole window is in use, the identifier that expires first is evicted, so the table must
+ * be sized for the number of identifiers that are cached at the same time. As an evicted
+ * identifier could be replayed, every such eviction is logged as a warning and counted (see
+ * getEvictionCount()). The default TTL is
+ * 5 minutes and the max TTL is 60 minutes.
+ *
+ * A file may only be opened by a single MappedReplayCache at a time, which is enforced by a
+ * file lock. The table is written to the page cache of the operating system, so its content
+ * survives a crash of the JVM, and is flushed to disk when the cache is closed.
+ */
+public class MappedReplayCache implements ReplayCache, Closeable {
+
+    public static final long DEFAULT_TTL = MemoryReplayCache.DEFAULT_TTL;
+    public static final long MAX_TTL = MemoryReplayCache.MAX_TTL;
+    public static final int DEFAULT_CAPACITY = 1 << 20;
+    public static final int PROBE_WINDOW = 32;
+
+    private static final org.slf4j.Logger LOG =
+        org.slf4j.LoggerFactory.getLogger(MappedReplayCache.class);
+
+    private static final long MAGIC = 0x5753533452504c59L;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+    private static final int SLOT_SIZE = 24;
+    private static final int MAX_CAPACITY = 1 << 26;
+
+    private final File file;
+    private final int capacity;
+    private final int mask;
+    private final int probeWindow;
+    private RandomAccessFile randomAccessFile;
+    private FileChannel channel;
+    private FileLock fileLock;
+    private MappedByteBuffer table;
+    private int references = 1;
+    private long evictionCount;
+
+    public MappedReplayCache(File file) throws IOException {
+        this(file, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Construct a new MappedReplayCache. If the file already holds a table of the same capacity,
+     * then the identifiers cached in it are used, otherwise the file is (re-)initialised.
+     * @param file the file that holds the table
+     * @param capacity the number of slots of the table. It is rounded up to a power of two.
+     */
+    public MappedReplayCache(File file, int capacity) throws IOException {
+        if (capacity <= 0 || capacity > MAX_CAPACITY) {
+            throw new IllegalArgumentException("capacity must be between 1 and " + MAX_CAPACITY);
+        }
+        int tableCapacity = Integer.highestOneBit(capacity);
+        if (tableCapacity < capacity) {
+            tableCapacity <<= 1;
+        }
+        this.file = file;
+        this.capacity = tableCapacity;
+        this.mask = tableCapacity - 1;
+        this.probeWindow = Math.min(PROBE_WINDOW, tableCapacity);
+
+        long size = HEADER_SIZE + (long)tableCapacity * SLOT_SIZE;
+        randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            channel = randomAccessFile.getChannel();
+            try {
+                fileLock = channel.tryLock();
+            } catch (OverlappingFileLockException ex) {
+                fileLock = null;
+            }
+            if (fileLock == null) {
+                throw new IOException("The replay cache file " + file + " is already in use");
+            }
+
+            boolean created = false;
+            if (randomAccessFile.length() != size) {
+                randomAccessFile.setLength(0);
+                randomAccessFile.setLength(size);
+                created = true;
+            }
+            table = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            if (created || table.getLong(0) != MAGIC || table.getInt(8) != VERSION
+                || table.getInt(12) != tableCapacity) {
+                LOG.debug("Initialising the replay cache file {}", file);
+                if (!created) {
+                    for (int offset = 0; offset < size; offset += 8) {
+                        table.putLong(offset, 0L);
+                    }
+                }
+                table.putLong(0, MAGIC);
+                table.putInt(8, VERSION);
+                table.putInt(12, tableCapacity);
+            }
+        } catch (IOException ex) {
+            close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Add the given identifier to the cache. It will be cached for a default amount of time.
+     * @param identifier The identifier to be added
+     */
+    public void add(String identifier) {
+        add(identifier, DEFAULT_TTL);
+    }
+
+    /**
+     * Add the given identifier to the cache to be cached for the given time
+     * @param identifier The identifier to be added
+     * @param timeToLive The length of time to cache the Identifier in seconds
+     */
+    public void add(String identifier, long timeToLive) {
+        if (identifier == null || "".equals(identifier)) {
+            return;
+        }
+
+        long ttl = timeToLive;
+        if (ttl < 0 || ttl > MAX_TTL) {
+            ttl = DEFAULT_TTL;
+        }
+
+        byte[] hash = hash(identifier);
+        long hashHigh = getLong(hash, 0);
+        long hashLow = getLong(hash, 8);
+        long now = System.currentTimeMillis();
+        long expires = now + (ttl * 1000L);
+
+        synchronized (this) {
+            checkOpen();
+            int slot = (int)hashHigh & mask;
+            int freeSlot = -1;
+            int firstExpiringSlot = -1;
+            long firstExpiry = Long.MAX_VALUE;
+            for (int i = 0; i < probeWindow; i++) {
+                int offset = offset(slot);
+                long slotExpires = table.getLong(offset + 16);
+                if (slotExpires == 0L) {
+                    // An empty slot ends the probe sequence, as slots are never emptied again
+                    if (freeSlot < 0) {
+                        freeSlot = slot;
+                    }
+                    break;
+                }
+                if (table.getLong(offset) == hashHigh && table.getLong(offset + 8) == hashLow) {
+                    if (slotExpires < expires) {
+                        table.putLong(offset + 16, expires);
+                    }
+                    return;
+                }
+                if (slotExpires <= now) {
+                    if (freeSlot < 0) {
+                        freeSlot = slot;
+                    }
+                } else if (slotExpires < firstExpiry) {
+                    firstExpiry = slotExpires;
+                    firstExpiringSlot = slot;
+                }
+                slot = (slot + 1) & mask;
+            }
+            if (freeSlot < 0) {
+                freeSlot = firstExpiringSlot;
+                evictionCount++;
+                LOG.warn(
+                    "No free slot in the probe window of the replay cache {}, an unexpired "
+                    + "identifier has been evicted", file
+                );
+            }
+            // The expiry time is written last, as it marks the slot as being in use
+            int offset = offset(freeSlot);
+            table.putLong(offset + 16, now);
+            table.putLong(offset, hashHigh);
+            table.putLong(offset + 8, hashLow);
+            table.putLong(offset + 16, expires);
+        }
+    }
+
+    /**
+     * Return true if the given identifier is contained in the cache
+     * @param identifier The identifier to check
+     */
+    public boolean contains(String identifier) {
+        if (identifier == null || "".equals(identifier)) {
+            return false;
+        }
+
+        byte[] hash = hash(identifier);
+        long hashHigh = getLong(hash, 0);
+        long hashLow = getLong(hash, 8);
+        long now = System.currentTimeMillis();
+
+        synchronized (this) {
+            checkOpen();
+            int slot = (int)hashHigh & mask;
+            for (int i = 0; i < probeWindow; i++) {
+                int offset = offset(slot);
+                long slotExpires = table.getLong(offset + 16);
+                if (slotExpires == 0L) {
+                    return false;
+                }
+                if (table.getLong(offset) == hashHigh && table.getLong(offset + 8) == hashLow) {
+                    return slotExpires > now;
+                }
+                slot = (slot + 1) & mask;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Flush the table to disk
+     */
+    public synchronized void flush() {
+        checkOpen();
+        table.force();
+    }
+
+    /**
+     * Add a reference to this cache, which must be released by a call to close().
+     * @return false if the cache has already been closed
+     */
+    synchronized boolean retain() {
+        if (table == null) {
+            return false;
+        }
+        references++;
+        return true;
+    }
+
+    /**
+     * Release a reference to this cache. When the last reference is released, the table is
+     * flushed to disk and the file is closed. The identifiers stay cached in the file.
+     */
+    public synchronized void close() {
+        if (references > 1) {
+            references--;
+            return;
+        }
+        references = 0;
+        if (table != null) {
+            table.force();
+            table = null;
+        }
+        try {
+            if (fileLock != null) {
+                fileLock.release();
+            }
+            if (randomAccessFile != null) {
+                randomAccessFile.close();
+            }
+        } catch (IOException ex) {
+            LOG.debug(ex.getMessage(), ex);
+        } finally {
+            fileLock = null;
+            channel = null;
+            randomAccessFile = null;
+        }
+    }
+
+    /**
+     * Get the number of unexpired identifiers which have been evicted because their probe 
+     * window was full
+     */
+    public synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+
+    public synchronized boolean isClosed() {
+        return table == null;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    private void checkOpen() {
+        if (table == null) {
+            throw new IllegalStateException("The replay cache " + file + " has been closed");
+        }
+    }
+
+    private static int offset(int slot) {
+        return HEADER_SIZE + slot * SLOT_SIZE;
+    }
+
+    private static byte[] hash(String identifier) {
+        try {
+            MessageDigest sha = JCEInstanceCache.getMessageDigest("SHA-256");
+            return sha.digest(identifier.getBytes("UTF-8"));
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        } catch (UnsupportedEncodingException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private static long getLong(byte[] bytes, int offset) {
+        long value = 0L;
+        for (int i = offset; i < offset + 8; i++) {
+            value = (value << 8) | (bytes[i] & 0xffL);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,243 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.wss4j.common.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.Principal;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.wss4j.common.util.JCEInstanceCache;
+
+/**
+ * A factory to return a MappedReplayCache instance. The table of a cache is held in a file in
+ * the configured directory, named after the key and a hash of the key, unless the configuration
+ * is a File, which is used as the file of the table. The same key must be used after a restart
+ * to use the identifiers cached before. The same (open) MappedReplayCache instance is returned
+ * for the same file, by any factory. Each returned reference must be released by a call to
+ * MappedReplayCache.close(), and the file is only closed when the last reference is released.
+ *
+ * The directory must be private to the user running the application. It must exist, it must
+ * not be a symbolic link and, where POSIX file permissions are supported, it must be owned by
+ * this user and must not be writable by the group or others. A cache file is created with
+ * permissions for the owner only. An existing cache file must not be a symbolic link, must be
+ * owned by this user and must not be accessible by the group or others.
+ */
+public class MappedReplayCacheFactory extends ReplayCacheFactory {
+
+    private static final org.slf4j.Logger LOG = 
+        org.slf4j.LoggerFactory.getLogger(MappedReplayCacheFactory.class);
+    
+    private static final Map<File, MappedReplayCache> CACHES = new HashMap<File, MappedReplayCache>();
+
+    private File directory;
+    private int capacity = MappedReplayCache.DEFAULT_CAPACITY;
+
+    /**
+     * Construct a new MappedReplayCacheFactory
+     * @param directory the (private) directory that holds the files of the caches
+     */
+    public MappedReplayCacheFactory(File directory) {
+        setDirectory(directory);
+    }
+
+    public ReplayCache newReplayCache(String key, Object configuration) {
+        File file;
+        if (configuration instanceof File) {
+            file = (File)configuration;
+        } else {
+            file = new File(directory, getFileName(key));
+        }
+
+        synchronized (CACHES) {
+            try {
+                file = file.getAbsoluteFile();
+                checkPrivateFile(file);
+                file = file.getCanonicalFile();
+                MappedReplayCache cache = CACHES.get(file);
+                if (cache == null || !cache.retain()) {
+                    cache = new MappedReplayCache(file, capacity);
+                    CACHES.put(file, cache);
+                }
+                return cache;
+            } catch (IOException ex) {
+                throw new IllegalStateException(
+                    "Error in opening the replay cache file " + file + ": " + ex.getMessage(), ex
+                );
+            }
+        }
+    }
+
+    /**
+     * Set the (private) directory that holds the files of the caches
+     */
+    public void setDirectory(File directory) {
+        if (directory == null) {
+            throw new IllegalArgumentException("The directory of the replay caches must be set");
+        }
+        this.directory = directory;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Set the number of slots of the table of a new MappedReplayCache
+     */
+    public void setCapacity(int capacity) {
+        this.capacity = capacity;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Check that the given file and its directory are private, and create the file with 
+     * permissions for the owner only if it does not exist. A new file is created exclusively,
+     * which fails on a (dangling) symbolic link.
+     */
+    private static void checkPrivateFile(File file) throws IOException {
+        File parent = file.getParentFile();
+        if (parent == null || !parent.isDirectory()) {
+            throw new IOException("The directory " + parent + " does not exist");
+        }
+        if (isSymbolicLink(parent)) {
+            throw new IOException("The directory " + parent + " is a symbolic link");
+        }
+        checkOwnerAndPermissions(parent, true);
+
+        if (!file.exists() && file.createNewFile()) {
+            file.setReadable(false, false);
+            file.setWritable(false, false);
+            file.setReadable(true, true);
+            file.setWritable(true, true);
+        }
+        if (isSymbolicLink(file)) {
+            throw new IOException("The file " + file + " is a symbolic link");
+        }
+        if (!file.isFile()) {
+            throw new IOException("The file " + file + " is not a regular file");
+        }
+        checkOwnerAndPermissions(file, false);
+    }
+
+    private static boolean isSymbolicLink(File file) throws IOException {
+        File parent = file.getParentFile();
+        File candidate = file;
+        if (parent != null) {
+            candidate = new File(parent.getCanonicalFile(), file.getName());
+        }
+        return !candidate.getCanonicalFile().equals(candidate.getAbsoluteFile());
+    }
+
+    /**
+     * Check the owner and the POSIX permissions of the given file, without following symbolic
+     * links. The check uses the java.nio.file API (via reflection, as Java 6 is supported),
+     * and is skipped if it is not available or if the file system does not support POSIX
+     * file permissions.
+     */
+    private static void checkOwnerAndPermissions(File file, boolean directory) throws IOException {
+        Object owner;
+        Set<?> permissions;
+        try {
+            Class<?> filesClass = Class.forName("java.nio.file.Files");
+            Class<?> pathClass = Class.forName("java.nio.file.Path");
+            Class<?> linkOptionClass = Class.forName("java.nio.file.LinkOption");
+            Object noFollowLinks = Array.newInstance(linkOptionClass, 1);
+            Array.set(noFollowLinks, 0, linkOptionClass.getField("NOFOLLOW_LINKS").get(null));
+            Object path = File.class.getMethod("toPath").invoke(file);
+
+            Method getOwner = filesClass.getMethod("getOwner", pathClass, noFollowLinks.getClass());
+            owner = getOwner.invoke(null, path, noFollowLinks);
+            Method getPosixFilePermissions = 
+                filesClass.getMethod("getPosixFilePermissions", pathClass, noFollowLinks.getClass());
+            permissions = (Set<?>)getPosixFilePermissions.invoke(null, path, noFollowLinks);
+        } catch (InvocationTargetException ex) {
+            if (ex.getCause() instanceof UnsupportedOperationException) {
+                LOG.debug("The file system of {} does not support POSIX file permissions", file);
+                return;
+            }
+            throw new IOException("Error in reading the attributes of " + file, ex.getCause());
+        } catch (Exception ex) {
+            LOG.debug("The java.nio.file API is not available: {}", ex.getMessage());
+            return;
+        }
+
+        String user = System.getProperty("user.name");
+        if (user != null && owner instanceof Principal && !user.equals(((Principal)owner).getName())) {
+            throw new IOException("The file " + file + " is not owned by " + user);
+        }
+        for (Object permission : permissions) {
+            String name = permission.toString();
+            boolean groupOrOthers = name.startsWith("GROUP_") || name.startsWith("OTHERS_");
+            if (groupOrOthers && (!directory || name.endsWith("_WRITE"))) {
+                throw new IOException(
+                    "The file " + file + " must not have the permission " + name
+                );
+            }
+        }
+    }
+
+    /**
+     * Get the file name for the given key. The key is escaped, and a hash of the key is added, 
+     * so that different keys always get different files.
+     */
+    private static String getFileName(String key) {
+        StringBuilder fileName = new StringBuilder(key.length() + 24);
+        for (int i = 0; i < key.length(); i++) {
+            char c = key.charAt(i);
+            if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                || c == '-' || c == '.') {
+                fileName.append(c);
+            } else {
+                fileName.append('_');
+            }
+        }
+        fileName.append('-').append(getHash(key));
+        return fileName.append(".replay").toString();
+    }
+
+    private static String getHash(String key) {
+        try {
+            MessageDigest digest = JCEInstanceCache.getMessageDigest("SHA-256");
+            byte[] hash = digest.digest(key.getBytes("UTF-8"));
+            String hex = new BigInteger(1, hash).toString(16);
+            while (hex.length() < 64) {
+                hex = "0" + hex;
+            }
+            return hex.substring(0, 16);
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex.getMessage(), ex);
+        } catch (UnsupportedEncodingException ex) {
+            throw new IllegalStateException(ex.getMessage(), ex);
+        }
+    }
+
+}
@@ -21,12 +21,49 @@ package org.apache.wss4j.common.cache;
 
 
 /**
- * A factory to return a MemoryReplayCache instance.
+ * A factory to return a MemoryReplayCache instance. If "concurrent" is set to true, then a
+ * ConcurrentReplayCache is returned instead, which is better suited to high levels of concurrency.
  */
 public class MemoryReplayCacheFactory extends ReplayCacheFactory {
     
+    private boolean concurrent;
+    private int maxEntries = ConcurrentReplayCache.DEFAULT_MAX_ENTRIES;
+    
+    public MemoryReplayCacheFactory() {
+        //
+    }
+    
+    public MemoryReplayCacheFactory(boolean concurrent) {
+        this.concurrent = concurrent;
+    }
+    
     public ReplayCache newReplayCache(String key, Object configuration) {
+        if (concurrent) {
+            return new ConcurrentReplayCache(maxEntries, ConcurrentReplayCache.DEFAULT_BUCKET_DURATION);
+        }
         return new MemoryReplayCache();
     }
     
+    /**
+     * Set whether to return a ConcurrentReplayCache instead of a MemoryReplayCache
+     */
+    public void setConcurrent(boolean concurrent) {
+        this.concurrent = concurrent;
+    }
+    
+    public boolean isConcurrent() {
+        return concurrent;
+    }
+    
+    /**
+     * Set the maximum number of entries held by a ConcurrentReplayCache
+     */
+    public void setMaxEntries(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+    
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+    
 }
@@ -0,0 +1,486 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.cache;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A BatchingReplayCache that is shared between the nodes of a cluster, by partitioning the
+ * identifiers between the nodes. Each identifier is held by a single node, which is chosen by
+ * rendezvous hashing, so that only the identifiers of a node are moved to other nodes if it is
+ * removed from the cluster. Each node must be configured with the same list of nodes.
+ *
+ * The identifiers that are held by the local node are checked and added in the local cache.
+ * The other identifiers are queued per node, and sent to the node over the ReplayCacheTransport
+ * in a single batch when the batch is full, when the linger time of the batch has passed, or
+ * when the result of one of its identifiers is requested, whichever happens first. A batch is
+ * sent by a background thread, unless the thread that requests a result sends it itself.
+ *
+ * If a batch can't be sent, then the results of its identifiers fail, and contains() returns
+ * true for an identifier whose node can't be reached, so that a message is rejected rather than
+ * accepted without a replay check.
+ */
+public class PartitionedReplayCache implements BatchingReplayCache, Closeable {
+
+    public static final long DEFAULT_TTL = MemoryReplayCache.DEFAULT_TTL;
+    public static final int DEFAULT_MAX_BATCH_SIZE = 64;
+    public static final long DEFAULT_LINGER_TIME = 5L;
+
+    private static final org.slf4j.Logger LOG =
+        org.slf4j.LoggerFactory.getLogger(PartitionedReplayCache.class);
+
+    private static final Result ADDED = new Result(Boolean.TRUE);
+    private static final Result REPLAYED = new Result(Boolean.FALSE);
+
+    private final String localNode;
+    private final String[] nodes;
+    private final int[] nodeHashes;
+    private final ReplayCacheTransport transport;
+    private final ReplayCache localCache;
+    private final Map<String, Batch> batches = new HashMap<String, Batch>();
+    private final ScheduledExecutorService sender;
+    private int maxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+    private long lingerTime = DEFAULT_LINGER_TIME;
+    private boolean closed;
+
+    public PartitionedReplayCache(
+        String localNode, List<String> nodes, ReplayCacheTransport transport
+    ) {
+        this(localNode, nodes, transport, new MemoryReplayCache());
+    }
+
+    /**
+     * Construct a new PartitionedReplayCache, and register it as the receiver of the batches
+     * that are sent to the local node.
+     * @param localNode the name of the local node
+     * @param nodes the names of all the nodes of the cluster, including the local node
+     * @param transport the transport to the other nodes
+     * @param localCache the cache of the identifiers that are held by the local node
+     */
+    public PartitionedReplayCache(
+        String localNode, List<String> nodes, ReplayCacheTransport transport, ReplayCache localCache
+    ) {
+        if (!nodes.contains(localNode)) {
+            throw new IllegalArgumentException("The nodes must contain the local node " + localNode);
+        }
+        this.localNode = localNode;
+        this.nodes = nodes.toArray(new String[nodes.size()]);
+        this.nodeHashes = new int[this.nodes.length];
+        for (int i = 0; i < this.nodes.length; i++) {
+            nodeHashes[i] = this.nodes[i].hashCode();
+        }
+        this.transport = transport;
+        this.localCache = localCache;
+
+        int threads = Math.max(1, Math.min(this.nodes.length - 1, 4));
+        sender = Executors.newScheduledThreadPool(threads, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "wss4j-replay-cache-sender");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        transport.register(localNode, new LocalReceiver());
+    }
+
+    /**
+     * Add the given identifier to the cache. It will be cached for a default amount of time.
+     * @param identifier The identifier to be added
+     */
+    public void add(String identifier) {
+        addIfAbsent(identifier, DEFAULT_TTL);
+    }
+
+    /**
+     * Add the given identifier to the cache to be cached for the given time
+     * @param identifier The identifier to be added
+     * @param timeToLive The length of time to cache the Identifier in seconds
+     */
+    public void add(String identifier, long timeToLive) {
+        addIfAbsent(identifier, timeToLive);
+    }
+
+    /**
+     * Return true if the given identifier is contained in the cache. The queued identifiers of
+     * the node that holds the identifier are sent first, so that the identifiers that have been
+     * added by this node are seen. If the node can't be reached, then true is returned.
+     * @param identifier The identifier to check
+     */
+    public boolean contains(String identifier) {
+        if (identifier == null || "".equals(identifier)) {
+            return false;
+        }
+
+        String node = getNode(identifier);
+        if (localNode.equals(node)) {
+            synchronized (localCache) {
+                return localCache.contains(identifier);
+            }
+        }
+
+        Batch batch;
+        synchronized (batches) {
+            batch = batches.get(node);
+        }
+        if (batch != null) {
+            batch.sendAndWait();
+        }
+        try {
+            boolean[] contained = transport.contains(node, new String[] {identifier});
+            return contained == null || contained.length != 1 || contained[0];
+        } catch (IOException ex) {
+            LOG.warn("Error in checking an identifier on the replay cache node " + node, ex);
+            return true;
+        }
+    }
+
+    public Future<Boolean> addIfAbsent(String identifier) {
+        return addIfAbsent(identifier, DEFAULT_TTL);
+    }
+
+    public Future<Boolean> addIfAbsent(String identifier, long timeToLive) {
+        if (identifier == null || "".equals(identifier)) {
+            return ADDED;
+        }
+
+        String node = getNode(identifier);
+        if (localNode.equals(node)) {
+            return addIfAbsentLocally(identifier, timeToLive) ? ADDED : REPLAYED;
+        }
+
+        Batch fullBatch = null;
+        Result result;
+        synchronized (batches) {
+            checkOpen();
+            Batch batch = batches.get(node);
+            if (batch == null) {
+                batch = new Batch(node);
+                batches.put(node, batch);
+                if (lingerTime > 0) {
+                    sender.schedule(batch, lingerTime, TimeUnit.MILLISECONDS);
+                }
+            }
+            result = batch.add(identifier, timeToLive);
+            if (batch.size() >= maxBatchSize || lingerTime <= 0) {
+                batches.remove(node);
+                batch.claimed = true;
+                fullBatch = batch;
+            }
+        }
+        if (fullBatch != null) {
+            final Batch batch = fullBatch;
+            sender.execute(new Runnable() {
+                public void run() {
+                    batch.send();
+                }
+            });
+        }
+        return result;
+    }
+
+    /**
+     * Send all the queued identifiers without waiting for their results
+     */
+    public void flush() {
+        List<Batch> pendingBatches;
+        synchronized (batches) {
+            pendingBatches = new ArrayList<Batch>(batches.values());
+        }
+        for (Batch batch : pendingBatches) {
+            sender.execute(batch);
+        }
+    }
+
+    /**
+     * Send all the queued identifiers, and unregister the local node from the transport
+     */
+    public void close() {
+        synchronized (batches) {
+            if (closed) {
+                return;
+            }
+            flush();
+            closed = true;
+        }
+        sender.shutdown();
+        transport.unregister(localNode);
+    }
+
+    /**
+     * Get the name of the node that holds the given identifier
+     */
+    public String getNode(String identifier) {
+        long hash = identifier.hashCode() & 0xffffffffL;
+        int node = 0;
+        long maxWeight = Long.MIN_VALUE;
+        for (int i = 0; i < nodes.length; i++) {
+            long weight = mix(((long)nodeHashes[i] << 32) | hash);
+            if (i == 0 || weight > maxWeight) {
+                maxWeight = weight;
+                node = i;
+            }
+        }
+        return nodes[node];
+    }
+
+    public String getLocalNode() {
+        return localNode;
+    }
+
+    /**
+     * Set the maximum number of identifiers that are sent to a node in a single batch
+     */
+    public void setMaxBatchSize(int maxBatchSize) {
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    /**
+     * Set the time in milliseconds that a batch waits for more identifiers before it is sent,
+     * unless the result of one of its identifiers is requested before. If it is 0, then each
+     * identifier is sent in a separate batch.
+     */
+    public void setLingerTime(long lingerTime) {
+        this.lingerTime = lingerTime;
+    }
+
+    public long getLingerTime() {
+        return lingerTime;
+    }
+
+    private boolean addIfAbsentLocally(String identifier, long timeToLive) {
+        synchronized (localCache) {
+            if (localCache.contains(identifier)) {
+                return false;
+            }
+            localCache.add(identifier, timeToLive);
+            return true;
+        }
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("The replay cache of node " + localNode + " has been closed");
+        }
+    }
+
+    /**
+     * The finalization step of the 64-bit MurmurHash3, to weigh a node for an identifier
+     */
+    private static long mix(long value) {
+        long z = value;
+        z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+        z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return z ^ (z >>> 33);
+    }
+
+    /**
+     * The identifiers that are queued to be sent to a node. A batch is sent only once, by the
+     * thread that claims it.
+     */
+    private final class Batch implements Runnable {
+        private final String node;
+        private final List<String> identifiers = new ArrayList<String>();
+        private final List<Long> timesToLive = new ArrayList<Long>();
+        private final List<Result> results = new ArrayList<Result>();
+        private final CountDownLatch sent = new CountDownLatch(1);
+        private boolean claimed;
+
+        Batch(String node) {
+            this.node = node;
+        }
+
+        Result add(String identifier, long timeToLive) {
+            Result result = new Result(this);
+            identifiers.add(identifier);
+            timesToLive.add(timeToLive);
+            results.add(result);
+            return result;
+        }
+
+        int size() {
+            return identifiers.size();
+        }
+
+        public void run() {
+            sendIfPending();
+        }
+
+        void sendIfPending() {
+            synchronized (batches) {
+                if (claimed) {
+                    return;
+                }
+                claimed = true;
+                if (batches.get(node) == this) {
+                    batches.remove(node);
+                }
+            }
+            send();
+        }
+
+        void sendAndWait() {
+            sendIfPending();
+            try {
+                sent.await();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        void send() {
+            int size = identifiers.size();
+            String[] ids = identifiers.toArray(new String[size]);
+            long[] ttls = new long[size];
+            for (int i = 0; i < size; i++) {
+                ttls[i] = timesToLive.get(i);
+            }
+            try {
+                boolean[] added = transport.addIfAbsent(node, ids, ttls);
+                if (added == null || added.length != size) {
+                    throw new IOException("Unexpected response from the replay cache node " + node);
+                }
+                for (int i = 0; i < size; i++) {
+                    results.get(i).complete(added[i]);
+                }
+            } catch (IOException ex) {
+                fail(ex);
+            } catch (RuntimeException ex) {
+                fail(ex);
+            } finally {
+                sent.countDown();
+            }
+        }
+
+        private void fail(Exception ex) {
+            LOG.warn("Error in sending a batch of identifiers to the replay cache node " + node, ex);
+            for (Result result : results) {
+                result.fail(ex);
+            }
+        }
+    }
+
+    private final class LocalReceiver implements ReplayCacheTransport.Receiver {
+
+        public boolean[] addIfAbsent(String[] identifiers, long[] timesToLive) {
+            boolean[] added = new boolean[identifiers.length];
+            for (int i = 0; i < identifiers.length; i++) {
+                added[i] = addIfAbsentLocally(identifiers[i], timesToLive[i]);
+            }
+            return added;
+        }
+
+        public boolean[] contains(String[] identifiers) {
+            boolean[] contained = new boolean[identifiers.length];
+            synchronized (localCache) {
+                for (int i = 0; i < identifiers.length; i++) {
+                    contained[i] = localCache.contains(identifiers[i]);
+                }
+            }
+            return contained;
+        }
+    }
+
+    /**
+     * The result of an identifier. Requesting the result sends the batch of the identifier if it
+     * has not been sent yet.
+     */
+    private static final class Result implements Future<Boolean> {
+        private final Batch batch;
+        private final CountDownLatch done;
+        private volatile boolean added;
+        private volatile Exception failure;
+
+        Result(Boolean added) {
+            this.batch = null;
+            this.added = added;
+            this.done = new CountDownLatch(0);
+        }
+
+        Result(Batch batch) {
+            this.batch = batch;
+            this.done = new CountDownLatch(1);
+        }
+
+        void complete(boolean value) {
+            added = value;
+            done.countDown();
+        }
+
+        void fail(Exception ex) {
+            failure = ex;
+            done.countDown();
+        }
+
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            return false;
+        }
+
+        public boolean isCancelled() {
+            return false;
+        }
+
+        public boolean isDone() {
+            return done.getCount() == 0;
+        }
+
+        public Boolean get() throws InterruptedException, ExecutionException {
+            if (batch != null) {
+                batch.sendIfPending();
+            }
+            done.await();
+            return getResult();
+        }
+
+        public Boolean get(long timeout, TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException {
+            if (batch != null) {
+                batch.sendIfPending();
+            }
+            if (!done.await(timeout, unit)) {
+                throw new TimeoutException();
+            }
+            return getResult();
+        }
+
+        private Boolean getResult() throws ExecutionException {
+            if (failure != null) {
+                throw new ExecutionException(failure);
+            }
+            return added;
+        }
+    }
+}
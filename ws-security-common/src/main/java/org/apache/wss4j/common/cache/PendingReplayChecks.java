@@ -0,0 +1,165 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.wss4j.common.ext.WSSecurityException;
+
+/**
+ * The replay checks of a message that have been sent to a BatchingReplayCache, but whose
+ * results have not been verified yet. The checks of all the tokens of a message are collected
+ * while the security header is processed, and their results are verified in one go after it,
+ * so that they are all in flight at the same time.
+ *
+ * Checks are only collected between a call to start and a call to verify or clear. Outside of
+ * that (e.g. when a processor is called directly and not by the engine), a check is verified
+ * as soon as it is added.
+ */
+public class PendingReplayChecks {
+
+    public static final long DEFAULT_TIMEOUT = 30000L;
+
+    private final List<Check> checks = new ArrayList<Check>();
+    private long timeout = DEFAULT_TIMEOUT;
+    private boolean started;
+
+    /**
+     * Start collecting the checks of a message. Any checks left over from a previous message
+     * are removed.
+     * @return false if the checks are already being collected, e.g. by an enclosing call, in
+     *         which case the caller must not verify or clear them
+     */
+    public boolean start() {
+        if (started) {
+            return false;
+        }
+        checks.clear();
+        started = true;
+        return true;
+    }
+
+    public boolean isStarted() {
+        return started;
+    }
+
+    /**
+     * Add a replay check
+     * @param result the result of BatchingReplayCache.addIfAbsent
+     * @param errorCode the error code of the exception to throw if a replay is detected
+     * @param msgId the message id of the exception to throw, or null if it has none
+     * @param arguments the arguments of the message
+     * @throws WSSecurityException if the checks are not being collected, and a replay has been
+     *         detected or the check has failed
+     */
+    public void add(
+        Future<Boolean> result, WSSecurityException.ErrorCode errorCode, String msgId,
+        Object... arguments
+    ) throws WSSecurityException {
+        checks.add(new Check(result, errorCode, msgId, arguments));
+        if (!started) {
+            verify();
+        }
+    }
+
+    public boolean isEmpty() {
+        return checks.isEmpty();
+    }
+
+    /**
+     * Wait for the results of all the checks, remove them and stop collecting checks
+     * @throws WSSecurityException if a replay has been detected, or if a check has failed
+     */
+    public void verify() throws WSSecurityException {
+        started = false;
+        if (checks.isEmpty()) {
+            return;
+        }
+        List<Check> pendingChecks = new ArrayList<Check>(checks);
+        checks.clear();
+
+        long deadline = System.currentTimeMillis() + timeout;
+        for (Check check : pendingChecks) {
+            boolean added;
+            try {
+                long remaining = Math.max(deadline - System.currentTimeMillis(), 0L);
+                added = check.result.get(remaining, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE, ex);
+            } catch (ExecutionException ex) {
+                Exception cause = ex;
+                if (ex.getCause() instanceof Exception) {
+                    cause = (Exception)ex.getCause();
+                }
+                throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE, cause);
+            } catch (TimeoutException ex) {
+                throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE, ex);
+            }
+            if (!added) {
+                if (check.msgId == null) {
+                    throw new WSSecurityException(check.errorCode);
+                }
+                throw new WSSecurityException(check.errorCode, check.msgId, check.arguments);
+            }
+        }
+    }
+
+    /**
+     * Remove all the checks without verifying them, and stop collecting checks
+     */
+    public void clear() {
+        checks.clear();
+        started = false;
+    }
+
+    /**
+     * Set the time in milliseconds to wait for the results of all the checks
+     */
+    public void setTimeout(long timeout) {
+        this.timeout = timeout;
+    }
+
+    public long getTimeout() {
+        return timeout;
+    }
+
+    private static final class Check {
+        private final Future<Boolean> result;
+        private final WSSecurityException.ErrorCode errorCode;
+        private final String msgId;
+        private final Object[] arguments;
+
+        Check(
+            Future<Boolean> result, WSSecurityException.ErrorCode errorCode, String msgId,
+            Object[] arguments
+        ) {
+            this.result = result;
+            this.errorCode = errorCode;
+            this.msgId = msgId;
+            this.arguments = arguments;
+        }
+    }
+}
@@ -19,6 +19,7 @@
 
 package org.apache.wss4j.common.cache;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.URL;
 
@@ -26,10 +27,38 @@ import org.apache.wss4j.common.util.Loader;
 
 /**
  * An abstract factory to return a ReplayCache instance. It returns an EHCacheReplayCacheFactory
- * if EH-Cache is available. Otherwise it returns a MemoryReplayCacheFactory.
+ * if EH-Cache is available. Otherwise it returns a MemoryReplayCacheFactory. A ReplayCache that
+ * survives a restart can be created with a MappedReplayCacheFactory.
+ * 
+ * The factory that is returned can instead be selected with the REPLAY_CACHE_TYPE system 
+ * property. The "concurrent" type returns a MemoryReplayCacheFactory that creates
+ * ConcurrentReplayCache instances, bounded by the optional REPLAY_CACHE_MAX_ENTRIES system
+ * property. The "mapped" type requires the REPLAY_CACHE_DIRECTORY system property to be set 
+ * to the (private) directory that holds the files of the caches.
  */
 public abstract class ReplayCacheFactory {
     
+    /**
+     * The system property that selects the type of ReplayCache: "ehcache", "memory",
+     * "concurrent" or "mapped"
+     */
+    public static final String REPLAY_CACHE_TYPE = "org.apache.wss4j.cache.replay.type";
+    
+    /**
+     * The system property that gives the directory of the files of a "mapped" ReplayCache
+     */
+    public static final String REPLAY_CACHE_DIRECTORY = "org.apache.wss4j.cache.replay.directory";
+    
+    /**
+     * The system property that gives the maximum number of entries of a "concurrent" ReplayCache
+     */
+    public static final String REPLAY_CACHE_MAX_ENTRIES = "org.apache.wss4j.cache.replay.maxEntries";
+    
+    public static final String EHCACHE_TYPE = "ehcache";
+    public static final String MEMORY_TYPE = "memory";
+    public static final String CONCURRENT_TYPE = "concurrent";
+    public static final String MAPPED_TYPE = "mapped";
+    
     private static final org.slf4j.Logger LOG = 
         org.slf4j.LoggerFactory.getLogger(ReplayCacheFactory.class);
     private static boolean ehCacheInstalled;
@@ -51,6 +80,10 @@ public abstract class ReplayCacheFactory {
     }
     
     public static ReplayCacheFactory newInstance() {
+        String type = System.getProperty(REPLAY_CACHE_TYPE);
+        if (type != null && type.trim().length() > 0) {
+            return newInstance(type.trim());
+        }
         if (isEhCacheInstalled()) {
             return new EHCacheReplayCacheFactory();
         }
@@ -58,6 +91,41 @@ public abstract class ReplayCacheFactory {
         return new MemoryReplayCacheFactory();
     }
     
+    private static ReplayCacheFactory newInstance(String type) {
+        if (EHCACHE_TYPE.equals(type)) {
+            if (!isEhCacheInstalled()) {
+                throw new IllegalStateException("The " + type + " replay cache requires EH-Cache");
+            }
+            return new EHCacheReplayCacheFactory();
+        } else if (MEMORY_TYPE.equals(type)) {
+            return new MemoryReplayCacheFactory();
+        } else if (CONCURRENT_TYPE.equals(type)) {
+            MemoryReplayCacheFactory factory = new MemoryReplayCacheFactory(true);
+            String maxEntries = System.getProperty(REPLAY_CACHE_MAX_ENTRIES);
+            if (maxEntries != null && maxEntries.trim().length() > 0) {
+                try {
+                    factory.setMaxEntries(Integer.parseInt(maxEntries.trim()));
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException(
+                        "Invalid value of the " + REPLAY_CACHE_MAX_ENTRIES + " system property: " 
+                        + maxEntries, e
+                    );
+                }
+            }
+            return factory;
+        } else if (MAPPED_TYPE.equals(type)) {
+            String directory = System.getProperty(REPLAY_CACHE_DIRECTORY);
+            if (directory == null || directory.trim().length() == 0) {
+                throw new IllegalArgumentException(
+                    "The " + type + " replay cache requires the " + REPLAY_CACHE_DIRECTORY 
+                    + " system property"
+                );
+            }
+            return new MappedReplayCacheFactory(new File(directory.trim()));
+        }
+        throw new IllegalArgumentException("Unknown replay cache type: " + type);
+    }
+    
     public abstract ReplayCache newReplayCache(String key, Object configuration);
     
     protected URL getConfigFileURL(Object o) {
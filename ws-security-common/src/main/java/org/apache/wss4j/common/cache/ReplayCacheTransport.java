@@ -0,0 +1,85 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.cache;
+
+import java.io.IOException;
+
+/**
+ * The transport that is used by a PartitionedReplayCache to send batches of identifiers to the
+ * other nodes of the cluster. A transport may block until the result of a batch is received, as
+ * batches are sent by the PartitionedReplayCache without blocking the processing of a message.
+ */
+public interface ReplayCacheTransport {
+
+    /**
+     * The receiver of the batches that are sent to a node.
+     */
+    interface Receiver {
+
+        /**
+         * Add the given identifiers to the cache of this node if they are not contained in it
+         * @param identifiers the identifiers to be added
+         * @param timesToLive the length of time to cache each of the identifiers in seconds
+         * @return for each identifier, true if it has been added, and false if it was already
+         * contained in the cache
+         */
+        boolean[] addIfAbsent(String[] identifiers, long[] timesToLive);
+
+        /**
+         * Return, for each of the given identifiers, whether it is contained in the cache of
+         * this node
+         * @param identifiers the identifiers to check
+         */
+        boolean[] contains(String[] identifiers);
+    }
+
+    /**
+     * Register the receiver of the batches that are sent to the given (local) node
+     * @param node the name of the node
+     * @param receiver the receiver of the batches
+     */
+    void register(String node, Receiver receiver);
+
+    /**
+     * Unregister the receiver of the given (local) node
+     * @param node the name of the node
+     */
+    void unregister(String node);
+
+    /**
+     * Send a batch of identifiers to be added to the given node
+     * @param node the name of the node
+     * @param identifiers the identifiers to be added
+     * @param timesToLive the length of time to cache each of the identifiers in seconds
+     * @return for each identifier, true if it has been added, and false if it was already
+     * contained in the cache of the node
+     * @throws IOException if the batch could not be sent to the node
+     */
+    boolean[] addIfAbsent(String node, String[] identifiers, long[] timesToLive) throws IOException;
+
+    /**
+     * Check whether the given identifiers are contained in the cache of the given node
+     * @param node the name of the node
+     * @param identifiers the identifiers to check
+     * @throws IOException if the request could not be sent to the node
+     */
+    boolean[] contains(String node, String[] identifiers) throws IOException;
+
+}
@@ -0,0 +1,173 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.cache;
+
+import java.io.UnsupportedEncodingException;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import org.apache.wss4j.common.ext.WSSecurityException;
+import org.apache.wss4j.common.saml.SAMLKeyInfo;
+import org.apache.wss4j.common.saml.SamlAssertionWrapper;
+import org.apache.wss4j.common.util.DOM2Writer;
+import org.apache.wss4j.common.util.JCEInstanceCache;
+import org.joda.time.DateTime;
+import org.opensaml.common.SAMLVersion;
+import org.w3c.dom.Element;
+
+/**
+ * A bounded in-memory cache of signed SAML Assertions whose signature has been verified (and
+ * whose signing key has been trusted), so that the signature verification can be skipped when
+ * the same Assertion is received again. The conditions of a cached Assertion must still be
+ * checked for every message.
+ *
+ * An entry is keyed by the issuer, the ID and the SHA-256 digest of the SignatureValue of the
+ * Assertion. It also records the SHA-256 digest of the serialized Assertion, and is only
+ * returned if the received Assertion serializes to the same bytes, so that an Assertion with a
+ * copied signature but a modified content is never accepted from the cache. Entries expire
+ * at the NotOnOrAfter time of the Assertion, or after the configured time-to-live if that is
+ * earlier.
+ *
+ * A cache instance must only be shared by processors that use the same signature
+ * verification Crypto and algorithm requirements.
+ */
+public class SamlAssertionCache extends BoundedTTLCache<SamlAssertionCache.CachedAssertion> {
+
+    private static final org.slf4j.Logger LOG =
+        org.slf4j.LoggerFactory.getLogger(SamlAssertionCache.class);
+
+    public SamlAssertionCache() {
+        this(DEFAULT_MAX_ENTRIES, DEFAULT_TTL);
+    }
+
+    /**
+     * Construct a new SamlAssertionCache
+     * @param maxEntries the maximum number of Assertions to cache
+     * @param ttl the maximum time-to-live of a cached Assertion in seconds
+     */
+    public SamlAssertionCache(int maxEntries, long ttl) {
+        super(maxEntries, ttl);
+    }
+
+    /**
+     * Get the SAMLKeyInfo of the signature of a previously verified, identical Assertion.
+     * @param samlAssertion the received (signed) Assertion
+     * @return the SAMLKeyInfo that verified the signature, or null if the Assertion is not cached
+     */
+    public SAMLKeyInfo get(SamlAssertionWrapper samlAssertion) throws WSSecurityException {
+        String identifier = getIdentifier(samlAssertion);
+        if (identifier == null) {
+            return null;
+        }
+        CachedAssertion cachedAssertion = getValue(identifier);
+        if (cachedAssertion == null) {
+            return null;
+        }
+        byte[] assertionDigest = getAssertionDigest(samlAssertion);
+        if (assertionDigest == null 
+            || !MessageDigest.isEqual(cachedAssertion.assertionDigest, assertionDigest)) {
+            LOG.debug("The cached SAML Assertion {} does not match the received one", samlAssertion.getId());
+            return null;
+        }
+        return cachedAssertion.signatureKeyInfo;
+    }
+
+    /**
+     * Cache an Assertion after its signature has been verified, and the signing key trusted.
+     * @param samlAssertion the verified (signed) Assertion
+     * @param signatureKeyInfo the SAMLKeyInfo that verified the signature
+     */
+    public void add(
+        SamlAssertionWrapper samlAssertion, SAMLKeyInfo signatureKeyInfo
+    ) throws WSSecurityException {
+        if (signatureKeyInfo == null || getMaxEntries() <= 0) {
+            return;
+        }
+        long expires = System.currentTimeMillis() + (getTTL() * 1000L);
+        DateTime notOnOrAfter = getNotOnOrAfter(samlAssertion);
+        if (notOnOrAfter != null && notOnOrAfter.getMillis() < expires) {
+            expires = notOnOrAfter.getMillis();
+        }
+        if (expires <= System.currentTimeMillis()) {
+            return;
+        }
+        String identifier = getIdentifier(samlAssertion);
+        byte[] assertionDigest = getAssertionDigest(samlAssertion);
+        if (identifier == null || assertionDigest == null) {
+            return;
+        }
+        putValue(identifier, new CachedAssertion(assertionDigest, signatureKeyInfo), expires);
+    }
+
+    private static String getIdentifier(SamlAssertionWrapper samlAssertion) throws WSSecurityException {
+        byte[] signatureValue = samlAssertion.getSignatureValue();
+        if (signatureValue == null || signatureValue.length == 0) {
+            return null;
+        }
+        byte[] signatureDigest = digest(signatureValue);
+        if (signatureDigest == null) {
+            return null;
+        }
+        return samlAssertion.getIssuerString() + " " + samlAssertion.getId() + " "
+            + new BigInteger(1, signatureDigest).toString(16);
+    }
+
+    private static byte[] getAssertionDigest(SamlAssertionWrapper samlAssertion) {
+        Element element = samlAssertion.getElement();
+        if (element == null) {
+            return null;
+        }
+        try {
+            return digest(DOM2Writer.nodeToString(element).getBytes("UTF-8"));
+        } catch (UnsupportedEncodingException e) {
+            return null;
+        }
+    }
+
+    private static byte[] digest(byte[] bytes) {
+        try {
+            return JCEInstanceCache.getMessageDigest("SHA-256").digest(bytes);
+        } catch (NoSuchAlgorithmException e) {
+            return null;
+        }
+    }
+
+    private static DateTime getNotOnOrAfter(SamlAssertionWrapper samlAssertion) {
+        if (SAMLVersion.VERSION_20.equals(samlAssertion.getSamlVersion())
+            && samlAssertion.getSaml2().getConditions() != null) {
+            return samlAssertion.getSaml2().getConditions().getNotOnOrAfter();
+        } else if (SAMLVersion.VERSION_11.equals(samlAssertion.getSamlVersion())
+            && samlAssertion.getSaml1().getConditions() != null) {
+            return samlAssertion.getSaml1().getConditions().getNotOnOrAfter();
+        }
+        return null;
+    }
+
+    static final class CachedAssertion {
+        private final byte[] assertionDigest;
+        private final SAMLKeyInfo signatureKeyInfo;
+
+        CachedAssertion(byte[] assertionDigest, SAMLKeyInfo signatureKeyInfo) {
+            this.assertionDigest = assertionDigest;
+            this.signatureKeyInfo = signatureKeyInfo;
+        }
+    }
+}
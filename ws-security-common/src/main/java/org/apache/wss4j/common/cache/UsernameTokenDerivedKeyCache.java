@@ -0,0 +1,130 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.cache;
+
+import java.io.UnsupportedEncodingException;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+import org.apache.wss4j.common.util.JCEInstanceCache;
+
+/**
+ * A bounded in-memory cache of the keys derived from UsernameTokens as defined in the
+ * UsernameToken Profile 1.1, so that the (by default 1000) SHA-1 iterations can be skipped when
+ * a client sends the same Salt again. An entry is keyed by the SHA-256 digest of the username,
+ * the password, the Salt and the Iteration count, so a changed password never matches a cached
+ * key. A derived key is zeroed once it is no longer cached.
+ */
+public class UsernameTokenDerivedKeyCache extends BoundedTTLCache<byte[]> {
+
+    public UsernameTokenDerivedKeyCache() {
+        this(DEFAULT_MAX_ENTRIES, DEFAULT_TTL);
+    }
+
+    /**
+     * Construct a new UsernameTokenDerivedKeyCache
+     * @param maxEntries the maximum number of keys to cache
+     * @param ttl the time-to-live of a cached key in seconds
+     */
+    public UsernameTokenDerivedKeyCache(int maxEntries, long ttl) {
+        super(maxEntries, ttl);
+    }
+
+    /**
+     * Get a copy of the cached derived key.
+     * @param username the username of the UsernameToken
+     * @param password the (raw) password bytes the key is derived from
+     * @param salt the Salt of the UsernameToken
+     * @param iteration the Iteration count of the UsernameToken
+     * @return a copy of the derived key bytes, or null if it is not cached
+     */
+    public byte[] get(String username, byte[] password, byte[] salt, int iteration) {
+        String identifier = getIdentifier(username, password, salt, iteration);
+        if (identifier == null) {
+            return null;
+        }
+        return getValue(identifier);
+    }
+
+    /**
+     * Cache a derived key. A copy of the derived key is stored, so the caller may safely
+     * modify the given array afterwards.
+     * @param username the username of the UsernameToken
+     * @param password the (raw) password bytes the key is derived from
+     * @param salt the Salt of the UsernameToken
+     * @param iteration the Iteration count of the UsernameToken
+     * @param derivedKey the derived key bytes
+     */
+    public void add(String username, byte[] password, byte[] salt, int iteration, byte[] derivedKey) {
+        if (derivedKey == null || getMaxEntries() <= 0) {
+            return;
+        }
+        String identifier = getIdentifier(username, password, salt, iteration);
+        if (identifier == null) {
+            return;
+        }
+        putValue(identifier, derivedKey.clone());
+    }
+
+    @Override
+    protected byte[] copy(byte[] derivedKey) {
+        return derivedKey.clone();
+    }
+
+    @Override
+    protected void destroy(byte[] derivedKey) {
+        Arrays.fill(derivedKey, (byte)0);
+    }
+
+    private static String getIdentifier(String username, byte[] password, byte[] salt, int iteration) {
+        if (password == null || salt == null) {
+            return null;
+        }
+        try {
+            MessageDigest sha = JCEInstanceCache.getMessageDigest("SHA-256");
+            update(sha, username == null ? new byte[0] : username.getBytes("UTF-8"));
+            update(sha, password);
+            update(sha, salt);
+            sha.update(toBytes(iteration));
+            return new BigInteger(1, sha.digest()).toString(16);
+        } catch (NoSuchAlgorithmException e) {
+            return null;
+        } catch (UnsupportedEncodingException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Add the length of the value before the value itself, so that the concatenation of the
+     * (variable length) values is unambiguous
+     */
+    private static void update(MessageDigest sha, byte[] value) {
+        sha.update(toBytes(value.length));
+        sha.update(value);
+    }
+
+    private static byte[] toBytes(int value) {
+        return new byte[] {
+            (byte)(value >>> 24), (byte)(value >>> 16), (byte)(value >>> 8), (byte)value
+        };
+    }
+}
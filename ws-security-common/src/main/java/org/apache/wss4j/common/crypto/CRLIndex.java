@@ -0,0 +1,365 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.crypto;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import java.security.PublicKey;
+import java.security.cert.CertPathValidatorException;
+import java.security.cert.X509CRL;
+import java.security.cert.X509CRLEntry;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.security.auth.x500.X500Principal;
+
+/**
+ * An in-memory index of the CRLs of one or more CRLSources, to check the revocation status of
+ * a certificate without going through the revocation checking of the PKIX CertPathValidator.
+ * The CRLs are indexed by issuer, and the serial numbers of the revoked certificates of each
+ * CRL are held in a hash set, so that a lookup is a constant time operation. The signature of
+ * a CRL is verified on first use with the key of the issuer of the checked certificate, and is
+ * then remembered. If several CRLs of the same issuer are found, then the most recent one is
+ * used.
+ *
+ * Only complete, direct CRLs are supported. The revocation check of a certificate fails if the
+ * CRL of its issuer has an IssuingDistributionPoint or a DeltaCRLIndicator extension, or any
+ * other critical extension (of the CRL or of one of its entries), as such a CRL may not cover
+ * the certificate. It also fails if the issuer certificate has a KeyUsage extension without
+ * the cRLSign bit.
+ *
+ * The CRLs are loaded when refresh() is called, and, if a refresh interval is set, again in
+ * the background after each interval. A source that can't be read keeps its previous CRLs.
+ */
+public class CRLIndex implements Closeable {
+
+    private static final org.slf4j.Logger LOG =
+        org.slf4j.LoggerFactory.getLogger(CRLIndex.class);
+
+    // id-ce, the arc of the X.509 certificate and CRL extensions (RFC 5280)
+    private static final String ID_CE = "2.5.29";
+    private static final String ISSUING_DISTRIBUTION_POINT_OID = ID_CE + ".28";
+    private static final String DELTA_CRL_INDICATOR_OID = ID_CE + ".27";
+    private static final int CRL_SIGN_KEY_USAGE = 6;
+
+    private static ScheduledExecutorService refresher;
+
+    private final List<CRLSource> sources;
+    private final List<Collection<X509CRL>> loadedCRLs;
+    private volatile Map<X500Principal, IndexedCRL> crls = Collections.emptyMap();
+    private volatile long generation;
+    private ScheduledFuture<?> refreshTask;
+
+    public CRLIndex(CRLSource source) {
+        this(Collections.singletonList(source));
+    }
+
+    public CRLIndex(List<CRLSource> sources) {
+        this.sources = new ArrayList<CRLSource>(sources);
+        loadedCRLs = new ArrayList<Collection<X509CRL>>(sources.size());
+        for (int i = 0; i < sources.size(); i++) {
+            loadedCRLs.add(Collections.<X509CRL>emptyList());
+        }
+    }
+
+    /**
+     * Load the CRLs of all the sources, and rebuild the index if any of them have changed.
+     * @throws IOException if a source can't be read. The CRLs of the other sources are loaded.
+     * @throws GeneralSecurityException if the CRLs of a source can't be parsed
+     */
+    public synchronized void refresh() throws IOException, GeneralSecurityException {
+        boolean changed = false;
+        Exception failure = null;
+        for (int i = 0; i < sources.size(); i++) {
+            CRLSource source = sources.get(i);
+            try {
+                Collection<X509CRL> sourceCRLs = source.loadCRLs();
+                if (sourceCRLs != null) {
+                    loadedCRLs.set(i, sourceCRLs);
+                    changed = true;
+                    LOG.debug("The CRLs of {} have been loaded", source);
+                }
+            } catch (IOException ex) {
+                LOG.warn("Error in loading the CRLs of " + source, ex);
+                failure = ex;
+            } catch (GeneralSecurityException ex) {
+                LOG.warn("Error in loading the CRLs of " + source, ex);
+                failure = ex;
+            }
+        }
+
+        if (changed) {
+            Map<X500Principal, IndexedCRL> index = new HashMap<X500Principal, IndexedCRL>();
+            for (Collection<X509CRL> sourceCRLs : loadedCRLs) {
+                for (X509CRL crl : sourceCRLs) {
+                    IndexedCRL previous = index.get(crl.getIssuerX500Principal());
+                    if (previous == null || previous.crl.getThisUpdate().before(crl.getThisUpdate())) {
+                        index.put(crl.getIssuerX500Principal(), new IndexedCRL(crl));
+                    }
+                }
+            }
+            crls = index;
+            generation++;
+        }
+
+        if (failure instanceof IOException) {
+            throw (IOException)failure;
+        } else if (failure != null) {
+            throw (GeneralSecurityException)failure;
+        }
+    }
+
+    /**
+     * Refresh the CRLs in the background after each interval, until close() is called
+     * @param interval the refresh interval in seconds
+     */
+    public synchronized void startRefresh(long interval) {
+        if (refreshTask != null) {
+            refreshTask.cancel(false);
+        }
+        refreshTask =
+            getRefresher().scheduleWithFixedDelay(
+                new RefreshTask(this), interval, interval, TimeUnit.SECONDS
+            );
+    }
+
+    /**
+     * Stop refreshing the CRLs in the background
+     */
+    public synchronized void close() {
+        if (refreshTask != null) {
+            refreshTask.cancel(false);
+            refreshTask = null;
+        }
+    }
+
+    /**
+     * Check that the given certificate has not been revoked, using the current CRL of its
+     * issuer.
+     * @param cert the certificate to check
+     * @param issuerCerts the candidate certificates of the issuer of the certificate, one of
+     * which must be allowed to sign CRLs and must verify the signature of the CRL
+     * @throws CertPathValidatorException if the certificate has been revoked, or if no valid
+     * and supported CRL of its issuer is found
+     */
+    public void checkRevocation(
+        X509Certificate cert, Collection<X509Certificate> issuerCerts
+    ) throws CertPathValidatorException {
+        checkRevocation(cert, issuerCerts, new Date());
+    }
+
+    void checkRevocation(
+        X509Certificate cert, Collection<X509Certificate> issuerCerts, Date date
+    ) throws CertPathValidatorException {
+        IndexedCRL indexedCRL = crls.get(cert.getIssuerX500Principal());
+        if (indexedCRL == null) {
+            throw new CertPathValidatorException(
+                "No CRL found for the issuer " + cert.getIssuerX500Principal().getName()
+            );
+        }
+        if (indexedCRL.unsupportedReason != null) {
+            throw new CertPathValidatorException(
+                "The CRL of the issuer " + cert.getIssuerX500Principal().getName()
+                + " is not supported: " + indexedCRL.unsupportedReason
+            );
+        }
+        Date nextUpdate = indexedCRL.crl.getNextUpdate();
+        if (nextUpdate != null && nextUpdate.before(date)) {
+            throw new CertPathValidatorException(
+                "The CRL of the issuer " + cert.getIssuerX500Principal().getName()
+                + " has expired"
+            );
+        }
+        if (!indexedCRL.verify(issuerCerts)) {
+            throw new CertPathValidatorException(
+                "The signature of the CRL of the issuer " + cert.getIssuerX500Principal().getName()
+                + " can't be verified"
+            );
+        }
+        if (indexedCRL.revokedSerialNumbers.contains(cert.getSerialNumber())) {
+            throw new CertPathValidatorException(
+                "The certificate " + cert.getSerialNumber() + " of the issuer "
+                + cert.getIssuerX500Principal().getName() + " has been revoked"
+            );
+        }
+    }
+
+    /**
+     * Get the current CRL of the given issuer, or null if there is none
+     */
+    public X509CRL getCRL(X500Principal issuer) {
+        IndexedCRL indexedCRL = crls.get(issuer);
+        if (indexedCRL != null) {
+            return indexedCRL.crl;
+        }
+        return null;
+    }
+
+    /**
+     * Get the number of times that the index has been rebuilt with changed CRLs
+     */
+    public long getGeneration() {
+        return generation;
+    }
+
+    private static synchronized ScheduledExecutorService getRefresher() {
+        if (refresher == null) {
+            refresher = 
+                Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "wss4j-crl-refresher");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        }
+        return refresher;
+    }
+
+    /**
+     * Get the reason why the given CRL is not supported, or null if it is supported
+     */
+    private static String getUnsupportedReason(X509CRL crl) {
+        if (crl.getExtensionValue(ISSUING_DISTRIBUTION_POINT_OID) != null) {
+            return "it has an IssuingDistributionPoint";
+        }
+        if (crl.getExtensionValue(DELTA_CRL_INDICATOR_OID) != null) {
+            return "it is a delta CRL";
+        }
+        Set<String> criticalExtensions = crl.getCriticalExtensionOIDs();
+        if (criticalExtensions != null && !criticalExtensions.isEmpty()) {
+            return "it has the critical extensions " + criticalExtensions;
+        }
+        Set<? extends X509CRLEntry> entries = crl.getRevokedCertificates();
+        if (entries != null) {
+            for (X509CRLEntry entry : entries) {
+                Set<String> entryExtensions = entry.getCriticalExtensionOIDs();
+                if (entryExtensions != null && !entryExtensions.isEmpty()) {
+                    return "the entry " + entry.getSerialNumber() 
+                        + " has the critical extensions " + entryExtensions;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * A CRL and the serial numbers of the certificates that are revoked by it
+     */
+    private static final class IndexedCRL {
+        private final X509CRL crl;
+        private final String unsupportedReason;
+        private final Set<BigInteger> revokedSerialNumbers;
+        private volatile byte[] verifiedKey;
+
+        IndexedCRL(X509CRL crl) {
+            this.crl = crl;
+            unsupportedReason = getUnsupportedReason(crl);
+            Set<? extends X509CRLEntry> entries = crl.getRevokedCertificates();
+            if (entries == null) {
+                revokedSerialNumbers = Collections.emptySet();
+            } else {
+                revokedSerialNumbers = new HashSet<BigInteger>(entries.size() * 4 / 3 + 1);
+                for (X509CRLEntry entry : entries) {
+                    revokedSerialNumbers.add(entry.getSerialNumber());
+                }
+            }
+        }
+
+        boolean verify(Collection<X509Certificate> issuerCerts) {
+            if (issuerCerts == null) {
+                return false;
+            }
+            byte[] key = verifiedKey;
+            for (X509Certificate issuerCert : issuerCerts) {
+                if (key != null && isCRLSigner(issuerCert) 
+                    && Arrays.equals(key, issuerCert.getPublicKey().getEncoded())) {
+                    return true;
+                }
+            }
+            for (X509Certificate issuerCert : issuerCerts) {
+                if (!isCRLSigner(issuerCert)) {
+                    LOG.debug(
+                        "The certificate {} is not allowed to sign CRLs", 
+                        issuerCert.getSubjectX500Principal()
+                    );
+                    continue;
+                }
+                PublicKey issuerKey = issuerCert.getPublicKey();
+                try {
+                    crl.verify(issuerKey);
+                    verifiedKey = issuerKey.getEncoded();
+                    return true;
+                } catch (GeneralSecurityException ex) {
+                    LOG.debug(ex.getMessage(), ex);
+                }
+            }
+            return false;
+        }
+
+        private static boolean isCRLSigner(X509Certificate issuerCert) {
+            boolean[] keyUsage = issuerCert.getKeyUsage();
+            return keyUsage == null
+                || (keyUsage.length > CRL_SIGN_KEY_USAGE && keyUsage[CRL_SIGN_KEY_USAGE]);
+        }
+    }
+
+    /**
+     * The background refresh of an index. It only holds a weak reference to the index, so
+     * that an index that is no longer used can be garbage collected.
+     */
+    private static final class RefreshTask implements Runnable {
+        private final WeakReference<CRLIndex> index;
+
+        RefreshTask(CRLIndex index) {
+            this.index = new WeakReference<CRLIndex>(index);
+        }
+
+        public void run() {
+            CRLIndex crlIndex = index.get();
+            if (crlIndex == null) {
+                // Throwing an exception cancels the task
+                throw new IllegalStateException("The CRL index is no longer used");
+            }
+            try {
+                crlIndex.refresh();
+            } catch (Exception ex) {
+                LOG.debug(ex.getMessage(), ex);
+            }
+        }
+    }
+}
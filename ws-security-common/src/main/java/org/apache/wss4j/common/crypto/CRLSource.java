@@ -0,0 +1,40 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.crypto;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.cert.X509CRL;
+import java.util.Collection;
+
+/**
+ * A source of CRLs for a CRLIndex, for example a file or a CRL distribution point.
+ */
+public interface CRLSource {
+
+    /**
+     * Load the current CRLs of this source.
+     * @return the CRLs, or null if they have not changed since the last successful call
+     * @throws IOException if the CRLs can't be read
+     * @throws GeneralSecurityException if the CRLs can't be parsed
+     */
+    Collection<X509CRL> loadCRLs() throws IOException, GeneralSecurityException;
+
+}
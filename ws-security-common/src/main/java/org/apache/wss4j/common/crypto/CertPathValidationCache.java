@@ -0,0 +1,160 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.crypto;
+
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.wss4j.common.util.JCEInstanceCache;
+
+/**
+ * A bounded cache of successful certificate path validations. An entry is keyed by the
+ * SHA-1 fingerprint of each certificate in the chain, whether revocation checking was enabled,
+ * and the "generation" of the trust material (keystore, truststore and CRLs) that the chain was
+ * validated against. An entry expires after the configured time-to-live, or when any
+ * certificate in the chain expires, whichever is sooner. Only successful validations are cached.
+ * If the cache is full, the least recently used entry is evicted.
+ */
+public class CertPathValidationCache {
+
+    public static final long DEFAULT_TTL = 300L;
+    public static final int DEFAULT_MAX_ENTRIES = 1000;
+
+    private final Map<String, Long> entries;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final int maxEntries;
+    private final long ttl;
+
+    public CertPathValidationCache() {
+        this(DEFAULT_MAX_ENTRIES, DEFAULT_TTL);
+    }
+
+    /**
+     * Construct a new CertPathValidationCache
+     * @param maxEntries the maximum number of validation results to cache
+     * @param ttl the time-to-live of a cached validation result in seconds
+     */
+    public CertPathValidationCache(int maxEntries, long ttl) {
+        this.maxEntries = maxEntries;
+        this.ttl = ttl;
+        entries = new LinkedHashMap<String, Long>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                return size() > CertPathValidationCache.this.maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Return true if a successful validation of the given chain is cached for the given
+     * generation of the trust material
+     */
+    boolean contains(String key) {
+        synchronized (entries) {
+            Long expires = entries.get(key);
+            if (expires != null) {
+                if (expires.longValue() > System.currentTimeMillis()) {
+                    hits.incrementAndGet();
+                    return true;
+                }
+                entries.remove(key);
+            }
+        }
+        misses.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Cache a successful validation of the given chain
+     */
+    void add(String key, X509Certificate[] certs) {
+        long expires = System.currentTimeMillis() + (ttl * 1000L);
+        for (X509Certificate cert : certs) {
+            expires = Math.min(expires, cert.getNotAfter().getTime());
+        }
+        synchronized (entries) {
+            entries.put(key, Long.valueOf(expires));
+        }
+    }
+
+    /**
+     * Create a cache key for the given chain, revocation setting and generation
+     */
+    static String createKey(
+        X509Certificate[] certs, boolean enableRevocation, long generation
+    ) throws NoSuchAlgorithmException, CertificateEncodingException {
+        MessageDigest sha = JCEInstanceCache.getMessageDigest("SHA-1");
+        StringBuilder key = new StringBuilder(41 * certs.length + 24);
+        key.append(generation).append(enableRevocation ? ":r" : ":n");
+        for (X509Certificate cert : certs) {
+            key.append(':').append(new BigInteger(1, sha.digest(cert.getEncoded())).toString(16));
+        }
+        return key.toString();
+    }
+
+    /**
+     * Remove all cached validation results
+     */
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    /**
+     * Get the number of cached validation results
+     */
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * Get the number of times that a certificate chain was found in the cache
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Get the number of times that a certificate chain was not found in the cache
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    public long getTTL() {
+        return ttl;
+    }
+}
@@ -0,0 +1,318 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.crypto;
+
+import java.math.BigInteger;
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.TrustAnchor;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.wss4j.common.ext.WSSecurityException;
+
+/**
+ * An immutable index of the certificates contained in a KeyStore. Each certificate (chain) is
+ * indexed by the SubjectKeyIdentifier, SHA-1 thumbprint, issuer name and serial number, subject
+ * name and public key of the (leaf) certificate, as well as by the certificate itself to get the
+ * corresponding alias. Where more than one alias matches, the first alias returned by
+ * KeyStore.aliases() wins, which is the same result a linear search of the KeyStore returns.
+ * The TrustAnchors corresponding to the certificates in the KeyStore are also precomputed.
+ */
+final class CertificateIndex {
+
+    private static final org.slf4j.Logger LOG =
+        org.slf4j.LoggerFactory.getLogger(CertificateIndex.class);
+
+    private final KeyStore keyStore;
+    private final Map<ByteArrayKey, X509Certificate[]> skiMap;
+    private final Map<ByteArrayKey, X509Certificate[]> thumbprintMap;
+    private final Map<IssuerSerialKey, X509Certificate[]> issuerSerialMap;
+    private final Map<Object, X509Certificate[]> subjectMap;
+    private final Map<ByteArrayKey, X509Certificate[]> publicKeyMap;
+    private final Map<Certificate, String> aliasMap;
+    private final Set<TrustAnchor> trustAnchors;
+
+    private CertificateIndex(
+        KeyStore keyStore,
+        Map<ByteArrayKey, X509Certificate[]> skiMap,
+        Map<ByteArrayKey, X509Certificate[]> thumbprintMap,
+        Map<IssuerSerialKey, X509Certificate[]> issuerSerialMap,
+        Map<Object, X509Certificate[]> subjectMap,
+        Map<ByteArrayKey, X509Certificate[]> publicKeyMap,
+        Map<Certificate, String> aliasMap,
+        Set<TrustAnchor> trustAnchors
+    ) {
+        this.keyStore = keyStore;
+        this.skiMap = Collections.unmodifiableMap(skiMap);
+        this.thumbprintMap = Collections.unmodifiableMap(thumbprintMap);
+        this.issuerSerialMap = Collections.unmodifiableMap(issuerSerialMap);
+        this.subjectMap = Collections.unmodifiableMap(subjectMap);
+        this.publicKeyMap = Collections.unmodifiableMap(publicKeyMap);
+        this.aliasMap = Collections.unmodifiableMap(aliasMap);
+        this.trustAnchors = Collections.unmodifiableSet(trustAnchors);
+    }
+
+    /**
+     * Build a new CertificateIndex for the given KeyStore
+     * @param store the KeyStore to index
+     * @param crypto the CryptoBase instance used to compute SKI bytes and X.509 names
+     * @return a new CertificateIndex
+     * @throws WSSecurityException
+     */
+    static CertificateIndex build(KeyStore store, CryptoBase crypto) throws WSSecurityException {
+        Map<ByteArrayKey, X509Certificate[]> skiMap =
+            new HashMap<ByteArrayKey, X509Certificate[]>();
+        Map<ByteArrayKey, X509Certificate[]> thumbprintMap =
+            new HashMap<ByteArrayKey, X509Certificate[]>();
+        Map<IssuerSerialKey, X509Certificate[]> issuerSerialMap =
+            new HashMap<IssuerSerialKey, X509Certificate[]>();
+        Map<Object, X509Certificate[]> subjectMap = new HashMap<Object, X509Certificate[]>();
+        Map<ByteArrayKey, X509Certificate[]> publicKeyMap =
+            new HashMap<ByteArrayKey, X509Certificate[]>();
+        Map<Certificate, String> aliasMap = new HashMap<Certificate, String>();
+        Set<TrustAnchor> trustAnchors = new HashSet<TrustAnchor>();
+
+        MessageDigest sha = null;
+        try {
+            sha = MessageDigest.getInstance("SHA1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new WSSecurityException(
+                WSSecurityException.ErrorCode.FAILURE, "noSHA1availabe", null, e
+            );
+        }
+
+        try {
+            for (Enumeration<String> e = store.aliases(); e.hasMoreElements();) {
+                String alias = e.nextElement();
+                Certificate cert;
+                Certificate[] certs = store.getCertificateChain(alias);
+                if (certs == null || certs.length == 0) {
+                    // no cert chain, so lets check if getCertificate gives us a result.
+                    cert = store.getCertificate(alias);
+                    if (cert == null) {
+                        continue;
+                    }
+                    certs = new Certificate[]{cert};
+                } else {
+                    cert = certs[0];
+                }
+                if (!(cert instanceof X509Certificate)) {
+                    continue;
+                }
+                putIfAbsent(aliasMap, cert, alias);
+
+                X509Certificate x509cert = (X509Certificate) cert;
+                try {
+                    trustAnchors.add(
+                        new TrustAnchor(
+                            x509cert, x509cert.getExtensionValue(CryptoBase.NAME_CONSTRAINTS_OID)
+                        )
+                    );
+                } catch (IllegalArgumentException ex) {
+                    LOG.debug("Cannot create a TrustAnchor for the certificate with alias " + alias, ex);
+                }
+
+                X509Certificate[] x509certs = toX509Certificates(certs);
+                if (x509certs == null) {
+                    continue;
+                }
+
+                try {
+                    byte[] skiBytes = crypto.getSKIBytesFromCert(x509cert);
+                    putIfAbsent(skiMap, new ByteArrayKey(skiBytes), x509certs);
+                } catch (WSSecurityException ex) {
+                    LOG.debug("Cannot index the SKI of the certificate with alias " + alias, ex);
+                }
+
+                try {
+                    byte[] thumbprint = sha.digest(x509cert.getEncoded());
+                    putIfAbsent(thumbprintMap, new ByteArrayKey(thumbprint), x509certs);
+                } catch (CertificateEncodingException ex) {
+                    LOG.debug("Cannot index the thumbprint of the certificate with alias " + alias, ex);
+                }
+
+                Object issuerName =
+                    crypto.createBCX509Name(x509cert.getIssuerX500Principal().getName());
+                putIfAbsent(
+                    issuerSerialMap,
+                    new IssuerSerialKey(issuerName, x509cert.getSerialNumber()),
+                    x509certs
+                );
+
+                Object subjectName =
+                    crypto.createBCX509Name(x509cert.getSubjectX500Principal().getName());
+                putIfAbsent(subjectMap, subjectName, x509certs);
+
+                byte[] encodedKey = x509cert.getPublicKey().getEncoded();
+                if (encodedKey != null) {
+                    putIfAbsent(publicKeyMap, new ByteArrayKey(encodedKey), x509certs);
+                }
+            }
+        } catch (KeyStoreException e) {
+            throw new WSSecurityException(
+                WSSecurityException.ErrorCode.FAILURE, "keystore", null, e
+            );
+        }
+
+        return new CertificateIndex(
+            store, skiMap, thumbprintMap, issuerSerialMap, subjectMap, publicKeyMap, aliasMap,
+            trustAnchors
+        );
+    }
+
+    /**
+     * Get the KeyStore this index was built from. Changes made to the entries of the KeyStore
+     * after the index was built are not reflected in the index.
+     */
+    KeyStore getKeyStore() {
+        return keyStore;
+    }
+
+    X509Certificate[] getBySKI(byte[] skiBytes) {
+        return copy(skiMap.get(new ByteArrayKey(skiBytes)));
+    }
+
+    X509Certificate[] getByThumbprint(byte[] thumbprint) {
+        return copy(thumbprintMap.get(new ByteArrayKey(thumbprint)));
+    }
+
+    X509Certificate[] getByIssuerSerial(Object issuerName, BigInteger serialNumber) {
+        return copy(issuerSerialMap.get(new IssuerSerialKey(issuerName, serialNumber)));
+    }
+
+    X509Certificate[] getBySubject(Object subjectName) {
+        return copy(subjectMap.get(subjectName));
+    }
+
+    /**
+     * Return true if the given encoded public key belongs to an indexed certificate
+     */
+    boolean containsPublicKey(byte[] encodedKey) {
+        return publicKeyMap.containsKey(new ByteArrayKey(encodedKey));
+    }
+
+    String getAlias(X509Certificate cert) {
+        return aliasMap.get(cert);
+    }
+
+    /**
+     * Get the (unmodifiable) set of TrustAnchors for the certificates in the KeyStore
+     */
+    Set<TrustAnchor> getTrustAnchors() {
+        return trustAnchors;
+    }
+
+    private static <K, V> void putIfAbsent(Map<K, V> map, K key, V value) {
+        if (!map.containsKey(key)) {
+            map.put(key, value);
+        }
+    }
+
+    private static X509Certificate[] toX509Certificates(Certificate[] certs) {
+        X509Certificate[] x509certs = new X509Certificate[certs.length];
+        for (int i = 0; i < certs.length; i++) {
+            if (!(certs[i] instanceof X509Certificate)) {
+                return null;
+            }
+            x509certs[i] = (X509Certificate) certs[i];
+        }
+        return x509certs;
+    }
+
+    private static X509Certificate[] copy(X509Certificate[] certs) {
+        if (certs == null) {
+            return null;
+        }
+        X509Certificate[] copy = new X509Certificate[certs.length];
+        System.arraycopy(certs, 0, copy, 0, certs.length);
+        return copy;
+    }
+
+    /**
+     * A byte array wrapper that can be used as a HashMap key
+     */
+    private static final class ByteArrayKey {
+        private final byte[] bytes;
+        private final int hashCode;
+
+        ByteArrayKey(byte[] bytes) {
+            this.bytes = bytes;
+            hashCode = Arrays.hashCode(bytes);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof ByteArrayKey)) {
+                return false;
+            }
+            return Arrays.equals(bytes, ((ByteArrayKey)obj).bytes);
+        }
+    }
+
+    /**
+     * An issuer name (either an X500Principal or a BouncyCastle X509Name) and serial number
+     */
+    private static final class IssuerSerialKey {
+        private final Object issuerName;
+        private final BigInteger serialNumber;
+
+        IssuerSerialKey(Object issuerName, BigInteger serialNumber) {
+            this.issuerName = issuerName;
+            this.serialNumber = serialNumber;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * issuerName.hashCode() + serialNumber.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof IssuerSerialKey)) {
+                return false;
+            }
+            IssuerSerialKey other = (IssuerSerialKey)obj;
+            return serialNumber.equals(other.serialNumber) && issuerName.equals(other.issuerName);
+        }
+    }
+
+}
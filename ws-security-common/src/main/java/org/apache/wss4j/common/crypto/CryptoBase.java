@@ -37,6 +37,7 @@ import java.util.Map;
 import javax.security.auth.x500.X500Principal;
 
 import org.apache.wss4j.common.ext.WSSecurityException;
+import org.apache.wss4j.common.util.JCEInstanceCache;
 
 /**
  * This Abstract Base Class implements the accessor and keystore-independent methods and
@@ -217,7 +218,7 @@ public abstract class CryptoBase implements Crypto {
             X509SubjectPublicKeyInfo spki = new X509SubjectPublicKeyInfo(cert.getPublicKey());
             byte[] value = spki.getSubjectPublicKey();
             try {
-                MessageDigest digest = MessageDigest.getInstance("SHA-1");
+                MessageDigest digest = JCEInstanceCache.getMessageDigest("SHA-1");
                 return digest.digest(value);
             } catch (Exception ex) {
                 throw new WSSecurityException(
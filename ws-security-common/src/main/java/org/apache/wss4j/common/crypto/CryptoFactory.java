@@ -107,7 +107,21 @@ public abstract class CryptoFactory {
             throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE,
                     "empty", null, "Cannot load Crypto instance as properties object is null");
         }
-
+        
+        if (ReloadingCrypto.getReloadInterval(properties) > 0) {
+            return new ReloadingCrypto(properties, classLoader);
+        }
+        return loadInstance(properties, classLoader);
+    }
+    
+    /**
+     * Load a new instance of the Crypto implementation that is configured in the given 
+     * properties, without a ReloadingCrypto around it.
+     */
+    static Crypto loadInstance(
+        Properties properties, 
+        ClassLoader classLoader
+    ) throws WSSecurityException {
         String cryptoClassName = properties.getProperty("org.apache.wss4j.crypto.provider");
         if (cryptoClassName == null) {
             cryptoClassName = properties.getProperty("org.apache.ws.security.crypto.provider");
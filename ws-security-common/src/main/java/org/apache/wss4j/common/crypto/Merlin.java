@@ -19,15 +19,17 @@
 
 package org.apache.wss4j.common.crypto;
 
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.math.BigInteger;
+import java.net.URL;
 import java.security.GeneralSecurityException;
+import java.security.InvalidAlgorithmParameterException;
 import java.security.Key;
 import java.security.KeyStore;
 import java.security.KeyStoreException;
-import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
 import java.security.PrivateKey;
@@ -35,9 +37,9 @@ import java.security.PublicKey;
 import java.security.UnrecoverableKeyException;
 import java.security.cert.CertPath;
 import java.security.cert.CertPathValidator;
+import java.security.cert.CertPathValidatorException;
 import java.security.cert.CertStore;
 import java.security.cert.Certificate;
-import java.security.cert.CertificateEncodingException;
 import java.security.cert.CertificateException;
 import java.security.cert.CertificateFactory;
 import java.security.cert.CollectionCertStoreParameters;
@@ -45,13 +47,17 @@ import java.security.cert.PKIXParameters;
 import java.security.cert.TrustAnchor;
 import java.security.cert.X509CRL;
 import java.security.cert.X509Certificate;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.security.auth.callback.Callback;
 import javax.security.auth.callback.CallbackHandler;
@@ -64,7 +70,9 @@ import org.apache.wss4j.common.util.Loader;
 
 /**
  * A Crypto implementation based on two Java KeyStore objects, one being the keystore, and one
- * being the truststore.
+ * being the truststore. Certificate lookups are answered from an index of each KeyStore, which
+ * is built when the KeyStore is loaded or set. If the entries of a KeyStore are changed in place,
+ * refreshIndexes() must be called for the changes to be visible.
  */
 public class Merlin extends CryptoBase {
     
@@ -103,10 +111,28 @@ public class Merlin extends CryptoBase {
      * CRL configuration
      */
     public static final String X509_CRL_FILE = "x509crl.file";
+    /**
+     * Whether to check the revocation status against an in-memory index of the x509crl.file
+     * CRLs (see CRLIndex) instead of the PKIX revocation checking. The default is "false".
+     */
+    public static final String X509_CRL_INDEX = "x509crl.index";
+    /**
+     * The interval in seconds after which the CRLs of the index are reloaded in the background.
+     * The default is 0, i.e. no background reload.
+     */
+    public static final String X509_CRL_REFRESH_INTERVAL = "x509crl.refresh.interval";
+    public static final long DEFAULT_CRL_REFRESH_INTERVAL = 0L;
+    
+    /*
+     * Certificate path validation cache configuration
+     */
+    public static final String CERTPATH_CACHE_SIZE = "certpath.cache.size";
+    public static final String CERTPATH_CACHE_TTL = "certpath.cache.ttl";
     
     private static final org.slf4j.Logger LOG = 
         org.slf4j.LoggerFactory.getLogger(Merlin.class);
     private static final boolean DO_DEBUG = LOG.isDebugEnabled();
+    private static final AtomicLong TRUST_GENERATIONS = new AtomicLong();
 
     protected Properties properties;
     protected KeyStore keystore;
@@ -115,6 +141,12 @@ public class Merlin extends CryptoBase {
     protected boolean loadCACerts;
     protected boolean privatePasswordSet; 
     
+    private volatile CertificateIndex keystoreIndex;
+    private volatile CertificateIndex truststoreIndex;
+    private volatile TrustState trustState;
+    private volatile CertPathValidationCache certPathValidationCache;
+    private volatile CRLIndex crlIndex;
+    
     public Merlin() {
         // default constructor
     }
@@ -339,7 +371,39 @@ public class Merlin extends CryptoBase {
                     is.close();
                 }
             }
+            
+            String crlIndexEnabled = properties.getProperty(prefix + X509_CRL_INDEX);
+            if (crlIndexEnabled != null && Boolean.parseBoolean(crlIndexEnabled.trim())) {
+                loadCRLIndex(
+                    loader, crlLocation, properties.getProperty(prefix + X509_CRL_REFRESH_INTERVAL)
+                );
+            }
         }
+        
+        //
+        // Configure the cache of certificate path validation results
+        //
+        String certPathCacheSize = properties.getProperty(prefix + CERTPATH_CACHE_SIZE);
+        if (certPathCacheSize != null) {
+            String certPathCacheTTL = properties.getProperty(prefix + CERTPATH_CACHE_TTL);
+            try {
+                int size = Integer.parseInt(certPathCacheSize.trim());
+                long ttl = CertPathValidationCache.DEFAULT_TTL;
+                if (certPathCacheTTL != null) {
+                    ttl = Long.parseLong(certPathCacheTTL.trim());
+                }
+                if (size > 0 && ttl > 0) {
+                    certPathValidationCache = new CertPathValidationCache(size, ttl);
+                }
+            } catch (NumberFormatException e) {
+                LOG.warn("Error in configuring the certificate path validation cache: " + e.getMessage());
+            }
+        }
+        
+        //
+        // Index the certificates of the KeyStore and TrustStore
+        //
+        refreshIndexes();
     }
 
     
@@ -428,12 +492,13 @@ public class Merlin extends CryptoBase {
     }
     
     /**
-     * Set the Keystore on this Crypto instance
+     * Set the Keystore on this Crypto instance, and build the certificate index of it.
      *
      * @param keyStore the Keystore to set
      */
     public void setKeyStore(KeyStore keyStore) {
         keystore = keyStore;
+        keystoreIndex = buildCertificateIndex(keyStore);
     }
     
     /**
@@ -446,12 +511,13 @@ public class Merlin extends CryptoBase {
     }
     
     /**
-     * Set the trust store on this Crypto instance
+     * Set the trust store on this Crypto instance, and build the certificate index of it.
      *
      * @param trustStore the trust store to set
      */
     public void setTrustStore(KeyStore trustStore) {
         truststore = trustStore;
+        truststoreIndex = buildCertificateIndex(trustStore);
     }
     
     /**
@@ -462,6 +528,7 @@ public class Merlin extends CryptoBase {
      */
     public void setCRLCertStore(CertStore crlCertStore) {
         this.crlCertStore = crlCertStore;
+        setCRLIndex(null);
     }
     
     /**
@@ -474,6 +541,44 @@ public class Merlin extends CryptoBase {
         return crlCertStore;
     }
     
+    /**
+     * Set the CRLIndex that is used for Certificate Revocation checking instead of the
+     * revocation checking of the PKIX CertPathValidator. The previous CRLIndex is closed.
+     * @param crlIndex the CRLIndex, or null to use the CRL CertStore
+     */
+    public void setCRLIndex(CRLIndex crlIndex) {
+        CRLIndex previous = this.crlIndex;
+        this.crlIndex = crlIndex;
+        if (previous != null && previous != crlIndex) {
+            previous.close();
+        }
+    }
+    
+    /**
+     * Get the CRLIndex that is used for Certificate Revocation checking
+     * @return the CRLIndex, or null if the CRL CertStore is used
+     */
+    public CRLIndex getCRLIndex() {
+        return crlIndex;
+    }
+    
+    /**
+     * Set the cache of successful certificate path validation results. If this is null (the
+     * default), then every certificate path is validated in full.
+     * @param certPathValidationCache the cache of certificate path validation results
+     */
+    public void setCertPathValidationCache(CertPathValidationCache certPathValidationCache) {
+        this.certPathValidationCache = certPathValidationCache;
+    }
+    
+    /**
+     * Get the cache of successful certificate path validation results
+     * @return the cache of successful certificate path validation results
+     */
+    public CertPathValidationCache getCertPathValidationCache() {
+        return certPathValidationCache;
+    }
+    
     /**
      * Singleton certificate factory for this Crypto instance.
      * <p/>
@@ -777,59 +882,39 @@ public class Merlin extends CryptoBase {
         boolean enableRevocation
     ) throws WSSecurityException {
         try {
-            // Generate cert path
-            List<X509Certificate> certList = Arrays.asList(certs);
-            CertPath path = getCertificateFactory().generateCertPath(certList);
-
-            Set<TrustAnchor> set = new HashSet<TrustAnchor>();
-            if (truststore != null) {
-                Enumeration<String> truststoreAliases = truststore.aliases();
-                while (truststoreAliases.hasMoreElements()) {
-                    String alias = truststoreAliases.nextElement();
-                    X509Certificate cert = 
-                        (X509Certificate) truststore.getCertificate(alias);
-                    if (cert != null) {
-                        TrustAnchor anchor = 
-                            new TrustAnchor(cert, cert.getExtensionValue(NAME_CONSTRAINTS_OID));
-                        set.add(anchor);
-                    }
-                }
-            }
-
-            //
-            // Add certificates from the keystore - only if there is no TrustStore, apart from
-            // the case that the truststore is the JDK CA certs. This behaviour is preserved
-            // for backwards compatibility reasons
-            //
-            if (keystore != null && (truststore == null || loadCACerts)) {
-                Enumeration<String> aliases = keystore.aliases();
-                while (aliases.hasMoreElements()) {
-                    String alias = aliases.nextElement();
-                    X509Certificate cert = 
-                        (X509Certificate) keystore.getCertificate(alias);
-                    if (cert != null) {
-                        TrustAnchor anchor = 
-                            new TrustAnchor(cert, cert.getExtensionValue(NAME_CONSTRAINTS_OID));
-                        set.add(anchor);
+            TrustState state = getTrustState();
+            
+            // The revocation status is looked up in the CRLIndex after the path validation, 
+            // which doesn't check revocation then
+            CRLIndex crls = enableRevocation ? crlIndex : null;
+            boolean pkixRevocation = enableRevocation && crls == null;
+            
+            CertPathValidationCache cache = certPathValidationCache;
+            String cacheKey = null;
+            if (cache != null) {
+                cacheKey = 
+                    CertPathValidationCache.createKey(certs, pkixRevocation, state.generation);
+                if (cache.contains(cacheKey)) {
+                    if (crls != null) {
+                        checkRevocation(crls, certs, state);
                     }
+                    return true;
                 }
             }
+            
+            // Generate cert path
+            List<X509Certificate> certList = Arrays.asList(certs);
+            CertPath path = getCertificateFactory().generateCertPath(certList);
 
-            PKIXParameters param = new PKIXParameters(set);
-            param.setRevocationEnabled(enableRevocation);
-            if (enableRevocation && crlCertStore != null) {
-                param.addCertStore(crlCertStore);
+            // Verify the trust path using the precomputed settings
+            state.validate(path, pkixRevocation);
+            if (crls != null) {
+                checkRevocation(crls, certs, state);
             }
-
-            // Verify the trust path using the above settings
-            String provider = getCryptoProvider();
-            CertPathValidator validator = null;
-            if (provider == null || provider.length() == 0) {
-                validator = CertPathValidator.getInstance("PKIX");
-            } else {
-                validator = CertPathValidator.getInstance("PKIX", provider);
+            
+            if (cache != null) {
+                cache.add(cacheKey, certs);
             }
-            validator.validate(path, param);
             return true;
         } catch (java.security.NoSuchProviderException e) {
                 throw new WSSecurityException(
@@ -857,11 +942,6 @@ public class Merlin extends CryptoBase {
                     WSSecurityException.ErrorCode.FAILED_AUTHENTICATION, "certpath",
                     e
                 );
-        } catch (java.security.KeyStoreException e) {
-                throw new WSSecurityException(
-                    WSSecurityException.ErrorCode.FAILURE, "certpath",
-                    e
-                );
         } catch (NullPointerException e) {
                 // NPE thrown by JDK 1.7 for one of the test cases
                 throw new WSSecurityException(
@@ -930,71 +1010,20 @@ public class Merlin extends CryptoBase {
         } catch (java.lang.IllegalArgumentException ex) {
             issuerName = createBCX509Name(issuer);
         }
-        Certificate[] certs = null;
-        if (keystore != null) {
-            certs = getCertificates(issuerName, serialNumber, keystore);
+        X509Certificate[] certs = null;
+        CertificateIndex index = getCertificateIndex(keystore);
+        if (index != null) {
+            certs = index.getByIssuerSerial(issuerName, serialNumber);
         }
 
         //If we can't find the issuer in the keystore then look at the truststore
-        if ((certs == null || certs.length == 0) && truststore != null) {
-            certs = getCertificates(issuerName, serialNumber, truststore);
-        }
-        
-        if ((certs == null || certs.length == 0)) {
-            return null;
-        }
-        
-        X509Certificate[] x509certs = new X509Certificate[certs.length];
-        for (int i = 0; i < certs.length; i++) {
-            x509certs[i] = (X509Certificate) certs[i];
-        }
-        return x509certs;
-    }
-    
-    /**
-     * Get an X509 Certificate (chain) of the X500Principal argument in the supplied KeyStore 
-     * @param issuerRDN either an X500Principal or a BouncyCastle X509Name instance.
-     * @param store The KeyStore
-     * @return an X509 Certificate (chain)
-     * @throws WSSecurityException
-     */
-    private Certificate[] getCertificates(
-        Object issuerRDN, 
-        BigInteger serialNumber, 
-        KeyStore store
-    ) throws WSSecurityException {
-        try {
-            for (Enumeration<String> e = store.aliases(); e.hasMoreElements();) {
-                String alias = e.nextElement();
-                Certificate cert = null;
-                Certificate[] certs = store.getCertificateChain(alias);
-                if (certs == null || certs.length == 0) {
-                    // no cert chain, so lets check if getCertificate gives us a result.
-                    cert = store.getCertificate(alias);
-                    if (cert == null) {
-                        continue;
-                    }
-                    certs = new Certificate[]{cert};
-                } else {
-                    cert = certs[0];
-                }
-                if (cert instanceof X509Certificate) {
-                    X509Certificate x509cert = (X509Certificate) cert;
-                    if (x509cert.getSerialNumber().compareTo(serialNumber) == 0) {
-                        Object certName = 
-                            createBCX509Name(x509cert.getIssuerX500Principal().getName());
-                        if (certName.equals(issuerRDN)) {
-                            return certs;
-                        }
-                    }
-                }
+        if (certs == null) {
+            index = getCertificateIndex(truststore);
+            if (index != null) {
+                certs = index.getByIssuerSerial(issuerName, serialNumber);
             }
-        } catch (KeyStoreException e) {
-            throw new WSSecurityException(
-                WSSecurityException.ErrorCode.FAILURE, "keystore", null, e
-            );
         }
-        return new Certificate[]{};
+        return certs;
     }
     
     /**
@@ -1005,86 +1034,20 @@ public class Merlin extends CryptoBase {
      * @throws WSSecurityException if problems during keystore handling or wrong certificate
      */
     private X509Certificate[] getX509Certificates(byte[] thumbprint) throws WSSecurityException {
-        MessageDigest sha = null;
-        
-        try {
-            sha = MessageDigest.getInstance("SHA1");
-        } catch (NoSuchAlgorithmException e) {
-            throw new WSSecurityException(
-                WSSecurityException.ErrorCode.FAILURE, "noSHA1availabe", null, e
-            );
-        }
-        Certificate[] certs = null;
-        if (keystore != null) {
-            certs = getCertificates(thumbprint, keystore, sha);
+        X509Certificate[] certs = null;
+        CertificateIndex index = getCertificateIndex(keystore);
+        if (index != null) {
+            certs = index.getByThumbprint(thumbprint);
         }
 
         //If we can't find the issuer in the keystore then look at the truststore
-        if ((certs == null || certs.length == 0) && truststore != null) {
-            certs = getCertificates(thumbprint, truststore, sha);
-        }
-        
-        if ((certs == null || certs.length == 0)) {
-            return null;
-        }
-        
-        X509Certificate[] x509certs = new X509Certificate[certs.length];
-        for (int i = 0; i < certs.length; i++) {
-            x509certs[i] = (X509Certificate) certs[i];
-        }
-        return x509certs;
-    }
-
-    /**
-     * Get an X509 Certificate (chain) of the X500Principal argument in the supplied KeyStore 
-     * @param thumbprint
-     * @param store The KeyStore
-     * @return an X509 Certificate (chain)
-     * @throws WSSecurityException
-     */
-    private Certificate[] getCertificates(
-        byte[] thumbprint, 
-        KeyStore store,
-        MessageDigest sha
-    ) throws WSSecurityException {
-        try {
-            for (Enumeration<String> e = store.aliases(); e.hasMoreElements();) {
-                String alias = e.nextElement();
-                Certificate cert = null;
-                Certificate[] certs = store.getCertificateChain(alias);
-                if (certs == null || certs.length == 0) {
-                    // no cert chain, so lets check if getCertificate gives us a result.
-                    cert = store.getCertificate(alias);
-                    if (cert == null) {
-                        continue;
-                    }
-                    certs = new Certificate[]{cert};
-                } else {
-                    cert = certs[0];
-                }
-                if (cert instanceof X509Certificate) {
-                    X509Certificate x509cert = (X509Certificate) cert;
-                    try {
-                        sha.update(x509cert.getEncoded());
-                    } catch (CertificateEncodingException ex) {
-                        throw new WSSecurityException(
-                            WSSecurityException.ErrorCode.SECURITY_TOKEN_UNAVAILABLE, "encodeError",
-                            null, ex
-                        );
-                    }
-                    byte[] data = sha.digest();
-
-                    if (Arrays.equals(data, thumbprint)) {
-                        return certs;
-                    }
-                }
+        if (certs == null) {
+            index = getCertificateIndex(truststore);
+            if (index != null) {
+                certs = index.getByThumbprint(thumbprint);
             }
-        } catch (KeyStoreException e) {
-            throw new WSSecurityException(
-                WSSecurityException.ErrorCode.FAILURE, "keystore", null, e
-            );
         }
-        return new Certificate[]{};
+        return certs;
     }
     
     /**
@@ -1094,67 +1057,20 @@ public class Merlin extends CryptoBase {
      * @return the X509 certificate (chain) that was found (can be null)
      */
     private X509Certificate[] getX509CertificatesSKI(byte[] skiBytes) throws WSSecurityException {
-        Certificate[] certs = null;
-        if (keystore != null) {
-            certs = getCertificates(skiBytes, keystore);
+        X509Certificate[] certs = null;
+        CertificateIndex index = getCertificateIndex(keystore);
+        if (index != null) {
+            certs = index.getBySKI(skiBytes);
         }
 
         //If we can't find the issuer in the keystore then look at the truststore
-        if ((certs == null || certs.length == 0) && truststore != null) {
-            certs = getCertificates(skiBytes, truststore);
-        }
-        
-        if ((certs == null || certs.length == 0)) {
-            return null;
-        }
-        
-        X509Certificate[] x509certs = new X509Certificate[certs.length];
-        for (int i = 0; i < certs.length; i++) {
-            x509certs[i] = (X509Certificate) certs[i];
-        }
-        return x509certs;
-    }
-    
-    /**
-     * Get an X509 Certificate (chain) of the X500Principal argument in the supplied KeyStore 
-     * @param skiBytes
-     * @param store The KeyStore
-     * @return an X509 Certificate (chain)
-     * @throws WSSecurityException
-     */
-    private Certificate[] getCertificates(
-        byte[] skiBytes, 
-        KeyStore store
-    ) throws WSSecurityException {
-        try {
-            for (Enumeration<String> e = store.aliases(); e.hasMoreElements();) {
-                String alias = e.nextElement();
-                Certificate cert = null;
-                Certificate[] certs = store.getCertificateChain(alias);
-                if (certs == null || certs.length == 0) {
-                    // no cert chain, so lets check if getCertificate gives us a result.
-                    cert = store.getCertificate(alias);
-                    if (cert == null) {
-                        continue;
-                    }
-                    certs = new Certificate[]{cert};
-                } else {
-                    cert = certs[0];
-                }
-                if (cert instanceof X509Certificate) {
-                    X509Certificate x509cert = (X509Certificate) cert;
-                    byte[] data = getSKIBytesFromCert(x509cert);
-                    if (data.length == skiBytes.length && Arrays.equals(data, skiBytes)) {
-                        return certs;
-                    }
-                }
+        if (certs == null) {
+            index = getCertificateIndex(truststore);
+            if (index != null) {
+                certs = index.getBySKI(skiBytes);
             }
-        } catch (KeyStoreException e) {
-            throw new WSSecurityException(
-                WSSecurityException.ErrorCode.FAILURE, "keystore", null, e
-            );
         }
-        return new Certificate[]{};
+        return certs;
     }
     
     /**
@@ -1181,25 +1097,20 @@ public class Merlin extends CryptoBase {
             subject = createBCX509Name(subjectDN);
         }
         
-        Certificate[] certs = null;
-        if (keystore != null) {
-            certs = getCertificates(subject, keystore);
+        X509Certificate[] certs = null;
+        CertificateIndex index = getCertificateIndex(keystore);
+        if (index != null) {
+            certs = index.getBySubject(subject);
         }
 
         //If we can't find the issuer in the keystore then look at the truststore
-        if ((certs == null || certs.length == 0) && truststore != null) {
-            certs = getCertificates(subject, truststore);
-        }
-        
-        if ((certs == null || certs.length == 0)) {
-            return null;
-        }
-        
-        X509Certificate[] x509certs = new X509Certificate[certs.length];
-        for (int i = 0; i < certs.length; i++) {
-            x509certs[i] = (X509Certificate) certs[i];
+        if (certs == null) {
+            index = getCertificateIndex(truststore);
+            if (index != null) {
+                certs = index.getBySubject(subject);
+            }
         }
-        return x509certs;
+        return certs;
     }
     
     /**
@@ -1256,6 +1167,17 @@ public class Merlin extends CryptoBase {
         if (keyStoreToSearch == null) {
             return false;
         }
+        byte[] encodedKey = publicKey.getEncoded();
+        if (encodedKey != null) {
+            try {
+                CertificateIndex index = getCertificateIndex(keyStoreToSearch);
+                if (index != null) {
+                    return index.containsPublicKey(encodedKey);
+                }
+            } catch (WSSecurityException e) {
+                return false;
+            }
+        }
         try {
             for (Enumeration<String> e = keyStoreToSearch.aliases(); e.hasMoreElements();) {
                 String alias = e.nextElement();
@@ -1285,44 +1207,152 @@ public class Merlin extends CryptoBase {
     }
     
     /**
-     * Get an X509 Certificate (chain) of the X500Principal argument in the supplied KeyStore 
-     * @param subjectRDN either an X500Principal or a BouncyCastle X509Name instance.
+     * Load the CRLIndex of the given CRL location, and refresh it in the background after the
+     * given interval (in seconds) unless it is 0.
+     */
+    private void loadCRLIndex(
+        ClassLoader loader, String crlLocation, String refreshInterval
+    ) throws WSSecurityException {
+        long interval = DEFAULT_CRL_REFRESH_INTERVAL;
+        try {
+            if (refreshInterval != null) {
+                interval = Long.parseLong(refreshInterval.trim());
+            }
+            URL url = Loader.getResource(loader, crlLocation);
+            if (url == null) {
+                url = new File(crlLocation).toURI().toURL();
+            }
+            CRLIndex index = new CRLIndex(new URLCRLSource(url));
+            index.refresh();
+            if (interval > 0) {
+                index.startRefresh(interval);
+            }
+            setCRLIndex(index);
+        } catch (Exception e) {
+            if (DO_DEBUG) {
+                LOG.debug(e.getMessage(), e);
+            }
+            throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE, "ioError00", e);
+        }
+    }
+    
+    /**
+     * Check the revocation status of each certificate of a validated chain in the CRLIndex.
+     * The CRL of a certificate must be signed by the next certificate in the chain, or by a 
+     * trust anchor for the last certificate, unless it is a trust anchor itself.
+     */
+    private static void checkRevocation(
+        CRLIndex crls, X509Certificate[] certs, TrustState state
+    ) throws CertPathValidatorException {
+        for (int i = 0; i < certs.length; i++) {
+            X509Certificate cert = certs[i];
+            if (i + 1 < certs.length) {
+                crls.checkRevocation(cert, Collections.singletonList(certs[i + 1]));
+            } else if (!state.isTrustAnchor(cert)) {
+                crls.checkRevocation(
+                    cert, state.getTrustAnchorCerts(cert.getIssuerX500Principal())
+                );
+            }
+        }
+    }
+    
+    /**
+     * Rebuild the indexes of the keystore and truststore, and the trust anchors. The indexes
+     * are built when a KeyStore is loaded or set, so this only needs to be called after the
+     * entries of the keystore or truststore have been changed in place.
+     * @throws WSSecurityException
+     */
+    public void refreshIndexes() throws WSSecurityException {
+        keystoreIndex = keystore == null ? null : CertificateIndex.build(keystore, this);
+        truststoreIndex = truststore == null ? null : CertificateIndex.build(truststore, this);
+        trustState = null;
+        try {
+            getTrustState();
+        } catch (GeneralSecurityException e) {
+            // e.g. there are no trust anchors, which is reported by verifyTrust
+            if (DO_DEBUG) {
+                LOG.debug(e.getMessage(), e);
+            }
+        }
+    }
+    
+    /**
+     * Get the TrustState corresponding to the current keystore, truststore, CRLs and provider.
+     * A new TrustState (with a new generation) is created if any of these have changed since
+     * the last call.
+     */
+    private TrustState getTrustState() 
+        throws NoSuchAlgorithmException, NoSuchProviderException, 
+        InvalidAlgorithmParameterException, WSSecurityException {
+        CertificateIndex truststoreIdx = getCertificateIndex(truststore);
+        
+        //
+        // Add certificates from the keystore - only if there is no TrustStore, apart from
+        // the case that the truststore is the JDK CA certs. This behaviour is preserved
+        // for backwards compatibility reasons
+        //
+        CertificateIndex keystoreIdx = null;
+        if (keystore != null && (truststore == null || loadCACerts)) {
+            keystoreIdx = getCertificateIndex(keystore);
+        }
+        
+        CertStore crls = crlCertStore;
+        String provider = getCryptoProvider();
+        TrustState state = trustState;
+        if (state == null || !state.isStateOf(keystoreIdx, truststoreIdx, crls, provider)) {
+            state = new TrustState(keystoreIdx, truststoreIdx, crls, provider);
+            trustState = state;
+        }
+        return state;
+    }
+    
+    /**
+     * Get the CertificateIndex of the given KeyStore, if it is the keystore or truststore. The
+     * index that was built when the KeyStore was loaded or set is returned, unless the
+     * keystore or truststore field has since been assigned a different KeyStore directly.
      * @param store The KeyStore
-     * @return an X509 Certificate (chain)
+     * @return the CertificateIndex of the KeyStore, or null if the KeyStore is null or is 
+     *         neither the keystore nor the truststore
      * @throws WSSecurityException
      */
-    private Certificate[] getCertificates(Object subjectRDN, KeyStore store) 
-        throws WSSecurityException {
+    private CertificateIndex getCertificateIndex(KeyStore store) throws WSSecurityException {
+        if (store == null) {
+            return null;
+        }
+        if (store == keystore) {
+            CertificateIndex index = keystoreIndex;
+            if (index == null || index.getKeyStore() != store) {
+                index = CertificateIndex.build(store, this);
+                keystoreIndex = index;
+            }
+            return index;
+        } else if (store == truststore) {
+            CertificateIndex index = truststoreIndex;
+            if (index == null || index.getKeyStore() != store) {
+                index = CertificateIndex.build(store, this);
+                truststoreIndex = index;
+            }
+            return index;
+        }
+        return null;
+    }
+    
+    /**
+     * Build the CertificateIndex of a KeyStore that is being set. If the index cannot be built,
+     * it is built on the next certificate lookup instead, where the error is reported.
+     */
+    private CertificateIndex buildCertificateIndex(KeyStore store) {
+        if (store == null) {
+            return null;
+        }
         try {
-            for (Enumeration<String> e = store.aliases(); e.hasMoreElements();) {
-                String alias = e.nextElement();
-                Certificate cert = null;
-                Certificate[] certs = store.getCertificateChain(alias);
-                if (certs == null || certs.length == 0) {
-                    // no cert chain, so lets check if getCertificate gives us a result.
-                    cert = store.getCertificate(alias);
-                    if (cert == null) {
-                        continue;
-                    }
-                    certs = new Certificate[]{cert};
-                } else {
-                    cert = certs[0];
-                }
-                if (cert instanceof X509Certificate) {
-                    X500Principal foundRDN = ((X509Certificate) cert).getSubjectX500Principal();
-                    Object certName = createBCX509Name(foundRDN.getName());
-
-                    if (subjectRDN.equals(certName)) {
-                        return certs;
-                    }
-                }
+            return CertificateIndex.build(store, this);
+        } catch (WSSecurityException e) {
+            if (DO_DEBUG) {
+                LOG.debug(e.getMessage(), e);
             }
-        } catch (KeyStoreException e) {
-            throw new WSSecurityException(
-                WSSecurityException.ErrorCode.FAILURE, "keystore", null, e
-            );
+            return null;
         }
-        return new Certificate[]{};
     }
     
     private static String createKeyStoreErrorMessage(KeyStore keystore) throws KeyStoreException {
@@ -1352,32 +1382,15 @@ public class Merlin extends CryptoBase {
      */
     private String getIdentifier(X509Certificate cert, KeyStore store)
         throws WSSecurityException {
+        CertificateIndex index = getCertificateIndex(store);
+        if (index != null) {
+            return index.getAlias(cert);
+        }
         try {
-            for (Enumeration<String> e = store.aliases(); e.hasMoreElements();) {
-                String alias = e.nextElement();
-                
-                Certificate[] certs = store.getCertificateChain(alias);
-                Certificate retrievedCert = null;
-                if (certs == null || certs.length == 0) {
-                    // no cert chain, so lets check if getCertificate gives us a  result.
-                    retrievedCert = store.getCertificate(alias);
-                    if (retrievedCert == null) {
-                        continue;
-                    }
-                } else {
-                    retrievedCert = certs[0];
-                }
-                if (!(retrievedCert instanceof X509Certificate)) {
-                    continue;
-                }
-                if (retrievedCert.equals(cert)) {
-                    return alias;
-                }
-            }
+            return store.getCertificateAlias(cert);
         } catch (KeyStoreException e) {
             throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE, "keystore", null, e);
         }
-        return null;
     }
     
     /**
@@ -1415,5 +1428,109 @@ public class Merlin extends CryptoBase {
         return pwCb.getPassword();
     }
     
+    /**
+     * The TrustAnchors, PKIXParameters and CertPathValidator derived from a particular
+     * keystore, truststore, CRL CertStore and provider. The PKIXParameters are cloned
+     * before use, and the CertPathValidator is shared as the PKIX implementations do
+     * not hold any state between calls to validate.
+     */
+    private static final class TrustState {
+        
+        private final CertificateIndex keystoreIndex;
+        private final CertificateIndex truststoreIndex;
+        private final CertStore crlCertStore;
+        private final String provider;
+        private final PKIXParameters parameters;
+        private final PKIXParameters revocationParameters;
+        private final CertPathValidator validator;
+        private final Map<X500Principal, List<X509Certificate>> trustAnchorCerts;
+        private final long generation;
+        
+        TrustState(
+            CertificateIndex keystoreIndex,
+            CertificateIndex truststoreIndex,
+            CertStore crlCertStore,
+            String provider
+        ) throws NoSuchAlgorithmException, NoSuchProviderException, 
+            InvalidAlgorithmParameterException {
+            this.keystoreIndex = keystoreIndex;
+            this.truststoreIndex = truststoreIndex;
+            this.crlCertStore = crlCertStore;
+            this.provider = provider;
+            
+            Set<TrustAnchor> set = new HashSet<TrustAnchor>();
+            if (truststoreIndex != null) {
+                set.addAll(truststoreIndex.getTrustAnchors());
+            }
+            if (keystoreIndex != null) {
+                set.addAll(keystoreIndex.getTrustAnchors());
+            }
+            
+            trustAnchorCerts = new HashMap<X500Principal, List<X509Certificate>>();
+            for (TrustAnchor trustAnchor : set) {
+                // A trust anchor without a certificate can't be checked for the cRLSign usage
+                X509Certificate trustedCert = trustAnchor.getTrustedCert();
+                if (trustedCert == null) {
+                    continue;
+                }
+                X500Principal subject = trustedCert.getSubjectX500Principal();
+                List<X509Certificate> anchorCerts = trustAnchorCerts.get(subject);
+                if (anchorCerts == null) {
+                    anchorCerts = new ArrayList<X509Certificate>(1);
+                    trustAnchorCerts.put(subject, anchorCerts);
+                }
+                anchorCerts.add(trustedCert);
+            }
+            
+            parameters = new PKIXParameters(set);
+            parameters.setRevocationEnabled(false);
+            revocationParameters = new PKIXParameters(set);
+            revocationParameters.setRevocationEnabled(true);
+            if (crlCertStore != null) {
+                revocationParameters.addCertStore(crlCertStore);
+            }
+            
+            if (provider == null || provider.length() == 0) {
+                validator = CertPathValidator.getInstance("PKIX");
+            } else {
+                validator = CertPathValidator.getInstance("PKIX", provider);
+            }
+            generation = TRUST_GENERATIONS.incrementAndGet();
+        }
+        
+        boolean isStateOf(
+            CertificateIndex keystoreIdx,
+            CertificateIndex truststoreIdx,
+            CertStore crls,
+            String cryptoProvider
+        ) {
+            return keystoreIndex == keystoreIdx && truststoreIndex == truststoreIdx
+                && crlCertStore == crls
+                && (provider == null ? cryptoProvider == null : provider.equals(cryptoProvider));
+        }
+        
+        List<X509Certificate> getTrustAnchorCerts(X500Principal subject) {
+            List<X509Certificate> anchorCerts = trustAnchorCerts.get(subject);
+            if (anchorCerts == null) {
+                return Collections.emptyList();
+            }
+            return anchorCerts;
+        }
+        
+        boolean isTrustAnchor(X509Certificate cert) {
+            return getTrustAnchorCerts(cert.getSubjectX500Principal()).contains(cert);
+        }
+        
+        void validate(CertPath path, boolean enableRevocation) 
+            throws CertPathValidatorException, InvalidAlgorithmParameterException {
+            PKIXParameters param;
+            if (enableRevocation) {
+                param = (PKIXParameters)revocationParameters.clone();
+            } else {
+                param = (PKIXParameters)parameters.clone();
+            }
+            validator.validate(path, param);
+        }
+    }
     
 }
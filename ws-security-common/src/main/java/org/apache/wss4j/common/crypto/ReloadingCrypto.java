@@ -0,0 +1,409 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.crypto;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.InputStream;
+import java.lang.ref.WeakReference;
+import java.net.URL;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.security.auth.callback.CallbackHandler;
+
+import org.apache.wss4j.common.ext.WSSecurityException;
+import org.apache.wss4j.common.util.Loader;
+
+/**
+ * A Crypto implementation that delegates to a Crypto instance loaded from the given properties,
+ * and that loads a new instance when the keystore or truststore file of the properties has
+ * been modified. The new instance (including the certificate indexes and trust anchors of a
+ * Merlin instance) is completely loaded in the background before it replaces the current one,
+ * so that the requests that are processed in the meantime are not blocked.
+ *
+ * CryptoFactory returns a ReloadingCrypto when the properties contain a positive
+ * "org.apache.wss4j.crypto.reload.interval", which is the interval in seconds at which the
+ * files are checked for modifications.
+ */
+public class ReloadingCrypto implements Crypto, Closeable {
+
+    public static final String RELOAD_INTERVAL = "org.apache.wss4j.crypto.reload.interval";
+
+    private static final org.slf4j.Logger LOG =
+        org.slf4j.LoggerFactory.getLogger(ReloadingCrypto.class);
+
+    private static final List<String> WATCHED_PROPERTIES =
+        Arrays.asList(Merlin.KEYSTORE_FILE, Merlin.OLD_KEYSTORE_FILE, Merlin.TRUSTSTORE_FILE);
+
+    private static final ScheduledExecutorService RELOADER =
+        Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "wss4j-crypto-reloader");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+    private final Properties properties;
+    private final ClassLoader classLoader;
+    private final List<File> files;
+    private long[] fileStamps;
+    private volatile Crypto delegate;
+    private ScheduledFuture<?> reloadTask;
+
+    private String cryptoProvider;
+    private String defaultX509Identifier;
+    private String certificateFactoryProvider;
+    private CertificateFactory certificateFactory;
+
+    private final AtomicLong reloadCount = new AtomicLong();
+    private final AtomicLong failedReloadCount = new AtomicLong();
+    private volatile long lastReloadTime;
+    private volatile long lastReloadTimestamp;
+
+    public ReloadingCrypto(Properties properties) throws WSSecurityException {
+        this(properties, Loader.getClassLoader(ReloadingCrypto.class));
+    }
+
+    public ReloadingCrypto(
+        Properties properties, ClassLoader classLoader
+    ) throws WSSecurityException {
+        this.properties = properties;
+        this.classLoader = classLoader;
+        long interval = getReloadInterval(properties);
+        files = getWatchedFiles(properties, classLoader);
+        fileStamps = getFileStamps(files);
+        delegate = load();
+
+        if (interval > 0) {
+            startReload(interval);
+        }
+    }
+
+    /**
+     * Get the reload interval in seconds that is configured in the given properties
+     * @return the reload interval, or 0 if it is not configured
+     * @throws WSSecurityException if the reload interval is not a number
+     */
+    static long getReloadInterval(Properties properties) throws WSSecurityException {
+        String reloadInterval = properties.getProperty(RELOAD_INTERVAL);
+        if (reloadInterval == null) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(reloadInterval.trim());
+        } catch (NumberFormatException e) {
+            throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE,
+                    "empty", e, "Invalid " + RELOAD_INTERVAL + ": " + reloadInterval);
+        }
+    }
+
+    /**
+     * Check the keystore and truststore files for modifications after each interval, until
+     * close() is called
+     * @param interval the interval in seconds
+     */
+    public synchronized void startReload(long interval) {
+        if (reloadTask != null) {
+            reloadTask.cancel(false);
+        }
+        reloadTask =
+            RELOADER.scheduleWithFixedDelay(
+                new ReloadTask(this), interval, interval, TimeUnit.SECONDS
+            );
+    }
+
+    /**
+     * Stop checking the keystore and truststore files for modifications
+     */
+    public synchronized void close() {
+        if (reloadTask != null) {
+            reloadTask.cancel(false);
+            reloadTask = null;
+        }
+    }
+
+    /**
+     * Load a new Crypto instance if the keystore or truststore file has been modified since
+     * the current instance was loaded.
+     * @return whether a new Crypto instance has been loaded
+     * @throws WSSecurityException if the new Crypto instance can't be loaded. The current
+     * instance is kept, and the files are checked again on the next call.
+     */
+    public synchronized boolean reloadIfModified() throws WSSecurityException {
+        long[] stamps = getFileStamps(files);
+        if (Arrays.equals(stamps, fileStamps)) {
+            return false;
+        }
+
+        long start = System.currentTimeMillis();
+        Crypto crypto;
+        try {
+            crypto = load();
+        } catch (WSSecurityException ex) {
+            failedReloadCount.incrementAndGet();
+            LOG.warn("Error in reloading the Crypto instance", ex);
+            throw ex;
+        }
+        Crypto previous = delegate;
+        delegate = crypto;
+        fileStamps = stamps;
+
+        long now = System.currentTimeMillis();
+        lastReloadTime = now - start;
+        lastReloadTimestamp = now;
+        reloadCount.incrementAndGet();
+        LOG.debug("The Crypto instance has been reloaded in {} ms", lastReloadTime);
+
+        if (previous instanceof Merlin && ((Merlin)previous).getCRLIndex() != null) {
+            ((Merlin)previous).getCRLIndex().close();
+        }
+        return true;
+    }
+
+    /**
+     * Rebuild the certificate indexes of the current Crypto instance, after the entries of its
+     * keystore or truststore have been changed in place rather than in the watched files.
+     * @throws WSSecurityException
+     */
+    public void refreshIndexes() throws WSSecurityException {
+        Crypto crypto = delegate;
+        if (crypto instanceof Merlin) {
+            ((Merlin)crypto).refreshIndexes();
+        }
+    }
+
+    /**
+     * Get the current Crypto instance
+     */
+    public Crypto getDelegate() {
+        return delegate;
+    }
+
+    /**
+     * Get the number of times that a new Crypto instance has been loaded
+     */
+    public long getReloadCount() {
+        return reloadCount.get();
+    }
+
+    /**
+     * Get the number of times that a new Crypto instance could not be loaded
+     */
+    public long getFailedReloadCount() {
+        return failedReloadCount.get();
+    }
+
+    /**
+     * Get the time in milliseconds that it took to load the current Crypto instance, or 0 if
+     * it has not been reloaded
+     */
+    public long getLastReloadTime() {
+        return lastReloadTime;
+    }
+
+    /**
+     * Get the time (in milliseconds since the epoch) at which the current Crypto instance has
+     * been loaded, or 0 if it has not been reloaded
+     */
+    public long getLastReloadTimestamp() {
+        return lastReloadTimestamp;
+    }
+
+    /**
+     * Load a new Crypto instance, and apply the settings of this instance to it
+     */
+    private Crypto load() throws WSSecurityException {
+        Crypto crypto = CryptoFactory.loadInstance(properties, classLoader);
+        if (cryptoProvider != null) {
+            crypto.setCryptoProvider(cryptoProvider);
+        }
+        if (defaultX509Identifier != null) {
+            crypto.setDefaultX509Identifier(defaultX509Identifier);
+        }
+        if (certificateFactory != null) {
+            crypto.setCertificateFactory(certificateFactoryProvider, certificateFactory);
+        }
+        return crypto;
+    }
+
+    /**
+     * Get the keystore and truststore files of the given properties. Stores that are not
+     * files on the local file system (e.g. within a jar) are not watched.
+     */
+    private static List<File> getWatchedFiles(Properties properties, ClassLoader classLoader) {
+        List<File> files = new ArrayList<File>();
+        for (String key : properties.stringPropertyNames()) {
+            String name = null;
+            if (key.startsWith(Merlin.PREFIX)) {
+                name = key.substring(Merlin.PREFIX.length());
+            } else if (key.startsWith(Merlin.OLD_PREFIX)) {
+                name = key.substring(Merlin.OLD_PREFIX.length());
+            }
+            if (name == null || !WATCHED_PROPERTIES.contains(name)) {
+                continue;
+            }
+
+            String location = properties.getProperty(key).trim();
+            URL url = Loader.getResource(classLoader, location);
+            File file = null;
+            if (url == null) {
+                file = new File(location);
+            } else if ("file".equals(url.getProtocol())) {
+                try {
+                    file = new File(url.toURI());
+                } catch (Exception ex) {
+                    LOG.debug(ex.getMessage(), ex);
+                }
+            }
+            if (file != null && file.exists()) {
+                files.add(file);
+            } else {
+                LOG.debug("The store {} is not watched for modifications", location);
+            }
+        }
+        return files;
+    }
+
+    private static long[] getFileStamps(List<File> files) {
+        long[] stamps = new long[files.size() * 2];
+        for (int i = 0; i < files.size(); i++) {
+            stamps[2 * i] = files.get(i).lastModified();
+            stamps[2 * i + 1] = files.get(i).length();
+        }
+        return stamps;
+    }
+
+    //
+    // Crypto methods, which are delegated to the current Crypto instance
+    //
+
+    public String getCryptoProvider() {
+        return delegate.getCryptoProvider();
+    }
+
+    public synchronized void setCryptoProvider(String provider) {
+        cryptoProvider = provider;
+        delegate.setCryptoProvider(provider);
+    }
+
+    public String getDefaultX509Identifier() throws WSSecurityException {
+        return delegate.getDefaultX509Identifier();
+    }
+
+    public synchronized void setDefaultX509Identifier(String identifier) {
+        defaultX509Identifier = identifier;
+        delegate.setDefaultX509Identifier(identifier);
+    }
+
+    public synchronized void setCertificateFactory(String provider, CertificateFactory certFactory) {
+        certificateFactoryProvider = provider;
+        certificateFactory = certFactory;
+        delegate.setCertificateFactory(provider, certFactory);
+    }
+
+    public CertificateFactory getCertificateFactory() throws WSSecurityException {
+        return delegate.getCertificateFactory();
+    }
+
+    public X509Certificate loadCertificate(InputStream in) throws WSSecurityException {
+        return delegate.loadCertificate(in);
+    }
+
+    public byte[] getSKIBytesFromCert(X509Certificate cert) throws WSSecurityException {
+        return delegate.getSKIBytesFromCert(cert);
+    }
+
+    public byte[] getBytesFromCertificates(X509Certificate[] certs) throws WSSecurityException {
+        return delegate.getBytesFromCertificates(certs);
+    }
+
+    public X509Certificate[] getCertificatesFromBytes(byte[] data) throws WSSecurityException {
+        return delegate.getCertificatesFromBytes(data);
+    }
+
+    public X509Certificate[] getX509Certificates(CryptoType cryptoType) throws WSSecurityException {
+        return delegate.getX509Certificates(cryptoType);
+    }
+
+    public String getX509Identifier(X509Certificate cert) throws WSSecurityException {
+        return delegate.getX509Identifier(cert);
+    }
+
+    public PrivateKey getPrivateKey(
+        X509Certificate certificate, CallbackHandler callbackHandler
+    ) throws WSSecurityException {
+        return delegate.getPrivateKey(certificate, callbackHandler);
+    }
+
+    public PrivateKey getPrivateKey(
+        String identifier, String password
+    ) throws WSSecurityException {
+        return delegate.getPrivateKey(identifier, password);
+    }
+
+    public boolean verifyTrust(
+        X509Certificate[] certs, boolean enableRevocation
+    ) throws WSSecurityException {
+        return delegate.verifyTrust(certs, enableRevocation);
+    }
+
+    public boolean verifyTrust(PublicKey publicKey) throws WSSecurityException {
+        return delegate.verifyTrust(publicKey);
+    }
+
+    /**
+     * The background check of a ReloadingCrypto. It only holds a weak reference to the
+     * ReloadingCrypto, so that an instance that is no longer used can be garbage collected.
+     */
+    private static final class ReloadTask implements Runnable {
+        private final WeakReference<ReloadingCrypto> crypto;
+
+        ReloadTask(ReloadingCrypto crypto) {
+            this.crypto = new WeakReference<ReloadingCrypto>(crypto);
+        }
+
+        public void run() {
+            ReloadingCrypto reloadingCrypto = crypto.get();
+            if (reloadingCrypto == null) {
+                // Throwing an exception cancels the task
+                throw new IllegalStateException("The Crypto instance is no longer used");
+            }
+            try {
+                reloadingCrypto.reloadIfModified();
+            } catch (Exception ex) {
+                LOG.debug(ex.getMessage(), ex);
+            }
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.crypto;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.security.GeneralSecurityException;
+import java.security.cert.CRL;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509CRL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * A CRLSource that reads the (PEM or DER encoded) CRLs from a URL, for example a file on the
+ * local file system or a CRL distribution point over HTTP. The CRLs are only read again when
+ * the last modification time of the URL has changed.
+ */
+public class URLCRLSource implements CRLSource {
+
+    public static final int DEFAULT_TIMEOUT = 10000;
+
+    private final URL url;
+    private int timeout = DEFAULT_TIMEOUT;
+    private long lastModified;
+
+    public URLCRLSource(URL url) {
+        this.url = url;
+    }
+
+    public synchronized Collection<X509CRL> loadCRLs() throws IOException, GeneralSecurityException {
+        URLConnection connection = url.openConnection();
+        connection.setUseCaches(false);
+        connection.setConnectTimeout(timeout);
+        connection.setReadTimeout(timeout);
+        if (lastModified != 0) {
+            connection.setIfModifiedSince(lastModified);
+        }
+        InputStream is = connection.getInputStream();
+        try {
+            if (connection instanceof HttpURLConnection
+                && ((HttpURLConnection)connection).getResponseCode()
+                    == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                return null;
+            }
+            long modified = connection.getLastModified();
+            if (modified != 0 && modified == lastModified) {
+                return null;
+            }
+
+            CertificateFactory cf = CertificateFactory.getInstance("X.509");
+            Collection<? extends CRL> crls = cf.generateCRLs(is);
+            List<X509CRL> x509crls = new ArrayList<X509CRL>(crls.size());
+            for (CRL crl : crls) {
+                if (crl instanceof X509CRL) {
+                    x509crls.add((X509CRL)crl);
+                }
+            }
+            lastModified = modified;
+            return x509crls;
+        } finally {
+            is.close();
+        }
+    }
+
+    public URL getURL() {
+        return url;
+    }
+
+    /**
+     * Set the connect and read timeout in milliseconds
+     */
+    public void setTimeout(int timeout) {
+        this.timeout = timeout;
+    }
+
+    public int getTimeout() {
+        return timeout;
+    }
+
+    @Override
+    public String toString() {
+        return url.toString();
+    }
+}
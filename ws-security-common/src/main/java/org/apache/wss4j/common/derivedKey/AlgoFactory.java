@@ -21,6 +21,8 @@ package org.apache.wss4j.common.derivedKey;
 
 public final class AlgoFactory {
     
+    private static final DerivationAlgorithm P_SHA1 = new P_SHA1();
+    
     private AlgoFactory() {
         // Complete
     }
@@ -37,7 +39,7 @@ public final class AlgoFactory {
             ConversationException {
         if ((ConversationConstants.DerivationAlgorithm.P_SHA_1_2005_12).equals(algorithm)
             || (ConversationConstants.DerivationAlgorithm.P_SHA_1).equals(algorithm)) {
-            return new P_SHA1();
+            return P_SHA1;
         } else {
             throw new ConversationException("No such algorithm");
         }
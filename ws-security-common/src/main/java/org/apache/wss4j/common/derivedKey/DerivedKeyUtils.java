@@ -18,6 +18,7 @@
  */
 package org.apache.wss4j.common.derivedKey;
 
+import org.apache.wss4j.common.cache.DerivedKeyCache;
 import org.apache.wss4j.common.ext.WSSecurityException;
 
 public class DerivedKeyUtils {
@@ -31,6 +32,18 @@ public class DerivedKeyUtils {
      *
      */
     public static byte[] deriveKey(String algorithm, String label, int length, byte[] secret, byte[] nonce, int offset) throws WSSecurityException {
+        return deriveKey(algorithm, label, length, secret, nonce, offset, null);
+    }
+
+    /**
+     * Derive a key from this DerivedKeyToken instance, using the given cache of the keys that
+     * were already derived from the secret.
+     *
+     * @param derivedKeyCache the cache of derived keys, may be null
+     * @throws org.apache.wss4j.stax.wss.ext.WSSecurityException
+     */
+    public static byte[] deriveKey(String algorithm, String label, int length, byte[] secret, byte[] nonce, int offset,
+                                   DerivedKeyCache derivedKeyCache) throws WSSecurityException {
         try {
             DerivationAlgorithm algo = AlgoFactory.getInstance(algorithm);
             byte[] labelBytes;
@@ -48,7 +61,15 @@ public class DerivedKeyUtils {
             if (length <= 0) {
                 length = 32;
             }
-            return algo.createKey(secret, seed, offset, length);
+            if (derivedKeyCache == null) {
+                return algo.createKey(secret, seed, offset, length);
+            }
+            byte[] key = derivedKeyCache.get(algorithm, secret, seed, offset, length);
+            if (key == null) {
+                key = algo.createKey(secret, seed, offset, length);
+                derivedKeyCache.add(algorithm, secret, seed, offset, key);
+            }
+            return key;
 
         } catch (Exception e) {
             throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE, e);
@@ -39,7 +39,10 @@ package org.apache.wss4j.common.derivedKey;
  </pre>
  */
 
+import org.apache.wss4j.common.util.JCEInstanceCache;
+
 import javax.crypto.Mac;
+import javax.crypto.ShortBufferException;
 import javax.crypto.spec.SecretKeySpec;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
@@ -49,56 +52,75 @@ public class P_SHA1 implements DerivationAlgorithm {
     @Override
     public byte[] createKey(byte[] secret, byte[] seed, int offset, long length)
             throws ConversationException {
-
-        try {
-            Mac mac = Mac.getInstance("HmacSHA1");
-
-            byte[] tempBytes = P_hash(secret, seed, mac, (offset + (int) length));
-
-            byte[] key = new byte[(int) length];
-
-            System.arraycopy(tempBytes, offset, key, 0, key.length);
-
-            return key;
-        } catch (NoSuchAlgorithmException e) {
-            throw new ConversationException("errorInKeyDerivation", null, e);
-        } catch (InvalidKeyException e) {
-            throw new ConversationException("errorInKeyDerivation", null, e);
+        if (length < 0 || length > Integer.MAX_VALUE) {
+            throw new ConversationException("errorInKeyDerivation");
         }
+        byte[] key = new byte[(int) length];
+        createKey(secret, seed, offset, key, 0, key.length);
+        return key;
     }
 
     /**
-     * P_hash as defined in RFC 2246 for TLS.
+     * Derive a key and write it into the given buffer. Only the HMAC blocks that contain
+     * bytes of the requested key are computed, and the (cached) Mac instance writes directly
+     * into reused buffers.
      *
-     * @param secret is the key for the HMAC
-     * @param seed the seed value to start the generation - A(0)
-     * @param mac the HMAC algorithm
-     * @param required number of bytes to generate
-     * @return a byte array that contains a secret key
-     * @throws InvalidKeyException
+     * @param secret the secret to derive the key from
+     * @param seed the seed (label + nonce)
+     * @param offset the offset of the key in the generated byte stream
+     * @param key the buffer to write the key to
+     * @param keyOffset the offset in the buffer at which the key is written
+     * @param length the length of the key
+     * @throws ConversationException
      */
-    private static byte[] P_hash(byte[] secret, byte[] seed, Mac mac, int required)
-            throws InvalidKeyException {
+    public void createKey(byte[] secret, byte[] seed, int offset, byte[] key, int keyOffset, int length)
+            throws ConversationException {
+        if (offset < 0 || length < 0 || keyOffset < 0 || key.length - keyOffset < length) {
+            throw new ConversationException("errorInKeyDerivation");
+        }
 
-        byte[] out = new byte[required];
-        int offset = 0, tocpy;
-        byte[] a = seed; // a(0) is the seed
-        byte[] tmp;
+        Mac mac = null;
+        try {
+            mac = JCEInstanceCache.getMac("HmacSHA1");
+            mac.init(new SecretKeySpec(secret, "HMACSHA1"));
 
-        SecretKeySpec key = new SecretKeySpec(secret, "HMACSHA1");
-        mac.init(key);
+            int macLength = mac.getMacLength();
+            byte[] a = new byte[macLength];
+            byte[] block = new byte[macLength];
 
-        while (required > 0) {
-            mac.update(a);
-            a = mac.doFinal();
-            mac.update(a);
+            // A(1) = HMAC_SHA-1(secret, A(0)) where A(0) is the seed
             mac.update(seed);
-            tmp = mac.doFinal();
-            tocpy = Math.min(required, tmp.length);
-            System.arraycopy(tmp, 0, out, offset, tocpy);
-            offset += tocpy;
-            required -= tocpy;
+            mac.doFinal(a, 0);
+
+            int skip = offset;
+            int written = 0;
+            while (written < length) {
+                if (skip >= macLength) {
+                    // the block is before the requested offset, only A(i) is needed
+                    skip -= macLength;
+                } else {
+                    mac.update(a);
+                    mac.update(seed);
+                    mac.doFinal(block, 0);
+                    int tocpy = Math.min(macLength - skip, length - written);
+                    System.arraycopy(block, skip, key, keyOffset + written, tocpy);
+                    written += tocpy;
+                    skip = 0;
+                    if (written == length) {
+                        break;
+                    }
+                }
+                mac.update(a);
+                mac.doFinal(a, 0);
+            }
+        } catch (NoSuchAlgorithmException e) {
+            throw new ConversationException("errorInKeyDerivation", null, e);
+        } catch (InvalidKeyException e) {
+            throw new ConversationException("errorInKeyDerivation", null, e);
+        } catch (ShortBufferException e) {
+            throw new ConversationException("errorInKeyDerivation", null, e);
+        } finally {
+            JCEInstanceCache.clearKey(mac);
         }
-        return out;
     }
 }
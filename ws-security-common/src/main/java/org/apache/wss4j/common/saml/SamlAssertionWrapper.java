@@ -107,6 +107,11 @@ public class SamlAssertionWrapper {
      * The SAMLKeyInfo object associated with the Signature on the Assertion
      */
     private SAMLKeyInfo signatureKeyInfo;
+    
+    /**
+     * Whether the Signature on the Assertion was verified for an identical Assertion before
+     */
+    private boolean signatureVerifiedFromCache;
 
     /**
      * Default Canonicalization algorithm used for signing.
@@ -685,6 +690,25 @@ public class SamlAssertionWrapper {
         return signatureKeyInfo;
     }
     
+    /**
+     * Set the SAMLKeyInfo associated with the signature of the assertion, when the signature
+     * (and the trust in the signing key) was verified for an identical assertion before
+     * (see SamlAssertionCache), instead of verifying the signature again.
+     * @param samlKeyInfo the SAMLKeyInfo that verified the signature of the identical assertion
+     */
+    public void setSignatureKeyInfoFromCache(SAMLKeyInfo samlKeyInfo) {
+        signatureKeyInfo = samlKeyInfo;
+        signatureVerifiedFromCache = true;
+    }
+    
+    /**
+     * Whether the signature of the assertion was verified for an identical assertion before,
+     * so that the trust in the signing key doesn't need to be verified again
+     */
+    public boolean isSignatureVerifiedFromCache() {
+        return signatureVerifiedFromCache;
+    }
+    
     /**
      * Get the SAMLKeyInfo associated with the Subject KeyInfo
      * @return the SAMLKeyInfo associated with the Subject KeyInfo
@@ -0,0 +1,232 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.util;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.NoSuchProviderException;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.Mac;
+import javax.crypto.NoSuchPaddingException;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * A per-thread cache of MessageDigest, Cipher, Mac and KeyGenerator instances, keyed by the
+ * algorithm and (optional) provider name. The getInstance methods of these classes search the
+ * installed JCE providers on every call, and the instances are not thread-safe, so that a
+ * shared instance would have to be locked. Instead each thread gets its own instances.
+ *
+ * An instance returned by this class is only valid until the next call for the same algorithm
+ * and provider on the same thread. It must not be stored, and a Cipher, Mac or KeyGenerator
+ * must be initialized before it is used. A MessageDigest is returned in its reset state.
+ *
+ * An initialized Cipher or Mac keeps its key until it is initialized again. A cached Cipher
+ * must therefore only be initialized with a public key, and the key of a cached Mac must be
+ * cleared with clearKey once the Mac has been used, so that no secret is kept alive by the
+ * thread.
+ */
+public final class JCEInstanceCache {
+
+    private static final String MESSAGE_DIGEST = "MessageDigest";
+    private static final String CIPHER = "Cipher";
+    private static final String MAC = "Mac";
+    private static final String KEY_GENERATOR = "KeyGenerator";
+    private static final byte[] CLEARED_KEY = new byte[1];
+
+    private static final ThreadLocal<Map<String, Object>> INSTANCES =
+        new ThreadLocal<Map<String, Object>>() {
+            @Override
+            protected Map<String, Object> initialValue() {
+                return new HashMap<String, Object>();
+            }
+        };
+
+    private JCEInstanceCache() {
+        // complete
+    }
+
+    /**
+     * Get the MessageDigest of the current thread for the given algorithm
+     */
+    public static MessageDigest getMessageDigest(String algorithm)
+        throws NoSuchAlgorithmException {
+        try {
+            return getMessageDigest(algorithm, null);
+        } catch (NoSuchProviderException ex) {
+            // Can't happen without a provider
+            throw new NoSuchAlgorithmException(ex.getMessage());
+        }
+    }
+
+    /**
+     * Get the MessageDigest of the current thread for the given algorithm and provider
+     * @param provider the provider name, or null for the default provider
+     */
+    public static MessageDigest getMessageDigest(String algorithm, String provider)
+        throws NoSuchAlgorithmException, NoSuchProviderException {
+        String key = getKey(MESSAGE_DIGEST, algorithm, provider);
+        Map<String, Object> instances = INSTANCES.get();
+        MessageDigest digest = (MessageDigest)instances.get(key);
+        if (digest == null) {
+            if (provider == null) {
+                digest = MessageDigest.getInstance(algorithm);
+            } else {
+                digest = MessageDigest.getInstance(algorithm, provider);
+            }
+            instances.put(key, digest);
+        } else {
+            digest.reset();
+        }
+        return digest;
+    }
+
+    /**
+     * Get the Cipher of the current thread for the given transformation
+     */
+    public static Cipher getCipher(String transformation)
+        throws NoSuchAlgorithmException, NoSuchPaddingException {
+        try {
+            return getCipher(transformation, null);
+        } catch (NoSuchProviderException ex) {
+            // Can't happen without a provider
+            throw new NoSuchAlgorithmException(ex.getMessage());
+        }
+    }
+
+    /**
+     * Get the Cipher of the current thread for the given transformation and provider
+     * @param provider the provider name, or null for the default provider
+     */
+    public static Cipher getCipher(String transformation, String provider)
+        throws NoSuchAlgorithmException, NoSuchPaddingException, NoSuchProviderException {
+        String key = getKey(CIPHER, transformation, provider);
+        Map<String, Object> instances = INSTANCES.get();
+        Cipher cipher = (Cipher)instances.get(key);
+        if (cipher == null) {
+            if (provider == null) {
+                cipher = Cipher.getInstance(transformation);
+            } else {
+                cipher = Cipher.getInstance(transformation, provider);
+            }
+            instances.put(key, cipher);
+        }
+        return cipher;
+    }
+
+    /**
+     * Get the Mac of the current thread for the given algorithm
+     */
+    public static Mac getMac(String algorithm) throws NoSuchAlgorithmException {
+        try {
+            return getMac(algorithm, null);
+        } catch (NoSuchProviderException ex) {
+            // Can't happen without a provider
+            throw new NoSuchAlgorithmException(ex.getMessage());
+        }
+    }
+
+    /**
+     * Get the Mac of the current thread for the given algorithm and provider
+     * @param provider the provider name, or null for the default provider
+     */
+    public static Mac getMac(String algorithm, String provider)
+        throws NoSuchAlgorithmException, NoSuchProviderException {
+        String key = getKey(MAC, algorithm, provider);
+        Map<String, Object> instances = INSTANCES.get();
+        Mac mac = (Mac)instances.get(key);
+        if (mac == null) {
+            if (provider == null) {
+                mac = Mac.getInstance(algorithm);
+            } else {
+                mac = Mac.getInstance(algorithm, provider);
+            }
+            instances.put(key, mac);
+        }
+        return mac;
+    }
+
+    /**
+     * Initialize the given (cached) Mac with a dummy key, so that it no longer holds on to
+     * the secret key it was last initialized with. Any failure is ignored, as the Mac is then
+     * simply removed from the cache of the current thread.
+     */
+    public static void clearKey(Mac mac) {
+        if (mac == null) {
+            return;
+        }
+        try {
+            mac.init(new SecretKeySpec(CLEARED_KEY, mac.getAlgorithm()));
+        } catch (Exception ex) {
+            Map<String, Object> instances = INSTANCES.get();
+            instances.values().remove(mac);
+        }
+    }
+
+    /**
+     * Get the KeyGenerator of the current thread for the given algorithm
+     */
+    public static KeyGenerator getKeyGenerator(String algorithm)
+        throws NoSuchAlgorithmException {
+        try {
+            return getKeyGenerator(algorithm, null);
+        } catch (NoSuchProviderException ex) {
+            // Can't happen without a provider
+            throw new NoSuchAlgorithmException(ex.getMessage());
+        }
+    }
+
+    /**
+     * Get the KeyGenerator of the current thread for the given algorithm and provider
+     * @param provider the provider name, or null for the default provider
+     */
+    public static KeyGenerator getKeyGenerator(String algorithm, String provider)
+        throws NoSuchAlgorithmException, NoSuchProviderException {
+        String key = getKey(KEY_GENERATOR, algorithm, provider);
+        Map<String, Object> instances = INSTANCES.get();
+        KeyGenerator keyGenerator = (KeyGenerator)instances.get(key);
+        if (keyGenerator == null) {
+            if (provider == null) {
+                keyGenerator = KeyGenerator.getInstance(algorithm);
+            } else {
+                keyGenerator = KeyGenerator.getInstance(algorithm, provider);
+            }
+            instances.put(key, keyGenerator);
+        }
+        return keyGenerator;
+    }
+
+    /**
+     * Remove all of the cached instances of the current thread
+     */
+    public static void clear() {
+        INSTANCES.remove();
+    }
+
+    private static String getKey(String type, String algorithm, String provider) {
+        if (provider == null) {
+            return type + ":" + algorithm;
+        }
+        return type + ":" + algorithm + ":" + provider;
+    }
+}
@@ -22,6 +22,7 @@ package org.apache.wss4j.common.util;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 
+import org.apache.wss4j.common.cache.UsernameTokenDerivedKeyCache;
 import org.apache.wss4j.common.ext.WSSecurityException;
 import org.apache.xml.security.stax.ext.XMLSecurityConstants;
 
@@ -57,7 +58,7 @@ public final class UsernameTokenUtil {
 
         MessageDigest sha = null;
         try {
-            sha = MessageDigest.getInstance("SHA1");
+            sha = JCEInstanceCache.getMessageDigest("SHA1");
         } catch (NoSuchAlgorithmException e) {
             if (LOG.isDebugEnabled()) {
                 LOG.debug(e.getMessage(), e);
@@ -106,6 +107,71 @@ public final class UsernameTokenUtil {
         }
     }
     
+    /**
+     * This static method generates a derived key as defined in WSS Username
+     * Token Profile. The derived key is taken from (and added to) the given cache.
+     * 
+     * @param username The username of the UsernameToken
+     * @param password The password to include in the key generation
+     * @param salt The Salt value
+     * @param iteration The Iteration value. If zero (0) is given the method uses the
+     *                  default value
+     * @param cache The cache of derived keys, or null to always generate the key
+     * @return Returns the derived key a byte array
+     * @throws WSSecurityException
+     */
+    public static byte[] generateDerivedKey(
+        String username,
+        byte[] password, 
+        byte[] salt, 
+        int iteration,
+        UsernameTokenDerivedKeyCache cache
+    ) throws WSSecurityException {
+        if (cache == null) {
+            return generateDerivedKey(password, salt, iteration);
+        }
+        if (iteration == 0) {
+            iteration = DEFAULT_ITERATION;
+        }
+        byte[] derivedKey = cache.get(username, password, salt, iteration);
+        if (derivedKey == null) {
+            derivedKey = generateDerivedKey(password, salt, iteration);
+            cache.add(username, password, salt, iteration, derivedKey);
+        }
+        return derivedKey;
+    }
+    
+    /**
+     * This static method generates a derived key as defined in WSS Username
+     * Token Profile. The derived key is taken from (and added to) the given cache.
+     * 
+     * @param username The username of the UsernameToken
+     * @param password The password to include in the key generation
+     * @param salt The Salt value
+     * @param iteration The Iteration value. If zero (0) is given the method uses the
+     *                  default value
+     * @param cache The cache of derived keys, or null to always generate the key
+     * @return Returns the derived key a byte array
+     * @throws WSSecurityException
+     */
+    public static byte[] generateDerivedKey(
+        String username,
+        String password, 
+        byte[] salt, 
+        int iteration,
+        UsernameTokenDerivedKeyCache cache
+    ) throws WSSecurityException {
+        try {
+            return generateDerivedKey(username, password.getBytes("UTF-8"), salt, iteration, cache);
+        } catch (final java.io.UnsupportedEncodingException e) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug(e.getMessage(), e);
+            }
+            throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE,
+                    "empty", e, "Unable to convert password to UTF-8");
+        }
+    }
+    
     /**
      * This static method generates a 128 bit salt value as defined in WSS
      * Username Token Profile.
@@ -0,0 +1,255 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.cache;
+
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Some tests for the ConcurrentReplayCache, including a simple multi-threaded throughput
+ * comparison against the MemoryReplayCache.
+ */
+public class ConcurrentReplayCacheTest extends org.junit.Assert {
+
+    private static final org.slf4j.Logger LOG =
+        org.slf4j.LoggerFactory.getLogger(ConcurrentReplayCacheTest.class);
+
+    private static final int THREADS = 8;
+    private static final int OPERATIONS = 20000;
+
+    @org.junit.Test
+    public void testAddContains() throws Exception {
+        ConcurrentReplayCache cache = new ConcurrentReplayCache();
+        try {
+            String id = UUID.randomUUID().toString();
+            assertFalse(cache.contains(id));
+            cache.add(id);
+            assertTrue(cache.contains(id));
+            assertFalse(cache.contains(null));
+            assertFalse(cache.contains(""));
+
+            cache.add(null);
+            cache.add("");
+            assertEquals(1, cache.size());
+        } finally {
+            cache.close();
+        }
+    }
+
+    @org.junit.Test
+    public void testExpiry() throws Exception {
+        TestClock clock = new TestClock();
+        ConcurrentReplayCache cache = new ConcurrentReplayCache(100, 100L, 10L, clock, false);
+        String id = UUID.randomUUID().toString();
+        cache.add(id, 1L);
+        assertTrue(cache.contains(id));
+
+        clock.advance(999L);
+        assertTrue(cache.contains(id));
+        clock.advance(1L);
+        assertFalse(cache.contains(id));
+
+        // The expired entry is removed when its bucket is swept
+        assertEquals(1, cache.size());
+        clock.advance(100L);
+        cache.processTokenExpiry();
+        assertEquals(0, cache.size());
+    }
+
+    @org.junit.Test
+    public void testTtlLongerThanWheel() throws Exception {
+        TestClock clock = new TestClock();
+        // The wheel only spans the default TTL of 10 seconds
+        ConcurrentReplayCache cache = new ConcurrentReplayCache(100, 1000L, 10L, clock, false);
+        String id = UUID.randomUUID().toString();
+        cache.add(id, 60L);
+        cache.add("default");
+
+        for (int i = 0; i < 59; i++) {
+            clock.advance(1000L);
+            cache.processTokenExpiry();
+        }
+        // The entry wrapped around the wheel several times, but has not expired yet
+        assertTrue(cache.contains(id));
+        assertFalse(cache.contains("default"));
+        assertEquals(1, cache.size());
+
+        clock.advance(2000L);
+        cache.processTokenExpiry();
+        assertFalse(cache.contains(id));
+        assertEquals(0, cache.size());
+    }
+
+    @org.junit.Test
+    public void testMaxEntries() throws Exception {
+        TestClock clock = new TestClock();
+        ConcurrentReplayCache cache = new ConcurrentReplayCache(10, 1000L, 60L, clock, false);
+        String firstId = "first";
+        cache.add(firstId, 10L);
+        for (int i = 0; i < 9; i++) {
+            cache.add("id-" + i, 60L);
+        }
+        assertEquals(10, cache.size());
+        assertEquals(0L, cache.getEvictionCount());
+
+        // Expired entries are swept before any unexpired entry is evicted
+        clock.advance(11000L);
+        cache.add("id-9", 60L);
+        assertFalse(cache.contains(firstId));
+        assertEquals(10, cache.size());
+        assertEquals(0L, cache.getEvictionCount());
+
+        // The unexpired entry closest to expiry is evicted first, and the eviction is counted
+        cache.add("last", 3600L);
+        assertEquals(10, cache.size());
+        assertEquals(1L, cache.getEvictionCount());
+        assertFalse(cache.contains("id-0"));
+        assertTrue(cache.contains("id-1"));
+        assertTrue(cache.contains("last"));
+    }
+
+    @org.junit.Test
+    public void testFactory() throws Exception {
+        MemoryReplayCacheFactory factory = new MemoryReplayCacheFactory();
+        assertTrue(factory.newReplayCache("key", null) instanceof MemoryReplayCache);
+
+        factory.setConcurrent(true);
+        ReplayCache cache = factory.newReplayCache("key", null);
+        assertTrue(cache instanceof ConcurrentReplayCache);
+        ((ConcurrentReplayCache)cache).close();
+    }
+
+    @org.junit.Test
+    public void testFactorySelection() throws Exception {
+        System.setProperty(ReplayCacheFactory.REPLAY_CACHE_TYPE, ReplayCacheFactory.CONCURRENT_TYPE);
+        System.setProperty(ReplayCacheFactory.REPLAY_CACHE_MAX_ENTRIES, "500");
+        try {
+            ReplayCacheFactory factory = ReplayCacheFactory.newInstance();
+            assertTrue(factory instanceof MemoryReplayCacheFactory);
+            assertTrue(((MemoryReplayCacheFactory)factory).isConcurrent());
+            assertEquals(500, ((MemoryReplayCacheFactory)factory).getMaxEntries());
+
+            ReplayCache cache = factory.newReplayCache("selected", null);
+            assertTrue(cache instanceof ConcurrentReplayCache);
+            ((ConcurrentReplayCache)cache).close();
+
+            // The maximum number of entries must be a number
+            System.setProperty(ReplayCacheFactory.REPLAY_CACHE_MAX_ENTRIES, "many");
+            try {
+                ReplayCacheFactory.newInstance();
+                fail("Expected failure on an invalid number of entries");
+            } catch (IllegalArgumentException ex) {
+                // expected
+            }
+        } finally {
+            System.clearProperty(ReplayCacheFactory.REPLAY_CACHE_TYPE);
+            System.clearProperty(ReplayCacheFactory.REPLAY_CACHE_MAX_ENTRIES);
+        }
+        ReplayCacheFactory factory = ReplayCacheFactory.newInstance();
+        assertFalse(factory instanceof MemoryReplayCacheFactory
+            && ((MemoryReplayCacheFactory)factory).isConcurrent());
+    }
+
+    @org.junit.Test
+    public void testConcurrentThroughput() throws Exception {
+        ConcurrentReplayCache concurrentCache = new ConcurrentReplayCache();
+        try {
+            long memoryTime = runThroughput(new MemoryReplayCache());
+            long concurrentTime = runThroughput(concurrentCache);
+            LOG.info(
+                "Replay cache throughput with " + THREADS + " threads: MemoryReplayCache "
+                + opsPerSecond(memoryTime) + " ops/s, ConcurrentReplayCache "
+                + opsPerSecond(concurrentTime) + " ops/s"
+            );
+            assertEquals(THREADS * OPERATIONS, concurrentCache.size());
+            assertEquals(0L, concurrentCache.getEvictionCount());
+
+            // Every identifier that was added concurrently is now detected as a replay
+            for (int t = 0; t < THREADS; t++) {
+                for (int i = 0; i < OPERATIONS; i++) {
+                    assertTrue(concurrentCache.contains("thread-" + t + "-" + i));
+                }
+            }
+        } finally {
+            concurrentCache.close();
+        }
+    }
+
+    private long opsPerSecond(long nanos) {
+        return (THREADS * OPERATIONS * 2L * 1000000000L) / Math.max(nanos, 1L);
+    }
+
+    /**
+     * Each thread checks a new identifier for replay, and then adds it to the cache,
+     * as the nonce and timestamp validators do.
+     */
+    private long runThroughput(final ReplayCache cache) throws Exception {
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(THREADS);
+        final AtomicInteger replays = new AtomicInteger();
+
+        for (int t = 0; t < THREADS; t++) {
+            final String prefix = "thread-" + t + "-";
+            Thread thread = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        start.await();
+                        for (int i = 0; i < OPERATIONS; i++) {
+                            String id = prefix + i;
+                            if (cache.contains(id)) {
+                                replays.incrementAndGet();
+                            }
+                            cache.add(id);
+                        }
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            });
+            thread.start();
+        }
+
+        long startTime = System.nanoTime();
+        start.countDown();
+        done.await();
+        long time = System.nanoTime() - startTime;
+
+        assertEquals(0, replays.get());
+        return time;
+    }
+
+    private static final class TestClock implements ConcurrentReplayCache.Clock {
+
+        private final AtomicLong time = new AtomicLong(1000000L);
+
+        public long currentTimeMillis() {
+            return time.get();
+        }
+
+        void advance(long millis) {
+            time.addAndGet(millis);
+        }
+    }
+
+}
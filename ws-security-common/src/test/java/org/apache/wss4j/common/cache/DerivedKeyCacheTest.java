@@ -0,0 +1,165 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.cache;
+
+import java.util.Arrays;
+
+import org.apache.wss4j.common.derivedKey.AlgoFactory;
+import org.apache.wss4j.common.derivedKey.ConversationConstants;
+import org.apache.wss4j.common.derivedKey.DerivedKeyUtils;
+import org.apache.xml.security.utils.Base64;
+
+/**
+ * Some tests for the DerivedKeyCache.
+ */
+public class DerivedKeyCacheTest extends org.junit.Assert {
+
+    private static final byte[] SECRET = "0123456789abcdef0123456789abcdef".getBytes();
+    private static final String KNOWN_KEY =
+        "v/Y+jgSVFQ2ZNVse39k1oWA9qGabplmKlAz1PlDzx9zgd8J07aT3GpAInILF3tankgGon/6PIOSS0DtDDuDH4Q==";
+
+    @org.junit.Test
+    public void testCache() throws Exception {
+        DerivedKeyCache cache = new DerivedKeyCache(2, DerivedKeyCache.DEFAULT_TTL);
+        byte[] secret = SECRET.clone();
+        byte[] seed = createSeed();
+        String algorithm = ConversationConstants.DerivationAlgorithm.P_SHA_1;
+
+        assertNull(cache.get(algorithm, secret, seed, 0, 32));
+        byte[] key = AlgoFactory.getInstance(algorithm).createKey(secret, seed, 0, 32);
+        cache.add(algorithm, secret, seed, 0, key);
+        assertEquals(1, cache.size());
+
+        byte[] cachedKey = cache.get(algorithm, secret, seed, 0, 32);
+        assertArrayEquals(key, cachedKey);
+        // a copy is returned
+        cachedKey[0]++;
+        assertArrayEquals(key, cache.get(algorithm, secret, seed, 0, 32));
+
+        // the keys are cached per secret value
+        assertArrayEquals(key, cache.get(algorithm, SECRET.clone(), seed, 0, 32));
+        byte[] otherSecret = SECRET.clone();
+        otherSecret[0]++;
+        assertNull(cache.get(algorithm, otherSecret, seed, 0, 32));
+        assertNull(cache.get(algorithm, secret, seed, 16, 32));
+        assertNull(cache.get(algorithm, secret, seed, 0, 16));
+
+        // least recently used keys are evicted
+        cache.add(algorithm, secret, seed, 16, new byte[32]);
+        cache.add(algorithm, secret, seed, 32, new byte[32]);
+        assertNull(cache.get(algorithm, secret, seed, 0, 32));
+        assertNotNull(cache.get(algorithm, secret, seed, 32, 32));
+
+        cache.clear();
+        assertEquals(0, cache.size());
+    }
+
+    @org.junit.Test
+    public void testRemoveSecret() throws Exception {
+        DerivedKeyCache cache = new DerivedKeyCache();
+        byte[] secret = SECRET.clone();
+        byte[] otherSecret = SECRET.clone();
+        otherSecret[0]++;
+        byte[] seed = createSeed();
+        String algorithm = ConversationConstants.DerivationAlgorithm.P_SHA_1;
+
+        byte[] key = AlgoFactory.getInstance(algorithm).createKey(secret, seed, 0, 32);
+        cache.add(algorithm, secret, seed, 0, key);
+        cache.add(algorithm, secret, seed, 32, new byte[32]);
+        cache.add(algorithm, otherSecret, seed, 0, new byte[32]);
+        assertEquals(3, cache.size());
+
+        // only the keys of the removed secret are removed
+        cache.remove(SECRET.clone());
+        assertEquals(1, cache.size());
+        assertNull(cache.get(algorithm, secret, seed, 0, 32));
+        assertNotNull(cache.get(algorithm, otherSecret, seed, 0, 32));
+    }
+
+    @org.junit.Test
+    public void testUpdateSecret() throws Exception {
+        DerivedKeyCache cache = new DerivedKeyCache();
+        byte[] secret = SECRET.clone();
+        byte[] otherSecret = SECRET.clone();
+        otherSecret[0]++;
+        byte[] seed = createSeed();
+        String algorithm = ConversationConstants.DerivationAlgorithm.P_SHA_1;
+
+        cache.updateSecret("sct-1", secret);
+        cache.add(algorithm, secret, seed, 0, new byte[32]);
+        cache.updateSecret("sct-1", SECRET.clone());
+        assertNotNull(cache.get(algorithm, secret, seed, 0, 32));
+
+        // the keys of the previous secret are removed when the secret is renewed
+        cache.updateSecret("sct-1", otherSecret);
+        assertNull(cache.get(algorithm, secret, seed, 0, 32));
+
+        // and when the session is cancelled
+        cache.add(algorithm, otherSecret, seed, 0, new byte[32]);
+        cache.updateSecret("sct-1", null);
+        assertNull(cache.get(algorithm, otherSecret, seed, 0, 32));
+        assertEquals(0, cache.size());
+    }
+
+    @org.junit.Test
+    public void testExpiry() throws Exception {
+        DerivedKeyCache cache = new DerivedKeyCache(10, 1L);
+        byte[] seed = createSeed();
+        String algorithm = ConversationConstants.DerivationAlgorithm.P_SHA_1;
+        byte[] key = new byte[32];
+        key[0] = 1;
+
+        cache.add(algorithm, SECRET, seed, 0, key);
+        assertNotNull(cache.get(algorithm, SECRET, seed, 0, 32));
+        Thread.sleep(1100L);
+        assertNull(cache.get(algorithm, SECRET, seed, 0, 32));
+        assertEquals(0, cache.size());
+    }
+
+    @org.junit.Test
+    public void testDeriveKey() throws Exception {
+        byte[] secret = SECRET.clone();
+        byte[] nonce = new byte[16];
+        for (int i = 0; i < nonce.length; i++) {
+            nonce[i] = (byte)i;
+        }
+        String algorithm = ConversationConstants.DerivationAlgorithm.P_SHA_1_2005_12;
+
+        byte[] key = DerivedKeyUtils.deriveKey(algorithm, null, 32, secret, nonce, 0);
+        assertArrayEquals(Arrays.copyOfRange(Base64.decode(KNOWN_KEY), 0, 32), key);
+
+        DerivedKeyCache cache = new DerivedKeyCache();
+        assertArrayEquals(key, DerivedKeyUtils.deriveKey(algorithm, null, 32, secret, nonce, 0, cache));
+        assertNotNull(cache.get(algorithm, secret, createSeed(), 0, 32));
+        assertArrayEquals(key, DerivedKeyUtils.deriveKey(algorithm, null, 32, secret, nonce, 0, cache));
+        assertEquals(1, cache.size());
+    }
+
+    private static byte[] createSeed() throws Exception {
+        byte[] label =
+            (ConversationConstants.DEFAULT_LABEL + ConversationConstants.DEFAULT_LABEL).getBytes("UTF-8");
+        byte[] seed = new byte[label.length + 16];
+        System.arraycopy(label, 0, seed, 0, label.length);
+        for (int i = 0; i < 16; i++) {
+            seed[label.length + i] = (byte)i;
+        }
+        return seed;
+    }
+}
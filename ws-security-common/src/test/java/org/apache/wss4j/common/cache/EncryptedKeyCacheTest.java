@@ -0,0 +1,121 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.cache;
+
+import java.security.spec.MGF1ParameterSpec;
+
+import javax.crypto.spec.OAEPParameterSpec;
+import javax.crypto.spec.PSource;
+
+/**
+ * Some tests for the EncryptedKeyCache.
+ */
+public class EncryptedKeyCacheTest extends org.junit.Assert {
+
+    private static final String RSA_OAEP = "http://www.w3.org/2001/04/xmlenc#rsa-oaep-mgf1p";
+    private static final String RSA_15 = "http://www.w3.org/2001/04/xmlenc#rsa-1_5";
+    private static final OAEPParameterSpec OAEP_DEFAULT = OAEPParameterSpec.DEFAULT;
+
+    @org.junit.Test
+    public void testAddAndGet() throws Exception {
+        EncryptedKeyCache cache = new EncryptedKeyCache();
+        byte[] encryptedKey = new byte[]{1, 2, 3, 4};
+        byte[] secretKey = new byte[]{5, 6, 7, 8};
+
+        assertNull(cache.get(encryptedKey, RSA_OAEP, OAEP_DEFAULT, null));
+        cache.add(encryptedKey, RSA_OAEP, OAEP_DEFAULT, null, secretKey);
+        assertEquals(1, cache.size());
+
+        // Modifying the added or returned keys must not affect the cached key
+        secretKey[0] = 0;
+        byte[] cachedKey = cache.get(encryptedKey, RSA_OAEP, OAEP_DEFAULT, null);
+        assertArrayEquals(new byte[]{5, 6, 7, 8}, cachedKey);
+        cachedKey[1] = 0;
+        assertArrayEquals(new byte[]{5, 6, 7, 8}, cache.get(encryptedKey, RSA_OAEP, OAEP_DEFAULT, null));
+
+        // A different key transport algorithm must not match
+        assertNull(cache.get(encryptedKey, RSA_15, null, null));
+        assertNull(cache.get(new byte[]{1, 2, 3}, RSA_OAEP, OAEP_DEFAULT, null));
+
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertNull(cache.get(encryptedKey, RSA_OAEP, OAEP_DEFAULT, null));
+    }
+
+    @org.junit.Test
+    public void testMaxEntries() throws Exception {
+        EncryptedKeyCache cache = new EncryptedKeyCache(2, EncryptedKeyCache.DEFAULT_TTL);
+        cache.add(new byte[]{1}, RSA_OAEP, OAEP_DEFAULT, null, new byte[]{1});
+        cache.add(new byte[]{2}, RSA_OAEP, OAEP_DEFAULT, null, new byte[]{2});
+
+        // Access the first entry, so that the second is the least recently used
+        assertNotNull(cache.get(new byte[]{1}, RSA_OAEP, OAEP_DEFAULT, null));
+        cache.add(new byte[]{3}, RSA_OAEP, OAEP_DEFAULT, null, new byte[]{3});
+
+        assertEquals(2, cache.size());
+        assertNotNull(cache.get(new byte[]{1}, RSA_OAEP, OAEP_DEFAULT, null));
+        assertNull(cache.get(new byte[]{2}, RSA_OAEP, OAEP_DEFAULT, null));
+        assertNotNull(cache.get(new byte[]{3}, RSA_OAEP, OAEP_DEFAULT, null));
+    }
+
+    @org.junit.Test
+    public void testExpiry() throws Exception {
+        EncryptedKeyCache cache = new EncryptedKeyCache(10, 1L);
+        cache.add(new byte[]{1}, RSA_OAEP, OAEP_DEFAULT, null, new byte[]{1});
+        assertNotNull(cache.get(new byte[]{1}, RSA_OAEP, OAEP_DEFAULT, null));
+
+        Thread.sleep(1100L);
+        assertNull(cache.get(new byte[]{1}, RSA_OAEP, OAEP_DEFAULT, null));
+        assertEquals(0, cache.size());
+    }
+
+    @org.junit.Test
+    public void testOAEPParameters() throws Exception {
+        EncryptedKeyCache cache = new EncryptedKeyCache();
+        byte[] encryptedKey = new byte[]{1, 2, 3, 4};
+        cache.add(encryptedKey, RSA_OAEP, OAEP_DEFAULT, null, new byte[]{5, 6, 7, 8});
+
+        OAEPParameterSpec sameParameters = 
+            new OAEPParameterSpec(
+                "SHA-1", "MGF1", new MGF1ParameterSpec("SHA-1"), PSource.PSpecified.DEFAULT
+            );
+        assertNotNull(cache.get(encryptedKey, RSA_OAEP, sameParameters, null));
+
+        // A different digest, MGF or PSource must not match
+        OAEPParameterSpec otherDigest = 
+            new OAEPParameterSpec(
+                "SHA-256", "MGF1", new MGF1ParameterSpec("SHA-1"), PSource.PSpecified.DEFAULT
+            );
+        assertNull(cache.get(encryptedKey, RSA_OAEP, otherDigest, null));
+        OAEPParameterSpec otherMGF = 
+            new OAEPParameterSpec(
+                "SHA-1", "MGF1", new MGF1ParameterSpec("SHA-256"), PSource.PSpecified.DEFAULT
+            );
+        assertNull(cache.get(encryptedKey, RSA_OAEP, otherMGF, null));
+        OAEPParameterSpec otherPSource = 
+            new OAEPParameterSpec(
+                "SHA-1", "MGF1", new MGF1ParameterSpec("SHA-1"), 
+                new PSource.PSpecified(new byte[]{0})
+            );
+        assertNull(cache.get(encryptedKey, RSA_OAEP, otherPSource, null));
+        assertNull(cache.get(encryptedKey, RSA_OAEP, null, null));
+    }
+
+}
@@ -0,0 +1,266 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.UUID;
+
+/**
+ * Some tests for the MappedReplayCache.
+ */
+public class MappedReplayCacheTest extends org.junit.Assert {
+
+    @org.junit.Test
+    public void testAddContains() throws Exception {
+        File file = createFile();
+        MappedReplayCache cache = new MappedReplayCache(file, 1000);
+        try {
+            assertEquals(1024, cache.getCapacity());
+            String id = UUID.randomUUID().toString();
+            assertFalse(cache.contains(id));
+            cache.add(id);
+            assertTrue(cache.contains(id));
+            assertFalse(cache.contains(UUID.randomUUID().toString()));
+            assertFalse(cache.contains(null));
+            assertFalse(cache.contains(""));
+        } finally {
+            cache.close();
+            file.delete();
+        }
+    }
+
+    @org.junit.Test
+    public void testExpiry() throws Exception {
+        File file = createFile();
+        MappedReplayCache cache = new MappedReplayCache(file, 16);
+        try {
+            String id = UUID.randomUUID().toString();
+            cache.add(id, 1L);
+            assertTrue(cache.contains(id));
+
+            Thread.sleep(1100L);
+            assertFalse(cache.contains(id));
+
+            // The expired slot is reused
+            cache.add(id, 60L);
+            assertTrue(cache.contains(id));
+        } finally {
+            cache.close();
+            file.delete();
+        }
+    }
+
+    @org.junit.Test
+    public void testPersistence() throws Exception {
+        File file = createFile();
+        String id = UUID.randomUUID().toString();
+        MappedReplayCache cache = new MappedReplayCache(file, 64);
+        try {
+            cache.add(id);
+
+            // The file can only be opened once
+            try {
+                new MappedReplayCache(file, 64);
+                fail("Expected failure on opening the file twice");
+            } catch (IOException ex) {
+                // expected
+            }
+        } finally {
+            cache.close();
+        }
+        try {
+            cache.contains(id);
+            fail("Expected failure on a closed cache");
+        } catch (IllegalStateException ex) {
+            // expected
+        }
+
+        cache = new MappedReplayCache(file, 64);
+        try {
+            assertTrue(cache.contains(id));
+        } finally {
+            cache.close();
+        }
+
+        // A different capacity re-initialises the table
+        cache = new MappedReplayCache(file, 128);
+        try {
+            assertFalse(cache.contains(id));
+        } finally {
+            cache.close();
+            file.delete();
+        }
+    }
+
+    @org.junit.Test
+    public void testFullTable() throws Exception {
+        File file = createFile();
+        MappedReplayCache cache = new MappedReplayCache(file, 16);
+        try {
+            String firstId = UUID.randomUUID().toString();
+            cache.add(firstId, 10L);
+            for (int i = 0; i < 15; i++) {
+                cache.add(UUID.randomUUID().toString(), 60L);
+            }
+            assertTrue(cache.contains(firstId));
+            assertEquals(0L, cache.getEvictionCount());
+
+            // The probe window covers the whole table, so the identifier that expires first 
+            // is evicted
+            String id = UUID.randomUUID().toString();
+            cache.add(id, 60L);
+            assertTrue(cache.contains(id));
+            assertFalse(cache.contains(firstId));
+            assertEquals(1L, cache.getEvictionCount());
+
+            // Re-adding a cached identifier does not evict anything
+            cache.add(id, 60L);
+            assertEquals(1L, cache.getEvictionCount());
+        } finally {
+            cache.close();
+            file.delete();
+        }
+    }
+
+    @org.junit.Test
+    public void testFactory() throws Exception {
+        File directory = createDirectory();
+        MappedReplayCacheFactory factory = new MappedReplayCacheFactory(directory);
+        factory.setCapacity(64);
+
+        MappedReplayCache cache = (MappedReplayCache)factory.newReplayCache("wss4j/nonce-cache", null);
+        MappedReplayCache otherCache = 
+            (MappedReplayCache)factory.newReplayCache("wss4j_nonce-cache", null);
+        try {
+            assertEquals(directory.getCanonicalFile(), cache.getFile().getParentFile());
+            assertTrue(cache.getFile().getName().startsWith("wss4j_nonce-cache-"));
+            assertTrue(cache.getFile().getName().endsWith(".replay"));
+            // Keys that are escaped to the same name must not share a file
+            assertFalse(cache.getFile().equals(otherCache.getFile()));
+            assertEquals(64, cache.getCapacity());
+            assertSame(cache, factory.newReplayCache("wss4j/nonce-cache", null));
+            // Releasing the second reference must not close the cache for the first user
+            cache.close();
+            assertFalse(cache.isClosed());
+            assertFalse(cache.contains("1234"));
+
+            // Neither must closing a cache that was returned by another factory
+            MappedReplayCacheFactory otherFactory = new MappedReplayCacheFactory(directory);
+            assertSame(cache, otherFactory.newReplayCache("wss4j/nonce-cache", null));
+            cache.close();
+            assertFalse(cache.isClosed());
+        } finally {
+            cache.close();
+            otherCache.close();
+        }
+        assertTrue(cache.isClosed());
+        ReplayCache newCache = factory.newReplayCache("wss4j/nonce-cache", null);
+        assertNotSame(cache, newCache);
+        ((MappedReplayCache)newCache).close();
+
+        cache.getFile().delete();
+        otherCache.getFile().delete();
+        directory.delete();
+    }
+
+    @org.junit.Test
+    public void testFactorySelection() throws Exception {
+        File directory = createDirectory();
+        System.setProperty(ReplayCacheFactory.REPLAY_CACHE_TYPE, ReplayCacheFactory.MAPPED_TYPE);
+        System.setProperty(ReplayCacheFactory.REPLAY_CACHE_DIRECTORY, directory.getPath());
+        try {
+            ReplayCacheFactory factory = ReplayCacheFactory.newInstance();
+            assertTrue(factory instanceof MappedReplayCacheFactory);
+            assertEquals(directory, ((MappedReplayCacheFactory)factory).getDirectory());
+
+            MappedReplayCache cache = (MappedReplayCache)factory.newReplayCache("selected", null);
+            String id = UUID.randomUUID().toString();
+            cache.add(id);
+            assertTrue(cache.contains(id));
+            cache.close();
+            cache.getFile().delete();
+
+            // The directory is required
+            System.clearProperty(ReplayCacheFactory.REPLAY_CACHE_DIRECTORY);
+            try {
+                ReplayCacheFactory.newInstance();
+                fail("Expected failure on a missing directory");
+            } catch (IllegalArgumentException ex) {
+                // expected
+            }
+        } finally {
+            System.clearProperty(ReplayCacheFactory.REPLAY_CACHE_TYPE);
+            System.clearProperty(ReplayCacheFactory.REPLAY_CACHE_DIRECTORY);
+            directory.delete();
+        }
+        assertFalse(ReplayCacheFactory.newInstance() instanceof MappedReplayCacheFactory);
+    }
+
+    @org.junit.Test
+    public void testFactoryRequiresPrivateDirectory() throws Exception {
+        try {
+            new MappedReplayCacheFactory(null);
+            fail("Expected failure on a missing directory");
+        } catch (IllegalArgumentException ex) {
+            // expected
+        }
+
+        File directory = createDirectory();
+        MappedReplayCacheFactory factory = new MappedReplayCacheFactory(directory);
+        try {
+            factory.newReplayCache("missing-directory", new File(directory, "missing/file"));
+            fail("Expected failure on a missing directory");
+        } catch (IllegalStateException ex) {
+            // expected
+        }
+
+        if (File.separatorChar == '/') {
+            // A directory that is writable by others is rejected (on POSIX file systems)
+            directory.setWritable(true, false);
+            try {
+                factory.newReplayCache("public-directory", null);
+                fail("Expected failure on a public directory");
+            } catch (IllegalStateException ex) {
+                // expected
+            }
+        }
+        directory.delete();
+    }
+
+    private static File createDirectory() throws IOException {
+        File directory = createFile();
+        directory.delete();
+        directory.mkdir();
+        directory.setReadable(false, false);
+        directory.setWritable(false, false);
+        directory.setExecutable(false, false);
+        directory.setReadable(true, true);
+        directory.setWritable(true, true);
+        directory.setExecutable(true, true);
+        return directory;
+    }
+
+    private static File createFile() throws IOException {
+        File file = File.createTempFile("wss4j-replay-cache", ".replay");
+        file.deleteOnExit();
+        return file;
+    }
+}
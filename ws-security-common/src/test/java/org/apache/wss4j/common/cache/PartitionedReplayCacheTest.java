@@ -0,0 +1,218 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.cache;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import org.apache.wss4j.common.ext.WSSecurityException;
+
+/**
+ * Some tests for the PartitionedReplayCache, using a LoopbackReplayCacheTransport.
+ */
+public class PartitionedReplayCacheTest extends org.junit.Assert {
+
+    private static final List<String> NODES = Arrays.asList("node1", "node2", "node3");
+
+    @org.junit.Test
+    public void testReplayOnAnotherNode() throws Exception {
+        LoopbackReplayCacheTransport transport = new LoopbackReplayCacheTransport();
+        PartitionedReplayCache node1 = new PartitionedReplayCache("node1", NODES, transport);
+        PartitionedReplayCache node2 = new PartitionedReplayCache("node2", NODES, transport);
+        PartitionedReplayCache node3 = new PartitionedReplayCache("node3", NODES, transport);
+        try {
+            for (int i = 0; i < 20; i++) {
+                String id = UUID.randomUUID().toString();
+                assertEquals(node1.getNode(id), node2.getNode(id));
+                assertEquals(node1.getNode(id), node3.getNode(id));
+
+                assertTrue(node1.addIfAbsent(id).get());
+                assertFalse(node2.addIfAbsent(id).get());
+                assertFalse(node3.addIfAbsent(id, 60L).get());
+                assertTrue(node2.contains(id));
+                assertTrue(node3.contains(id));
+            }
+
+            // Identifiers added with ReplayCache.add are visible to the other nodes once they
+            // have been sent
+            String id = UUID.randomUUID().toString();
+            node3.add(id);
+            assertTrue(node3.contains(id));
+            assertTrue(node1.contains(id));
+            assertFalse(node2.contains(UUID.randomUUID().toString()));
+        } finally {
+            node1.close();
+            node2.close();
+            node3.close();
+        }
+    }
+
+    @org.junit.Test
+    public void testBatching() throws Exception {
+        LoopbackReplayCacheTransport transport = new LoopbackReplayCacheTransport();
+        PartitionedReplayCache node1 = new PartitionedReplayCache("node1", NODES, transport);
+        PartitionedReplayCache node2 = new PartitionedReplayCache("node2", NODES, transport);
+        node1.setLingerTime(60000L);
+        try {
+            // Identifiers that are held by node2
+            List<String> ids = new ArrayList<String>();
+            while (ids.size() < 10) {
+                String id = UUID.randomUUID().toString();
+                if ("node2".equals(node1.getNode(id))) {
+                    ids.add(id);
+                }
+            }
+
+            List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+            for (String id : ids) {
+                results.add(node1.addIfAbsent(id));
+            }
+            assertEquals(0, transport.getBatchCount());
+            assertFalse(results.get(0).isDone());
+
+            // Requesting a result sends all the queued identifiers in a single batch
+            for (Future<Boolean> result : results) {
+                assertTrue(result.get());
+            }
+            assertEquals(1, transport.getBatchCount());
+
+            // A full batch is sent without waiting
+            node1.setMaxBatchSize(2);
+            Future<Boolean> first = node1.addIfAbsent(ids.get(0));
+            Future<Boolean> second = node1.addIfAbsent(ids.get(1));
+            assertFalse(first.get());
+            assertFalse(second.get());
+            assertEquals(2, transport.getBatchCount());
+        } finally {
+            node1.close();
+            node2.close();
+        }
+    }
+
+    @org.junit.Test
+    public void testPendingReplayChecks() throws Exception {
+        LoopbackReplayCacheTransport transport = new LoopbackReplayCacheTransport();
+        PartitionedReplayCache node1 = new PartitionedReplayCache("node1", NODES, transport);
+        PartitionedReplayCache node2 = new PartitionedReplayCache("node2", NODES, transport);
+        PartitionedReplayCache node3 = new PartitionedReplayCache("node3", NODES, transport);
+        try {
+            String nonce = UUID.randomUUID().toString();
+            String timestamp = UUID.randomUUID().toString();
+
+            PendingReplayChecks checks = new PendingReplayChecks();
+            assertTrue(checks.start());
+            assertFalse(checks.start());
+            checks.add(node1.addIfAbsent(nonce), WSSecurityException.ErrorCode.INVALID_SECURITY, null);
+            checks.add(node1.addIfAbsent(timestamp), WSSecurityException.ErrorCode.INVALID_SECURITY, null);
+            assertFalse(checks.isEmpty());
+            checks.verify();
+            assertTrue(checks.isEmpty());
+            assertFalse(checks.isStarted());
+
+            // The replayed message is received by another node
+            checks.start();
+            checks.add(node2.addIfAbsent(nonce), WSSecurityException.ErrorCode.INVALID_SECURITY, null);
+            checks.add(node2.addIfAbsent(timestamp), WSSecurityException.ErrorCode.INVALID_SECURITY, null);
+            try {
+                checks.verify();
+                fail("Failure expected on a replay attack");
+            } catch (WSSecurityException ex) {
+                assertEquals(WSSecurityException.ErrorCode.INVALID_SECURITY, ex.getErrorCode());
+            }
+        } finally {
+            node1.close();
+            node2.close();
+            node3.close();
+        }
+    }
+
+    @org.junit.Test
+    public void testPendingReplayChecksNotStarted() throws Exception {
+        LoopbackReplayCacheTransport transport = new LoopbackReplayCacheTransport();
+        PartitionedReplayCache node1 = new PartitionedReplayCache("node1", NODES, transport);
+        PartitionedReplayCache node2 = new PartitionedReplayCache("node2", NODES, transport);
+        PartitionedReplayCache node3 = new PartitionedReplayCache("node3", NODES, transport);
+        try {
+            String nonce = UUID.randomUUID().toString();
+
+            // Checks are verified as soon as they are added, if they are not being collected
+            PendingReplayChecks checks = new PendingReplayChecks();
+            checks.add(node1.addIfAbsent(nonce), WSSecurityException.ErrorCode.INVALID_SECURITY, null);
+            assertTrue(checks.isEmpty());
+            try {
+                checks.add(
+                    node1.addIfAbsent(nonce), WSSecurityException.ErrorCode.INVALID_SECURITY, null
+                );
+                fail("Failure expected on a replay attack");
+            } catch (WSSecurityException ex) {
+                assertEquals(WSSecurityException.ErrorCode.INVALID_SECURITY, ex.getErrorCode());
+            }
+
+            // Checks left over from a previous message are removed on start
+            checks.start();
+            checks.add(node1.addIfAbsent(nonce), WSSecurityException.ErrorCode.INVALID_SECURITY, null);
+            checks.clear();
+            assertTrue(checks.start());
+            assertTrue(checks.isEmpty());
+            checks.verify();
+        } finally {
+            node1.close();
+            node2.close();
+            node3.close();
+        }
+    }
+
+    @org.junit.Test
+    public void testUnavailableNode() throws Exception {
+        LoopbackReplayCacheTransport transport = new LoopbackReplayCacheTransport();
+        PartitionedReplayCache node1 = new PartitionedReplayCache("node1", NODES, transport);
+        try {
+            String id = UUID.randomUUID().toString();
+            while (!"node2".equals(node1.getNode(id))) {
+                id = UUID.randomUUID().toString();
+            }
+
+            try {
+                node1.addIfAbsent(id).get();
+                fail("Failure expected on an unavailable node");
+            } catch (ExecutionException ex) {
+                // expected
+            }
+            // An identifier that can't be checked is treated as a replay
+            assertTrue(node1.contains(id));
+
+            PendingReplayChecks checks = new PendingReplayChecks();
+            checks.start();
+            checks.add(node1.addIfAbsent(id), WSSecurityException.ErrorCode.INVALID_SECURITY, null);
+            try {
+                checks.verify();
+                fail("Failure expected on an unavailable node");
+            } catch (WSSecurityException ex) {
+                assertEquals(WSSecurityException.ErrorCode.FAILURE, ex.getErrorCode());
+            }
+        } finally {
+            node1.close();
+        }
+    }
+}
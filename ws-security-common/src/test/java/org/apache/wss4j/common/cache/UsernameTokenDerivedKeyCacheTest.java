@@ -0,0 +1,108 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.cache;
+
+import org.apache.wss4j.common.util.UsernameTokenUtil;
+
+/**
+ * Some tests for the UsernameTokenDerivedKeyCache.
+ */
+public class UsernameTokenDerivedKeyCacheTest extends org.junit.Assert {
+
+    private static final byte[] PASSWORD = new byte[]{'s', 'e', 'c', 'r', 'e', 't'};
+    private static final byte[] SALT = new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16};
+
+    @org.junit.Test
+    public void testAddAndGet() throws Exception {
+        UsernameTokenDerivedKeyCache cache = new UsernameTokenDerivedKeyCache();
+        byte[] derivedKey = new byte[]{5, 6, 7, 8};
+
+        assertNull(cache.get("wernerd", PASSWORD, SALT, 1000));
+        cache.add("wernerd", PASSWORD, SALT, 1000, derivedKey);
+        assertEquals(1, cache.size());
+
+        // Modifying the added or returned keys must not affect the cached key
+        derivedKey[0] = 0;
+        byte[] cachedKey = cache.get("wernerd", PASSWORD, SALT, 1000);
+        assertArrayEquals(new byte[]{5, 6, 7, 8}, cachedKey);
+        cachedKey[1] = 0;
+        assertArrayEquals(new byte[]{5, 6, 7, 8}, cache.get("wernerd", PASSWORD, SALT, 1000));
+
+        // A different username, password, salt or iteration count must not match
+        assertNull(cache.get("alice", PASSWORD, SALT, 1000));
+        assertNull(cache.get("wernerd", new byte[]{'s', 'e', 'c', 'r', 'e', 'T'}, SALT, 1000));
+        assertNull(cache.get("wernerd", PASSWORD, new byte[]{1, 2, 3}, 1000));
+        assertNull(cache.get("wernerd", PASSWORD, SALT, 1001));
+        // The values must not be ambiguous when concatenated
+        assertNull(cache.get("wernerds", new byte[]{'e', 'c', 'r', 'e', 't'}, SALT, 1000));
+
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertNull(cache.get("wernerd", PASSWORD, SALT, 1000));
+    }
+
+    @org.junit.Test
+    public void testMaxEntries() throws Exception {
+        UsernameTokenDerivedKeyCache cache =
+            new UsernameTokenDerivedKeyCache(2, UsernameTokenDerivedKeyCache.DEFAULT_TTL);
+        cache.add("user1", PASSWORD, SALT, 1000, new byte[]{1});
+        cache.add("user2", PASSWORD, SALT, 1000, new byte[]{2});
+
+        // Access the first entry, so that the second is the least recently used
+        assertNotNull(cache.get("user1", PASSWORD, SALT, 1000));
+        cache.add("user3", PASSWORD, SALT, 1000, new byte[]{3});
+
+        assertEquals(2, cache.size());
+        assertNotNull(cache.get("user1", PASSWORD, SALT, 1000));
+        assertNull(cache.get("user2", PASSWORD, SALT, 1000));
+        assertNotNull(cache.get("user3", PASSWORD, SALT, 1000));
+    }
+
+    @org.junit.Test
+    public void testExpiry() throws Exception {
+        UsernameTokenDerivedKeyCache cache = new UsernameTokenDerivedKeyCache(10, 1L);
+        cache.add("wernerd", PASSWORD, SALT, 1000, new byte[]{1});
+        assertNotNull(cache.get("wernerd", PASSWORD, SALT, 1000));
+
+        Thread.sleep(1100L);
+        assertNull(cache.get("wernerd", PASSWORD, SALT, 1000));
+        assertEquals(0, cache.size());
+    }
+
+    @org.junit.Test
+    public void testGenerateDerivedKey() throws Exception {
+        UsernameTokenDerivedKeyCache cache = new UsernameTokenDerivedKeyCache();
+        byte[] derivedKey = UsernameTokenUtil.generateDerivedKey(PASSWORD, SALT, 1000);
+
+        assertArrayEquals(
+            derivedKey, UsernameTokenUtil.generateDerivedKey("wernerd", PASSWORD, SALT, 1000, cache)
+        );
+        assertEquals(1, cache.size());
+        assertArrayEquals(derivedKey, cache.get("wernerd", PASSWORD, SALT, 1000));
+        assertArrayEquals(
+            derivedKey, UsernameTokenUtil.generateDerivedKey("wernerd", PASSWORD, SALT, 1000, cache)
+        );
+        // An iteration count of 0 means the default iteration count
+        assertArrayEquals(
+            derivedKey, UsernameTokenUtil.generateDerivedKey("wernerd", PASSWORD, SALT, 0, cache)
+        );
+        assertEquals(1, cache.size());
+    }
+}
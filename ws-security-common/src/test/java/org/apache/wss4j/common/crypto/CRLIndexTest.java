@@ -0,0 +1,190 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.crypto;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.security.cert.CertPathValidatorException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.GregorianCalendar;
+
+/**
+ * Some tests for the CRLIndex. The test CRL has expired, so the revocation status is checked
+ * at a date before its next update.
+ */
+public class CRLIndexTest extends org.junit.Assert {
+
+    private static final Date CHECK_DATE = new GregorianCalendar(2015, 0, 1).getTime();
+
+    @org.junit.Test
+    public void testRevokedCertificate() throws Exception {
+        CRLIndex index = new CRLIndex(new URLCRLSource(getResource("keys/wss40CACRL.pem")));
+        index.refresh();
+        assertEquals(1L, index.getGeneration());
+
+        X509Certificate caCert = loadCertificate("keys/wss40CA.pem");
+        Collection<X509Certificate> caCerts = Collections.singletonList(caCert);
+        assertNotNull(index.getCRL(caCert.getSubjectX500Principal()));
+
+        index.checkRevocation(loadCertificate("keys/wss40.pem"), caCerts, CHECK_DATE);
+        // The second check uses the remembered verification of the CRL
+        index.checkRevocation(loadCertificate("keys/wss40.pem"), caCerts, CHECK_DATE);
+        try {
+            index.checkRevocation(loadCertificate("keys/wss40rev.pem"), caCerts, CHECK_DATE);
+            fail("Failure expected on a revoked certificate");
+        } catch (CertPathValidatorException ex) {
+            // expected
+        }
+
+        // The CRL can't be verified with the key of another issuer
+        Collection<X509Certificate> wrongCerts =
+            Collections.singletonList(loadCertificate("keys/wss40.pem"));
+        try {
+            index.checkRevocation(loadCertificate("keys/wss40.pem"), wrongCerts, CHECK_DATE);
+            fail("Failure expected on a CRL signed by another key");
+        } catch (CertPathValidatorException ex) {
+            // expected
+        }
+
+        // The CRL has expired by now
+        try {
+            index.checkRevocation(loadCertificate("keys/wss40.pem"), caCerts);
+            fail("Failure expected on an expired CRL");
+        } catch (CertPathValidatorException ex) {
+            // expected
+        }
+    }
+
+    @org.junit.Test
+    public void testRefresh() throws Exception {
+        File file = File.createTempFile("wss4j-crl", ".pem");
+        file.deleteOnExit();
+        try {
+            URLCRLSource source = new URLCRLSource(file.toURI().toURL());
+            CRLIndex index = new CRLIndex(source);
+            index.refresh();
+
+            Collection<X509Certificate> caCerts = 
+                Collections.singletonList(loadCertificate("keys/wss40CA.pem"));
+            X509Certificate revoked = loadCertificate("keys/wss40rev.pem");
+            try {
+                index.checkRevocation(revoked, caCerts, CHECK_DATE);
+                fail("Failure expected with no CRL of the issuer");
+            } catch (CertPathValidatorException ex) {
+                // expected
+            }
+
+            // An unchanged source doesn't rebuild the index
+            long generation = index.getGeneration();
+            index.refresh();
+            assertEquals(generation, index.getGeneration());
+
+            copy(getResource("keys/wss40CACRL.pem"), file);
+            file.setLastModified(System.currentTimeMillis() + 60000L);
+            index.refresh();
+            assertEquals(generation + 1, index.getGeneration());
+            try {
+                index.checkRevocation(revoked, caCerts, CHECK_DATE);
+                fail("Failure expected on a revoked certificate");
+            } catch (CertPathValidatorException ex) {
+                // expected
+            }
+            index.checkRevocation(loadCertificate("keys/wss40.pem"), caCerts, CHECK_DATE);
+            index.close();
+        } finally {
+            file.delete();
+        }
+    }
+
+    @org.junit.Test
+    public void testUnsupportedCRLs() throws Exception {
+        Collection<X509Certificate> caCerts = 
+            Collections.singletonList(loadCertificate("keys/wss40CA.pem"));
+        X509Certificate cert = loadCertificate("keys/wss40.pem");
+
+        // A partitioned CRL, a delta CRL or a CRL with an unknown critical extension may not
+        // cover the certificate, so the check must fail even though it is not listed
+        String[] unsupportedCRLs = {
+            "keys/wss40CACRLIdp.pem", "keys/wss40CACRLDelta.pem", "keys/wss40CACRLCritical.pem"
+        };
+        for (String unsupportedCRL : unsupportedCRLs) {
+            CRLIndex index = new CRLIndex(new URLCRLSource(getResource(unsupportedCRL)));
+            index.refresh();
+            try {
+                index.checkRevocation(cert, caCerts);
+                fail("Failure expected on the unsupported CRL " + unsupportedCRL);
+            } catch (CertPathValidatorException ex) {
+                assertTrue(ex.getMessage().contains("not supported"));
+            }
+        }
+    }
+
+    @org.junit.Test
+    public void testIssuerWithoutCRLSign() throws Exception {
+        CRLIndex index = new CRLIndex(new URLCRLSource(getResource("keys/wss40CACRL.pem")));
+        index.refresh();
+
+        // The certificate has the key of the CA, but its KeyUsage doesn't allow signing CRLs
+        Collection<X509Certificate> issuerCerts = 
+            Collections.singletonList(loadCertificate("keys/wss40CANoCRLSign.pem"));
+        try {
+            index.checkRevocation(loadCertificate("keys/wss40.pem"), issuerCerts, CHECK_DATE);
+            fail("Failure expected on an issuer without the cRLSign key usage");
+        } catch (CertPathValidatorException ex) {
+            // expected
+        }
+    }
+
+    private static URL getResource(String name) {
+        return CRLIndexTest.class.getClassLoader().getResource(name);
+    }
+
+    private static X509Certificate loadCertificate(String name) throws Exception {
+        InputStream is = getResource(name).openStream();
+        try {
+            CertificateFactory cf = CertificateFactory.getInstance("X.509");
+            return (X509Certificate)cf.generateCertificate(is);
+        } finally {
+            is.close();
+        }
+    }
+
+    private static void copy(URL from, File to) throws Exception {
+        InputStream is = from.openStream();
+        OutputStream os = new FileOutputStream(to);
+        try {
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = is.read(buffer)) != -1) {
+                os.write(buffer, 0, read);
+            }
+        } finally {
+            os.close();
+            is.close();
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.crypto;
+
+import java.io.InputStream;
+import java.security.KeyStore;
+import java.security.cert.X509Certificate;
+
+import org.apache.wss4j.common.ext.WSSecurityException;
+import org.apache.wss4j.common.util.Loader;
+
+/**
+ * Some tests for caching the results of certificate path validation in Merlin.
+ */
+public class CertPathValidationCacheTest extends org.junit.Assert {
+
+    @org.junit.Test
+    public void testCachedValidation() throws Exception {
+        Merlin crypto = new Merlin();
+        crypto.setTrustStore(loadKeyStore("keys/wss40CA.jks"));
+        CertPathValidationCache cache = new CertPathValidationCache();
+        crypto.setCertPathValidationCache(cache);
+
+        X509Certificate cert =
+            (X509Certificate)loadKeyStore("keys/wss40.jks").getCertificate("wss40");
+        X509Certificate[] certs = new X509Certificate[]{cert};
+
+        assertTrue(crypto.verifyTrust(certs, false));
+        assertEquals(0L, cache.getHits());
+        assertEquals(1L, cache.getMisses());
+
+        assertTrue(crypto.verifyTrust(certs, false));
+        assertEquals(1L, cache.getHits());
+        assertEquals(1L, cache.getMisses());
+
+        // A different truststore must not be satisfied by the cached result
+        crypto.setTrustStore(loadKeyStore("keys/wss40badcatrust.jks"));
+        try {
+            crypto.verifyTrust(certs, false);
+            fail("Failure expected on an untrusted certificate");
+        } catch (WSSecurityException ex) {
+            assertEquals(WSSecurityException.ErrorCode.FAILED_AUTHENTICATION, ex.getErrorCode());
+        }
+        assertEquals(1L, cache.getHits());
+        assertEquals(2L, cache.getMisses());
+    }
+
+    @org.junit.Test
+    public void testLeastRecentlyUsedEviction() throws Exception {
+        // the expiry of an entry only depends on the TTL without any certificates
+        X509Certificate[] certs = new X509Certificate[0];
+        CertPathValidationCache cache = new CertPathValidationCache(3, 300L);
+
+        cache.add("a", certs);
+        cache.add("b", certs);
+        cache.add("c", certs);
+        assertTrue(cache.contains("a"));
+
+        // "b" is the least recently used entry now
+        cache.add("d", certs);
+        assertEquals(3, cache.size());
+        assertFalse(cache.contains("b"));
+        assertTrue(cache.contains("a"));
+        assertTrue(cache.contains("c"));
+        assertTrue(cache.contains("d"));
+    }
+
+    private KeyStore loadKeyStore(String location) throws Exception {
+        KeyStore keyStore = KeyStore.getInstance(KeyStore.getDefaultType());
+        ClassLoader loader = Loader.getClassLoader(CertPathValidationCacheTest.class);
+        InputStream input = Merlin.loadInputStream(loader, location);
+        keyStore.load(input, "security".toCharArray());
+        input.close();
+        return keyStore;
+    }
+
+}
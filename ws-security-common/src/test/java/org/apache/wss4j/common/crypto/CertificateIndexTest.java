@@ -0,0 +1,120 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.crypto;
+
+import java.io.InputStream;
+import java.security.KeyStore;
+import java.security.MessageDigest;
+import java.security.cert.X509Certificate;
+
+import org.apache.wss4j.common.util.Loader;
+
+/**
+ * Some tests for the certificate indexes that Merlin builds of its keystore and truststore.
+ */
+public class CertificateIndexTest extends org.junit.Assert {
+
+    @org.junit.Test
+    public void testLookups() throws Exception {
+        Merlin crypto = new Merlin();
+        crypto.setKeyStore(loadKeyStore("keys/wss40.jks"));
+        KeyStore trustStore = loadKeyStore("keys/wss40CA.jks");
+        crypto.setTrustStore(trustStore);
+
+        X509Certificate caCert = (X509Certificate)trustStore.getCertificate("wss40ca");
+        assertNotNull(caCert);
+
+        CryptoType cryptoType = new CryptoType(CryptoType.TYPE.ISSUER_SERIAL);
+        cryptoType.setIssuerSerial(
+            caCert.getIssuerX500Principal().getName(), caCert.getSerialNumber()
+        );
+        assertEquals(caCert, crypto.getX509Certificates(cryptoType)[0]);
+
+        cryptoType = new CryptoType(CryptoType.TYPE.SKI_BYTES);
+        cryptoType.setBytes(crypto.getSKIBytesFromCert(caCert));
+        assertEquals(caCert, crypto.getX509Certificates(cryptoType)[0]);
+
+        cryptoType = new CryptoType(CryptoType.TYPE.THUMBPRINT_SHA1);
+        cryptoType.setBytes(MessageDigest.getInstance("SHA1").digest(caCert.getEncoded()));
+        assertEquals(caCert, crypto.getX509Certificates(cryptoType)[0]);
+
+        cryptoType = new CryptoType(CryptoType.TYPE.SUBJECT_DN);
+        cryptoType.setSubjectDN(caCert.getSubjectX500Principal().getName());
+        assertEquals(caCert, crypto.getX509Certificates(cryptoType)[0]);
+
+        assertTrue(crypto.verifyTrust(caCert.getPublicKey()));
+        assertEquals("wss40ca", crypto.getX509Identifier(caCert));
+    }
+
+    @org.junit.Test
+    public void testRebuildOnNewTrustStore() throws Exception {
+        Merlin crypto = new Merlin();
+        KeyStore trustStore = loadKeyStore("keys/wss40CA.jks");
+        crypto.setTrustStore(trustStore);
+
+        X509Certificate caCert = (X509Certificate)trustStore.getCertificate("wss40ca");
+        CryptoType cryptoType = new CryptoType(CryptoType.TYPE.SKI_BYTES);
+        cryptoType.setBytes(crypto.getSKIBytesFromCert(caCert));
+        assertNotNull(crypto.getX509Certificates(cryptoType));
+
+        crypto.setTrustStore(loadKeyStore("keys/wss40badcatrust.jks"));
+        assertNull(crypto.getX509Certificates(cryptoType));
+        assertFalse(crypto.verifyTrust(caCert.getPublicKey()));
+    }
+
+    @org.junit.Test
+    public void testRefreshOnReplacedEntry() throws Exception {
+        Merlin crypto = new Merlin();
+        KeyStore trustStore = loadKeyStore("keys/wss40CA.jks");
+        crypto.setTrustStore(trustStore);
+
+        X509Certificate caCert = (X509Certificate)trustStore.getCertificate("wss40ca");
+        CryptoType cryptoType = new CryptoType(CryptoType.TYPE.SKI_BYTES);
+        cryptoType.setBytes(crypto.getSKIBytesFromCert(caCert));
+        assertNotNull(crypto.getX509Certificates(cryptoType));
+
+        // Replace the certificate of the alias in place, so the size of the KeyStore is unchanged
+        KeyStore badTrustStore = loadKeyStore("keys/wss40badcatrust.jks");
+        X509Certificate badCaCert = 
+            (X509Certificate)badTrustStore.getCertificate(badTrustStore.aliases().nextElement());
+        assertNotNull(badCaCert);
+        int size = trustStore.size();
+        trustStore.setCertificateEntry("wss40ca", badCaCert);
+        assertEquals(size, trustStore.size());
+
+        // The index is not rebuilt until it is refreshed
+        assertNotNull(crypto.getX509Certificates(cryptoType));
+        crypto.refreshIndexes();
+
+        assertNull(crypto.getX509Certificates(cryptoType));
+        assertFalse(crypto.verifyTrust(caCert.getPublicKey()));
+        assertEquals("wss40ca", crypto.getX509Identifier(badCaCert));
+    }
+
+    private KeyStore loadKeyStore(String location) throws Exception {
+        KeyStore keyStore = KeyStore.getInstance(KeyStore.getDefaultType());
+        ClassLoader loader = Loader.getClassLoader(CertificateIndexTest.class);
+        InputStream input = Merlin.loadInputStream(loader, location);
+        keyStore.load(input, "security".toCharArray());
+        input.close();
+        return keyStore;
+    }
+
+}
@@ -0,0 +1,138 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.crypto;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.cert.X509Certificate;
+import java.util.Properties;
+
+import org.apache.wss4j.common.ext.WSSecurityException;
+import org.apache.wss4j.common.util.Loader;
+
+/**
+ * Some tests for reloading a Crypto instance when its keystore is modified.
+ */
+public class ReloadingCryptoTest extends org.junit.Assert {
+
+    @org.junit.Test
+    public void testReload() throws Exception {
+        File file = File.createTempFile("wss4j-keystore", ".jks");
+        file.deleteOnExit();
+        try {
+            copy("keys/wss40.jks", file);
+            Properties properties = new Properties();
+            properties.put("org.apache.wss4j.crypto.merlin.keystore.type", "jks");
+            properties.put("org.apache.wss4j.crypto.merlin.keystore.password", "security");
+            properties.put("org.apache.wss4j.crypto.merlin.keystore.file", file.getPath());
+
+            ReloadingCrypto crypto = new ReloadingCrypto(properties);
+            Crypto delegate = crypto.getDelegate();
+            assertNotNull(getCertificates(crypto, "wss40"));
+            assertFalse(crypto.reloadIfModified());
+            assertSame(delegate, crypto.getDelegate());
+
+            // Rotate the keystore
+            copy("keys/wss40rev.jks", file);
+            file.setLastModified(file.lastModified() + 60000L);
+            assertTrue(crypto.reloadIfModified());
+            assertNotSame(delegate, crypto.getDelegate());
+            assertEquals(1L, crypto.getReloadCount());
+            assertTrue(crypto.getLastReloadTimestamp() > 0);
+            assertNotNull(getCertificates(crypto, "wss40rev"));
+
+            // A keystore that can't be loaded keeps the current instance
+            delegate = crypto.getDelegate();
+            OutputStream os = new FileOutputStream(file);
+            try {
+                os.write(new byte[]{1, 2, 3});
+            } finally {
+                os.close();
+            }
+            try {
+                crypto.reloadIfModified();
+                fail("Failure expected on an invalid keystore");
+            } catch (WSSecurityException ex) {
+                // expected
+            }
+            assertSame(delegate, crypto.getDelegate());
+            assertEquals(1L, crypto.getFailedReloadCount());
+            assertNotNull(getCertificates(crypto, "wss40rev"));
+            crypto.close();
+        } finally {
+            file.delete();
+        }
+    }
+
+    @org.junit.Test
+    public void testCryptoFactory() throws Exception {
+        Properties properties = CryptoFactory.getProperties("wss40.properties", getClass().getClassLoader());
+        assertFalse(CryptoFactory.getInstance(properties) instanceof ReloadingCrypto);
+
+        properties.put(ReloadingCrypto.RELOAD_INTERVAL, "60");
+        Crypto crypto = CryptoFactory.getInstance(properties);
+        assertTrue(crypto instanceof ReloadingCrypto);
+        assertNotNull(getCertificates(crypto, "wss40"));
+        ((ReloadingCrypto)crypto).close();
+    }
+
+    @org.junit.Test
+    public void testInvalidReloadInterval() throws Exception {
+        Properties properties = CryptoFactory.getProperties("wss40.properties", getClass().getClassLoader());
+        properties.put(ReloadingCrypto.RELOAD_INTERVAL, "1m");
+        try {
+            CryptoFactory.getInstance(properties);
+            fail("Failure expected on an invalid reload interval");
+        } catch (WSSecurityException ex) {
+            assertEquals(WSSecurityException.ErrorCode.FAILURE, ex.getErrorCode());
+        }
+        try {
+            new ReloadingCrypto(properties);
+            fail("Failure expected on an invalid reload interval");
+        } catch (WSSecurityException ex) {
+            assertEquals(WSSecurityException.ErrorCode.FAILURE, ex.getErrorCode());
+        }
+    }
+
+    private static X509Certificate[] getCertificates(
+        Crypto crypto, String alias
+    ) throws WSSecurityException {
+        CryptoType cryptoType = new CryptoType(CryptoType.TYPE.ALIAS);
+        cryptoType.setAlias(alias);
+        return crypto.getX509Certificates(cryptoType);
+    }
+
+    private static void copy(String resource, File to) throws Exception {
+        InputStream is = Loader.getResource(resource).openStream();
+        OutputStream os = new FileOutputStream(to);
+        try {
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = is.read(buffer)) != -1) {
+                os.write(buffer, 0, read);
+            }
+        } finally {
+            os.close();
+            is.close();
+        }
+    }
+}
@@ -0,0 +1,75 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.derivedKey;
+
+import java.util.Arrays;
+
+import org.apache.xml.security.utils.Base64;
+
+/**
+ * Some tests for P_SHA1.
+ */
+public class P_SHA1Test extends org.junit.Assert {
+
+    private static final byte[] SECRET = "0123456789abcdef0123456789abcdef".getBytes();
+    private static final String KNOWN_KEY =
+        "v/Y+jgSVFQ2ZNVse39k1oWA9qGabplmKlAz1PlDzx9zgd8J07aT3GpAInILF3tankgGon/6PIOSS0DtDDuDH4Q==";
+
+    @org.junit.Test
+    public void testP_SHA1() throws Exception {
+        byte[] seed = createSeed();
+        byte[] knownKey = Base64.decode(KNOWN_KEY);
+
+        P_SHA1 algorithm = new P_SHA1();
+        assertArrayEquals(knownKey, algorithm.createKey(SECRET, seed, 0, 64));
+        assertArrayEquals(
+            Arrays.copyOfRange(knownKey, 0, 16), algorithm.createKey(SECRET, seed, 0, 16)
+        );
+        assertArrayEquals(
+            Arrays.copyOfRange(knownKey, 20, 50), algorithm.createKey(SECRET, seed, 20, 30)
+        );
+        assertArrayEquals(
+            Arrays.copyOfRange(knownKey, 45, 64), algorithm.createKey(SECRET, seed, 45, 19)
+        );
+
+        byte[] buffer = new byte[40];
+        algorithm.createKey(SECRET, seed, 10, buffer, 8, 32);
+        assertArrayEquals(new byte[8], Arrays.copyOfRange(buffer, 0, 8));
+        assertArrayEquals(Arrays.copyOfRange(knownKey, 10, 42), Arrays.copyOfRange(buffer, 8, 40));
+
+        try {
+            algorithm.createKey(SECRET, seed, 0, buffer, 10, 32);
+            fail("Expected failure on a too small buffer");
+        } catch (ConversationException ex) {
+            // expected
+        }
+    }
+
+    private static byte[] createSeed() throws Exception {
+        byte[] label =
+            (ConversationConstants.DEFAULT_LABEL + ConversationConstants.DEFAULT_LABEL).getBytes("UTF-8");
+        byte[] seed = new byte[label.length + 16];
+        System.arraycopy(label, 0, seed, 0, label.length);
+        for (int i = 0; i < 16; i++) {
+            seed[label.length + i] = (byte)i;
+        }
+        return seed;
+    }
+}
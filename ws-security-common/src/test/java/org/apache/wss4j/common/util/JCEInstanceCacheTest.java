@@ -0,0 +1,125 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.util;
+
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Some tests for the JCEInstanceCache.
+ */
+public class JCEInstanceCacheTest extends org.junit.Assert {
+
+    @org.junit.Test
+    public void testSameThread() throws Exception {
+        MessageDigest digest = JCEInstanceCache.getMessageDigest("SHA-1");
+        assertSame(digest, JCEInstanceCache.getMessageDigest("SHA-1"));
+        assertNotSame(digest, JCEInstanceCache.getMessageDigest("SHA-256"));
+
+        // A partially used digest must be reset
+        digest.update(new byte[]{1, 2, 3});
+        byte[] expected = MessageDigest.getInstance("SHA-1").digest(new byte[]{4});
+        assertArrayEquals(expected, JCEInstanceCache.getMessageDigest("SHA-1").digest(new byte[]{4}));
+
+        assertSame(JCEInstanceCache.getMac("HmacSHA1"), JCEInstanceCache.getMac("HmacSHA1"));
+        assertSame(
+            JCEInstanceCache.getCipher("AES/CBC/PKCS5Padding"),
+            JCEInstanceCache.getCipher("AES/CBC/PKCS5Padding")
+        );
+        assertSame(
+            JCEInstanceCache.getKeyGenerator("AES"), JCEInstanceCache.getKeyGenerator("AES")
+        );
+
+        JCEInstanceCache.clear();
+        assertNotSame(digest, JCEInstanceCache.getMessageDigest("SHA-1"));
+    }
+
+    @org.junit.Test
+    public void testClearKey() throws Exception {
+        byte[] data = "some data".getBytes("UTF-8");
+        Mac mac = JCEInstanceCache.getMac("HmacSHA1");
+        mac.init(new SecretKeySpec("some secret".getBytes("UTF-8"), "HmacSHA1"));
+        byte[] secretMac = mac.doFinal(data);
+
+        // After clearing the key the Mac must no longer compute with the secret
+        JCEInstanceCache.clearKey(mac);
+        assertSame(mac, JCEInstanceCache.getMac("HmacSHA1"));
+        assertFalse(Arrays.equals(secretMac, mac.doFinal(data)));
+
+        // The Mac is usable again after it is initialized
+        mac.init(new SecretKeySpec("some secret".getBytes("UTF-8"), "HmacSHA1"));
+        assertArrayEquals(secretMac, mac.doFinal(data));
+    }
+
+    @org.junit.Test
+    public void testConcurrentUse() throws Exception {
+        final byte[] key = "secret".getBytes("UTF-8");
+        final byte[] data = "data".getBytes("UTF-8");
+        Mac referenceMac = Mac.getInstance("HmacSHA1");
+        referenceMac.init(new SecretKeySpec(key, "HmacSHA1"));
+        final byte[] expectedMac = referenceMac.doFinal(data);
+        final byte[] expectedDigest = MessageDigest.getInstance("SHA-1").digest(data);
+
+        // The barrier makes sure that each task runs on a different thread
+        final CyclicBarrier barrier = new CyclicBarrier(4);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Object>> futures = new ArrayList<Future<Object>>();
+            for (int i = 0; i < 4; i++) {
+                futures.add(executor.submit(new Callable<Object>() {
+                    public Object call() throws Exception {
+                        barrier.await();
+                        for (int j = 0; j < 1000; j++) {
+                            MessageDigest digest = JCEInstanceCache.getMessageDigest("SHA-1");
+                            assertArrayEquals(expectedDigest, digest.digest(data));
+
+                            Mac mac = JCEInstanceCache.getMac("HmacSHA1");
+                            mac.init(new SecretKeySpec(key, "HmacSHA1"));
+                            assertArrayEquals(expectedMac, mac.doFinal(data));
+                        }
+                        return JCEInstanceCache.getMessageDigest("SHA-1");
+                    }
+                }));
+            }
+            List<Object> digests = new ArrayList<Object>();
+            for (Future<Object> future : futures) {
+                Object digest = future.get();
+                // Each thread must have its own instance
+                for (Object other : digests) {
+                    assertNotSame(other, digest);
+                }
+                digests.add(digest);
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+}
@@ -31,7 +31,10 @@ package org.apache.wss4j.dom;
  */
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 import javax.xml.crypto.dom.DOMCryptoContext;
 
@@ -41,14 +44,30 @@ import org.apache.wss4j.dom.message.CallbackLookup;
 import org.apache.wss4j.dom.util.WSSecurityUtil;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
+import org.w3c.dom.Node;
 
 public class WSDocInfo {
+    private static final org.slf4j.Logger LOG = 
+        org.slf4j.LoggerFactory.getLogger(WSDocInfo.class);
+    
     private Document doc;
     private Crypto crypto;
     private List<Element> tokenList;
     private List<WSSecurityEngineResult> resultsList;
     private CallbackLookup callbackLookup;
     private Element securityHeader;
+    
+    /**
+     * An index of the elements in the document by wsu:Id or Id. It is built lazily on the
+     * first lookup.
+     */
+    private Map<String, List<Element>> idIndex;
+    
+    /**
+     * An index of the elements in the document by (SAML) ID or AssertionID. It is built at
+     * the same time as idIndex.
+     */
+    private Map<String, List<Element>> samlIdIndex;
 
     public WSDocInfo(Document doc) {
         //
@@ -77,6 +96,8 @@ public class WSDocInfo {
         
         tokenList = null;
         resultsList = null;
+        idIndex = null;
+        samlIdIndex = null;
     }
     
     /**
@@ -166,6 +187,157 @@ public class WSDocInfo {
         return null;
     }
 
+    /**
+     * Get the element in the document that has the given wsu:Id or Id. This has the same
+     * semantics as WSSecurityUtil.findElementById, but uses an index of the document that is
+     * built on the first call, rather than a search of the document for each call.
+     * 
+     * If checkMultipleElements is true and there are multiple elements, we log a 
+     * warning and return null as this can be used to get around the signature checking.
+     * 
+     * @param uri is the (relative) uri of the id
+     * @param checkMultipleElements If true then return null if there are multiple elements 
+     *        with the same Id
+     * @return The found element if there was exactly one match, or <code>null</code> otherwise
+     */
+    public Element getElementById(String uri, boolean checkMultipleElements) {
+        if (uri == null || doc == null) {
+            return null;
+        }
+        buildIdIndex();
+        List<Element> elements = getAttachedElements(idIndex, WSSecurityUtil.getIDFromReference(uri));
+        if (elements == null) {
+            return null;
+        }
+        if (checkMultipleElements && elements.size() > 1) {
+            LOG.warn("Multiple elements with the same 'Id' attribute value!");
+            return null;
+        }
+        return elements.get(0);
+    }
+    
+    /**
+     * Get the (SAML Assertion) element in the document that has the given ID or AssertionID.
+     * This has the same semantics as WSSecurityUtil.findSAMLAssertionElementById, but uses
+     * an index of the document that is built on the first call.
+     * 
+     * @param id Value of the AssertionID/ID attribute
+     * @return The found element if there was exactly one match, or <code>null</code> otherwise
+     */
+    public Element getSAMLAssertionElementById(String id) {
+        if (id == null || doc == null) {
+            return null;
+        }
+        buildIdIndex();
+        List<Element> elements = getAttachedElements(samlIdIndex, id);
+        if (elements == null) {
+            return null;
+        }
+        if (elements.size() > 1) {
+            LOG.warn("Multiple elements with the same 'ID' attribute value!");
+            return null;
+        }
+        return elements.get(0);
+    }
+    
+    /**
+     * Add the given node and its descendants to the Id index. This must be called for any
+     * elements that are added to the document during processing (e.g. by decryption), so
+     * that they can be found by getElementById and getSAMLAssertionElementById. It is a no-op
+     * if the index has not been built yet.
+     * @param node the root of the subtree to add to the index
+     */
+    public void addToIdIndex(Node node) {
+        if (idIndex == null || node == null) {
+            return;
+        }
+        Node current = node;
+        while (current != null) {
+            if (current.getNodeType() == Node.ELEMENT_NODE) {
+                indexElement((Element)current);
+            }
+            Node next = current.getFirstChild();
+            if (next == null) {
+                // no children, so move to the next sibling of this node or of an ancestor
+                while (current != node && current.getNextSibling() == null) {
+                    current = current.getParentNode();
+                }
+                if (current == node) {
+                    return;
+                }
+                next = current.getNextSibling();
+            }
+            current = next;
+        }
+    }
+    
+    private void buildIdIndex() {
+        if (idIndex == null) {
+            idIndex = new HashMap<String, List<Element>>();
+            samlIdIndex = new HashMap<String, List<Element>>();
+            addToIdIndex(doc.getDocumentElement());
+        }
+    }
+    
+    private void indexElement(Element element) {
+        String wsuId = element.getAttributeNS(WSConstants.WSU_NS, "Id");
+        if (!"".equals(wsuId)) {
+            addToIndex(idIndex, wsuId, element);
+        }
+        String id = element.getAttributeNS(null, "Id");
+        if (!"".equals(id)) {
+            addToIndex(idIndex, id, element);
+        }
+        String samlId = element.getAttributeNS(null, "ID");
+        if (!"".equals(samlId)) {
+            addToIndex(samlIdIndex, samlId, element);
+        }
+        String assertionId = element.getAttributeNS(null, "AssertionID");
+        if (!"".equals(assertionId)) {
+            addToIndex(samlIdIndex, assertionId, element);
+        }
+    }
+    
+    private static void addToIndex(Map<String, List<Element>> index, String id, Element element) {
+        List<Element> elements = index.get(id);
+        if (elements == null) {
+            elements = new ArrayList<Element>(1);
+            index.put(id, elements);
+        } else if (elements.contains(element)) {
+            return;
+        }
+        elements.add(element);
+    }
+    
+    /**
+     * Get the indexed elements with the given Id, after removing any elements that have
+     * since been removed from the document (e.g. EncryptedData elements that were decrypted)
+     */
+    private static List<Element> getAttachedElements(Map<String, List<Element>> index, String id) {
+        List<Element> elements = index.get(id);
+        if (elements == null) {
+            return null;
+        }
+        for (Iterator<Element> iterator = elements.iterator(); iterator.hasNext();) {
+            if (!isAttached(iterator.next())) {
+                iterator.remove();
+            }
+        }
+        if (elements.isEmpty()) {
+            index.remove(id);
+            return null;
+        }
+        return elements;
+    }
+    
+    private static boolean isAttached(Node node) {
+        Node parent = node;
+        while (parent.getParentNode() != null) {
+            parent = parent.getParentNode();
+        }
+        return parent.getNodeType() == Node.DOCUMENT_NODE;
+    }
+    
     /**
      * Set all stored tokens on the DOMCryptoContext argument
      * @param context
@@ -23,7 +23,10 @@ import java.security.AccessController;
 import java.security.PrivilegedAction;
 import java.security.Security;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.xml.datatype.DatatypeConfigurationException;
 import javax.xml.datatype.DatatypeFactory;
@@ -218,6 +221,27 @@ public class WSSConfig {
         }
         DEFAULT_VALIDATORS = java.util.Collections.unmodifiableMap(tmp);
     }
+    
+    /**
+     * The Processor and Validator classes that may be shared across messages, as they do not
+     * hold any per-message state. This is the set of default Processors and Validators, except
+     * for the SamlAssertionValidator, which is configured via setters (e.g. setFutureTTL).
+     */
+    private static final Set<Class<?>> SHAREABLE_CLASSES;
+    
+    static {
+        final Set<Class<?>> tmp = new HashSet<Class<?>>();
+        tmp.addAll(DEFAULT_PROCESSORS.values());
+        tmp.addAll(DEFAULT_VALIDATORS.values());
+        tmp.remove(org.apache.wss4j.dom.validate.SamlAssertionValidator.class);
+        SHAREABLE_CLASSES = java.util.Collections.unmodifiableSet(tmp);
+    }
+    
+    /**
+     * The shared Processor and Validator instances, keyed by class
+     */
+    private static final ConcurrentHashMap<Class<?>, Object> SHARED_INSTANCES =
+        new ConcurrentHashMap<Class<?>, Object>();
 
     /**
      * Whether to add an InclusiveNamespaces PrefixList as a CanonicalizationMethod
@@ -317,6 +341,13 @@ public class WSSConfig {
      */
     private boolean validateSamlSubjectConfirmation = true;
     
+    /**
+     * Whether to share a single instance of each of the default Processors and Validators
+     * across all messages, rather than creating new instances for each call to getProcessor
+     * or getValidator. The default is false.
+     */
+    private boolean reuseProcessors;
+    
     /**
      * The default wsu:Id allocator is a simple "start at 1 and increment up"
      * thing that is very fast.
@@ -703,7 +734,7 @@ public class WSSConfig {
         
         if (validatorObject instanceof Class<?>) {
             try {
-                return (Validator)((Class<?>)validatorObject).newInstance();
+                return (Validator)getInstance((Class<?>)validatorObject);
             } catch (Throwable t) {
                 if (LOG.isDebugEnabled()) {
                     LOG.debug(t.getMessage(), t);
@@ -729,7 +760,7 @@ public class WSSConfig {
         
         if (processorObject instanceof Class<?>) {
             try {
-                return (Processor)((Class<?>)processorObject).newInstance();
+                return (Processor)getInstance((Class<?>)processorObject);
             } catch (Throwable t) {
                 if (LOG.isDebugEnabled()) {
                     LOG.debug(t.getMessage(), t);
@@ -742,6 +773,26 @@ public class WSSConfig {
         }
         return null;
     }
+    
+    /**
+     * Get an instance of the given Processor or Validator class. If reuseProcessors is enabled
+     * and the class is one of the default (stateless) Processors or Validators, then a shared
+     * instance is returned. Otherwise a new instance is created.
+     */
+    private Object getInstance(Class<?> clazz) throws Exception {
+        if (!reuseProcessors || !SHAREABLE_CLASSES.contains(clazz)) {
+            return clazz.newInstance();
+        }
+        Object instance = SHARED_INSTANCES.get(clazz);
+        if (instance == null) {
+            instance = clazz.newInstance();
+            Object existing = SHARED_INSTANCES.putIfAbsent(clazz, instance);
+            if (existing != null) {
+                instance = existing;
+            }
+        }
+        return instance;
+    }
 
     /**
      * Whether to add an InclusiveNamespaces PrefixList as a CanonicalizationMethod
@@ -793,4 +844,18 @@ public class WSSConfig {
         this.validateSamlSubjectConfirmation = validateSamlSubjectConfirmation;
     }
     
+    public boolean isReuseProcessors() {
+        return reuseProcessors;
+    }
+
+    /**
+     * Set whether to share a single instance of each of the default Processors and Validators
+     * across all messages, rather than creating new instances for each call to getProcessor
+     * or getValidator. Custom Processor or Validator classes are always instantiated per call.
+     * The default is false.
+     */
+    public void setReuseProcessors(boolean reuseProcessors) {
+        this.reuseProcessors = reuseProcessors;
+    }
+    
 }
@@ -26,6 +26,7 @@ import javax.security.auth.callback.CallbackHandler;
 import javax.xml.namespace.QName;
 
 import org.apache.wss4j.common.bsp.BSPRule;
+import org.apache.wss4j.common.cache.PendingReplayChecks;
 import org.apache.wss4j.common.crypto.Crypto;
 import org.apache.wss4j.common.derivedKey.ConversationConstants;
 import org.apache.wss4j.common.ext.WSSecurityException;
@@ -396,6 +397,46 @@ public class WSSecurityEngine {
         wsDocInfo.setCrypto(requestData.getSigVerCrypto());
         wsDocInfo.setSecurityHeader(securityHeader);
 
+        //
+        // Collect the replay checks that are sent by the processors, unless an enclosing call
+        // is already collecting them. Checks left over from a previous message are removed.
+        //
+        PendingReplayChecks pendingReplayChecks = requestData.getPendingReplayChecks();
+        boolean collectReplayChecks = pendingReplayChecks.start();
+        try {
+            processSecurityHeaderElements(securityHeader, requestData, wsDocInfo, returnResults);
+
+            // Wait for the results of the replay checks that have been sent by the processors
+            if (collectReplayChecks) {
+                pendingReplayChecks.verify();
+            }
+        } finally {
+            if (collectReplayChecks) {
+                pendingReplayChecks.clear();
+            }
+        }
+
+        // Validate SAML Subject Confirmation requirements
+        if (wssConfig.isValidateSamlSubjectConfirmation()) {
+            Element bodyElement = 
+                WSSecurityUtil.findBodyElement(securityHeader.getOwnerDocument());
+            
+            DOMSAMLUtil.validateSAMLResults(returnResults, requestData.getTlsCerts(), bodyElement);
+        }
+        
+        return returnResults;
+    }
+
+    /**
+     * Call the Processor of each child element of the security header, in the order in which
+     * the elements appear, and add the results to the start of the given List.
+     */
+    private void processSecurityHeaderElements(
+        Element securityHeader,
+        RequestData requestData,
+        WSDocInfo wsDocInfo,
+        List<WSSecurityEngineResult> returnResults
+    ) throws WSSecurityException {
         final WSSConfig cfg = getWssConfig();
         Node node = securityHeader.getFirstChild();
         
@@ -441,15 +482,5 @@ public class WSSecurityEngine {
                 node = node.getNextSibling();
             }
         }
-        
-        // Validate SAML Subject Confirmation requirements
-        if (wssConfig.isValidateSamlSubjectConfirmation()) {
-            Element bodyElement = 
-                WSSecurityUtil.findBodyElement(securityHeader.getOwnerDocument());
-            
-            DOMSAMLUtil.validateSAMLResults(returnResults, requestData.getTlsCerts(), bodyElement);
-        }
-        
-        return returnResults;
     }
 }
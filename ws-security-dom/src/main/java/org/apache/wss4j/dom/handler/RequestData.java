@@ -26,6 +26,7 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
 import java.util.regex.Pattern;
 
 import javax.security.auth.callback.CallbackHandler;
@@ -37,9 +38,14 @@ import org.apache.wss4j.dom.WSEncryptionPart;
 import org.apache.wss4j.dom.WSSConfig;
 import org.apache.wss4j.dom.bsp.BSPEnforcer;
 import org.apache.wss4j.common.bsp.BSPRule;
+import org.apache.wss4j.common.cache.EncryptedKeyCache;
+import org.apache.wss4j.common.cache.PendingReplayChecks;
 import org.apache.wss4j.common.cache.ReplayCache;
 import org.apache.wss4j.common.cache.ReplayCacheFactory;
+import org.apache.wss4j.common.cache.SamlAssertionCache;
+import org.apache.wss4j.common.cache.UsernameTokenDerivedKeyCache;
 import org.apache.wss4j.common.crypto.AlgorithmSuite;
+import org.apache.wss4j.common.cache.DerivedKeyCache;
 import org.apache.wss4j.common.crypto.Crypto;
 import org.apache.wss4j.common.ext.WSSecurityException;
 import org.apache.wss4j.dom.message.WSSecHeader;
@@ -90,6 +96,13 @@ public class RequestData {
     protected boolean requireSignedEncryptedDataElements;
     private ReplayCache timestampReplayCache;
     private ReplayCache nonceReplayCache;
+    private final PendingReplayChecks pendingReplayChecks = new PendingReplayChecks();
+    private EncryptedKeyCache encryptedKeyCache;
+    private SamlAssertionCache samlAssertionCache;
+    private UsernameTokenDerivedKeyCache usernameTokenDerivedKeyCache;
+    private DerivedKeyCache derivedKeyCache;
+    private ExecutorService decryptionExecutor;
+    private ExecutorService signatureVerificationExecutor;
     private Collection<Pattern> subjectDNPatterns = new ArrayList<Pattern>();
     private final List<BSPRule> ignoredBSPRules = new LinkedList<BSPRule>();
     private boolean appendSignatureAfterTimestamp;
@@ -123,6 +136,13 @@ public class RequestData {
         enableRevocation = false;
         timestampReplayCache = null;
         nonceReplayCache = null;
+        pendingReplayChecks.clear();
+        encryptedKeyCache = null;
+        samlAssertionCache = null;
+        usernameTokenDerivedKeyCache = null;
+        derivedKeyCache = null;
+        decryptionExecutor = null;
+        signatureVerificationExecutor = null;
         subjectDNPatterns.clear();
         ignoredBSPRules.clear();
         appendSignatureAfterTimestamp = false;
@@ -529,6 +549,14 @@ public class RequestData {
         return nonceReplayCache;
     }
     
+    /**
+     * Get the replay checks that have been sent to a BatchingReplayCache while processing the
+     * security header, and whose results have not been verified yet
+     */
+    public PendingReplayChecks getPendingReplayChecks() {
+        return pendingReplayChecks;
+    }
+    
     /**
      * Set the Signature Subject Cert Constraints
      */
@@ -609,6 +637,101 @@ public class RequestData {
         this.allowRSA15KeyTransportAlgorithm = allowRSA15KeyTransportAlgorithm;
     }
 
+    /**
+     * Get the cache of decrypted EncryptedKey session keys. If this is null (the default),
+     * then decrypted session keys are not cached.
+     */
+    public EncryptedKeyCache getEncryptedKeyCache() {
+        return encryptedKeyCache;
+    }
+
+    /**
+     * Set the cache of decrypted EncryptedKey session keys
+     */
+    public void setEncryptedKeyCache(EncryptedKeyCache encryptedKeyCache) {
+        this.encryptedKeyCache = encryptedKeyCache;
+    }
+
+    /**
+     * Get the cache of verified signed SAML Assertions. If this is null (the default),
+     * then the signature of every received SAML Assertion is verified.
+     */
+    public SamlAssertionCache getSamlAssertionCache() {
+        return samlAssertionCache;
+    }
+
+    /**
+     * Set the cache of verified signed SAML Assertions
+     */
+    public void setSamlAssertionCache(SamlAssertionCache samlAssertionCache) {
+        this.samlAssertionCache = samlAssertionCache;
+    }
+
+    /**
+     * Get the cache of keys derived from UsernameTokens. If this is null (the default),
+     * then the key is derived for every received UsernameToken.
+     */
+    public UsernameTokenDerivedKeyCache getUsernameTokenDerivedKeyCache() {
+        return usernameTokenDerivedKeyCache;
+    }
+
+    /**
+     * Set the cache of keys derived from UsernameTokens
+     */
+    public void setUsernameTokenDerivedKeyCache(UsernameTokenDerivedKeyCache usernameTokenDerivedKeyCache) {
+        this.usernameTokenDerivedKeyCache = usernameTokenDerivedKeyCache;
+    }
+
+    /**
+     * Get the cache of keys derived for DerivedKeyTokens. If this is null (the default),
+     * then the key is derived for every received DerivedKeyToken.
+     */
+    public DerivedKeyCache getDerivedKeyCache() {
+        return derivedKeyCache;
+    }
+
+    /**
+     * Set the cache of keys derived for DerivedKeyTokens
+     */
+    public void setDerivedKeyCache(DerivedKeyCache derivedKeyCache) {
+        this.derivedKeyCache = derivedKeyCache;
+    }
+
+    /**
+     * Get the ExecutorService used to decrypt the EncryptedData elements referenced by a
+     * ReferenceList or EncryptedKey in parallel. If this is null (the default), then the
+     * EncryptedData elements are decrypted sequentially.
+     */
+    public ExecutorService getDecryptionExecutor() {
+        return decryptionExecutor;
+    }
+
+    /**
+     * Set the ExecutorService used to decrypt EncryptedData elements in parallel. The
+     * ExecutorService is not shut down by WSS4J.
+     */
+    public void setDecryptionExecutor(ExecutorService decryptionExecutor) {
+        this.decryptionExecutor = decryptionExecutor;
+    }
+
+    /**
+     * Get the ExecutorService used to compute the digests of the References of a Signature
+     * in parallel, once the SignatureValue has been verified. If this is null (the default),
+     * then the References are validated sequentially.
+     */
+    public ExecutorService getSignatureVerificationExecutor() {
+        return signatureVerificationExecutor;
+    }
+
+    /**
+     * Set the ExecutorService used to validate the References of a Signature in parallel. The
+     * attachment CallbackHandler is then called from the threads of the ExecutorService, but
+     * never concurrently. The ExecutorService is not shut down by WSS4J.
+     */
+    public void setSignatureVerificationExecutor(ExecutorService signatureVerificationExecutor) {
+        this.signatureVerificationExecutor = signatureVerificationExecutor;
+    }
+
     public boolean isAddUsernameTokenNonce() {
         return addUsernameTokenNonce;
     }
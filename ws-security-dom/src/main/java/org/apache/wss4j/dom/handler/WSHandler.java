@@ -24,6 +24,7 @@ import java.util.Arrays;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
@@ -40,9 +41,13 @@ import org.apache.wss4j.dom.WSSConfig;
 import org.apache.wss4j.dom.WSSecurityEngine;
 import org.apache.wss4j.dom.WSSecurityEngineResult;
 import org.apache.wss4j.dom.action.Action;
+import org.apache.wss4j.common.cache.EncryptedKeyCache;
+import org.apache.wss4j.common.cache.SamlAssertionCache;
+import org.apache.wss4j.common.cache.UsernameTokenDerivedKeyCache;
 import org.apache.wss4j.common.crypto.AlgorithmSuite;
 import org.apache.wss4j.common.crypto.Crypto;
 import org.apache.wss4j.common.crypto.CryptoFactory;
+import org.apache.wss4j.common.cache.DerivedKeyCache;
 import org.apache.wss4j.common.ext.WSPasswordCallback;
 import org.apache.wss4j.common.ext.WSSecurityException;
 import org.apache.wss4j.common.util.Loader;
@@ -63,6 +68,7 @@ public abstract class WSHandler {
     protected Map<String, Crypto> cryptos = new ConcurrentHashMap<String, Crypto>();
 
     private boolean doDebug = log.isDebugEnabled();
+    private final Map<Class<?>, Object> sharedCaches = new HashMap<Class<?>, Object>();
 
     /**                                                             
      * Performs all defined security actions to set-up the SOAP request.
@@ -294,17 +300,45 @@ public abstract class WSHandler {
         wssConfig.setValidateSamlSubjectConfirmation(
             decodeSamlSubjectConfirmationValidation(reqData)
         );
+        wssConfig.setReuseProcessors(
+            decodeBooleanConfigValue(reqData, WSHandlerConstants.REUSE_PROCESSORS, false)
+        );
         
         boolean bspCompliant = decodeBSPCompliance(reqData);
         if (!bspCompliant) {
             reqData.setDisableBSPEnforcement(true);
         }
         reqData.setWssConfig(wssConfig);
+        if (reqData.getUsernameTokenDerivedKeyCache() == null) {
+            reqData.setUsernameTokenDerivedKeyCache(
+                loadCache(
+                    reqData, WSHandlerConstants.ENABLE_USERNAME_TOKEN_DERIVED_KEY_CACHE,
+                    WSHandlerConstants.USERNAME_TOKEN_DERIVED_KEY_CACHE_INSTANCE,
+                    UsernameTokenDerivedKeyCache.class
+                )
+            );
+        }
+        if (reqData.getDerivedKeyCache() == null) {
+            reqData.setDerivedKeyCache(
+                loadCache(
+                    reqData, WSHandlerConstants.ENABLE_DERIVED_KEY_CACHE,
+                    WSHandlerConstants.DERIVED_KEY_CACHE_INSTANCE, DerivedKeyCache.class
+                )
+            );
+        }
 
         if (((doAction & WSConstants.SIGN) == WSConstants.SIGN)
             || ((doAction & WSConstants.ST_SIGNED) == WSConstants.ST_SIGNED)
             || ((doAction & WSConstants.ST_UNSIGNED) == WSConstants.ST_UNSIGNED)) {
             decodeSignatureParameter2(reqData);
+            if (reqData.getSamlAssertionCache() == null) {
+                reqData.setSamlAssertionCache(
+                    loadCache(
+                        reqData, WSHandlerConstants.ENABLE_SAML_ASSERTION_CACHE,
+                        WSHandlerConstants.SAML_ASSERTION_CACHE_INSTANCE, SamlAssertionCache.class
+                    )
+                );
+            }
         }
         
         if ((doAction & WSConstants.ENCR) == WSConstants.ENCR) {
@@ -1276,6 +1310,55 @@ public abstract class WSHandler {
                 reqData, WSHandlerConstants.ALLOW_RSA15_KEY_TRANSPORT_ALGORITHM, false
             );
         reqData.setAllowRSA15KeyTransportAlgorithm(allowRsa15);
+        
+        if (reqData.getEncryptedKeyCache() == null) {
+            reqData.setEncryptedKeyCache(
+                loadCache(
+                    reqData, WSHandlerConstants.ENABLE_ENCRYPTED_KEY_CACHE,
+                    WSHandlerConstants.ENCRYPTED_KEY_CACHE_INSTANCE, EncryptedKeyCache.class
+                )
+            );
+        }
+    }
+    
+    /**
+     * Get the cache of the given type to use, if it is enabled via the given configuration
+     * key. This is the instance configured via the given instance key, or else an instance 
+     * of the given type that is shared by all messages processed by this handler.
+     * @param reqData The RequestData
+     * @param enableKey The key that enables the cache
+     * @param instanceKey The key of a configured cache instance
+     * @param type The type of the cache, which must have a public no-arg constructor
+     * @return the cache, or null if it is not enabled
+     * @throws WSSecurityException
+     */
+    protected <T> T loadCache(
+        RequestData reqData, String enableKey, String instanceKey, Class<T> type
+    ) throws WSSecurityException {
+        if (!decodeBooleanConfigValue(reqData, enableKey, false)) {
+            return null;
+        }
+        Object cache = getOption(instanceKey);
+        if (cache == null && reqData.getMsgContext() != null) {
+            cache = getProperty(reqData.getMsgContext(), instanceKey);
+        }
+        if (type.isInstance(cache)) {
+            return type.cast(cache);
+        }
+        synchronized (sharedCaches) {
+            cache = sharedCaches.get(type);
+            if (cache == null) {
+                try {
+                    cache = type.newInstance();
+                } catch (InstantiationException e) {
+                    throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE, e);
+                } catch (IllegalAccessException e) {
+                    throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE, e);
+                }
+                sharedCaches.put(type, cache);
+            }
+            return type.cast(cache);
+        }
     }
 
     /**
@@ -23,6 +23,7 @@ import java.util.Collections;
 import java.util.List;
 
 import org.apache.wss4j.dom.WSConstants;
+import org.apache.wss4j.dom.WSDocInfo;
 import org.apache.wss4j.common.ext.WSSecurityException;
 import org.apache.wss4j.dom.util.WSSecurityUtil;
 import org.w3c.dom.Document;
@@ -34,10 +35,24 @@ import org.w3c.dom.Element;
 public class DOMCallbackLookup implements CallbackLookup {
     
     private Document doc;
+    private WSDocInfo wsDocInfo;
     
     public DOMCallbackLookup(Document doc) {
         this.doc = doc;
     }
+    
+    /**
+     * Construct a DOMCallbackLookup that uses the Id index of the given WSDocInfo, rather
+     * than searching the document for each lookup. This should only be used when processing
+     * a received message, where elements are not added to the document other than via
+     * decryption (which updates the index).
+     * @param doc The document in which to find elements
+     * @param wsDocInfo The WSDocInfo object that holds the Id index of the document
+     */
+    public DOMCallbackLookup(Document doc, WSDocInfo wsDocInfo) {
+        this.doc = doc;
+        this.wsDocInfo = wsDocInfo;
+    }
 
     /**
      * Get the DOM element that corresponds to the given id and ValueType reference. The Id can 
@@ -64,8 +79,13 @@ public class DOMCallbackLookup implements CallbackLookup {
             }
         }
         // Otherwise do a general search
-        Element foundElement = 
-            WSSecurityUtil.findElementById(doc.getDocumentElement(), id, checkMultipleElements);
+        Element foundElement = null;
+        if (wsDocInfo != null) {
+            foundElement = wsDocInfo.getElementById(id, checkMultipleElements);
+        } else {
+            foundElement = 
+                WSSecurityUtil.findElementById(doc.getDocumentElement(), id, checkMultipleElements);
+        }
         if (foundElement != null) {
             return foundElement;
         }
@@ -78,6 +98,9 @@ public class DOMCallbackLookup implements CallbackLookup {
             || WSConstants.WSS_SAML2_KI_VALUE_TYPE.equals(valueType)
             || "".equals(valueType)
             || valueType == null) {
+            if (wsDocInfo != null) {
+                return wsDocInfo.getSAMLAssertionElementById(id);
+            }
             return 
                 WSSecurityUtil.findSAMLAssertionElementById(
                     doc.getDocumentElement(), id
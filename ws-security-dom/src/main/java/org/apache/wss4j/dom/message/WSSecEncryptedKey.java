@@ -37,6 +37,7 @@ import org.apache.wss4j.dom.WSSConfig;
 import org.apache.wss4j.common.crypto.Crypto;
 import org.apache.wss4j.common.crypto.CryptoType;
 import org.apache.wss4j.common.ext.WSSecurityException;
+import org.apache.wss4j.common.util.JCEInstanceCache;
 import org.apache.wss4j.dom.message.token.BinarySecurity;
 import org.apache.wss4j.dom.message.token.DOMX509Data;
 import org.apache.wss4j.dom.message.token.DOMX509IssuerSerial;
@@ -237,7 +238,7 @@ public class WSSecEncryptedKey extends WSSecBase {
         X509Certificate remoteCert,
         Crypto crypto
     ) throws WSSecurityException {
-        Cipher cipher = WSSecurityUtil.getCipherInstance(keyEncAlgo);
+        Cipher cipher = WSSecurityUtil.getCachedCipherInstance(keyEncAlgo);
         try {
             OAEPParameterSpec oaepParameterSpec = null;
             if (WSConstants.KEYTRANSPORT_RSAOEP.equals(keyEncAlgo)
@@ -435,7 +436,7 @@ public class WSSecEncryptedKey extends WSSecBase {
             if (keyAlgorithm == null || "".equals(keyAlgorithm)) {
                 keyAlgorithm = JCEMapper.translateURItoJCEID(symEncAlgo);
             }
-            KeyGenerator keyGen = KeyGenerator.getInstance(keyAlgorithm);
+            KeyGenerator keyGen = JCEInstanceCache.getKeyGenerator(keyAlgorithm);
             if (symEncAlgo.equalsIgnoreCase(WSConstants.AES_128)
                 || symEncAlgo.equalsIgnoreCase(WSConstants.AES_128_GCM)) {
                 keyGen.init(128);
@@ -29,8 +29,8 @@ import org.apache.wss4j.dom.WSConstants;
 import org.apache.wss4j.common.ext.WSSecurityException;
 import org.apache.wss4j.common.derivedKey.ConversationConstants;
 import org.apache.wss4j.common.derivedKey.ConversationException;
-import org.apache.wss4j.common.derivedKey.AlgoFactory;
-import org.apache.wss4j.common.derivedKey.DerivationAlgorithm;
+import org.apache.wss4j.common.cache.DerivedKeyCache;
+import org.apache.wss4j.common.derivedKey.DerivedKeyUtils;
 import org.apache.wss4j.common.principal.WSDerivedKeyTokenPrincipal;
 import org.apache.wss4j.common.util.DOM2Writer;
 import org.apache.wss4j.dom.bsp.BSPEnforcer;
@@ -520,33 +520,36 @@ public class DerivedKeyToken {
      * @throws WSSecurityException
      */
     public byte[] deriveKey(int length, byte[] secret) throws WSSecurityException {
+        return deriveKey(length, secret, null);
+    }
+    
+    /**
+     * Derive a key from this DerivedKeyToken instance, using a cache of the keys that were
+     * already derived from the secret
+     * @param length
+     * @param secret
+     * @param derivedKeyCache the cache of derived keys, or null to always derive the key
+     * @throws WSSecurityException
+     */
+    public byte[] deriveKey(
+        int length, byte[] secret, DerivedKeyCache derivedKeyCache
+    ) throws WSSecurityException {
+        byte[] nonce;
+        int offset;
         try {
-            DerivationAlgorithm algo = AlgoFactory.getInstance(getAlgorithm());
-            byte[] labelBytes = null;
-            String label = getLabel();
-            if (label == null || label.length() == 0) {
-                labelBytes = 
-                    (ConversationConstants.DEFAULT_LABEL 
-                        + ConversationConstants.DEFAULT_LABEL).getBytes("UTF-8");
-            } else {
-                labelBytes = label.getBytes("UTF-8");
-            }
-            
-            byte[] nonce = Base64.decode(getNonce());
-            byte[] seed = new byte[labelBytes.length + nonce.length];
-            System.arraycopy(labelBytes, 0, seed, 0, labelBytes.length);
-            System.arraycopy(nonce, 0, seed, labelBytes.length, nonce.length);
-            
+            nonce = Base64.decode(getNonce());
             if (length <= 0) {
                 length = getLength();
             }
-            return algo.createKey(secret, seed, getOffset(), length);
-            
+            offset = getOffset();
         } catch (Exception e) {
             throw new WSSecurityException(
                 WSSecurityException.ErrorCode.FAILURE, e
             );
         }
+        return DerivedKeyUtils.deriveKey(
+            getAlgorithm(), getLabel(), length, secret, nonce, offset, derivedKeyCache
+        );
     }
     
     @Override
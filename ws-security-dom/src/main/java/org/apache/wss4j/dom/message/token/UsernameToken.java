@@ -34,6 +34,7 @@ import javax.xml.datatype.XMLGregorianCalendar;
 import javax.xml.namespace.QName;
 
 import org.apache.wss4j.common.bsp.BSPRule;
+import org.apache.wss4j.common.cache.UsernameTokenDerivedKeyCache;
 import org.apache.wss4j.common.ext.WSPasswordCallback;
 import org.apache.wss4j.common.ext.WSSecurityException;
 import org.apache.wss4j.common.principal.WSUsernameTokenPrincipalImpl;
@@ -706,6 +707,20 @@ public class UsernameToken {
      * @throws WSSecurityException
      */
     public byte[] getDerivedKey(BSPEnforcer bspEnforcer) throws WSSecurityException {
+        return getDerivedKey(bspEnforcer, null);
+    }
+    
+    /**
+     * This method gets a derived key as defined in WSS Username Token Profile.
+     * 
+     * @param bspEnforcer the BSPEnforcer to check the Salt and Iteration elements
+     * @param derivedKeyCache the cache of derived keys, or null to always generate the key
+     * @return Returns the derived key as a byte array
+     * @throws WSSecurityException
+     */
+    public byte[] getDerivedKey(
+        BSPEnforcer bspEnforcer, UsernameTokenDerivedKeyCache derivedKeyCache
+    ) throws WSSecurityException {
         if (rawPassword == null) {
             LOG.debug("The raw password was null");
             throw new WSSecurityException(WSSecurityException.ErrorCode.FAILED_AUTHENTICATION);
@@ -729,14 +744,18 @@ public class UsernameToken {
         byte[] salt = getSalt();
         if (passwordsAreEncoded) {
             try {
-                return UsernameTokenUtil.generateDerivedKey(Base64.decode(rawPassword), salt, iteration);
+                return UsernameTokenUtil.generateDerivedKey(
+                    getName(), Base64.decode(rawPassword), salt, iteration, derivedKeyCache
+                );
             } catch (Base64DecodingException e) {
                 throw new WSSecurityException(
                     WSSecurityException.ErrorCode.FAILURE, "decoding.general", e
                 );
             }
         } else {
-            return UsernameTokenUtil.generateDerivedKey(rawPassword, salt, iteration);
+            return UsernameTokenUtil.generateDerivedKey(
+                getName(), rawPassword, salt, iteration, derivedKeyCache
+            );
         }
     }
     
@@ -74,7 +74,7 @@ public class DerivedKeyTokenProcessor implements Processor {
             throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE, "empty", "Missing wsc:Nonce value");
         }
         int length = dkt.getLength();
-        byte[] keyBytes = dkt.deriveKey(length, secret);
+        byte[] keyBytes = dkt.deriveKey(length, secret, data.getDerivedKeyCache());
         WSSecurityEngineResult result =
             new WSSecurityEngineResult(WSConstants.DKT, null, keyBytes, null);
         wsDocInfo.addTokenElement(elem);
@@ -158,7 +158,8 @@ public class EncryptedDataProcessor implements Processor {
         }
 
         WSDataRef dataRef = ReferenceListProcessor.decryptEncryptedData(
-                elem.getOwnerDocument(), encryptedDataId, elem, key, symEncAlgo, request);
+                elem.getOwnerDocument(), encryptedDataId, elem, key, symEncAlgo, request, wsDocInfo
+            );
 
 
         WSSecurityEngineResult result =
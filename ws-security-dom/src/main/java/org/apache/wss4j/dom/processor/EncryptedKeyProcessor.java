@@ -38,9 +38,11 @@ import org.w3c.dom.Node;
 import org.w3c.dom.Text;
 
 import org.apache.wss4j.common.bsp.BSPRule;
+import org.apache.wss4j.common.cache.EncryptedKeyCache;
 import org.apache.wss4j.common.crypto.AlgorithmSuite;
 import org.apache.wss4j.common.crypto.AlgorithmSuiteValidator;
 import org.apache.wss4j.common.ext.WSSecurityException;
+import org.apache.wss4j.common.util.JCEInstanceCache;
 import org.apache.wss4j.dom.WSConstants;
 import org.apache.wss4j.dom.WSDataRef;
 import org.apache.wss4j.dom.WSDocInfo;
@@ -103,7 +105,6 @@ public class EncryptedKeyProcessor implements Processor {
         // Check BSP Compliance
         checkBSPCompliance(elem, encryptedKeyTransportMethod, data.getBSPEnforcer());
         
-        Cipher cipher = WSSecurityUtil.getCipherInstance(encryptedKeyTransportMethod);
         //
         // Now lookup CipherValue.
         //
@@ -135,64 +136,70 @@ public class EncryptedKeyProcessor implements Processor {
             );
         }
         
-        try {
-            PrivateKey privateKey = data.getDecCrypto().getPrivateKey(certs[0], data.getCallbackHandler());
-            OAEPParameterSpec oaepParameterSpec = null;
-            if (WSConstants.KEYTRANSPORT_RSAOEP.equals(encryptedKeyTransportMethod)
-                    || WSConstants.KEYTRANSPORT_RSAOEP_XENC11.equals(encryptedKeyTransportMethod)) {
-                // Get the DigestMethod if it exists
-                String digestAlgorithm = getDigestAlgorithm(elem);
-                String jceDigestAlgorithm = "SHA-1";
-                if (digestAlgorithm != null && !"".equals(digestAlgorithm)) {
-                    jceDigestAlgorithm = JCEMapper.translateURItoJCEID(digestAlgorithm);
-                }
-
-                String mgfAlgorithm = getMGFAlgorithm(elem);
-                MGF1ParameterSpec mgfParameterSpec = new MGF1ParameterSpec("SHA-1");
-                if (mgfAlgorithm != null) {
-                    if (WSConstants.MGF_SHA224.equals(mgfAlgorithm)) {
-                        mgfParameterSpec = new MGF1ParameterSpec("SHA-224");
-                    } else if (WSConstants.MGF_SHA256.equals(mgfAlgorithm)) {
-                        mgfParameterSpec = new MGF1ParameterSpec("SHA-256");
-                    } else if (WSConstants.MGF_SHA384.equals(mgfAlgorithm)) {
-                        mgfParameterSpec = new MGF1ParameterSpec("SHA-384");
-                    } else if (WSConstants.MGF_SHA512.equals(mgfAlgorithm)) {
-                        mgfParameterSpec = new MGF1ParameterSpec("SHA-512");
-                    }
-                }
-
-                PSource.PSpecified pSource = PSource.PSpecified.DEFAULT;
-                byte[] pSourceBytes = getPSource(elem);
-                if (pSourceBytes != null) {
-                    pSource = new PSource.PSpecified(pSourceBytes);
-                }
-                
-                oaepParameterSpec = 
-                    new OAEPParameterSpec(
-                        jceDigestAlgorithm, "MGF1", mgfParameterSpec, pSource
-                    );
-            }
-            if (oaepParameterSpec == null) {
-                cipher.init(Cipher.UNWRAP_MODE, privateKey);
-            } else {
-                cipher.init(Cipher.UNWRAP_MODE, privateKey, oaepParameterSpec);
-            }
-        } catch (Exception ex) {
-            throw new WSSecurityException(WSSecurityException.ErrorCode.FAILED_CHECK, ex);
-        }
-        
         List<String> dataRefURIs = getDataRefURIs(elem);
         
+        OAEPParameterSpec oaepParameterSpec = null;
+        if (WSConstants.KEYTRANSPORT_RSAOEP.equals(encryptedKeyTransportMethod)
+                || WSConstants.KEYTRANSPORT_RSAOEP_XENC11.equals(encryptedKeyTransportMethod)) {
+            oaepParameterSpec = getOAEPParameterSpec(elem);
+        }
+        
+        //
+        // See if the decrypted key is cached, to avoid the private key operation. Only RSA-OAEP
+        // keys are cached. The random key used when the unwrapping fails is cached under the 
+        // same entry, so that a repeated EncryptedKey takes the same time whether or not it
+        // could be unwrapped.
+        //
+        EncryptedKeyCache encryptedKeyCache = null;
+        if (oaepParameterSpec != null) {
+            encryptedKeyCache = data.getEncryptedKeyCache();
+        }
         byte[] encryptedEphemeralKey = null;
         byte[] decryptedBytes = null;
-        try {
-            encryptedEphemeralKey = getDecodedBase64EncodedData(xencCipherValue);
-            String keyAlgorithm = JCEMapper.translateURItoJCEID(encryptedKeyTransportMethod);
-            decryptedBytes = cipher.unwrap(encryptedEphemeralKey, keyAlgorithm, Cipher.SECRET_KEY).getEncoded();
-        } catch (IllegalStateException ex) {
-            throw new WSSecurityException(WSSecurityException.ErrorCode.FAILED_CHECK, ex);
-        } catch (Exception ex) {
-            decryptedBytes = getRandomKey(dataRefURIs, elem.getOwnerDocument(), wsDocInfo);
+        if (encryptedKeyCache != null) {
+            try {
+                encryptedEphemeralKey = getDecodedBase64EncodedData(xencCipherValue);
+                decryptedBytes = 
+                    encryptedKeyCache.get(
+                        encryptedEphemeralKey, encryptedKeyTransportMethod, oaepParameterSpec, certs[0]
+                    );
+            } catch (WSSecurityException ex) {
+                // A malformed CipherValue is handled like a failed unwrap below
+                encryptedKeyCache = null;
+            }
+        }
+        if (decryptedBytes == null) {
+            Cipher cipher = WSSecurityUtil.getCipherInstance(encryptedKeyTransportMethod);
+            try {
+                PrivateKey privateKey = 
+                    data.getDecCrypto().getPrivateKey(certs[0], data.getCallbackHandler());
+                if (oaepParameterSpec == null) {
+                    cipher.init(Cipher.UNWRAP_MODE, privateKey);
+                } else {
+                    cipher.init(Cipher.UNWRAP_MODE, privateKey, oaepParameterSpec);
+                }
+            } catch (Exception ex) {
+                throw new WSSecurityException(WSSecurityException.ErrorCode.FAILED_CHECK, ex);
+            }
+            
+            try {
+                if (encryptedEphemeralKey == null) {
+                    encryptedEphemeralKey = getDecodedBase64EncodedData(xencCipherValue);
+                }
+                String keyAlgorithm = JCEMapper.translateURItoJCEID(encryptedKeyTransportMethod);
+                decryptedBytes = 
+                    cipher.unwrap(encryptedEphemeralKey, keyAlgorithm, Cipher.SECRET_KEY).getEncoded();
+            } catch (IllegalStateException ex) {
+                throw new WSSecurityException(WSSecurityException.ErrorCode.FAILED_CHECK, ex);
+            } catch (Exception ex) {
+                decryptedBytes = getRandomKey(dataRefURIs, elem.getOwnerDocument(), wsDocInfo);
+            }
+            if (encryptedKeyCache != null && encryptedEphemeralKey != null) {
+                encryptedKeyCache.add(
+                    encryptedEphemeralKey, encryptedKeyTransportMethod, oaepParameterSpec, 
+                    certs[0], decryptedBytes
+                );
+            }
         }
 
         List<WSDataRef> dataRefs = decryptDataRefs(dataRefURIs, elem.getOwnerDocument(), wsDocInfo,
@@ -216,6 +223,51 @@ public class EncryptedKeyProcessor implements Processor {
         return java.util.Collections.singletonList(result);
     }
     
+    /**
+     * Get the OAEPParameterSpec from the DigestMethod, MGF and OAEPparams children
+     * of the EncryptionMethod of the EncryptedKey
+     * 
+     * @param elem
+     * @return the OAEPParameterSpec
+     * @throws WSSecurityException if the DigestMethod is not supported
+     */
+    private static OAEPParameterSpec getOAEPParameterSpec(Element elem) throws WSSecurityException {
+        // Get the DigestMethod if it exists
+        String digestAlgorithm = getDigestAlgorithm(elem);
+        String jceDigestAlgorithm = "SHA-1";
+        if (digestAlgorithm != null && !"".equals(digestAlgorithm)) {
+            jceDigestAlgorithm = JCEMapper.translateURItoJCEID(digestAlgorithm);
+            if (jceDigestAlgorithm == null) {
+                throw new WSSecurityException(
+                    WSSecurityException.ErrorCode.FAILED_CHECK, "empty",
+                    "Unsupported OAEP DigestMethod: " + digestAlgorithm
+                );
+            }
+        }
+
+        String mgfAlgorithm = getMGFAlgorithm(elem);
+        MGF1ParameterSpec mgfParameterSpec = new MGF1ParameterSpec("SHA-1");
+        if (mgfAlgorithm != null) {
+            if (WSConstants.MGF_SHA224.equals(mgfAlgorithm)) {
+                mgfParameterSpec = new MGF1ParameterSpec("SHA-224");
+            } else if (WSConstants.MGF_SHA256.equals(mgfAlgorithm)) {
+                mgfParameterSpec = new MGF1ParameterSpec("SHA-256");
+            } else if (WSConstants.MGF_SHA384.equals(mgfAlgorithm)) {
+                mgfParameterSpec = new MGF1ParameterSpec("SHA-384");
+            } else if (WSConstants.MGF_SHA512.equals(mgfAlgorithm)) {
+                mgfParameterSpec = new MGF1ParameterSpec("SHA-512");
+            }
+        }
+
+        PSource.PSpecified pSource = PSource.PSpecified.DEFAULT;
+        byte[] pSourceBytes = getPSource(elem);
+        if (pSourceBytes != null) {
+            pSource = new PSource.PSpecified(pSourceBytes);
+        }
+        
+        return new OAEPParameterSpec(jceDigestAlgorithm, "MGF1", mgfParameterSpec, pSource);
+    }
+    
     /**
      * Generates a random secret key using the algorithm specified in the
      * first DataReference URI
@@ -237,7 +289,7 @@ public class EncryptedKeyProcessor implements Processor {
                 alg = JCEMapper.getJCEKeyAlgorithmFromURI(algorithmURI);
                 size = WSSecurityUtil.getKeyLength(algorithmURI);
             }
-            KeyGenerator kgen = KeyGenerator.getInstance(alg);
+            KeyGenerator kgen = JCEInstanceCache.getKeyGenerator(alg);
             kgen.init(size * 8);
             SecretKey k = kgen.generateKey();
             return k.getEncoded();
@@ -406,23 +458,43 @@ public class EncryptedKeyProcessor implements Processor {
             return null;
         }
         List<WSDataRef> dataRefs = new ArrayList<WSDataRef>();
+        if (data.getDecryptionExecutor() != null) {
+            ParallelDecryptor parallelDecryptor = 
+                new ParallelDecryptor(data.getDecryptionExecutor(), doc, data, docInfo);
+            for (String dataRefURI : dataRefURIs) {
+                try {
+                    decryptDataRef(doc, dataRefURI, docInfo, decryptedBytes, data, parallelDecryptor);
+                } catch (WSSecurityException ex) {
+                    // The EncryptedData may only be found once the pending decryptions
+                    // have been completed
+                    if (!parallelDecryptor.flush()) {
+                        throw ex;
+                    }
+                    decryptDataRef(doc, dataRefURI, docInfo, decryptedBytes, data, parallelDecryptor);
+                }
+            }
+            dataRefs.addAll(parallelDecryptor.complete());
+            return dataRefs;
+        }
         for (String dataRefURI : dataRefURIs) {
             WSDataRef dataRef = 
-                decryptDataRef(doc, dataRefURI, docInfo, decryptedBytes, data);
+                decryptDataRef(doc, dataRefURI, docInfo, decryptedBytes, data, null);
             dataRefs.add(dataRef);
         }
         return dataRefs;
     }
 
     /**
-     * Decrypt an EncryptedData element referenced by dataRefURI
+     * Decrypt an EncryptedData element referenced by dataRefURI. If a ParallelDecryptor is 
+     * supplied, then the decryption is added to it and null is returned.
      */
     private WSDataRef decryptDataRef(
         Document doc, 
         String dataRefURI, 
         WSDocInfo docInfo,
         byte[] decryptedData,
-        RequestData data
+        RequestData data,
+        ParallelDecryptor parallelDecryptor
     ) throws WSSecurityException {
         if (log.isDebugEnabled()) {
             log.debug("found data reference: " + dataRefURI);
@@ -458,8 +530,12 @@ public class EncryptedKeyProcessor implements Processor {
             algorithmSuiteValidator.checkSymmetricEncryptionAlgorithm(symEncAlgo);
         }
 
+        if (parallelDecryptor != null) {
+            parallelDecryptor.add(dataRefURI, encryptedDataElement, symmetricKey, symEncAlgo);
+            return null;
+        }
         return ReferenceListProcessor.decryptEncryptedData(
-            doc, dataRefURI, encryptedDataElement, symmetricKey, symEncAlgo, data
+            doc, dataRefURI, encryptedDataElement, symmetricKey, symEncAlgo, data, docInfo
         );
     }
     
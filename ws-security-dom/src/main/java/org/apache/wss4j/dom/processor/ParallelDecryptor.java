@@ -0,0 +1,322 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.dom.processor;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import javax.crypto.SecretKey;
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.apache.wss4j.common.ext.WSSecurityException;
+import org.apache.wss4j.dom.WSConstants;
+import org.apache.wss4j.dom.WSDataRef;
+import org.apache.wss4j.dom.WSDocInfo;
+import org.apache.wss4j.dom.handler.RequestData;
+import org.apache.wss4j.dom.util.WSSecurityUtil;
+import org.apache.xml.security.encryption.XMLCipher;
+import org.w3c.dom.Document;
+import org.w3c.dom.DocumentFragment;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+/**
+ * This class decrypts a number of EncryptedData elements concurrently using an
+ * ExecutorService. Each EncryptedData element is copied to a separate document on the calling
+ * thread, and the copy is decrypted and the plaintext parsed into a detached document by a
+ * worker thread, as the (shared) DOM is not thread-safe. The decrypted nodes are then spliced
+ * into the DOM on the calling thread, in the order in which the EncryptedData elements were
+ * added, so that the WSDataRef results are the same as for sequential decryption. EncryptedData
+ * elements that refer to attachments are decrypted sequentially at their position in the order.
+ */
+final class ParallelDecryptor {
+
+    private static final String WRAPPER_NAME = "dummy";
+
+    private final ExecutorService executor;
+    private final Document doc;
+    private final RequestData requestData;
+    private final WSDocInfo wsDocInfo;
+    private final List<PendingDecryption> pending = new ArrayList<PendingDecryption>();
+    private final List<WSDataRef> dataRefs = new ArrayList<WSDataRef>();
+
+    ParallelDecryptor(
+        ExecutorService executor, Document doc, RequestData requestData, WSDocInfo wsDocInfo
+    ) {
+        this.executor = executor;
+        this.doc = doc;
+        this.requestData = requestData;
+        this.wsDocInfo = wsDocInfo;
+    }
+
+    /**
+     * Add an EncryptedData element to be decrypted
+     * @param dataRefURI The URI of EncryptedData
+     * @param encData The EncryptedData element
+     * @param symmetricKey The SecretKey with which to decrypt EncryptedData
+     * @param symEncAlgo The symmetric encryption algorithm to use
+     */
+    void add(String dataRefURI, Element encData, SecretKey symmetricKey, String symEncAlgo) {
+        PendingDecryption pendingDecryption =
+            new PendingDecryption(dataRefURI, encData, symmetricKey, symEncAlgo);
+        if (hasCipherValue(encData)) {
+            Document copyDoc = doc.getImplementation().createDocument(null, null, null);
+            Element copy = (Element)copyDoc.importNode(encData, true);
+            copyDoc.appendChild(copy);
+            String wrapperStart = getWrapperStart(encData.getParentNode());
+            pendingDecryption.future =
+                executor.submit(new DecryptionTask(copy, symmetricKey, symEncAlgo, wrapperStart));
+        }
+        pending.add(pendingDecryption);
+    }
+
+    /**
+     * Complete all pending decryptions, in the order in which they were added
+     * @return true if there were any pending decryptions
+     * @throws WSSecurityException if a decryption failed
+     */
+    boolean flush() throws WSSecurityException {
+        if (pending.isEmpty()) {
+            return false;
+        }
+        try {
+            for (int i = 0; i < pending.size(); i++) {
+                PendingDecryption pendingDecryption = pending.get(i);
+                WSDataRef dataRef = null;
+                if (pendingDecryption.future == null) {
+                    dataRef =
+                        ReferenceListProcessor.decryptEncryptedData(
+                            doc, pendingDecryption.dataRefURI, pendingDecryption.encData,
+                            pendingDecryption.symmetricKey, pendingDecryption.symEncAlgo,
+                            requestData, wsDocInfo
+                        );
+                } else {
+                    Element wrapper = getResult(pendingDecryption.future);
+                    DocumentFragment decryptedNodes = doc.createDocumentFragment();
+                    for (Node node = wrapper.getFirstChild(); node != null; node = node.getNextSibling()) {
+                        decryptedNodes.appendChild(doc.importNode(node, true));
+                    }
+                    dataRef =
+                        ReferenceListProcessor.insertDecryptedNodes(
+                            pendingDecryption.dataRefURI, pendingDecryption.encData,
+                            pendingDecryption.symEncAlgo, decryptedNodes, wsDocInfo
+                        );
+                }
+                dataRefs.add(dataRef);
+                checkPendingElements(i + 1);
+            }
+        } finally {
+            for (PendingDecryption pendingDecryption : pending) {
+                if (pendingDecryption.future != null) {
+                    pendingDecryption.future.cancel(true);
+                }
+            }
+            pending.clear();
+        }
+        return true;
+    }
+
+    /**
+     * Complete all pending decryptions and return the WSDataRefs of all of the decryptions,
+     * in the order in which they were added
+     */
+    List<WSDataRef> complete() throws WSSecurityException {
+        flush();
+        return dataRefs;
+    }
+
+    /**
+     * The decrypted nodes could contain an element with the same Id as a pending EncryptedData
+     * element. When decrypting sequentially, the lookup of the pending EncryptedData element
+     * would then fail, and so the same check is made here.
+     */
+    private void checkPendingElements(int start) throws WSSecurityException {
+        for (int i = start; i < pending.size(); i++) {
+            PendingDecryption pendingDecryption = pending.get(i);
+            Element encData =
+                ReferenceListProcessor.findEncryptedDataElement(
+                    doc, wsDocInfo, pendingDecryption.dataRefURI
+                );
+            if (encData != pendingDecryption.encData) {
+                throw new WSSecurityException(
+                    WSSecurityException.ErrorCode.INVALID_SECURITY, "dataRef",
+                    pendingDecryption.dataRefURI
+                );
+            }
+        }
+    }
+
+    private static Element getResult(Future<Element> future) throws WSSecurityException {
+        try {
+            return future.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new WSSecurityException(WSSecurityException.ErrorCode.FAILED_CHECK, ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof WSSecurityException) {
+                throw (WSSecurityException)ex.getCause();
+            }
+            if (ex.getCause() instanceof Exception) {
+                throw new WSSecurityException(
+                    WSSecurityException.ErrorCode.FAILED_CHECK, (Exception)ex.getCause()
+                );
+            }
+            throw new WSSecurityException(WSSecurityException.ErrorCode.FAILED_CHECK, ex);
+        }
+    }
+
+    /**
+     * Only EncryptedData elements with a CipherValue are decrypted in parallel. EncryptedData
+     * elements that refer to an attachment (via a CipherReference) are decrypted sequentially.
+     */
+    private static boolean hasCipherValue(Element encData) {
+        Element cipherData =
+            WSSecurityUtil.getDirectChildElement(encData, "CipherData", WSConstants.ENC_NS);
+        return cipherData != null
+            && WSSecurityUtil.getDirectChildElement(
+                cipherData, "CipherValue", WSConstants.ENC_NS) != null;
+    }
+
+    /**
+     * Get the start tag of a wrapper element that declares the namespaces that are in scope
+     * for the given context node, so that the decrypted nodes can be parsed in that context.
+     */
+    private static String getWrapperStart(Node context) {
+        StringBuilder wrapper = new StringBuilder("<" + WRAPPER_NAME);
+        Set<String> prefixes = new HashSet<String>();
+        for (Node node = context;
+            node != null && Node.ELEMENT_NODE == node.getNodeType();
+            node = node.getParentNode()) {
+            NamedNodeMap attributes = node.getAttributes();
+            for (int i = 0; i < attributes.getLength(); i++) {
+                Node attribute = attributes.item(i);
+                if (XMLConstants.XMLNS_ATTRIBUTE_NS_URI.equals(attribute.getNamespaceURI())
+                    && prefixes.add(attribute.getNodeName())) {
+                    wrapper.append(' ').append(attribute.getNodeName()).append("=\"");
+                    appendEscaped(wrapper, attribute.getNodeValue());
+                    wrapper.append('"');
+                }
+            }
+        }
+        wrapper.append('>');
+        return wrapper.toString();
+    }
+
+    private static void appendEscaped(StringBuilder builder, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '&') {
+                builder.append("&amp;");
+            } else if (c == '<') {
+                builder.append("&lt;");
+            } else if (c == '"') {
+                builder.append("&quot;");
+            } else {
+                builder.append(c);
+            }
+        }
+    }
+
+    private static final class PendingDecryption {
+        private final String dataRefURI;
+        private final Element encData;
+        private final SecretKey symmetricKey;
+        private final String symEncAlgo;
+        private Future<Element> future;
+
+        PendingDecryption(
+            String dataRefURI, Element encData, SecretKey symmetricKey, String symEncAlgo
+        ) {
+            this.dataRefURI = dataRefURI;
+            this.encData = encData;
+            this.symmetricKey = symmetricKey;
+            this.symEncAlgo = symEncAlgo;
+        }
+    }
+
+    /**
+     * Decrypt a (copied) EncryptedData element, and parse the plaintext in the context of a
+     * wrapper element. The wrapper element is returned.
+     */
+    private static final class DecryptionTask implements Callable<Element> {
+        private final Element encData;
+        private final SecretKey symmetricKey;
+        private final String symEncAlgo;
+        private final String wrapperStart;
+
+        DecryptionTask(
+            Element encData, SecretKey symmetricKey, String symEncAlgo, String wrapperStart
+        ) {
+            this.encData = encData;
+            this.symmetricKey = symmetricKey;
+            this.symEncAlgo = symEncAlgo;
+            this.wrapperStart = wrapperStart;
+        }
+
+        public Element call() throws Exception {
+            XMLCipher xmlCipher = null;
+            try {
+                xmlCipher = XMLCipher.getInstance(symEncAlgo);
+                xmlCipher.setSecureValidation(true);
+                xmlCipher.init(XMLCipher.DECRYPT_MODE, symmetricKey);
+            } catch (Exception ex) {
+                throw new WSSecurityException(
+                    WSSecurityException.ErrorCode.UNSUPPORTED_ALGORITHM, ex
+                );
+            }
+
+            try {
+                byte[] decryptedBytes = xmlCipher.decryptToByteArray(encData);
+
+                ByteArrayOutputStream wrapped =
+                    new ByteArrayOutputStream(decryptedBytes.length + wrapperStart.length() + 16);
+                wrapped.write(wrapperStart.getBytes("UTF-8"));
+                wrapped.write(decryptedBytes);
+                wrapped.write(("</" + WRAPPER_NAME + ">").getBytes("UTF-8"));
+
+                Document wrapperDoc =
+                    createDocumentBuilder().parse(new ByteArrayInputStream(wrapped.toByteArray()));
+                return wrapperDoc.getDocumentElement();
+            } catch (Exception ex) {
+                throw new WSSecurityException(WSSecurityException.ErrorCode.FAILED_CHECK, ex);
+            }
+        }
+
+        private static DocumentBuilder createDocumentBuilder() throws ParserConfigurationException {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setNamespaceAware(true);
+            factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+            factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+            return factory.newDocumentBuilder();
+        }
+    }
+}
@@ -0,0 +1,231 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.dom.processor;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import javax.security.auth.callback.Callback;
+import javax.security.auth.callback.CallbackHandler;
+import javax.security.auth.callback.UnsupportedCallbackException;
+import javax.xml.crypto.dsig.Reference;
+import javax.xml.crypto.dsig.Transform;
+import javax.xml.crypto.dsig.XMLSignature;
+import javax.xml.crypto.dsig.XMLSignatureException;
+import javax.xml.crypto.dsig.XMLValidateContext;
+
+import org.apache.wss4j.common.ext.WSSecurityException;
+import org.apache.wss4j.dom.WSConstants;
+import org.apache.wss4j.dom.transform.AttachmentContentSignatureTransform;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+/**
+ * This class validates an XMLSignature, computing the digests of the references concurrently
+ * using an ExecutorService. The SignatureValue (i.e. the signature over SignedInfo) is validated
+ * first, on the calling thread. The references are then validated, and validation stops as soon
+ * as a reference fails to validate.
+ *
+ * Only references that are canonicalized (or that refer to an attachment) are digested by the
+ * ExecutorService, as these transforms only read the document. The document is fully traversed
+ * on the calling thread beforehand, so that a DOM implementation that defers the creation of
+ * nodes does not do so concurrently. All other references (e.g. those using the STR Transform,
+ * which can create nodes) are validated on the calling thread, before the others are submitted.
+ * The attachment CallbackHandler is wrapped so that it is never called concurrently, and so
+ * does not need to be thread-safe.
+ */
+final class ParallelReferenceValidator {
+
+    private static final Set<String> CONCURRENT_TRANSFORMS =
+        new HashSet<String>(
+            Arrays.asList(
+                WSConstants.C14N_EXCL_OMIT_COMMENTS,
+                WSConstants.C14N_EXCL_WITH_COMMENTS,
+                WSConstants.C14N_OMIT_COMMENTS,
+                WSConstants.C14N_WITH_COMMENTS,
+                WSConstants.SWA_ATTACHMENT_CONTENT_SIG_TRANS,
+                WSConstants.SWA_ATTACHMENT_COMPLETE_SIG_TRANS
+            )
+        );
+
+    private ParallelReferenceValidator() {
+        // complete
+    }
+
+    /**
+     * Validate the given XMLSignature
+     * @param xmlSignature the XMLSignature to validate
+     * @param context the XMLValidateContext to use
+     * @param executor the ExecutorService with which to validate the references
+     * @param doc the document containing the signature
+     * @return true if the SignatureValue and all of the references validate
+     */
+    static boolean validate(
+        XMLSignature xmlSignature,
+        final XMLValidateContext context,
+        ExecutorService executor,
+        Node doc
+    ) throws XMLSignatureException, WSSecurityException {
+        if (!xmlSignature.getSignatureValue().validate(context)) {
+            return false;
+        }
+
+        List<Reference> concurrentReferences = new ArrayList<Reference>();
+        for (Object refObject : xmlSignature.getSignedInfo().getReferences()) {
+            Reference reference = (Reference)refObject;
+            if (isConcurrent(reference)) {
+                concurrentReferences.add(reference);
+            } else if (!reference.validate(context)) {
+                return false;
+            }
+        }
+        if (concurrentReferences.isEmpty()) {
+            return true;
+        }
+        if (concurrentReferences.size() == 1) {
+            return concurrentReferences.get(0).validate(context);
+        }
+
+        expandNodes(doc);
+
+        CallbackHandler attachmentCallbackHandler = 
+            (CallbackHandler)context.getProperty(
+                AttachmentContentSignatureTransform.ATTACHMENT_CALLBACKHANDLER
+            );
+        if (attachmentCallbackHandler != null) {
+            context.setProperty(
+                AttachmentContentSignatureTransform.ATTACHMENT_CALLBACKHANDLER,
+                new SynchronizedCallbackHandler(attachmentCallbackHandler)
+            );
+        }
+
+        CompletionService<Boolean> completionService =
+            new ExecutorCompletionService<Boolean>(executor);
+        List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>(concurrentReferences.size());
+        try {
+            for (final Reference reference : concurrentReferences) {
+                futures.add(
+                    completionService.submit(new Callable<Boolean>() {
+                        public Boolean call() throws XMLSignatureException {
+                            return reference.validate(context);
+                        }
+                    })
+                );
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                if (!getResult(completionService.take())) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new WSSecurityException(WSSecurityException.ErrorCode.FAILED_CHECK, ex);
+        } finally {
+            for (Future<Boolean> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    private static boolean getResult(
+        Future<Boolean> future
+    ) throws XMLSignatureException, WSSecurityException, InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof XMLSignatureException) {
+                throw (XMLSignatureException)ex.getCause();
+            }
+            if (ex.getCause() instanceof Exception) {
+                throw new WSSecurityException(
+                    WSSecurityException.ErrorCode.FAILED_CHECK, (Exception)ex.getCause()
+                );
+            }
+            throw new WSSecurityException(WSSecurityException.ErrorCode.FAILED_CHECK, ex);
+        }
+    }
+
+    private static boolean isConcurrent(Reference reference) {
+        for (Object transformObject : reference.getTransforms()) {
+            Transform transform = (Transform)transformObject;
+            if (!CONCURRENT_TRANSFORMS.contains(transform.getAlgorithm())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * A CallbackHandler that serializes the calls to the given CallbackHandler
+     */
+    private static final class SynchronizedCallbackHandler implements CallbackHandler {
+        private final CallbackHandler callbackHandler;
+
+        SynchronizedCallbackHandler(CallbackHandler callbackHandler) {
+            this.callbackHandler = callbackHandler;
+        }
+
+        public synchronized void handle(
+            Callback[] callbacks
+        ) throws IOException, UnsupportedCallbackException {
+            callbackHandler.handle(callbacks);
+        }
+    }
+
+    /**
+     * Visit every node (and attribute) of the document, so that the nodes are fully created
+     * before they are read by several threads.
+     */
+    private static void expandNodes(Node root) {
+        Node node = root;
+        while (node != null) {
+            if (Node.ELEMENT_NODE == node.getNodeType()) {
+                NamedNodeMap attributes = node.getAttributes();
+                for (int i = 0; i < attributes.getLength(); i++) {
+                    attributes.item(i).getNodeValue();
+                }
+            } else {
+                node.getNodeValue();
+            }
+            Node next = node.getFirstChild();
+            while (next == null && node != null) {
+                if (node == root) {
+                    return;
+                }
+                next = node.getNextSibling();
+                if (next == null) {
+                    node = node.getParentNode();
+                }
+            }
+            node = next;
+        }
+    }
+}
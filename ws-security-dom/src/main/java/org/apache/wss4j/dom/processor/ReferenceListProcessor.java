@@ -102,6 +102,13 @@ public class ReferenceListProcessor implements Processor {
         Element wsseHeaderElement = wsDocInfo.getSecurityHeader();
         boolean asymBinding = WSSecurityUtil.getDirectChildElement(
             wsseHeaderElement, WSConstants.ENC_KEY_LN, WSConstants.ENC_NS) != null;
+        ParallelDecryptor parallelDecryptor = null;
+        if (data.getDecryptionExecutor() != null) {
+            parallelDecryptor =
+                new ParallelDecryptor(
+                    data.getDecryptionExecutor(), elem.getOwnerDocument(), data, wsDocInfo
+                );
+        }
         for (Node node = elem.getFirstChild(); 
             node != null; 
             node = node.getNextSibling()
@@ -115,27 +122,53 @@ public class ReferenceListProcessor implements Processor {
                 }
                 
                 if (wsDocInfo.getResultByTag(WSConstants.ENCR, dataRefURI) == null) {
-                    WSDataRef dataRef = 
-                        decryptDataRefEmbedded(
-                            elem.getOwnerDocument(), dataRefURI, data, wsDocInfo, asymBinding);
-                    dataRefs.add(dataRef);
+                    if (parallelDecryptor == null) {
+                        WSDataRef dataRef = 
+                            decryptDataRefEmbedded(
+                                elem.getOwnerDocument(), dataRefURI, data, wsDocInfo, asymBinding,
+                                null
+                            );
+                        dataRefs.add(dataRef);
+                    } else {
+                        try {
+                            decryptDataRefEmbedded(
+                                elem.getOwnerDocument(), dataRefURI, data, wsDocInfo, asymBinding,
+                                parallelDecryptor
+                            );
+                        } catch (WSSecurityException ex) {
+                            // The EncryptedData may only be found once the pending decryptions
+                            // have been completed
+                            if (!parallelDecryptor.flush()) {
+                                throw ex;
+                            }
+                            decryptDataRefEmbedded(
+                                elem.getOwnerDocument(), dataRefURI, data, wsDocInfo, asymBinding,
+                                parallelDecryptor
+                            );
+                        }
+                    }
                 }
             }
         }
+        if (parallelDecryptor != null) {
+            dataRefs.addAll(parallelDecryptor.complete());
+        }
         
         return dataRefs;
     }
 
     
     /**
-     * Decrypt an (embedded) EncryptedData element referenced by dataRefURI.
+     * Decrypt an (embedded) EncryptedData element referenced by dataRefURI. If a 
+     * ParallelDecryptor is supplied, then the decryption is added to it and null is returned.
      */
     private WSDataRef decryptDataRefEmbedded(
         Document doc, 
         String dataRefURI, 
         RequestData data,
         WSDocInfo wsDocInfo,
-        boolean asymBinding
+        boolean asymBinding,
+        ParallelDecryptor parallelDecryptor
     ) throws WSSecurityException {
         if (log.isDebugEnabled()) {
             log.debug("Found data reference: " + dataRefURI);
@@ -207,9 +240,13 @@ public class ReferenceListProcessor implements Processor {
             algorithmSuiteValidator.checkSymmetricEncryptionAlgorithm(symEncAlgo);
         }
 
+        if (parallelDecryptor != null) {
+            parallelDecryptor.add(dataRefURI, encryptedDataElement, symmetricKey, symEncAlgo);
+            return null;
+        }
         return 
             decryptEncryptedData(
-                doc, dataRefURI, encryptedDataElement, symmetricKey, symEncAlgo, data
+                doc, dataRefURI, encryptedDataElement, symmetricKey, symEncAlgo, data, wsDocInfo
             );
     }
     
@@ -277,7 +314,7 @@ public class ReferenceListProcessor implements Processor {
     ) throws WSSecurityException {
         CallbackLookup callbackLookup = wsDocInfo.getCallbackLookup();
         if (callbackLookup == null) {
-            callbackLookup = new DOMCallbackLookup(doc);
+            callbackLookup = new DOMCallbackLookup(doc, wsDocInfo);
         }
         Element encryptedDataElement = 
             callbackLookup.getElement(dataRefURI, null, true);
@@ -315,6 +352,32 @@ public class ReferenceListProcessor implements Processor {
         String symEncAlgo,
         RequestData requestData
     ) throws WSSecurityException {
+        return decryptEncryptedData(
+            doc, dataRefURI, encData, symmetricKey, symEncAlgo, requestData, null
+        );
+    }
+    
+    /**
+     * Decrypt the EncryptedData argument using a SecretKey.
+     * @param doc The (document) owner of EncryptedData
+     * @param dataRefURI The URI of EncryptedData
+     * @param encData The EncryptedData element
+     * @param symmetricKey The SecretKey with which to decrypt EncryptedData
+     * @param symEncAlgo The symmetric encryption algorithm to use
+     * @param wsDocInfo The WSDocInfo object whose Id index is updated with the decrypted 
+     *        nodes (can be null)
+     * @throws WSSecurityException
+     */
+    public static WSDataRef
+    decryptEncryptedData(
+        Document doc,
+        String dataRefURI,
+        Element encData,
+        SecretKey symmetricKey,
+        String symEncAlgo,
+        RequestData requestData,
+        WSDocInfo wsDocInfo
+    ) throws WSSecurityException {
 
         WSDataRef dataRef = new WSDataRef();
         dataRef.setWsuId(dataRefURI);
@@ -410,6 +473,7 @@ public class ReferenceListProcessor implements Processor {
         
         Node parent = encData.getParentNode();
         Node previousSibling = encData.getPreviousSibling();
+        Node nextSibling = encData.getNextSibling();
         if (content) {
             encData = (Element) encData.getParentNode();
             parent = encData.getParentNode();
@@ -432,6 +496,68 @@ public class ReferenceListProcessor implements Processor {
             throw new WSSecurityException(WSSecurityException.ErrorCode.FAILED_CHECK, ex);
         }
         
+        processDecryptedNodes(
+            dataRef, content, encData, parent, previousSibling, nextSibling, wsDocInfo
+        );
+        return dataRef;
+    }
+    
+    /**
+     * Replace the EncryptedData argument with the given decrypted nodes. This is the
+     * counterpart of decryptEncryptedData for EncryptedData elements that were decrypted 
+     * separately from the document (see ParallelDecryptor).
+     * @param dataRefURI The URI of EncryptedData
+     * @param encData The EncryptedData element
+     * @param symEncAlgo The symmetric encryption algorithm that was used
+     * @param decryptedNodes The decrypted nodes, owned by the document of encData
+     * @param wsDocInfo The WSDocInfo object whose Id index is updated with the decrypted 
+     *        nodes (can be null)
+     * @throws WSSecurityException
+     */
+    static WSDataRef insertDecryptedNodes(
+        String dataRefURI,
+        Element encData,
+        String symEncAlgo,
+        Node decryptedNodes,
+        WSDocInfo wsDocInfo
+    ) throws WSSecurityException {
+        WSDataRef dataRef = new WSDataRef();
+        dataRef.setWsuId(dataRefURI);
+        dataRef.setAlgorithm(symEncAlgo);
+        
+        boolean content = X509Util.isContent(encData);
+        dataRef.setContent(content);
+        
+        Element encryptedData = encData;
+        Node parent = encData.getParentNode();
+        Node previousSibling = encData.getPreviousSibling();
+        Node nextSibling = encData.getNextSibling();
+        if (content) {
+            encData = (Element) encData.getParentNode();
+            parent = encData.getParentNode();
+        }
+        
+        encryptedData.getParentNode().replaceChild(decryptedNodes, encryptedData);
+        
+        processDecryptedNodes(
+            dataRef, content, encData, parent, previousSibling, nextSibling, wsDocInfo
+        );
+        return dataRef;
+    }
+    
+    /**
+     * Set the protected element and XPath of the decrypted nodes on the WSDataRef, and add
+     * the decrypted nodes to the Id index
+     */
+    private static void processDecryptedNodes(
+        WSDataRef dataRef,
+        boolean content,
+        Element encData,
+        Node parent,
+        Node previousSibling,
+        Node nextSibling,
+        WSDocInfo wsDocInfo
+    ) {
         if (parent.getLocalName().equals(WSConstants.ENCRYPTED_HEADER)
             && parent.getNamespaceURI().equals(WSConstants.WSSE11_NS)) {
                 
@@ -441,9 +567,17 @@ public class ReferenceListProcessor implements Processor {
 
             dataRef.setProtectedElement((Element)decryptedHeader);
             dataRef.setXpath(getXPath(decryptedHeader));
+            if (wsDocInfo != null) {
+                wsDocInfo.addToIdIndex(decryptedHeader);
+            }
         } else if (content) {
             dataRef.setProtectedElement(encData);
             dataRef.setXpath(getXPath(encData));
+            if (wsDocInfo != null) {
+                for (Node node = encData.getFirstChild(); node != null; node = node.getNextSibling()) {
+                    wsDocInfo.addToIdIndex(node);
+                }
+            }
         } else {
             Node decryptedNode;
             if (previousSibling == null) {
@@ -455,12 +589,15 @@ public class ReferenceListProcessor implements Processor {
                 dataRef.setProtectedElement((Element)decryptedNode);
             }
             dataRef.setXpath(getXPath(decryptedNode));
+            if (wsDocInfo != null) {
+                for (Node node = decryptedNode; node != null && node != nextSibling; 
+                    node = node.getNextSibling()) {
+                    wsDocInfo.addToIdIndex(node);
+                }
+            }
         }
-        
-        return dataRef;
     }
     
-    
     public String getId() {
         return null;
     }
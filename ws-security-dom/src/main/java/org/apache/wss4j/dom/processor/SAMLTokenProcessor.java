@@ -19,13 +19,11 @@
 
 package org.apache.wss4j.dom.processor;
 
-import java.security.NoSuchProviderException;
 import java.security.PublicKey;
 import java.util.List;
 
 import javax.xml.crypto.MarshalException;
 import javax.xml.crypto.dsig.XMLSignature;
-import javax.xml.crypto.dsig.XMLSignatureFactory;
 import javax.xml.crypto.dsig.XMLValidateContext;
 import javax.xml.crypto.dsig.dom.DOMValidateContext;
 import javax.xml.namespace.QName;
@@ -33,6 +31,7 @@ import javax.xml.namespace.QName;
 import org.apache.wss4j.common.principal.SAMLTokenPrincipalImpl;
 import org.w3c.dom.Element;
 
+import org.apache.wss4j.common.cache.SamlAssertionCache;
 import org.apache.wss4j.common.crypto.AlgorithmSuite;
 import org.apache.wss4j.common.crypto.AlgorithmSuiteValidator;
 import org.apache.wss4j.common.ext.WSSecurityException;
@@ -45,6 +44,7 @@ import org.apache.wss4j.dom.WSDocInfo;
 import org.apache.wss4j.dom.WSSecurityEngineResult;
 import org.apache.wss4j.dom.handler.RequestData;
 import org.apache.wss4j.dom.saml.WSSSAMLKeyInfoProcessor;
+import org.apache.wss4j.dom.util.XMLSignatureFactoryCache;
 import org.apache.wss4j.dom.validate.Credential;
 import org.apache.wss4j.dom.validate.Validator;
 import org.opensaml.xml.signature.KeyInfo;
@@ -53,17 +53,6 @@ import org.opensaml.xml.signature.Signature;
 public class SAMLTokenProcessor implements Processor {
     private static org.slf4j.Logger log = 
         org.slf4j.LoggerFactory.getLogger(SAMLTokenProcessor.class);
-    private XMLSignatureFactory signatureFactory;
-
-    public SAMLTokenProcessor() {
-        // Try to install the Santuario Provider - fall back to the JDK provider if this does
-        // not work
-        try {
-            signatureFactory = XMLSignatureFactory.getInstance("DOM", "ApacheXMLDSig");
-        } catch (NoSuchProviderException ex) {
-            signatureFactory = XMLSignatureFactory.getInstance("DOM");
-        }
-    }
 
     public List<WSSecurityEngineResult> handleToken(
         Element elem, 
@@ -131,7 +120,18 @@ public class SAMLTokenProcessor implements Processor {
         WSDocInfo docInfo
     ) throws WSSecurityException {
         SamlAssertionWrapper samlAssertion = new SamlAssertionWrapper(token);
-        if (samlAssertion.isSigned()) {
+        SamlAssertionCache samlAssertionCache = data.getSamlAssertionCache();
+        SAMLKeyInfo cachedKeyInfo = null;
+        if (samlAssertionCache != null && samlAssertion.isSigned()) {
+            cachedKeyInfo = samlAssertionCache.get(samlAssertion);
+        }
+        if (cachedKeyInfo != null) {
+            // An identical Assertion has been verified before
+            if (log.isDebugEnabled()) {
+                log.debug("Using the cached signature verification of SAML Assertion " + samlAssertion.getId());
+            }
+            samlAssertion.setSignatureKeyInfoFromCache(cachedKeyInfo);
+        } else if (samlAssertion.isSigned()) {
             // Check for compliance against the defined AlgorithmSuite
             AlgorithmSuite algorithmSuite = data.getSamlAlgorithmSuite();
             
@@ -164,7 +164,8 @@ public class SAMLTokenProcessor implements Processor {
 
                 XMLSignature xmlSignature;
                 try {
-                    xmlSignature = signatureFactory.unmarshalXMLSignature(context);
+                    xmlSignature = 
+                        XMLSignatureFactoryCache.getSignatureFactory().unmarshalXMLSignature(context);
                 } catch (MarshalException ex) {
                     throw new WSSecurityException(
                         WSSecurityException.ErrorCode.FAILED_CHECK, "invalidSAMLsecurity", 
@@ -188,7 +189,10 @@ public class SAMLTokenProcessor implements Processor {
         Credential credential = new Credential();
         credential.setSamlAssertion(samlAssertion);
         if (validator != null) {
-            return validator.validate(credential, data);
+            credential = validator.validate(credential, data);
+        }
+        if (samlAssertionCache != null && cachedKeyInfo == null && samlAssertion.isSigned()) {
+            samlAssertionCache.add(samlAssertion, samlAssertion.getSignatureKeyInfo());
         }
         return credential;
     }
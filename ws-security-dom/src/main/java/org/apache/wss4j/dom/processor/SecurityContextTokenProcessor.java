@@ -78,6 +78,10 @@ public class SecurityContextTokenProcessor implements Processor {
             if (secret == null || secret.length == 0) {
                 secret = getSecret(data.getCallbackHandler(), id);
             }
+            if (data.getDerivedKeyCache() != null) {
+                // Remove the keys derived from a previous secret of the token
+                data.getDerivedKeyCache().updateSecret(sct.getIdentifier(), secret);
+            }
             result.put(WSSecurityEngineResult.TAG_ID, sct.getID());
             result.put(WSSecurityEngineResult.TAG_SECRET, secret);
         }
@@ -29,6 +29,7 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Future;
 
 import javax.xml.crypto.*;
 import javax.xml.crypto.dom.DOMStructure;
@@ -38,11 +39,9 @@ import javax.xml.crypto.dsig.SignedInfo;
 import javax.xml.crypto.dsig.Transform;
 import javax.xml.crypto.dsig.XMLObject;
 import javax.xml.crypto.dsig.XMLSignature;
-import javax.xml.crypto.dsig.XMLSignatureFactory;
 import javax.xml.crypto.dsig.XMLValidateContext;
 import javax.xml.crypto.dsig.dom.DOMValidateContext;
 import javax.xml.crypto.dsig.keyinfo.KeyInfo;
-import javax.xml.crypto.dsig.keyinfo.KeyInfoFactory;
 import javax.xml.crypto.dsig.keyinfo.KeyValue;
 import javax.xml.crypto.dsig.spec.ExcC14NParameterSpec;
 import javax.xml.crypto.dsig.spec.HMACParameterSpec;
@@ -55,6 +54,7 @@ import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 
 import org.apache.wss4j.common.bsp.BSPRule;
+import org.apache.wss4j.common.cache.BatchingReplayCache;
 import org.apache.wss4j.common.cache.ReplayCache;
 import org.apache.wss4j.common.crypto.AlgorithmSuite;
 import org.apache.wss4j.common.crypto.AlgorithmSuiteValidator;
@@ -79,6 +79,7 @@ import org.apache.wss4j.dom.str.SignatureSTRParser;
 import org.apache.wss4j.dom.transform.STRTransform;
 import org.apache.wss4j.dom.transform.STRTransformUtil;
 import org.apache.wss4j.dom.util.WSSecurityUtil;
+import org.apache.wss4j.dom.util.XMLSignatureFactoryCache;
 import org.apache.wss4j.dom.util.XmlSchemaDateFormat;
 import org.apache.wss4j.dom.validate.Credential;
 import org.apache.wss4j.dom.validate.Validator;
@@ -87,24 +88,6 @@ public class SignatureProcessor implements Processor {
     private static final org.slf4j.Logger LOG = 
         org.slf4j.LoggerFactory.getLogger(SignatureProcessor.class);
     
-    private XMLSignatureFactory signatureFactory;
-    private KeyInfoFactory keyInfoFactory;
-    
-    public SignatureProcessor() {
-        // Try to install the Santuario Provider - fall back to the JDK provider if this does
-        // not work
-        try {
-            signatureFactory = XMLSignatureFactory.getInstance("DOM", "ApacheXMLDSig");
-        } catch (NoSuchProviderException ex) {
-            signatureFactory = XMLSignatureFactory.getInstance("DOM");
-        }
-        try {
-            keyInfoFactory = KeyInfoFactory.getInstance("DOM", "ApacheXMLDSig");
-        } catch (NoSuchProviderException ex) {
-            keyInfoFactory = KeyInfoFactory.getInstance("DOM");
-        }
-    }
-    
     public List<WSSecurityEngineResult> handleToken(
         Element elem,
         RequestData data,
@@ -318,7 +301,8 @@ public class SignatureProcessor implements Processor {
         Element keyInfoElement
     ) throws MarshalException {
         XMLStructure keyInfoStructure = new DOMStructure(keyInfoElement);
-        KeyInfo keyInfo = keyInfoFactory.unmarshalKeyInfo(keyInfoStructure);
+        KeyInfo keyInfo = 
+            XMLSignatureFactoryCache.getKeyInfoFactory().unmarshalKeyInfo(keyInfoStructure);
         List<?> list = keyInfo.getContent();
 
         for (int i = 0; i < list.size(); i++) {
@@ -391,7 +375,8 @@ public class SignatureProcessor implements Processor {
         context.setProperty(AttachmentContentSignatureTransform.ATTACHMENT_CALLBACKHANDLER, data.getAttachmentCallbackHandler());
 
         try {
-            XMLSignature xmlSignature = signatureFactory.unmarshalXMLSignature(context);
+            XMLSignature xmlSignature = 
+                XMLSignatureFactoryCache.getSignatureFactory().unmarshalXMLSignature(context);
             checkBSPCompliance(xmlSignature, data.getBSPEnforcer());
             
             // Check for compliance against the defined AlgorithmSuite
@@ -406,7 +391,16 @@ public class SignatureProcessor implements Processor {
             testMessageReplay(elem, xmlSignature.getSignatureValue().getValue(), data, wsDocInfo);
             
             setElementsOnContext(xmlSignature, (DOMValidateContext)context, wsDocInfo, elem.getOwnerDocument());
-            boolean signatureOk = xmlSignature.validate(context);
+            boolean signatureOk = false;
+            if (data.getSignatureVerificationExecutor() != null) {
+                signatureOk = 
+                    ParallelReferenceValidator.validate(
+                        xmlSignature, context, data.getSignatureVerificationExecutor(), 
+                        elem.getOwnerDocument()
+                    );
+            } else {
+                signatureOk = xmlSignature.validate(context);
+            }
             if (signatureOk) {
                 return xmlSignature;
             }
@@ -458,7 +452,7 @@ public class SignatureProcessor implements Processor {
             xmlSignature.getSignedInfo().getReferences().iterator();
         CallbackLookup callbackLookup = wsDocInfo.getCallbackLookup();
         if (callbackLookup == null) {
-            callbackLookup = new DOMCallbackLookup(doc);
+            callbackLookup = new DOMCallbackLookup(doc, wsDocInfo);
         }
         while (referenceIterator.hasNext()) {
             Reference reference = (Reference)referenceIterator.next();
@@ -663,6 +657,29 @@ public class SignatureProcessor implements Processor {
         DateFormat zulu = new XmlSchemaDateFormat();
         String identifier = zulu.format(created) + "" + Arrays.hashCode(signatureValue);
 
+        if (replayCache instanceof BatchingReplayCache) {
+            // Don't wait for the result, it is verified once the security header is processed
+            BatchingReplayCache batchingReplayCache = (BatchingReplayCache)replayCache;
+            Date expires = timeStamp.getExpires();
+            Future<Boolean> result;
+            if (expires != null) {
+                long currentTime = System.currentTimeMillis();
+                result = 
+                    batchingReplayCache.addIfAbsent(
+                        identifier, (expires.getTime() - currentTime) / 1000L
+                    );
+            } else {
+                result = batchingReplayCache.addIfAbsent(identifier);
+            }
+            requestData.getPendingReplayChecks().add(
+                result,
+                WSSecurityException.ErrorCode.INVALID_SECURITY,
+                "invalidTimestamp",
+                "A replay attack has been detected"
+            );
+            return;
+        }
+
         if (replayCache.contains(identifier)) {
             throw new WSSecurityException(
                 WSSecurityException.ErrorCode.INVALID_SECURITY,
@@ -21,12 +21,14 @@ package org.apache.wss4j.dom.processor;
 
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.Future;
 
 import org.apache.commons.codec.binary.Base64;
 import org.apache.wss4j.common.principal.SAMLTokenPrincipalImpl;
 import org.apache.wss4j.common.principal.WSUsernameTokenPrincipalImpl;
 import org.w3c.dom.Element;
 
+import org.apache.wss4j.common.cache.BatchingReplayCache;
 import org.apache.wss4j.common.cache.ReplayCache;
 import org.apache.wss4j.common.ext.WSSecurityException;
 import org.apache.wss4j.dom.WSConstants;
@@ -75,7 +77,8 @@ public class UsernameTokenProcessor implements Processor {
             action = WSConstants.UT_NOPASSWORD;
             if (token.isDerivedKey()) {
                 token.setRawPassword(data);
-                secretKey = token.getDerivedKey(data.getBSPEnforcer());
+                secretKey = 
+                    token.getDerivedKey(data.getBSPEnforcer(), data.getUsernameTokenDerivedKeyCache());
             } 
         }
         WSSecurityEngineResult result = new WSSecurityEngineResult(action, token);
@@ -141,7 +144,23 @@ public class UsernameTokenProcessor implements Processor {
         
         // Test for replay attacks
         ReplayCache replayCache = data.getNonceReplayCache();
-        if (replayCache != null && ut.getNonce() != null) {
+        if (replayCache instanceof BatchingReplayCache && ut.getNonce() != null) {
+            // Don't wait for the result, it is verified once the security header is processed
+            BatchingReplayCache batchingReplayCache = (BatchingReplayCache)replayCache;
+            Date created = ut.getCreatedDate();
+            Future<Boolean> result;
+            if (created == null || utTTL <= 0) {
+                result = batchingReplayCache.addIfAbsent(ut.getNonce());
+            } else {
+                result = batchingReplayCache.addIfAbsent(ut.getNonce(), utTTL + 1L);
+            }
+            data.getPendingReplayChecks().add(
+                result,
+                WSSecurityException.ErrorCode.INVALID_SECURITY,
+                "badUsernameToken",
+                "A replay attack has been detected"
+            );
+        } else if (replayCache != null && ut.getNonce() != null) {
             if (replayCache.contains(ut.getNonce())) {
                 throw new WSSecurityException(
                     WSSecurityException.ErrorCode.INVALID_SECURITY,
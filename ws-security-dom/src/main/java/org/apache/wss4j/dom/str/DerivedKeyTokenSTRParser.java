@@ -88,6 +88,10 @@ public class DerivedKeyTokenSTRParser implements STRParser {
             // Now use the callback and get it
             secretKey = 
                 getSecretKeyFromToken(uri, null, WSPasswordCallback.Usage.SECURITY_CONTEXT_TOKEN, data);
+            if (data.getDerivedKeyCache() != null) {
+                // Remove the keys derived from a previous secret of the token
+                data.getDerivedKeyCache().updateSecret(uri, secretKey);
+            }
             if (secretKey == null) {
                 throw new WSSecurityException(
                     WSSecurityException.ErrorCode.FAILED_CHECK, "unsupportedKeyId", uri);
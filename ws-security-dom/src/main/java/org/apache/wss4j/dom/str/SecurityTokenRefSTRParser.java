@@ -300,7 +300,10 @@ public class SecurityTokenRefSTRParser implements STRParser {
             byte[] secret = 
                 (byte[])result.get(WSSecurityEngineResult.TAG_SECRET);
             String algorithm = (String)parameters.get(SIGNATURE_METHOD);
-            secretKey = dkt.deriveKey(WSSecurityUtil.getKeyLength(algorithm), secret);
+            secretKey = 
+                dkt.deriveKey(
+                    WSSecurityUtil.getKeyLength(algorithm), secret, data.getDerivedKeyCache()
+                );
             principal = dkt.createPrincipal();
         } else if (WSConstants.ST_UNSIGNED == action || WSConstants.ST_SIGNED == action) {
             SamlAssertionWrapper samlAssertion =
@@ -314,7 +317,10 @@ public class SecurityTokenRefSTRParser implements STRParser {
                 (UsernameToken)result.get(WSSecurityEngineResult.TAG_USERNAME_TOKEN);
 
             usernameToken.setRawPassword(data);
-            secretKey = usernameToken.getDerivedKey(data.getBSPEnforcer());
+            secretKey = 
+                usernameToken.getDerivedKey(
+                    data.getBSPEnforcer(), data.getUsernameTokenDerivedKeyCache()
+                );
         } 
     }
     
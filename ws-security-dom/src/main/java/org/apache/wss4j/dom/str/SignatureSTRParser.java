@@ -502,7 +502,7 @@ public class SignatureSTRParser implements STRParser {
                 keyLength = WSSecurityUtil.getKeyLength(algorithm);
             }
             byte[] secret = (byte[])result.get(WSSecurityEngineResult.TAG_SECRET);
-            secretKey = dkt.deriveKey(keyLength, secret); 
+            secretKey = dkt.deriveKey(keyLength, secret, data.getDerivedKeyCache()); 
             principal = dkt.createPrincipal();
             ((WSDerivedKeyTokenPrincipal)principal).setSecret(secret);
         } else if (WSConstants.ST_UNSIGNED == action || WSConstants.ST_SIGNED == action) {
@@ -28,6 +28,7 @@ import org.apache.wss4j.dom.WSEncryptionPart;
 import org.apache.wss4j.dom.WSSecurityEngineResult;
 import org.apache.wss4j.dom.WSSConfig;
 import org.apache.wss4j.common.ext.WSSecurityException;
+import org.apache.wss4j.common.util.JCEInstanceCache;
 import org.apache.wss4j.common.util.StringUtil;
 import org.apache.wss4j.common.util.XMLUtils;
 import org.apache.wss4j.dom.handler.WSHandlerConstants;
@@ -49,7 +50,6 @@ import javax.crypto.spec.SecretKeySpec;
 import javax.xml.crypto.dom.DOMCryptoContext;
 import javax.xml.namespace.QName;
 
-import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -65,11 +65,6 @@ public final class WSSecurityUtil {
     private static org.slf4j.Logger log = 
         org.slf4j.LoggerFactory.getLogger(WSSecurityUtil.class);
 
-    /**
-     * A cached MessageDigest object
-     */
-    private static MessageDigest digest;
-    
     private WSSecurityUtil() {
         // Complete
     }
@@ -830,13 +825,30 @@ public final class WSSecurityUtil {
 
     /**
      * Translate the "cipherAlgo" URI to a JCE ID, and return a javax.crypto.Cipher instance
-     * of this type. 
+     * of this type.
      */
     public static Cipher getCipherInstance(String cipherAlgo)
+        throws WSSecurityException {
+        return getCipherInstance(cipherAlgo, false);
+    }
+    
+    /**
+     * Translate the "cipherAlgo" URI to a JCE ID, and return the javax.crypto.Cipher instance
+     * of this type that is cached for the current thread. This is for internal use on hot
+     * paths only. The instance must be initialized before it is used, and must not be stored.
+     * As an initialized Cipher keeps a reference to its key until it is initialized again, it
+     * must only be initialized with a public key.
+     */
+    public static Cipher getCachedCipherInstance(String cipherAlgo)
+        throws WSSecurityException {
+        return getCipherInstance(cipherAlgo, true);
+    }
+    
+    private static Cipher getCipherInstance(String cipherAlgo, boolean cached)
         throws WSSecurityException {
         try {
             String keyAlgorithm = JCEMapper.translateURItoJCEID(cipherAlgo);
-            return Cipher.getInstance(keyAlgorithm);
+            return newCipherInstance(keyAlgorithm, cached);
         } catch (NoSuchPaddingException ex) {
             throw new WSSecurityException(
                 WSSecurityException.ErrorCode.UNSUPPORTED_ALGORITHM, "unsupportedKeyTransp", 
@@ -846,7 +858,7 @@ public final class WSSecurityUtil {
             // Some JDKs don't support RSA/ECB/OAEPPadding
             if (WSConstants.KEYTRANSPORT_RSAOEP.equals(cipherAlgo)) {
                 try {
-                    return Cipher.getInstance("RSA/ECB/OAEPWithSHA1AndMGF1Padding");
+                    return newCipherInstance("RSA/ECB/OAEPWithSHA1AndMGF1Padding", cached);
                 } catch (Exception e) {
                     throw new WSSecurityException(
                         WSSecurityException.ErrorCode.UNSUPPORTED_ALGORITHM, "unsupportedKeyTransp",
@@ -860,6 +872,14 @@ public final class WSSecurityUtil {
         }
     }
     
+    private static Cipher newCipherInstance(String transformation, boolean cached)
+        throws NoSuchAlgorithmException, NoSuchPaddingException {
+        if (cached) {
+            return JCEInstanceCache.getCipher(transformation);
+        }
+        return Cipher.getInstance(transformation);
+    }
+    
 
     /**
      * Fetch the result of a given action from a given result list
@@ -1105,17 +1125,14 @@ public final class WSSecurityUtil {
     
     /**
      * Generate a (SHA1) digest of the input bytes. The MessageDigest instance that backs this
-     * method is cached for efficiency.  
+     * method is cached per thread for efficiency.
      * @param inputBytes the bytes to digest
      * @return the digest of the input bytes
      * @throws WSSecurityException
      */
-    public static synchronized byte[] generateDigest(byte[] inputBytes) throws WSSecurityException {
+    public static byte[] generateDigest(byte[] inputBytes) throws WSSecurityException {
         try {
-            if (digest == null) {
-                digest = MessageDigest.getInstance("SHA-1");
-            }
-            return digest.digest(inputBytes);
+            return JCEInstanceCache.getMessageDigest("SHA-1").digest(inputBytes);
         } catch (Exception e) {
             throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE, "empty", e,
                     "Error in generating digest"
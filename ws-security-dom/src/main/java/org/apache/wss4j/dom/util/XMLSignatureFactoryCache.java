@@ -0,0 +1,78 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.dom.util;
+
+import java.security.NoSuchProviderException;
+
+import javax.xml.crypto.dsig.XMLSignatureFactory;
+import javax.xml.crypto.dsig.keyinfo.KeyInfoFactory;
+
+/**
+ * A per-thread cache of the DOM XMLSignatureFactory and KeyInfoFactory. Looking up these
+ * factories requires a search of the installed JCE providers, and so it is too expensive to
+ * do for every message. The factories are not guaranteed to be thread-safe, and so each thread
+ * gets its own instances.
+ */
+public final class XMLSignatureFactoryCache {
+
+    private static final ThreadLocal<XMLSignatureFactory> SIGNATURE_FACTORY =
+        new ThreadLocal<XMLSignatureFactory>() {
+            @Override
+            protected XMLSignatureFactory initialValue() {
+                // Try to install the Santuario Provider - fall back to the JDK provider if this
+                // does not work
+                try {
+                    return XMLSignatureFactory.getInstance("DOM", "ApacheXMLDSig");
+                } catch (NoSuchProviderException ex) {
+                    return XMLSignatureFactory.getInstance("DOM");
+                }
+            }
+        };
+
+    private static final ThreadLocal<KeyInfoFactory> KEY_INFO_FACTORY =
+        new ThreadLocal<KeyInfoFactory>() {
+            @Override
+            protected KeyInfoFactory initialValue() {
+                try {
+                    return KeyInfoFactory.getInstance("DOM", "ApacheXMLDSig");
+                } catch (NoSuchProviderException ex) {
+                    return KeyInfoFactory.getInstance("DOM");
+                }
+            }
+        };
+
+    private XMLSignatureFactoryCache() {
+        // complete
+    }
+
+    /**
+     * @return the DOM XMLSignatureFactory of the current thread
+     */
+    public static XMLSignatureFactory getSignatureFactory() {
+        return SIGNATURE_FACTORY.get();
+    }
+
+    /**
+     * @return the DOM KeyInfoFactory of the current thread
+     */
+    public static KeyInfoFactory getKeyInfoFactory() {
+        return KEY_INFO_FACTORY.get();
+    }
+}
@@ -97,8 +97,8 @@ public class SamlAssertionValidator extends SignatureTrustValidator {
         // Validate the assertion against schemas/profiles
         validateAssertion(samlAssertion);
 
-        // Verify trust on the signature
-        if (samlAssertion.isSigned()) {
+        // Verify trust on the signature, unless it was verified for an identical Assertion before
+        if (samlAssertion.isSigned() && !samlAssertion.isSignatureVerifiedFromCache()) {
             verifySignedAssertion(samlAssertion, data);
         }
         return credential;
@@ -0,0 +1,74 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.wss4j.dom.handler;
+
+import org.apache.wss4j.common.cache.DerivedKeyCache;
+import org.apache.wss4j.common.cache.EncryptedKeyCache;
+import org.apache.wss4j.dom.common.CustomHandler;
+
+/**
+ * A test for the caches that WSHandler sets on the RequestData.
+ */
+public class WSHandlerCacheTest extends org.junit.Assert {
+
+    @org.junit.Test
+    public void testLoadCache() throws Exception {
+        CustomHandler handler = new CustomHandler();
+        RequestData reqData = new RequestData();
+        java.util.Map<String, Object> messageContext = new java.util.TreeMap<String, Object>();
+        reqData.setMsgContext(messageContext);
+
+        // The cache is not enabled by default
+        assertNull(
+            handler.loadCache(
+                reqData, WSHandlerConstants.ENABLE_ENCRYPTED_KEY_CACHE,
+                WSHandlerConstants.ENCRYPTED_KEY_CACHE_INSTANCE, EncryptedKeyCache.class
+            )
+        );
+
+        // An enabled cache is shared by all messages of the handler
+        handler.setOption(WSHandlerConstants.ENABLE_ENCRYPTED_KEY_CACHE, "true");
+        EncryptedKeyCache cache = 
+            handler.loadCache(
+                reqData, WSHandlerConstants.ENABLE_ENCRYPTED_KEY_CACHE,
+                WSHandlerConstants.ENCRYPTED_KEY_CACHE_INSTANCE, EncryptedKeyCache.class
+            );
+        assertNotNull(cache);
+        assertSame(
+            cache,
+            handler.loadCache(
+                reqData, WSHandlerConstants.ENABLE_ENCRYPTED_KEY_CACHE,
+                WSHandlerConstants.ENCRYPTED_KEY_CACHE_INSTANCE, EncryptedKeyCache.class
+            )
+        );
+
+        // A configured instance is used instead
+        messageContext.put(WSHandlerConstants.ENABLE_DERIVED_KEY_CACHE, "true");
+        DerivedKeyCache derivedKeyCache = new DerivedKeyCache();
+        messageContext.put(WSHandlerConstants.DERIVED_KEY_CACHE_INSTANCE, derivedKeyCache);
+        assertSame(
+            derivedKeyCache,
+            handler.loadCache(
+                reqData, WSHandlerConstants.ENABLE_DERIVED_KEY_CACHE,
+                WSHandlerConstants.DERIVED_KEY_CACHE_INSTANCE, DerivedKeyCache.class
+            )
+        );
+    }
+
+}
@@ -0,0 +1,180 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.dom.message;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.security.auth.callback.CallbackHandler;
+
+import org.apache.wss4j.common.crypto.Crypto;
+import org.apache.wss4j.common.crypto.CryptoFactory;
+import org.apache.wss4j.common.util.XMLUtils;
+import org.apache.wss4j.dom.SOAPConstants;
+import org.apache.wss4j.dom.WSConstants;
+import org.apache.wss4j.dom.WSDataRef;
+import org.apache.wss4j.dom.WSEncryptionPart;
+import org.apache.wss4j.dom.WSSConfig;
+import org.apache.wss4j.dom.WSSecurityEngine;
+import org.apache.wss4j.dom.WSSecurityEngineResult;
+import org.apache.wss4j.dom.common.KeystoreCallbackHandler;
+import org.apache.wss4j.dom.common.SOAPUtil;
+import org.apache.wss4j.dom.handler.RequestData;
+import org.apache.wss4j.dom.util.WSSecurityUtil;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+/**
+ * Some tests for decrypting EncryptedData elements in parallel. The results must be the
+ * same as for sequential decryption.
+ */
+public class ParallelDecryptionTest extends org.junit.Assert {
+    private static final String SOAPMSG = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>" +
+        "<soapenv:Envelope xmlns:foo=\"urn:foo.bar\" xmlns:soapenv=\"http://schemas.xmlsoap.org/soap/envelope/\">" +
+        "   <soapenv:Header>" +
+        "       <foo:bar1>baz1</foo:bar1>" +
+        "       <foo:foobar>baz</foo:foobar>" +
+        "   </soapenv:Header>" +
+        "   <soapenv:Body>" +
+        "      <ns1:testMethod xmlns:ns1=\"http://axis/service/security/test6/LogTestService8\">asf1</ns1:testMethod>" +
+        "   </soapenv:Body>" +
+        "</soapenv:Envelope>";
+
+    private CallbackHandler callbackHandler = new KeystoreCallbackHandler();
+    private Crypto crypto = null;
+
+    public ParallelDecryptionTest() throws Exception {
+        crypto = CryptoFactory.getInstance();
+        WSSConfig.init();
+    }
+
+    /**
+     * The EncryptedData elements are referenced by an EncryptedKey
+     */
+    @org.junit.Test
+    public void testEncryptedKeyReferenceList() throws Exception {
+        Document doc = SOAPUtil.toSOAPPart(SOAPMSG);
+        WSSecEncrypt encrypt = new WSSecEncrypt();
+        encrypt.setUserInfo("16c73ab6-b892-458f-abf5-2f875f74882e", "security");
+        encrypt.setKeyIdentifierType(WSConstants.ISSUER_SERIAL);
+
+        WSSecHeader secHeader = new WSSecHeader();
+        secHeader.insertSecurityHeader(doc);
+        encrypt.setParts(getParts(doc));
+
+        Document encryptedDoc = encrypt.build(doc, crypto, secHeader);
+        verifyParallel(XMLUtils.PrettyDocumentToString(encryptedDoc));
+    }
+
+    /**
+     * The EncryptedData elements are referenced by a (standalone) ReferenceList
+     */
+    @org.junit.Test
+    public void testStandaloneReferenceList() throws Exception {
+        Document doc = SOAPUtil.toSOAPPart(SOAPMSG);
+        WSSecEncrypt encrypt = new WSSecEncrypt();
+        encrypt.setUserInfo("16c73ab6-b892-458f-abf5-2f875f74882e", "security");
+        encrypt.setKeyIdentifierType(WSConstants.ISSUER_SERIAL);
+
+        WSSecHeader secHeader = new WSSecHeader();
+        secHeader.insertSecurityHeader(doc);
+
+        encrypt.prepare(doc, crypto);
+        Element refs = encrypt.encryptForRef(null, getParts(doc));
+        encrypt.addExternalRefElement(refs, secHeader);
+        encrypt.prependToHeader(secHeader);
+
+        verifyParallel(XMLUtils.PrettyDocumentToString(doc));
+    }
+
+    private List<WSEncryptionPart> getParts(Document doc) {
+        SOAPConstants soapConstants =
+            WSSecurityUtil.getSOAPConstants(doc.getDocumentElement());
+        List<WSEncryptionPart> parts = new ArrayList<WSEncryptionPart>();
+        parts.add(new WSEncryptionPart("bar1", "urn:foo.bar", "Element"));
+        parts.add(
+            new WSEncryptionPart(
+                soapConstants.getBodyQName().getLocalPart(),
+                soapConstants.getEnvelopeURI(),
+                "Content"
+            )
+        );
+        parts.add(new WSEncryptionPart("foobar", "urn:foo.bar", "Element"));
+        return parts;
+    }
+
+    /**
+     * Decrypt the message sequentially and in parallel, and check that the results match
+     */
+    private void verifyParallel(String encryptedMessage) throws Exception {
+        Document sequentialDoc = SOAPUtil.toSOAPPart(encryptedMessage);
+        List<WSDataRef> sequentialRefs = verify(sequentialDoc, null);
+        assertEquals(3, sequentialRefs.size());
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Document parallelDoc = SOAPUtil.toSOAPPart(encryptedMessage);
+            List<WSDataRef> parallelRefs = verify(parallelDoc, executor);
+
+            assertEquals(sequentialRefs.size(), parallelRefs.size());
+            for (int i = 0; i < sequentialRefs.size(); i++) {
+                WSDataRef sequentialRef = sequentialRefs.get(i);
+                WSDataRef parallelRef = parallelRefs.get(i);
+                assertEquals(sequentialRef.getWsuId(), parallelRef.getWsuId());
+                assertEquals(sequentialRef.getName(), parallelRef.getName());
+                assertEquals(sequentialRef.getXpath(), parallelRef.getXpath());
+                assertEquals(sequentialRef.isContent(), parallelRef.isContent());
+                assertEquals(sequentialRef.getAlgorithm(), parallelRef.getAlgorithm());
+                assertNotNull(parallelRef.getProtectedElement());
+                assertSame(parallelDoc, parallelRef.getProtectedElement().getOwnerDocument());
+            }
+            assertEquals(
+                XMLUtils.PrettyDocumentToString(sequentialDoc),
+                XMLUtils.PrettyDocumentToString(parallelDoc)
+            );
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<WSDataRef> verify(Document doc, ExecutorService executor) throws Exception {
+        RequestData data = new RequestData();
+        data.setCallbackHandler(callbackHandler);
+        data.setDecCrypto(crypto);
+        data.setDecryptionExecutor(executor);
+
+        WSSecurityEngine secEngine = new WSSecurityEngine();
+        List<WSSecurityEngineResult> results = secEngine.processSecurityHeader(doc, "", data);
+
+        List<WSDataRef> dataRefs = new ArrayList<WSDataRef>();
+        for (WSSecurityEngineResult result : results) {
+            List<WSDataRef> resultRefs =
+                (List<WSDataRef>)result.get(WSSecurityEngineResult.TAG_DATA_REF_URIS);
+            if (resultRefs != null) {
+                dataRefs.addAll(resultRefs);
+            }
+        }
+        return dataRefs;
+    }
+
+}
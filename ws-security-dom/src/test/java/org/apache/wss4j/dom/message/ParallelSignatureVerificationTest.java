@@ -0,0 +1,244 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.dom.message;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.security.auth.callback.Callback;
+import javax.security.auth.callback.CallbackHandler;
+import javax.security.auth.callback.UnsupportedCallbackException;
+
+import org.apache.wss4j.common.crypto.Crypto;
+import org.apache.wss4j.common.crypto.CryptoFactory;
+import org.apache.wss4j.common.ext.Attachment;
+import org.apache.wss4j.common.ext.AttachmentRequestCallback;
+import org.apache.wss4j.common.ext.AttachmentResultCallback;
+import org.apache.wss4j.common.ext.WSSecurityException;
+import org.apache.wss4j.common.util.XMLUtils;
+import org.apache.wss4j.dom.SOAPConstants;
+import org.apache.wss4j.dom.WSConstants;
+import org.apache.wss4j.dom.WSDataRef;
+import org.apache.wss4j.dom.WSEncryptionPart;
+import org.apache.wss4j.dom.WSSConfig;
+import org.apache.wss4j.dom.WSSecurityEngine;
+import org.apache.wss4j.dom.WSSecurityEngineResult;
+import org.apache.wss4j.dom.common.SOAPUtil;
+import org.apache.wss4j.dom.handler.RequestData;
+import org.apache.wss4j.dom.util.WSSecurityUtil;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+/**
+ * Some tests for validating the References of a Signature in parallel. The results must be
+ * the same as for sequential validation.
+ */
+public class ParallelSignatureVerificationTest extends org.junit.Assert {
+    private static final String SOAPMSG = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>" +
+        "<soapenv:Envelope xmlns:foo=\"urn:foo.bar\" xmlns:soapenv=\"http://schemas.xmlsoap.org/soap/envelope/\">" +
+        "   <soapenv:Header>" +
+        "       <foo:bar1>baz1</foo:bar1>" +
+        "       <foo:foobar>baz</foo:foobar>" +
+        "   </soapenv:Header>" +
+        "   <soapenv:Body>" +
+        "      <ns1:testMethod xmlns:ns1=\"http://axis/service/security/test6/LogTestService8\">asf1</ns1:testMethod>" +
+        "   </soapenv:Body>" +
+        "</soapenv:Envelope>";
+
+    private Crypto crypto = null;
+
+    public ParallelSignatureVerificationTest() throws Exception {
+        WSSConfig.init();
+        crypto = CryptoFactory.getInstance();
+    }
+
+    @org.junit.Test
+    public void testParallelVerification() throws Exception {
+        String signedMessage = getSignedMessage();
+
+        List<WSDataRef> sequentialRefs = verify(SOAPUtil.toSOAPPart(signedMessage), null);
+        assertEquals(3, sequentialRefs.size());
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            List<WSDataRef> parallelRefs = verify(SOAPUtil.toSOAPPart(signedMessage), executor);
+            assertEquals(sequentialRefs.size(), parallelRefs.size());
+            for (int i = 0; i < sequentialRefs.size(); i++) {
+                assertEquals(sequentialRefs.get(i).getWsuId(), parallelRefs.get(i).getWsuId());
+                assertEquals(sequentialRefs.get(i).getName(), parallelRefs.get(i).getName());
+                assertEquals(sequentialRefs.get(i).getXpath(), parallelRefs.get(i).getXpath());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @org.junit.Test
+    public void testModifiedReference() throws Exception {
+        Document doc = SOAPUtil.toSOAPPart(getSignedMessage());
+        Element foobar =
+            WSSecurityUtil.findElement(doc.getDocumentElement(), "foobar", "urn:foo.bar");
+        foobar.setTextContent("modified");
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            verify(doc, executor);
+            fail("Failure expected on a modified signed element");
+        } catch (WSSecurityException ex) {
+            assertEquals(WSSecurityException.ErrorCode.FAILED_CHECK, ex.getErrorCode());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @org.junit.Test
+    public void testAttachmentCallbackHandlerNotCalledConcurrently() throws Exception {
+        final Map<String, Attachment> attachments = new HashMap<String, Attachment>();
+        for (int i = 0; i < 4; i++) {
+            Attachment attachment = new Attachment();
+            attachment.setMimeType("text/plain");
+            attachment.setId(UUID.randomUUID().toString());
+            attachment.setSourceStream(new ByteArrayInputStream(("attachment" + i).getBytes("UTF-8")));
+            attachments.put(attachment.getId(), attachment);
+        }
+
+        WSSecSignature sign = new WSSecSignature();
+        sign.setUserInfo("16c73ab6-b892-458f-abf5-2f875f74882e", "security");
+        List<WSEncryptionPart> parts = new ArrayList<WSEncryptionPart>();
+        parts.add(new WSEncryptionPart("Body", "http://schemas.xmlsoap.org/soap/envelope/", "Content"));
+        parts.add(new WSEncryptionPart("cid:Attachments", "Content"));
+        sign.setParts(parts);
+        sign.setAttachmentCallbackHandler(new CallbackHandler() {
+            public void handle(Callback[] callbacks) throws IOException, UnsupportedCallbackException {
+                if (callbacks[0] instanceof AttachmentRequestCallback) {
+                    ((AttachmentRequestCallback) callbacks[0]).setAttachments(
+                        new ArrayList<Attachment>(attachments.values())
+                    );
+                }
+            }
+        });
+        Document doc = SOAPUtil.toSOAPPart(SOAPMSG);
+        WSSecHeader secHeader = new WSSecHeader();
+        secHeader.insertSecurityHeader(doc);
+        sign.build(doc, crypto, secHeader);
+
+        // A CallbackHandler which is not thread-safe
+        final AtomicInteger activeCalls = new AtomicInteger();
+        final AtomicBoolean concurrentCall = new AtomicBoolean();
+        CallbackHandler attachmentCallbackHandler = new CallbackHandler() {
+            public void handle(Callback[] callbacks) throws IOException, UnsupportedCallbackException {
+                if (activeCalls.incrementAndGet() > 1) {
+                    concurrentCall.set(true);
+                }
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+                if (callbacks[0] instanceof AttachmentRequestCallback) {
+                    AttachmentRequestCallback attachmentRequestCallback = 
+                        (AttachmentRequestCallback) callbacks[0];
+                    attachmentRequestCallback.setAttachments(
+                        Collections.singletonList(
+                            attachments.get(attachmentRequestCallback.getAttachmentId())
+                        )
+                    );
+                } else {
+                    AttachmentResultCallback attachmentResultCallback = 
+                        (AttachmentResultCallback) callbacks[0];
+                    attachments.put(
+                        attachmentResultCallback.getAttachmentId(), 
+                        attachmentResultCallback.getAttachment()
+                    );
+                }
+                activeCalls.decrementAndGet();
+            }
+        };
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            RequestData data = new RequestData();
+            data.setSigVerCrypto(crypto);
+            data.setSignatureVerificationExecutor(executor);
+            data.setAttachmentCallbackHandler(attachmentCallbackHandler);
+
+            WSSecurityEngine secEngine = new WSSecurityEngine();
+            List<WSSecurityEngineResult> results = secEngine.processSecurityHeader(doc, "", data);
+            assertNotNull(WSSecurityUtil.fetchActionResult(results, WSConstants.SIGN));
+            assertFalse(concurrentCall.get());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private String getSignedMessage() throws Exception {
+        Document doc = SOAPUtil.toSOAPPart(SOAPMSG);
+        SOAPConstants soapConstants =
+            WSSecurityUtil.getSOAPConstants(doc.getDocumentElement());
+
+        WSSecSignature sign = new WSSecSignature();
+        sign.setUserInfo("16c73ab6-b892-458f-abf5-2f875f74882e", "security");
+        sign.setKeyIdentifierType(WSConstants.ISSUER_SERIAL);
+
+        WSSecHeader secHeader = new WSSecHeader();
+        secHeader.insertSecurityHeader(doc);
+
+        List<WSEncryptionPart> parts = new ArrayList<WSEncryptionPart>();
+        parts.add(new WSEncryptionPart("bar1", "urn:foo.bar", ""));
+        parts.add(
+            new WSEncryptionPart(
+                soapConstants.getBodyQName().getLocalPart(),
+                soapConstants.getEnvelopeURI(),
+                ""
+            )
+        );
+        parts.add(new WSEncryptionPart("foobar", "urn:foo.bar", ""));
+        sign.setParts(parts);
+
+        Document signedDoc = sign.build(doc, crypto, secHeader);
+        return XMLUtils.PrettyDocumentToString(signedDoc);
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<WSDataRef> verify(Document doc, ExecutorService executor) throws Exception {
+        RequestData data = new RequestData();
+        data.setSigVerCrypto(crypto);
+        data.setSignatureVerificationExecutor(executor);
+
+        WSSecurityEngine secEngine = new WSSecurityEngine();
+        List<WSSecurityEngineResult> results = secEngine.processSecurityHeader(doc, "", data);
+
+        WSSecurityEngineResult actionResult =
+            WSSecurityUtil.fetchActionResult(results, WSConstants.SIGN);
+        assertNotNull(actionResult);
+        return (List<WSDataRef>)actionResult.get(WSSecurityEngineResult.TAG_DATA_REF_URIS);
+    }
+
+}
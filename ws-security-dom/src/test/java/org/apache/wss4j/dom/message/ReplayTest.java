@@ -20,6 +20,7 @@
 package org.apache.wss4j.dom.message;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import javax.security.auth.callback.CallbackHandler;
@@ -32,7 +33,9 @@ import org.apache.wss4j.dom.WSSecurityEngineResult;
 import org.apache.wss4j.dom.common.KeystoreCallbackHandler;
 import org.apache.wss4j.dom.common.SOAPUtil;
 import org.apache.wss4j.dom.common.UsernamePasswordCallbackHandler;
+import org.apache.wss4j.common.cache.LoopbackReplayCacheTransport;
 import org.apache.wss4j.common.cache.MemoryReplayCache;
+import org.apache.wss4j.common.cache.PartitionedReplayCache;
 import org.apache.wss4j.common.crypto.Crypto;
 import org.apache.wss4j.common.crypto.CryptoFactory;
 import org.apache.wss4j.common.ext.WSSecurityException;
@@ -428,6 +431,47 @@ public class ReplayTest extends org.junit.Assert {
         }   
     }
     
+    @org.junit.Test
+    public void testPartitionedReplayedUsernameToken() throws Exception {
+        WSSecUsernameToken builder = new WSSecUsernameToken();
+        builder.setUserInfo("wernerd", "verySecret");
+        
+        Document doc = SOAPUtil.toSOAPPart(SOAPUtil.SAMPLE_SOAP_MSG);
+        WSSecHeader secHeader = new WSSecHeader();
+        secHeader.insertSecurityHeader(doc);
+        Document signedDoc = builder.build(doc, secHeader);
+        
+        List<String> nodes = Arrays.asList("node1", "node2");
+        LoopbackReplayCacheTransport transport = new LoopbackReplayCacheTransport();
+        PartitionedReplayCache node1 = new PartitionedReplayCache("node1", nodes, transport);
+        PartitionedReplayCache node2 = new PartitionedReplayCache("node2", nodes, transport);
+        try {
+            WSSConfig wssConfig = WSSConfig.getNewInstance();
+            RequestData data = new RequestData();
+            data.setCallbackHandler(new UsernamePasswordCallbackHandler());
+            data.setWssConfig(wssConfig);
+            data.setNonceReplayCache(node1);
+            
+            // Successfully verify UsernameToken on the first node
+            verify(signedDoc, wssConfig, data);
+            
+            // Now try again on the second node - a replay attack should be detected
+            data = new RequestData();
+            data.setCallbackHandler(new UsernamePasswordCallbackHandler());
+            data.setWssConfig(wssConfig);
+            data.setNonceReplayCache(node2);
+            try {
+                verify(signedDoc, wssConfig, data);
+                fail("Expected failure on a replay attack");
+            } catch (WSSecurityException ex) {
+                assertTrue(ex.getErrorCode() == WSSecurityException.ErrorCode.INVALID_SECURITY); 
+            }
+        } finally {
+            node1.close();
+            node2.close();
+        }
+    }
+    
     /**
      * Verifies the soap envelope
      * 
@@ -28,9 +28,12 @@ import org.apache.wss4j.dom.WSSecurityEngine;
 import org.apache.wss4j.dom.WSSecurityEngineResult;
 import org.apache.wss4j.dom.common.SecretKeyCallbackHandler;
 import org.apache.wss4j.dom.common.SOAPUtil;
+import org.apache.wss4j.dom.handler.RequestData;
+import org.apache.wss4j.common.cache.DerivedKeyCache;
 import org.apache.wss4j.common.crypto.Crypto;
 import org.apache.wss4j.common.crypto.CryptoFactory;
 import org.apache.wss4j.common.derivedKey.ConversationConstants;
+import org.apache.wss4j.common.ext.WSSecurityException;
 import org.apache.wss4j.common.util.XMLUtils;
 import org.apache.wss4j.dom.message.token.SecurityContextToken;
 import org.apache.wss4j.dom.util.WSSecurityUtil;
@@ -364,6 +367,72 @@ public class SecurityContextTokenTest extends org.junit.Assert {
      * @throws Exception
      *             Thrown when there is a problem in verification
      */
+    /**
+     * Test that the key derived from the secret of a security context token is cached
+     * across messages
+     */
+    @org.junit.Test
+    public void testSCTDKTSignDerivedKeyCache() throws Exception {
+        Document doc = SOAPUtil.toSOAPPart(SOAPUtil.SAMPLE_SOAP_MSG);
+        WSSecHeader secHeader = new WSSecHeader();
+        secHeader.insertSecurityHeader(doc);
+
+        WSSecSecurityContextToken sctBuilder = new WSSecSecurityContextToken();
+        sctBuilder.prepare(doc, crypto);
+
+        byte[] tempSecret = WSSecurityUtil.generateNonce(16);
+
+        // Store the secret
+        callbackHandler.addSecretKey(sctBuilder.getIdentifier(), tempSecret);
+
+        String tokenId = sctBuilder.getSctId();
+
+        // Derived key signature
+        WSSecDKSign sigBuilder = new WSSecDKSign();
+        sigBuilder.setExternalKey(tempSecret, tokenId);
+        sigBuilder.setSignatureAlgorithm(WSConstants.HMAC_SHA1);
+        sigBuilder.build(doc, secHeader);
+        
+        sctBuilder.prependSCTElementToHeader(doc, secHeader);
+        
+        String outputString = XMLUtils.PrettyDocumentToString(doc);
+        if (LOG.isDebugEnabled()) {
+            LOG.debug(outputString);
+        }
+        
+        CountingDerivedKeyCache derivedKeyCache = new CountingDerivedKeyCache();
+        RequestData data = new RequestData();
+        data.setCallbackHandler(callbackHandler);
+        data.setSigVerCrypto(crypto);
+        data.setDerivedKeyCache(derivedKeyCache);
+        
+        // The first message derives the key (and the Signature reuses the key derived by
+        // the DerivedKeyToken processor)
+        secEngine.processSecurityHeader(SOAPUtil.toSOAPPart(outputString), null, data);
+        assertEquals(1, derivedKeyCache.size());
+        int hits = derivedKeyCache.hits;
+        
+        // The second message with the same secret and nonce only gets the cached key
+        secEngine.processSecurityHeader(SOAPUtil.toSOAPPart(outputString), null, data);
+        assertEquals(1, derivedKeyCache.size());
+        assertEquals(2 * hits + 1, derivedKeyCache.hits);
+        
+        // The keys of the previous secret are removed when the secret of the token is renewed
+        byte[] renewedSecret = WSSecurityUtil.generateNonce(16);
+        callbackHandler.addSecretKey(sctBuilder.getIdentifier(), renewedSecret);
+        try {
+            secEngine.processSecurityHeader(SOAPUtil.toSOAPPart(outputString), null, data);
+            fail("Expected failure on a renewed secret");
+        } catch (WSSecurityException ex) {
+            // expected
+        }
+        assertEquals(1, derivedKeyCache.size());
+        
+        // The keys of the secret are removed when the session ends
+        derivedKeyCache.remove(renewedSecret);
+        assertEquals(0, derivedKeyCache.size());
+    }
+    
     private List<WSSecurityEngineResult> verify(Document doc) throws Exception {
         List<WSSecurityEngineResult> results = 
             secEngine.processSecurityHeader(doc, null, callbackHandler, crypto);
@@ -373,5 +442,18 @@ public class SecurityContextTokenTest extends org.junit.Assert {
         return results;
     }
 
+    
+    private static class CountingDerivedKeyCache extends DerivedKeyCache {
+        private int hits;
+        
+        @Override
+        public byte[] get(String algorithm, byte[] secret, byte[] seed, int offset, int length) {
+            byte[] key = super.get(algorithm, secret, seed, offset, length);
+            if (key != null) {
+                hits++;
+            }
+            return key;
+        }
+    }
 
 }
@@ -0,0 +1,114 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.dom.misc;
+
+import org.apache.wss4j.dom.WSConstants;
+import org.apache.wss4j.dom.WSDocInfo;
+import org.apache.wss4j.dom.common.SOAPUtil;
+import org.apache.wss4j.dom.message.DOMCallbackLookup;
+import org.apache.wss4j.dom.util.WSSecurityUtil;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+/**
+ * Some tests for the Id index of WSDocInfo.
+ */
+public class WSDocInfoIdIndexTest extends org.junit.Assert {
+
+    private static final String SOAP_MSG =
+        "<SOAP-ENV:Envelope "
+        +   "xmlns:SOAP-ENV=\"http://schemas.xmlsoap.org/soap/envelope/\" "
+        +   "xmlns:wsu=\"" + WSConstants.WSU_NS + "\">"
+        +   "<SOAP-ENV:Header>"
+        +       "<saml:Assertion xmlns:saml=\"urn:oasis:names:tc:SAML:2.0:assertion\" ID=\"_saml1\"/>"
+        +   "</SOAP-ENV:Header>"
+        +   "<SOAP-ENV:Body wsu:Id=\"body\">"
+        +       "<add xmlns=\"http://ws.apache.org/counter/counter_port_type\">"
+        +           "<value wsu:Id=\"value1\">15</value>"
+        +           "<value Id=\"value2\">16</value>"
+        +           "<value wsu:Id=\"dup\">17</value>"
+        +           "<value Id=\"dup\">18</value>"
+        +       "</add>"
+        +   "</SOAP-ENV:Body>"
+        + "</SOAP-ENV:Envelope>";
+
+    @org.junit.Test
+    public void testLookups() throws Exception {
+        Document doc = SOAPUtil.toSOAPPart(SOAP_MSG);
+        WSDocInfo wsDocInfo = new WSDocInfo(doc);
+
+        Element value1 = wsDocInfo.getElementById("#value1", true);
+        assertNotNull(value1);
+        assertEquals("15", value1.getTextContent());
+        assertEquals("16", wsDocInfo.getElementById("value2", true).getTextContent());
+        assertNull(wsDocInfo.getElementById("unknown", true));
+
+        Element assertion = wsDocInfo.getSAMLAssertionElementById("_saml1");
+        assertNotNull(assertion);
+        assertEquals("Assertion", assertion.getLocalName());
+        assertNull(wsDocInfo.getElementById("_saml1", true));
+
+        // The results must be the same as for a search of the document
+        DOMCallbackLookup callbackLookup = new DOMCallbackLookup(doc, wsDocInfo);
+        assertSame(
+            WSSecurityUtil.findElementById(doc.getDocumentElement(), "value1", true),
+            callbackLookup.getElement("value1", null, true)
+        );
+        assertSame(assertion, callbackLookup.getElement("_saml1", null, true));
+    }
+
+    @org.junit.Test
+    public void testMultipleElements() throws Exception {
+        Document doc = SOAPUtil.toSOAPPart(SOAP_MSG);
+        WSDocInfo wsDocInfo = new WSDocInfo(doc);
+
+        assertNull(WSSecurityUtil.findElementById(doc.getDocumentElement(), "dup", true));
+        assertNull(wsDocInfo.getElementById("dup", true));
+        assertEquals("17", wsDocInfo.getElementById("dup", false).getTextContent());
+    }
+
+    @org.junit.Test
+    public void testDocumentModification() throws Exception {
+        Document doc = SOAPUtil.toSOAPPart(SOAP_MSG);
+        WSDocInfo wsDocInfo = new WSDocInfo(doc);
+
+        Element value1 = wsDocInfo.getElementById("value1", true);
+        Element add = (Element)value1.getParentNode();
+
+        // A removed element must no longer be found
+        add.removeChild(value1);
+        assertNull(wsDocInfo.getElementById("value1", true));
+
+        // An added element is found once it is added to the index
+        Element newValue = doc.createElementNS(add.getNamespaceURI(), "value");
+        newValue.setAttributeNS(WSConstants.WSU_NS, "wsu:Id", "value3");
+        add.appendChild(newValue);
+        wsDocInfo.addToIdIndex(newValue);
+        assertSame(newValue, wsDocInfo.getElementById("value3", true));
+
+        // An added element with a duplicate Id must be detected
+        Element dupValue = doc.createElementNS(add.getNamespaceURI(), "value");
+        dupValue.setAttributeNS(null, "Id", "value2");
+        add.appendChild(dupValue);
+        wsDocInfo.addToIdIndex(dupValue);
+        assertNull(wsDocInfo.getElementById("value2", true));
+    }
+
+}
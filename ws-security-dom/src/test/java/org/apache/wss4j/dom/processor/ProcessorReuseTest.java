@@ -0,0 +1,116 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.dom.processor;
+
+import java.util.List;
+
+import org.apache.wss4j.common.crypto.Crypto;
+import org.apache.wss4j.common.crypto.CryptoFactory;
+import org.apache.wss4j.dom.WSConstants;
+import org.apache.wss4j.dom.WSSConfig;
+import org.apache.wss4j.dom.WSSecurityEngine;
+import org.apache.wss4j.dom.WSSecurityEngineResult;
+import org.apache.wss4j.dom.common.CustomProcessor;
+import org.apache.wss4j.dom.common.SOAPUtil;
+import org.apache.wss4j.dom.message.WSSecHeader;
+import org.apache.wss4j.dom.message.WSSecSignature;
+import org.apache.wss4j.dom.util.WSSecurityUtil;
+import org.apache.wss4j.dom.validate.SamlAssertionValidator;
+import org.w3c.dom.Document;
+
+/**
+ * Some tests for sharing the default Processor and Validator instances across messages.
+ */
+public class ProcessorReuseTest extends org.junit.Assert {
+
+    private Crypto crypto = null;
+
+    public ProcessorReuseTest() throws Exception {
+        WSSConfig.init();
+        crypto = CryptoFactory.getInstance();
+    }
+
+    @org.junit.Test
+    public void testDefaultInstances() throws Exception {
+        WSSConfig config = WSSConfig.getNewInstance();
+        assertNotSame(
+            config.getProcessor(WSSecurityEngine.SIGNATURE),
+            config.getProcessor(WSSecurityEngine.SIGNATURE)
+        );
+
+        config.setReuseProcessors(true);
+        WSSConfig otherConfig = WSSConfig.getNewInstance();
+        otherConfig.setReuseProcessors(true);
+        assertSame(
+            config.getProcessor(WSSecurityEngine.SIGNATURE),
+            otherConfig.getProcessor(WSSecurityEngine.SIGNATURE)
+        );
+        assertSame(
+            config.getValidator(WSSecurityEngine.SIGNATURE),
+            otherConfig.getValidator(WSSecurityEngine.SIGNATURE)
+        );
+    }
+
+    @org.junit.Test
+    public void testConfigurableValidatorNotShared() throws Exception {
+        WSSConfig config = WSSConfig.getNewInstance();
+        config.setReuseProcessors(true);
+        SamlAssertionValidator validator =
+            (SamlAssertionValidator)config.getValidator(WSSecurityEngine.SAML_TOKEN);
+        validator.setFutureTTL(0);
+        SamlAssertionValidator otherValidator =
+            (SamlAssertionValidator)config.getValidator(WSSecurityEngine.SAML_TOKEN);
+        assertNotSame(validator, otherValidator);
+    }
+
+    @org.junit.Test
+    public void testCustomProcessorNotShared() throws Exception {
+        WSSConfig config = WSSConfig.getNewInstance();
+        config.setReuseProcessors(true);
+        config.setProcessor(WSSecurityEngine.SIGNATURE, CustomProcessor.class);
+        assertNotSame(
+            config.getProcessor(WSSecurityEngine.SIGNATURE),
+            config.getProcessor(WSSecurityEngine.SIGNATURE)
+        );
+    }
+
+    @org.junit.Test
+    public void testSignatureWithSharedProcessors() throws Exception {
+        WSSConfig config = WSSConfig.getNewInstance();
+        config.setReuseProcessors(true);
+        WSSecurityEngine secEngine = new WSSecurityEngine();
+        secEngine.setWssConfig(config);
+
+        for (int i = 0; i < 2; i++) {
+            WSSecSignature builder = new WSSecSignature();
+            builder.setUserInfo("16c73ab6-b892-458f-abf5-2f875f74882e", "security");
+            builder.setKeyIdentifierType(WSConstants.ISSUER_SERIAL);
+            Document doc = SOAPUtil.toSOAPPart(SOAPUtil.SAMPLE_SOAP_MSG);
+            WSSecHeader secHeader = new WSSecHeader();
+            secHeader.insertSecurityHeader(doc);
+            Document signedDoc = builder.build(doc, crypto, secHeader);
+
+            List<WSSecurityEngineResult> results =
+                secEngine.processSecurityHeader(signedDoc, null, null, crypto);
+            assertNotNull(WSSecurityUtil.fetchActionResult(results, WSConstants.SIGN));
+        }
+    }
+
+}
@@ -0,0 +1,155 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.dom.saml;
+
+import java.util.List;
+
+import org.apache.wss4j.common.cache.SamlAssertionCache;
+import org.apache.wss4j.common.crypto.Crypto;
+import org.apache.wss4j.common.crypto.CryptoFactory;
+import org.apache.wss4j.common.ext.WSSecurityException;
+import org.apache.wss4j.common.saml.SAMLCallback;
+import org.apache.wss4j.common.saml.SAMLUtil;
+import org.apache.wss4j.common.saml.SamlAssertionWrapper;
+import org.apache.wss4j.common.saml.builder.SAML2Constants;
+import org.apache.wss4j.common.util.XMLUtils;
+import org.apache.wss4j.dom.WSConstants;
+import org.apache.wss4j.dom.WSSConfig;
+import org.apache.wss4j.dom.WSSecurityEngine;
+import org.apache.wss4j.dom.WSSecurityEngineResult;
+import org.apache.wss4j.dom.common.SAML2CallbackHandler;
+import org.apache.wss4j.dom.common.SOAPUtil;
+import org.apache.wss4j.dom.handler.RequestData;
+import org.apache.wss4j.dom.message.WSSecHeader;
+import org.apache.wss4j.dom.message.WSSecSAMLToken;
+import org.apache.wss4j.dom.util.WSSecurityUtil;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+/**
+ * Test-cases for processing signed SAML Assertions with a SamlAssertionCache.
+ */
+public class SamlAssertionCacheTest extends org.junit.Assert {
+    private static final org.slf4j.Logger LOG =
+        org.slf4j.LoggerFactory.getLogger(SamlAssertionCacheTest.class);
+    private Crypto crypto = null;
+
+    public SamlAssertionCacheTest() throws Exception {
+        WSSConfig.init();
+        crypto = CryptoFactory.getInstance("crypto.properties");
+    }
+
+    /**
+     * The signature of the Assertion is only verified the first time it is received.
+     */
+    @org.junit.Test
+    public void testCachedSignedAssertion() throws Exception {
+        SamlAssertionCache samlAssertionCache = new SamlAssertionCache();
+        Document doc = createSignedAssertionDocument();
+
+        SamlAssertionWrapper receivedSamlAssertion = verify(doc, samlAssertionCache);
+        assertTrue(receivedSamlAssertion.isSigned());
+        assertFalse(receivedSamlAssertion.isSignatureVerifiedFromCache());
+        assertEquals(1, samlAssertionCache.size());
+
+        receivedSamlAssertion = verify(doc, samlAssertionCache);
+        assertTrue(receivedSamlAssertion.isSignatureVerifiedFromCache());
+        assertNotNull(receivedSamlAssertion.getSignatureKeyInfo());
+        assertNotNull(receivedSamlAssertion.getSignatureKeyInfo().getCerts());
+        assertEquals(1, samlAssertionCache.size());
+
+        samlAssertionCache.clear();
+        receivedSamlAssertion = verify(doc, samlAssertionCache);
+        assertFalse(receivedSamlAssertion.isSignatureVerifiedFromCache());
+    }
+
+    /**
+     * A modified Assertion with the signature of a cached Assertion must not be taken from
+     * the cache.
+     */
+    @org.junit.Test
+    public void testModifiedCachedAssertion() throws Exception {
+        SamlAssertionCache samlAssertionCache = new SamlAssertionCache();
+        Document doc = createSignedAssertionDocument();
+
+        verify(doc, samlAssertionCache);
+        assertEquals(1, samlAssertionCache.size());
+
+        Element nameID =
+            (Element)doc.getElementsByTagNameNS(WSConstants.SAML2_NS, "NameID").item(0);
+        nameID.setTextContent("uid=attacker");
+
+        try {
+            verify(doc, samlAssertionCache);
+            fail("Expected failure on a modified Assertion");
+        } catch (WSSecurityException ex) {
+            // expected
+        }
+    }
+
+    private Document createSignedAssertionDocument() throws Exception {
+        SAML2CallbackHandler callbackHandler = new SAML2CallbackHandler();
+        callbackHandler.setStatement(SAML2CallbackHandler.Statement.AUTHN);
+        callbackHandler.setConfirmationMethod(SAML2Constants.CONF_HOLDER_KEY);
+        callbackHandler.setIssuer("www.example.com");
+
+        SAMLCallback samlCallback = new SAMLCallback();
+        SAMLUtil.doSAMLCallback(callbackHandler, samlCallback);
+        SamlAssertionWrapper samlAssertion = new SamlAssertionWrapper(samlCallback);
+
+        samlAssertion.signAssertion("16c73ab6-b892-458f-abf5-2f875f74882e", "security", crypto, false);
+
+        WSSecSAMLToken wsSign = new WSSecSAMLToken();
+
+        Document doc = SOAPUtil.toSOAPPart(SOAPUtil.SAMPLE_SOAP_MSG);
+        WSSecHeader secHeader = new WSSecHeader();
+        secHeader.insertSecurityHeader(doc);
+
+        Document signedDoc = wsSign.build(doc, samlAssertion, secHeader);
+
+        if (LOG.isDebugEnabled()) {
+            String outputString =
+                XMLUtils.PrettyDocumentToString(signedDoc);
+            LOG.debug(outputString);
+        }
+        return signedDoc;
+    }
+
+    private SamlAssertionWrapper verify(
+        Document doc, SamlAssertionCache samlAssertionCache
+    ) throws Exception {
+        WSSecurityEngine secEngine = new WSSecurityEngine();
+        WSSConfig config = WSSConfig.getNewInstance();
+        config.setValidateSamlSubjectConfirmation(false);
+        secEngine.setWssConfig(config);
+
+        RequestData data = new RequestData();
+        data.setSigVerCrypto(crypto);
+        data.setSamlAssertionCache(samlAssertionCache);
+
+        Element securityHeader = WSSecurityUtil.getSecurityHeader(doc, null);
+        List<WSSecurityEngineResult> results =
+            secEngine.processSecurityHeader(securityHeader, data);
+        WSSecurityEngineResult actionResult =
+            WSSecurityUtil.fetchActionResult(results, WSConstants.ST_SIGNED);
+        return (SamlAssertionWrapper) actionResult.get(WSSecurityEngineResult.TAG_SAML_ASSERTION);
+    }
+
+}
@@ -0,0 +1,277 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.wss4j.policy.stax;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.neethi.ExactlyOne;
+import org.apache.neethi.PolicyComponent;
+import org.apache.neethi.PolicyContainingAssertion;
+import org.apache.neethi.PolicyOperator;
+import org.apache.neethi.builders.PrimitiveAssertion;
+import org.apache.wss4j.policy.WSSPolicyException;
+import org.apache.wss4j.policy.model.AbstractSecurityAssertion;
+import org.apache.xml.security.stax.securityEvent.SecurityEventConstants;
+
+/**
+ * The precompiled structure of the assertion states of a (normalized) Policy. The template is
+ * built once per Policy and is immutable, so that it can be shared by all the PolicyEnforcers
+ * of a PolicyEnforcerFactory. For each alternative it records the assertions for which
+ * Assertables are created, and, for each SecurityEvent type, the indexes of the Assertables
+ * that must be asserted. A PolicyEnforcer then only has to create the Assertables of a message
+ * (see newAlternatives), and a SecurityEvent is only dispatched to the Assertables that are
+ * registered for its type.
+ */
+final class AssertionStateTemplate {
+
+    private static final int[] NO_ASSERTABLES = new int[0];
+
+    private final Map<SecurityEventConstants.Event, Integer> eventIndexes;
+    private final Alternative[] alternatives;
+
+    private AssertionStateTemplate(
+        Map<SecurityEventConstants.Event, Integer> eventIndexes, Alternative[] alternatives
+    ) {
+        this.eventIndexes = eventIndexes;
+        this.alternatives = alternatives;
+    }
+
+    /**
+     * Compile the given (normalized) Policy. The Assertables are created with
+     * PolicyEnforcer.getAssertableForAssertion, which must return the same number and types
+     * of Assertables every time it is called for an assertion.
+     */
+    static AssertionStateTemplate compile(
+        PolicyComponent policy, PolicyEnforcer policyEnforcer
+    ) throws WSSPolicyException {
+        Map<SecurityEventConstants.Event, Integer> eventIndexes =
+            new HashMap<SecurityEventConstants.Event, Integer>();
+        List<AlternativeBuilder> alternativeBuilders = new ArrayList<AlternativeBuilder>();
+        addPolicyComponent(policy, policyEnforcer, eventIndexes, alternativeBuilders);
+
+        Alternative[] alternatives = new Alternative[alternativeBuilders.size()];
+        for (int i = 0; i < alternatives.length; i++) {
+            alternatives[i] = alternativeBuilders.get(i).build(eventIndexes.size());
+        }
+        return new AssertionStateTemplate(eventIndexes, alternatives);
+    }
+
+    private static void addPolicyComponent(
+        PolicyComponent policyComponent,
+        PolicyEnforcer policyEnforcer,
+        Map<SecurityEventConstants.Event, Integer> eventIndexes,
+        List<AlternativeBuilder> alternativeBuilders
+    ) throws WSSPolicyException {
+        if (policyComponent instanceof PolicyOperator) {
+            PolicyOperator policyOperator = (PolicyOperator) policyComponent;
+            List<PolicyComponent> policyComponents = policyOperator.getPolicyComponents();
+            int alternative = 0;
+            Iterator<PolicyComponent> policyComponentIterator = policyComponents.iterator();
+            while (policyComponentIterator.hasNext()) {
+                PolicyComponent curPolicyComponent = policyComponentIterator.next();
+                if (policyOperator instanceof ExactlyOne) {
+                    alternativeBuilders.add(new AlternativeBuilder());
+                    alternativeBuilders.get(alternative++).add(curPolicyComponent, policyEnforcer, eventIndexes);
+                } else {
+                    addPolicyComponent(curPolicyComponent, policyEnforcer, eventIndexes, alternativeBuilders);
+                }
+            }
+        } else {
+            throw new WSSPolicyException("Invalid PolicyComponent: " + policyComponent + " " + policyComponent.getType());
+        }
+    }
+
+    /**
+     * @return the index of the given SecurityEvent type, or -1 if no Assertable is registered
+     * for it
+     */
+    int getEventIndex(SecurityEventConstants.Event event) {
+        Integer eventIndex = eventIndexes.get(event);
+        return eventIndex == null ? -1 : eventIndex.intValue();
+    }
+
+    /**
+     * Create the per-message state of all the alternatives of the Policy
+     */
+    List<AlternativeState> newAlternatives(PolicyEnforcer policyEnforcer) throws WSSPolicyException {
+        List<AlternativeState> alternativeStates = new LinkedList<AlternativeState>();
+        for (int i = 0; i < alternatives.length; i++) {
+            alternativeStates.add(alternatives[i].newState(policyEnforcer));
+        }
+        return alternativeStates;
+    }
+
+    /**
+     * The immutable structure of a policy alternative
+     */
+    static final class Alternative {
+        // the assertions for which Assertables are created, in policy order...
+        private final AbstractSecurityAssertion[] assertions;
+        // ...and the number of Assertables created for each of them
+        private final int[] assertableCounts;
+        // the assertion of each Assertable
+        private final AbstractSecurityAssertion[] assertableAssertions;
+        // the indexes of the Assertables registered for an event index
+        private final int[][] assertablesByEvent;
+
+        Alternative(
+            AbstractSecurityAssertion[] assertions,
+            int[] assertableCounts,
+            AbstractSecurityAssertion[] assertableAssertions,
+            int[][] assertablesByEvent
+        ) {
+            this.assertions = assertions;
+            this.assertableCounts = assertableCounts;
+            this.assertableAssertions = assertableAssertions;
+            this.assertablesByEvent = assertablesByEvent;
+        }
+
+        AlternativeState newState(PolicyEnforcer policyEnforcer) throws WSSPolicyException {
+            Assertable[] assertables = new Assertable[assertableAssertions.length];
+            int index = 0;
+            for (int i = 0; i < assertions.length; i++) {
+                List<Assertable> assertableList = policyEnforcer.getAssertableForAssertion(assertions[i]);
+                if (assertableList.size() != assertableCounts[i]) {
+                    throw new WSSPolicyException("Assertables of " + assertions[i].getName() + " changed");
+                }
+                Iterator<Assertable> assertableIterator = assertableList.iterator();
+                while (assertableIterator.hasNext()) {
+                    assertables[index++] = assertableIterator.next();
+                }
+            }
+            return new AlternativeState(this, assertables);
+        }
+    }
+
+    /**
+     * The Assertables of a policy alternative for one message
+     */
+    static final class AlternativeState {
+        private final Alternative alternative;
+        private final Assertable[] assertables;
+
+        AlternativeState(Alternative alternative, Assertable[] assertables) {
+            this.alternative = alternative;
+            this.assertables = assertables;
+        }
+
+        /**
+         * @return the indexes of the Assertables registered for the given event index
+         */
+        int[] getAssertableIndexes(int eventIndex) {
+            if (eventIndex < 0) {
+                return NO_ASSERTABLES;
+            }
+            return alternative.assertablesByEvent[eventIndex];
+        }
+
+        int size() {
+            return assertables.length;
+        }
+
+        Assertable getAssertable(int index) {
+            return assertables[index];
+        }
+
+        AbstractSecurityAssertion getAssertion(int index) {
+            return alternative.assertableAssertions[index];
+        }
+    }
+
+    private static final class AlternativeBuilder {
+        private final List<AbstractSecurityAssertion> assertions = new ArrayList<AbstractSecurityAssertion>();
+        private final List<Integer> assertableCounts = new ArrayList<Integer>();
+        private final List<AbstractSecurityAssertion> assertableAssertions = new ArrayList<AbstractSecurityAssertion>();
+        private final Map<Integer, List<Integer>> assertablesByEvent = new HashMap<Integer, List<Integer>>();
+
+        void add(
+            PolicyComponent policyComponent,
+            PolicyEnforcer policyEnforcer,
+            Map<SecurityEventConstants.Event, Integer> eventIndexes
+        ) throws WSSPolicyException {
+            if (policyComponent instanceof PolicyOperator) {
+                PolicyOperator policyOperator = (PolicyOperator) policyComponent;
+                Iterator<PolicyComponent> policyComponentIterator = policyOperator.getPolicyComponents().iterator();
+                while (policyComponentIterator.hasNext()) {
+                    add(policyComponentIterator.next(), policyEnforcer, eventIndexes);
+                }
+            } else if (policyComponent instanceof AbstractSecurityAssertion) {
+                AbstractSecurityAssertion abstractSecurityAssertion = (AbstractSecurityAssertion) policyComponent;
+                List<Assertable> assertableList = policyEnforcer.getAssertableForAssertion(abstractSecurityAssertion);
+                assertions.add(abstractSecurityAssertion);
+                assertableCounts.add(assertableList.size());
+                Iterator<Assertable> assertableIterator = assertableList.iterator();
+                while (assertableIterator.hasNext()) {
+                    Assertable assertable = assertableIterator.next();
+                    Integer assertableIndex = assertableAssertions.size();
+                    assertableAssertions.add(abstractSecurityAssertion);
+                    SecurityEventConstants.Event[] securityEventType = assertable.getSecurityEventType();
+                    for (int j = 0; j < securityEventType.length; j++) {
+                        Integer eventIndex = eventIndexes.get(securityEventType[j]);
+                        if (eventIndex == null) {
+                            eventIndex = eventIndexes.size();
+                            eventIndexes.put(securityEventType[j], eventIndex);
+                        }
+                        List<Integer> assertables = assertablesByEvent.get(eventIndex);
+                        if (assertables == null) {
+                            assertables = new ArrayList<Integer>();
+                            assertablesByEvent.put(eventIndex, assertables);
+                        }
+                        assertables.add(assertableIndex);
+                    }
+                }
+                if (abstractSecurityAssertion instanceof PolicyContainingAssertion) {
+                    add(((PolicyContainingAssertion) abstractSecurityAssertion).getPolicy(), policyEnforcer, eventIndexes);
+                }
+            } else if (!(policyComponent instanceof PrimitiveAssertion)) {
+                throw new WSSPolicyException("Unsupported PolicyComponent: " + policyComponent + " type: " + policyComponent.getType());
+            }
+        }
+
+        Alternative build(int eventCount) {
+            int[] counts = new int[assertableCounts.size()];
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = assertableCounts.get(i);
+            }
+            int[][] byEvent = new int[eventCount][];
+            for (int i = 0; i < eventCount; i++) {
+                List<Integer> assertables = assertablesByEvent.get(i);
+                if (assertables == null) {
+                    byEvent[i] = NO_ASSERTABLES;
+                } else {
+                    byEvent[i] = new int[assertables.size()];
+                    for (int j = 0; j < byEvent[i].length; j++) {
+                        byEvent[i][j] = assertables.get(j);
+                    }
+                }
+            }
+            return new Alternative(
+                assertions.toArray(new AbstractSecurityAssertion[assertions.size()]),
+                counts,
+                assertableAssertions.toArray(new AbstractSecurityAssertion[assertableAssertions.size()]),
+                byEvent
+            );
+        }
+    }
+}
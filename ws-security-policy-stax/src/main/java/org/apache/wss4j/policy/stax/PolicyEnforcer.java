@@ -20,21 +20,15 @@ package org.apache.wss4j.policy.stax;
 
 import java.util.Deque;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 
 import javax.xml.namespace.QName;
 
-import org.apache.neethi.Assertion;
-import org.apache.neethi.ExactlyOne;
 import org.apache.neethi.Policy;
-import org.apache.neethi.PolicyComponent;
-import org.apache.neethi.PolicyContainingAssertion;
-import org.apache.neethi.PolicyOperator;
-import org.apache.neethi.builders.PrimitiveAssertion;
 import org.apache.wss4j.common.ext.WSSecurityException;
 import org.apache.wss4j.policy.SPConstants;
 import org.apache.wss4j.policy.WSSPolicyException;
@@ -63,6 +57,7 @@ import org.apache.wss4j.policy.model.SpnegoContextToken;
 import org.apache.wss4j.policy.model.SupportingTokens;
 import org.apache.wss4j.policy.model.UsernameToken;
 import org.apache.wss4j.policy.model.X509Token;
+import org.apache.wss4j.policy.model.XPath;
 import org.apache.wss4j.policy.stax.assertionStates.AlgorithmSuiteAssertionState;
 import org.apache.wss4j.policy.stax.assertionStates.ContentEncryptedElementsAssertionState;
 import org.apache.wss4j.policy.stax.assertionStates.EncryptedElementsAssertionState;
@@ -93,7 +88,6 @@ import org.apache.wss4j.stax.securityEvent.OperationSecurityEvent;
 import org.apache.wss4j.stax.securityEvent.WSSecurityEventConstants;
 import org.apache.xml.security.exceptions.XMLSecurityException;
 import org.apache.xml.security.stax.securityEvent.SecurityEvent;
-import org.apache.xml.security.stax.securityEvent.SecurityEventConstants;
 import org.apache.xml.security.stax.securityEvent.SecurityEventListener;
 
 /**
@@ -117,25 +111,51 @@ public class PolicyEnforcer implements SecurityEventListener {
 
     private final List<OperationPolicy> operationPolicies;
     private OperationPolicy effectivePolicy;
-    private final List<Map<SecurityEventConstants.Event, Map<Assertion, List<Assertable>>>> assertionStateMap;
-    private final List<Map<SecurityEventConstants.Event, Map<Assertion, List<Assertable>>>> failedAssertionStateMap;
+    private AssertionStateTemplate assertionStateTemplate;
+    private List<AssertionStateTemplate.AlternativeState> alternatives;
+    private final List<AssertionStateTemplate.AlternativeState> failedAlternatives;
 
     private final Deque<SecurityEvent> securityEventQueue = new LinkedList<SecurityEvent>();
     private boolean operationSecurityEventOccured = false;
     private boolean initiator;
+    private final Map<XPath, StreamingXPath> compiledXPaths;
+    private final Map<Policy, AssertionStateTemplate> assertionStateTemplates;
 
     public PolicyEnforcer(List<OperationPolicy> operationPolicies, String soapAction, boolean initiator) throws WSSPolicyException {
+        this(operationPolicies, soapAction, initiator, new HashMap<XPath, StreamingXPath>());
+    }
+
+    /**
+     * @param compiledXPaths the (thread-safe) cache of the compiled XPaths of the given
+     *        operationPolicies, shared by all the PolicyEnforcers of these policies
+     */
+    public PolicyEnforcer(List<OperationPolicy> operationPolicies, String soapAction, boolean initiator,
+                          Map<XPath, StreamingXPath> compiledXPaths) throws WSSPolicyException {
+        this(operationPolicies, soapAction, initiator, compiledXPaths,
+                new IdentityHashMap<Policy, AssertionStateTemplate>());
+    }
+
+    /**
+     * @param assertionStateTemplates the (thread-safe) cache of the compiled assertion states
+     *        of the given operationPolicies, keyed by the identity of the Policy, and shared by
+     *        all the PolicyEnforcers of these policies with the same initiator flag
+     */
+    PolicyEnforcer(List<OperationPolicy> operationPolicies, String soapAction, boolean initiator,
+                   Map<XPath, StreamingXPath> compiledXPaths,
+                   Map<Policy, AssertionStateTemplate> assertionStateTemplates) throws WSSPolicyException {
         this.operationPolicies = operationPolicies;
-        assertionStateMap = new LinkedList<Map<SecurityEventConstants.Event, Map<Assertion, List<Assertable>>>>();
-        failedAssertionStateMap = new LinkedList<Map<SecurityEventConstants.Event, Map<Assertion, List<Assertable>>>>();
+        this.compiledXPaths = compiledXPaths;
+        this.assertionStateTemplates = assertionStateTemplates;
+        this.initiator = initiator;
+        alternatives = new LinkedList<AssertionStateTemplate.AlternativeState>();
+        failedAlternatives = new LinkedList<AssertionStateTemplate.AlternativeState>();
 
         if (soapAction != null && !soapAction.isEmpty()) {
             effectivePolicy = findPolicyBySOAPAction(operationPolicies, soapAction);
             if (effectivePolicy != null) {
-                buildAssertionStateMap(effectivePolicy.getPolicy(), assertionStateMap);
+                buildAssertionStates(effectivePolicy.getPolicy(), true);
             }
         }
-        this.initiator = initiator;
     }
 
     private OperationPolicy findPolicyBySOAPAction(List<OperationPolicy> operationPolicies, String soapAction) {
@@ -161,74 +181,22 @@ public class PolicyEnforcer implements SecurityEventListener {
     }
 
     /**
+     * Create the assertion states of the given Policy from its (cached) template.
      * Precondition: Policy _must_ be normalized!
+     *
+     * @param cacheable whether the template of the Policy can be cached, i.e. whether the
+     *        Policy is one of the operationPolicies
      */
-    private void buildAssertionStateMap(
-            PolicyComponent policyComponent,
-            List<Map<SecurityEventConstants.Event, Map<Assertion, List<Assertable>>>> assertionStateMap) throws WSSPolicyException {
-        if (policyComponent instanceof PolicyOperator) {
-            PolicyOperator policyOperator = (PolicyOperator) policyComponent;
-            List<PolicyComponent> policyComponents = policyOperator.getPolicyComponents();
-            int alternative = 0;
-            Iterator<PolicyComponent> policyComponentIterator = policyComponents.iterator();
-            while (policyComponentIterator.hasNext()) {
-                PolicyComponent curPolicyComponent = policyComponentIterator.next();
-                if (policyOperator instanceof ExactlyOne) {
-                    assertionStateMap.add(new HashMap<SecurityEventConstants.Event, Map<Assertion, List<Assertable>>>());
-                    buildAssertionStateMap(curPolicyComponent, assertionStateMap, alternative++);
-                } else {
-                    buildAssertionStateMap(curPolicyComponent, assertionStateMap);
-                }
-            }
-        } else {
-            throw new WSSPolicyException("Invalid PolicyComponent: " + policyComponent + " " + policyComponent.getType());
-        }
-    }
-
-    private void buildAssertionStateMap(
-            PolicyComponent policyComponent,
-            List<Map<SecurityEventConstants.Event, Map<Assertion, List<Assertable>>>> assertionStateMap, int alternative) throws WSSPolicyException {
-        if (policyComponent instanceof PolicyOperator) {
-            PolicyOperator policyOperator = (PolicyOperator) policyComponent;
-            List<PolicyComponent> policyComponents = policyOperator.getPolicyComponents();
-            Iterator<PolicyComponent> policyComponentIterator = policyComponents.iterator();
-            while (policyComponentIterator.hasNext()) {
-                PolicyComponent curPolicyComponent = policyComponentIterator.next();
-                buildAssertionStateMap(curPolicyComponent, assertionStateMap, alternative);
-            }
-        } else if (policyComponent instanceof AbstractSecurityAssertion) {
-            AbstractSecurityAssertion abstractSecurityAssertion = (AbstractSecurityAssertion) policyComponent;
-            List<Assertable> assertablesList = getAssertableForAssertion(abstractSecurityAssertion);
-            Iterator<Assertable> assertableIterator = assertablesList.iterator();
-            while (assertableIterator.hasNext()) {
-                Assertable assertable = assertableIterator.next();
-                final Map<SecurityEventConstants.Event, Map<Assertion, List<Assertable>>> map = assertionStateMap.get(alternative);
-                final SecurityEventConstants.Event[] securityEventType = assertable.getSecurityEventType();
-                for (int j = 0; j < securityEventType.length; j++) {
-                    SecurityEventConstants.Event event = securityEventType[j];
-                    Map<Assertion, List<Assertable>> assertables = map.get(event);
-                    if (assertables == null) {
-                        assertables = new HashMap<Assertion, List<Assertable>>();
-                        map.put(event, assertables);
-                    }
-                    addAssertionState(assertables, abstractSecurityAssertion, assertable);
-                }
-            }
-            if (abstractSecurityAssertion instanceof PolicyContainingAssertion) {
-                buildAssertionStateMap(((PolicyContainingAssertion) abstractSecurityAssertion).getPolicy(), assertionStateMap, alternative);
+    private void buildAssertionStates(Policy policy, boolean cacheable) throws WSSPolicyException {
+        AssertionStateTemplate template = cacheable ? assertionStateTemplates.get(policy) : null;
+        if (template == null) {
+            template = AssertionStateTemplate.compile(policy, this);
+            if (cacheable) {
+                assertionStateTemplates.put(policy, template);
             }
-        } else if (!(policyComponent instanceof PrimitiveAssertion)) {
-            throw new WSSPolicyException("Unsupported PolicyComponent: " + policyComponent + " type: " + policyComponent.getType());
         }
-    }
-
-    private void addAssertionState(Map<Assertion, List<Assertable>> assertables, Assertion keyAssertion, Assertable assertable) {
-        List<Assertable> assertableList = assertables.get(keyAssertion);
-        if (assertableList == null) {
-            assertableList = new LinkedList<Assertable>();
-            assertables.put(keyAssertion, assertableList);
-        }
-        assertableList.add(assertable);
+        assertionStateTemplate = template;
+        alternatives = template.newAlternatives(this);
     }
 
     protected List<Assertable> getAssertableForAssertion(AbstractSecurityAssertion abstractSecurityAssertion) throws WSSPolicyException {
@@ -249,22 +217,22 @@ public class PolicyEnforcer implements SecurityEventListener {
         if (abstractSecurityAssertion instanceof ContentEncryptedElements) {
             //initialized with asserted=true because it could be that parent elements are encrypted and therefore these element are also encrypted
             //the test if it is really encrypted is done via the PolicyInputProcessor which emits EncryptedElementEvents for unencrypted elements with the unencrypted flag
-            assertableList.add(new ContentEncryptedElementsAssertionState(abstractSecurityAssertion, true));
+            assertableList.add(new ContentEncryptedElementsAssertionState(abstractSecurityAssertion, true, compiledXPaths));
         } else if (abstractSecurityAssertion instanceof EncryptedParts) {
             //initialized with asserted=true with the same reason as by the EncryptedParts above
             assertableList.add(new EncryptedPartsAssertionState(abstractSecurityAssertion, true));
         } else if (abstractSecurityAssertion instanceof EncryptedElements) {
             //initialized with asserted=true with the same reason as by the EncryptedParts above
-            assertableList.add(new EncryptedElementsAssertionState(abstractSecurityAssertion, true));
+            assertableList.add(new EncryptedElementsAssertionState(abstractSecurityAssertion, true, compiledXPaths));
         } else if (abstractSecurityAssertion instanceof SignedParts) {
             //initialized with asserted=true because it could be that parent elements are signed and therefore these element are also signed
             //the test if it is really signed is done via the PolicyInputProcessor which emits SignedElementEvents for unsigned elements with the unsigned flag
             assertableList.add(new SignedPartsAssertionState(abstractSecurityAssertion, true));
         } else if (abstractSecurityAssertion instanceof SignedElements) {
             //initialized with asserted=true with the same reason as by the SignedParts above
-            assertableList.add(new SignedElementsAssertionState(abstractSecurityAssertion, true));
+            assertableList.add(new SignedElementsAssertionState(abstractSecurityAssertion, true, compiledXPaths));
         } else if (abstractSecurityAssertion instanceof RequiredElements) {
-            assertableList.add(new RequiredElementsAssertionState(abstractSecurityAssertion, false));
+            assertableList.add(new RequiredElementsAssertionState(abstractSecurityAssertion, false, compiledXPaths));
         } else if (abstractSecurityAssertion instanceof RequiredParts) {
             assertableList.add(new RequiredPartsAssertionState(abstractSecurityAssertion, false));
         } else if (abstractSecurityAssertion instanceof UsernameToken) {
@@ -321,7 +289,7 @@ public class PolicyEnforcer implements SecurityEventListener {
                 requiredElementsAssertionState.addElement(timestampElementPath);
                 assertableList.add(requiredElementsAssertionState);
 
-                SignedElementsAssertionState signedElementsAssertionState = new SignedElementsAssertionState(abstractSecurityAssertion, true);
+                SignedElementsAssertionState signedElementsAssertionState = new SignedElementsAssertionState(abstractSecurityAssertion, true, compiledXPaths);
                 signedElementsAssertionState.addElement(timestampElementPath);
                 assertableList.add(signedElementsAssertionState);
             }
@@ -337,28 +305,22 @@ public class PolicyEnforcer implements SecurityEventListener {
      * @throws WSSPolicyException
      */
     private void verifyPolicy(SecurityEvent securityEvent) throws WSSPolicyException, XMLSecurityException {
+        final int eventIndex = assertionStateTemplate == null
+                ? -1 : assertionStateTemplate.getEventIndex(securityEvent.getSecurityEventType());
         {
             //We have to check the failed assertions for logging purposes firstly...
-            Iterator<Map<SecurityEventConstants.Event, Map<Assertion, List<Assertable>>>> assertionStateMapIterator = this.failedAssertionStateMap.iterator();
+            Iterator<AssertionStateTemplate.AlternativeState> alternativeIterator = this.failedAlternatives.iterator();
             alternative:
-            while (assertionStateMapIterator.hasNext()) {
-                Map<SecurityEventConstants.Event, Map<Assertion, List<Assertable>>> map = assertionStateMapIterator.next();
+            while (alternativeIterator.hasNext()) {
+                AssertionStateTemplate.AlternativeState alternativeState = alternativeIterator.next();
                 //every list entry counts as an alternative...
-                Map<Assertion, List<Assertable>> assertionListMap = map.get(securityEvent.getSecurityEventType());
-                if (assertionListMap != null && assertionListMap.size() > 0) {
-                    Iterator<Map.Entry<Assertion, List<Assertable>>> assertionStateIterator = assertionListMap.entrySet().iterator();
-                    while (assertionStateIterator.hasNext()) {
-                        Map.Entry<Assertion, List<Assertable>> assertionStateEntry = assertionStateIterator.next();
-                        List<Assertable> assertionStates = assertionStateEntry.getValue();
-                        Iterator<Assertable> assertableIterator = assertionStates.iterator();
-                        while (assertableIterator.hasNext()) {
-                            Assertable assertable = assertableIterator.next();
-                            boolean asserted = assertable.assertEvent(securityEvent);
-                            //...so if one fails, continue with the next map entry and increment the notAssertedCount
-                            if (!asserted) {
-                                continue alternative;
-                            }
-                        }
+                int[] assertableIndexes = alternativeState.getAssertableIndexes(eventIndex);
+                for (int i = 0; i < assertableIndexes.length; i++) {
+                    Assertable assertable = alternativeState.getAssertable(assertableIndexes[i]);
+                    boolean asserted = assertable.assertEvent(securityEvent);
+                    //...so if one fails, continue with the next alternative
+                    if (!asserted) {
+                        continue alternative;
                     }
                 }
             }
@@ -367,36 +329,28 @@ public class PolicyEnforcer implements SecurityEventListener {
         String assertionMessage = null;
         {
             //...and then check the remaining alternatives
-            Iterator<Map<SecurityEventConstants.Event, Map<Assertion, List<Assertable>>>> assertionStateMapIterator = this.assertionStateMap.iterator();
-            //every map entry counts as an alternative...
+            Iterator<AssertionStateTemplate.AlternativeState> alternativeIterator = this.alternatives.iterator();
+            //every list entry counts as an alternative...
             alternative:
-            while (assertionStateMapIterator.hasNext()) {
-                Map<SecurityEventConstants.Event, Map<Assertion, List<Assertable>>> map = assertionStateMapIterator.next();
-                Map<Assertion, List<Assertable>> assertionListMap = map.get(securityEvent.getSecurityEventType());
-                if (assertionListMap != null && assertionListMap.size() > 0) {
-                    Iterator<Map.Entry<Assertion, List<Assertable>>> assertionStateIterator = assertionListMap.entrySet().iterator();
-                    while (assertionStateIterator.hasNext()) {
-                        Map.Entry<Assertion, List<Assertable>> assertionStateEntry = assertionStateIterator.next();
-                        List<Assertable> assertionStates = assertionStateEntry.getValue();
-                        Iterator<Assertable> assertableIterator = assertionStates.iterator();
-                        while (assertableIterator.hasNext()) {
-                            Assertable assertable = assertableIterator.next();
-                            boolean asserted = assertable.assertEvent(securityEvent);
-                            //...so if one fails, continue with the next map entry and increment the notAssertedCount
-                            if (!asserted) {
-                                assertionMessage = assertable.getErrorMessage();
-                                failedAssertionStateMap.add(map);
-                                assertionStateMapIterator.remove();
-                                continue alternative;
-                            }
-                        }
+            while (alternativeIterator.hasNext()) {
+                AssertionStateTemplate.AlternativeState alternativeState = alternativeIterator.next();
+                int[] assertableIndexes = alternativeState.getAssertableIndexes(eventIndex);
+                for (int i = 0; i < assertableIndexes.length; i++) {
+                    Assertable assertable = alternativeState.getAssertable(assertableIndexes[i]);
+                    boolean asserted = assertable.assertEvent(securityEvent);
+                    //...so if one fails, continue with the next alternative
+                    if (!asserted) {
+                        assertionMessage = assertable.getErrorMessage();
+                        failedAlternatives.add(alternativeState);
+                        alternativeIterator.remove();
+                        continue alternative;
                     }
                 }
             }
         }
-        //if the assertionStateMap is empty (the size of the list is equal to the alternatives)
+        //if the alternatives list is empty
         //then we could not satisfy any alternative
-        if (assertionStateMap.isEmpty()) {
+        if (alternatives.isEmpty()) {
             logFailedAssertions();
             throw new PolicyViolationException(assertionMessage);
         }
@@ -410,31 +364,21 @@ public class PolicyEnforcer implements SecurityEventListener {
      */
     private void verifyPolicy() throws WSSPolicyException {
         String assertionMessage = null;
-        Iterator<Map<SecurityEventConstants.Event, Map<Assertion, List<Assertable>>>> assertionStateMapIterator = this.assertionStateMap.iterator();
+        Iterator<AssertionStateTemplate.AlternativeState> alternativeIterator = this.alternatives.iterator();
         alternative:
-        while (assertionStateMapIterator.hasNext()) {
-            Map<SecurityEventConstants.Event, Map<Assertion, List<Assertable>>> map = assertionStateMapIterator.next();
-            Iterator<Map.Entry<SecurityEventConstants.Event, Map<Assertion, List<Assertable>>>> iterator = map.entrySet().iterator();
-            while (iterator.hasNext()) {
-                Map.Entry<SecurityEventConstants.Event, Map<Assertion, List<Assertable>>> mapEntry = iterator.next();
-                Iterator<Map.Entry<Assertion, List<Assertable>>> assertionStateIterator = mapEntry.getValue().entrySet().iterator();
-                while (assertionStateIterator.hasNext()) {
-                    Map.Entry<Assertion, List<Assertable>> assertionListEntry = assertionStateIterator.next();
-                    List<Assertable> assertableList = assertionListEntry.getValue();
-                    Iterator<Assertable> assertableIterator = assertableList.iterator();
-                    while (assertableIterator.hasNext()) {
-                        Assertable assertable = assertableIterator.next();
-                        if (!assertable.isAsserted()) {
-                            assertionMessage = assertable.getErrorMessage();
-                            failedAssertionStateMap.add(map);
-                            assertionStateMapIterator.remove();
-                            continue alternative;
-                        }
-                    }
+        while (alternativeIterator.hasNext()) {
+            AssertionStateTemplate.AlternativeState alternativeState = alternativeIterator.next();
+            for (int i = 0; i < alternativeState.size(); i++) {
+                Assertable assertable = alternativeState.getAssertable(i);
+                if (!assertable.isAsserted()) {
+                    assertionMessage = assertable.getErrorMessage();
+                    failedAlternatives.add(alternativeState);
+                    alternativeIterator.remove();
+                    continue alternative;
                 }
             }
         }
-        if (assertionStateMap.isEmpty()) {
+        if (alternatives.isEmpty()) {
             logFailedAssertions();
             throw new WSSPolicyException(assertionMessage);
         }
@@ -449,70 +393,48 @@ public class PolicyEnforcer implements SecurityEventListener {
      */
     private void verifyPolicyAfterOperationSecurityEvent() throws WSSPolicyException {
         String assertionMessage = null;
-        Iterator<Map<SecurityEventConstants.Event, Map<Assertion, List<Assertable>>>> assertionStateMapIterator = this.assertionStateMap.iterator();
+        Iterator<AssertionStateTemplate.AlternativeState> alternativeIterator = this.alternatives.iterator();
         alternative:
-        while (assertionStateMapIterator.hasNext()) {
-            Map<SecurityEventConstants.Event, Map<Assertion, List<Assertable>>> map = assertionStateMapIterator.next();
-            Iterator<Map.Entry<SecurityEventConstants.Event, Map<Assertion, List<Assertable>>>> iterator = map.entrySet().iterator();
-            while (iterator.hasNext()) {
-                Map.Entry<SecurityEventConstants.Event, Map<Assertion, List<Assertable>>> mapEntry = iterator.next();
-                Iterator<Map.Entry<Assertion, List<Assertable>>> assertionStateIterator = mapEntry.getValue().entrySet().iterator();
-                while (assertionStateIterator.hasNext()) {
-                    Map.Entry<Assertion, List<Assertable>> assertionListEntry = assertionStateIterator.next();
-                    List<Assertable> assertableList = assertionListEntry.getValue();
-                    Iterator<Assertable> assertableIterator = assertableList.iterator();
-                    while (assertableIterator.hasNext()) {
-                        Assertable assertable = assertableIterator.next();
-
-                        boolean doAssert = false;
-                        if (assertable instanceof TokenAssertionState) {
-                            TokenAssertionState tokenAssertionState = (TokenAssertionState) assertable;
-                            AbstractToken abstractToken = (AbstractToken) tokenAssertionState.getAssertion();
-                            AbstractSecurityAssertion assertion = abstractToken.getParentAssertion();
-                            if (assertion instanceof SupportingTokens) {
-                                doAssert = true;
-                            }
-                        } else if (assertable instanceof TokenProtectionAssertionState) {
-                            doAssert = true;
-                        }
-
-                        if (doAssert && !assertable.isAsserted()) {
-                            assertionMessage = assertable.getErrorMessage();
-                            failedAssertionStateMap.add(map);
-                            assertionStateMapIterator.remove();
-                            continue alternative;
-                        }
+        while (alternativeIterator.hasNext()) {
+            AssertionStateTemplate.AlternativeState alternativeState = alternativeIterator.next();
+            for (int i = 0; i < alternativeState.size(); i++) {
+                Assertable assertable = alternativeState.getAssertable(i);
+
+                boolean doAssert = false;
+                if (assertable instanceof TokenAssertionState) {
+                    TokenAssertionState tokenAssertionState = (TokenAssertionState) assertable;
+                    AbstractToken abstractToken = (AbstractToken) tokenAssertionState.getAssertion();
+                    AbstractSecurityAssertion assertion = abstractToken.getParentAssertion();
+                    if (assertion instanceof SupportingTokens) {
+                        doAssert = true;
                     }
+                } else if (assertable instanceof TokenProtectionAssertionState) {
+                    doAssert = true;
+                }
+
+                if (doAssert && !assertable.isAsserted()) {
+                    assertionMessage = assertable.getErrorMessage();
+                    failedAlternatives.add(alternativeState);
+                    alternativeIterator.remove();
+                    continue alternative;
                 }
             }
         }
-        if (assertionStateMap.isEmpty()) {
+        if (alternatives.isEmpty()) {
             logFailedAssertions();
             throw new WSSPolicyException(assertionMessage);
         }
     }
 
     private void logFailedAssertions() {
-        Iterator<Map<SecurityEventConstants.Event, Map<Assertion, List<Assertable>>>> assertionStateMapIterator = this.failedAssertionStateMap.iterator();
-        while (assertionStateMapIterator.hasNext()) {
-            Map<SecurityEventConstants.Event, Map<Assertion, List<Assertable>>> map = assertionStateMapIterator.next();
-            Set<Map.Entry<SecurityEventConstants.Event, Map<Assertion, List<Assertable>>>> entrySet = map.entrySet();
-            Iterator<Map.Entry<SecurityEventConstants.Event, Map<Assertion, List<Assertable>>>> entryIterator = entrySet.iterator();
-            while (entryIterator.hasNext()) {
-                Map.Entry<SecurityEventConstants.Event, Map<Assertion, List<Assertable>>> eventCollectionEntry = entryIterator.next();
-                Map<Assertion, List<Assertable>> assertionListMap = eventCollectionEntry.getValue();
-                Iterator<Map.Entry<Assertion, List<Assertable>>> assertionStateEntryIterator = assertionListMap.entrySet().iterator();
-                while (assertionStateEntryIterator.hasNext()) {
-                    Map.Entry<Assertion, List<Assertable>> entry = assertionStateEntryIterator.next();
-                    List<Assertable> assertionStates = entry.getValue();
-                    Iterator<Assertable> assertableIterator = assertionStates.iterator();
-                    while (assertableIterator.hasNext()) {
-                        Assertable assertable = assertableIterator.next();
-                        if (!assertable.isAsserted() && !assertable.isLogged()) {
-                            log.error(entry.getKey().getName() + " not satisfied: " + assertable.getErrorMessage());
-                            assertable.setLogged(true);
-                        }
-                    }
+        Iterator<AssertionStateTemplate.AlternativeState> alternativeIterator = this.failedAlternatives.iterator();
+        while (alternativeIterator.hasNext()) {
+            AssertionStateTemplate.AlternativeState alternativeState = alternativeIterator.next();
+            for (int i = 0; i < alternativeState.size(); i++) {
+                Assertable assertable = alternativeState.getAssertable(i);
+                if (!assertable.isAsserted() && !assertable.isLogged()) {
+                    log.error(alternativeState.getAssertion(i).getName() + " not satisfied: " + assertable.getErrorMessage());
+                    assertable.setLogged(true);
                 }
             }
         }
@@ -542,13 +464,15 @@ public class PolicyEnforcer implements SecurityEventListener {
                 }
             } else {
                 effectivePolicy = findPolicyBySOAPOperationName(operationPolicies, operationSecurityEvent.getOperation().getLocalPart());
+                boolean cacheable = true;
                 if (effectivePolicy == null) {
                     //no policy to the operation given
                     effectivePolicy = new OperationPolicy("NoPolicyFoundForOperation");
                     effectivePolicy.setPolicy(new Policy());
+                    cacheable = false;
                 }
                 try {
-                    buildAssertionStateMap(effectivePolicy.getPolicy(), assertionStateMap);
+                    buildAssertionStates(effectivePolicy.getPolicy(), cacheable);
                 } catch (WSSPolicyException e) {
                     throw new WSSecurityException(WSSecurityException.ErrorCode.INVALID_SECURITY, e);
                 }
@@ -20,10 +20,13 @@ package org.apache.wss4j.policy.stax;
 
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.wsdl.Binding;
 import javax.wsdl.BindingOperation;
@@ -86,6 +89,7 @@ import org.apache.wss4j.policy.builders.UsernameTokenBuilder;
 import org.apache.wss4j.policy.builders.WSS10Builder;
 import org.apache.wss4j.policy.builders.WSS11Builder;
 import org.apache.wss4j.policy.builders.X509TokenBuilder;
+import org.apache.wss4j.policy.model.XPath;
 import org.apache.wss4j.stax.ext.WSSConstants;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
@@ -105,9 +109,17 @@ public class PolicyEnforcerFactory {
     private Definition wsdlDefinition;
     private List<OperationPolicy> operationPolicies;
     private final Map<Element, Policy> elementPolicyCache;
+    private final Map<XPath, StreamingXPath> compiledXPaths;
+    private final Map<Policy, AssertionStateTemplate> initiatorAssertionStateTemplates;
+    private final Map<Policy, AssertionStateTemplate> recipientAssertionStateTemplates;
 
     private PolicyEnforcerFactory(List<AssertionBuilder<Element>> customAssertionBuilders) {
         elementPolicyCache = new HashMap<Element, Policy>();
+        compiledXPaths = new ConcurrentHashMap<XPath, StreamingXPath>();
+        initiatorAssertionStateTemplates =
+            Collections.synchronizedMap(new IdentityHashMap<Policy, AssertionStateTemplate>());
+        recipientAssertionStateTemplates =
+            Collections.synchronizedMap(new IdentityHashMap<Policy, AssertionStateTemplate>());
 
         assertionBuilders = new ArrayList<AssertionBuilder<Element>>();
         assertionBuilders.add(new AlgorithmSuiteBuilder());
@@ -417,6 +429,7 @@ public class PolicyEnforcerFactory {
     }
 
     public PolicyEnforcer newPolicyEnforcer(String soapAction, boolean initiator) throws WSSPolicyException {
-        return new PolicyEnforcer(this.operationPolicies, soapAction, initiator);
+        return new PolicyEnforcer(this.operationPolicies, soapAction, initiator, compiledXPaths,
+            initiator ? initiatorAssertionStateTemplates : recipientAssertionStateTemplates);
     }
 }
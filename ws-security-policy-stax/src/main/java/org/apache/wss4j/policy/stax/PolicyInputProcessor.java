@@ -87,11 +87,13 @@ public class PolicyInputProcessor extends AbstractInputProcessor {
                 policyEnforcer.registerSecurityEvent(requiredPartSecurityEvent);
                 RequiredElementSecurityEvent requiredElementSecurityEvent = new RequiredElementSecurityEvent();
                 requiredElementSecurityEvent.setElementPath(elementPath);
+                requiredElementSecurityEvent.setXmlSecEvent(xmlSecStartElement);
                 policyEnforcer.registerSecurityEvent(requiredElementSecurityEvent);
             } else if (documentLevel > 3) {
                 //test for required elements
                 RequiredElementSecurityEvent requiredElementSecurityEvent = new RequiredElementSecurityEvent();
                 requiredElementSecurityEvent.setElementPath(elementPath);
+                requiredElementSecurityEvent.setXmlSecEvent(xmlSecStartElement);
                 policyEnforcer.registerSecurityEvent(requiredElementSecurityEvent);
             }
         }
@@ -112,6 +114,7 @@ public class PolicyInputProcessor extends AbstractInputProcessor {
                     RequiredElementSecurityEvent requiredElementSecurityEvent = new RequiredElementSecurityEvent();
                     elementPath = xmlSecStartElement.getElementPath();
                     requiredElementSecurityEvent.setElementPath(elementPath);
+                    requiredElementSecurityEvent.setXmlSecEvent(xmlSecStartElement);
                     policyEnforcer.registerSecurityEvent(requiredElementSecurityEvent);
                 }
                 break;
@@ -170,6 +173,7 @@ public class PolicyInputProcessor extends AbstractInputProcessor {
             } else if (documentLevel > 3) {
                 SignedElementSecurityEvent signedElementSecurityEvent = new SignedElementSecurityEvent(null, false, null);
                 signedElementSecurityEvent.setElementPath(elementPath);
+                signedElementSecurityEvent.setXmlSecEvent(xmlSecEvent);
                 policyEnforcer.registerSecurityEvent(signedElementSecurityEvent);
             }
         }
@@ -197,12 +201,14 @@ public class PolicyInputProcessor extends AbstractInputProcessor {
                     EncryptedElementSecurityEvent encryptedElementSecurityEvent
                             = new EncryptedElementSecurityEvent(null, false, null);
                     encryptedElementSecurityEvent.setElementPath(elementPath);
+                    encryptedElementSecurityEvent.setXmlSecEvent(xmlSecEvent);
                     policyEnforcer.registerSecurityEvent(encryptedElementSecurityEvent);
 
                     //... or it could be a contentEncryption too...
                     ContentEncryptedElementSecurityEvent contentEncryptedElementSecurityEvent
                             = new ContentEncryptedElementSecurityEvent(null, false, null);
                     contentEncryptedElementSecurityEvent.setElementPath(xmlSecEvent.getParentXMLSecStartElement().getElementPath());
+                    contentEncryptedElementSecurityEvent.setXmlSecEvent(xmlSecEvent.getParentXMLSecStartElement());
                     policyEnforcer.registerSecurityEvent(contentEncryptedElementSecurityEvent);
                 }
                 break;
@@ -213,6 +219,7 @@ public class PolicyInputProcessor extends AbstractInputProcessor {
                 ContentEncryptedElementSecurityEvent contentEncryptedElementSecurityEvent
                         = new ContentEncryptedElementSecurityEvent(null, false, null);
                 contentEncryptedElementSecurityEvent.setElementPath(xmlSecEvent.getElementPath());
+                contentEncryptedElementSecurityEvent.setXmlSecEvent(xmlSecEvent.getParentXMLSecStartElement());
                 policyEnforcer.registerSecurityEvent(contentEncryptedElementSecurityEvent);
                 break;
         }
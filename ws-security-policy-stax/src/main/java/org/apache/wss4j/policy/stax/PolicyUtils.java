@@ -18,11 +18,16 @@
  */
 package org.apache.wss4j.policy.stax;
 
+import org.apache.wss4j.policy.WSSPolicyException;
 import org.apache.wss4j.policy.model.XPath;
+import org.apache.xml.security.stax.ext.stax.XMLSecEvent;
+import org.apache.xml.security.stax.ext.stax.XMLSecStartElement;
 
 import javax.xml.namespace.QName;
+import javax.xml.stream.XMLStreamConstants;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 
 public class PolicyUtils {
 
@@ -47,4 +52,39 @@ public class PolicyUtils {
         }
         return elements;
     }
+
+    /**
+     * Get the compiled StreamingXPath of the given XPath. The XPath is compiled only once for
+     * a given cache, as XPath instances are shared by all the PolicyEnforcers of a
+     * PolicyEnforcerFactory.
+     * @throws WSSPolicyException if the XPath is not supported by the streaming XPath engine
+     */
+    public static StreamingXPath getStreamingXPath(XPath xPath, Map<XPath, StreamingXPath> compiledXPaths)
+            throws WSSPolicyException {
+        StreamingXPath streamingXPath = compiledXPaths.get(xPath);
+        if (streamingXPath == null) {
+            try {
+                streamingXPath = StreamingXPath.compile(xPath);
+            } catch (IllegalArgumentException e) {
+                throw new WSSPolicyException(e.getMessage(), e);
+            }
+            compiledXPaths.put(xPath, streamingXPath);
+        }
+        return streamingXPath;
+    }
+
+    /**
+     * Get the start element against which the predicates of a StreamingXPath are evaluated
+     * for the given event, i.e. the event itself if it is a start element, and otherwise
+     * the start element of its parent.
+     */
+    public static XMLSecStartElement getXMLSecStartElement(XMLSecEvent xmlSecEvent) {
+        if (xmlSecEvent == null) {
+            return null;
+        }
+        if (xmlSecEvent.getEventType() == XMLStreamConstants.START_ELEMENT) {
+            return xmlSecEvent.asStartElement();
+        }
+        return xmlSecEvent.getParentXMLSecStartElement();
+    }
 }
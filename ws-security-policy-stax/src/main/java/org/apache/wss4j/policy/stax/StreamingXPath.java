@@ -0,0 +1,586 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.wss4j.policy.stax;
+
+import org.apache.wss4j.policy.model.XPath;
+import org.apache.wss4j.stax.ext.WSSConstants;
+import org.apache.xml.security.stax.ext.stax.XMLSecStartElement;
+
+import javax.xml.XMLConstants;
+import javax.xml.namespace.QName;
+import javax.xml.stream.events.Attribute;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compiled subset of XPath 1.0 that can be evaluated against the element path of a streamed
+ * element, i.e. without a DOM tree. The supported subset consists of location paths built from:
+ * <ul>
+ * <li>the child ("/" or "child::") and descendant ("//", "descendant::" or
+ * "descendant-or-self::node()/") axes</li>
+ * <li>the name tests "prefix:name", "name", "prefix:*" and "*"</li>
+ * <li>predicates combining "@attr", "local-name()", "namespace-uri()", "name()" and string
+ * literals with "=", "!=", "and", "or", "not()" and parentheses</li>
+ * </ul>
+ * Positional predicates, other axes and functions can't be evaluated on a stream and are
+ * rejected with an IllegalArgumentException. A relative location path is evaluated from the
+ * document root, like an absolute one. As everywhere in the policy engine, the SOAP 1.1 and
+ * SOAP 1.2 namespaces are interchangeable.
+ *
+ * The expression is evaluated as a state machine that consumes the element path one element at
+ * a time from the document root, so that no intermediate node sets are built. Predicates are
+ * evaluated against the XMLSecStartElement of the corresponding path element.
+ *
+ * Instances are immutable and thread-safe.
+ */
+public class StreamingXPath {
+
+    private final String expression;
+    private final Step[] steps;
+    private final boolean hasPredicates;
+
+    private StreamingXPath(String expression, List<Step> steps) {
+        this.expression = expression;
+        this.steps = steps.toArray(new Step[steps.size()]);
+        boolean predicates = false;
+        for (int i = 0; i < this.steps.length; i++) {
+            predicates |= !this.steps[i].predicates.isEmpty();
+        }
+        this.hasPredicates = predicates;
+    }
+
+    /**
+     * Compile the given policy XPath, resolving its prefixes with the namespace declarations
+     * of the XPath element.
+     * @throws IllegalArgumentException if the expression is outside of the supported subset
+     */
+    public static StreamingXPath compile(XPath xPath) {
+        Map<String, String> namespaces = xPath.getPrefixNamespaceMap();
+        if (namespaces == null) {
+            namespaces = Collections.emptyMap();
+        }
+        return new Parser(xPath.getXPath(), namespaces).parse();
+    }
+
+    /**
+     * Create an expression that matches exactly the given element path
+     */
+    public static StreamingXPath fromElementPath(List<QName> elementPath) {
+        List<Step> steps = new ArrayList<Step>(elementPath.size());
+        StringBuilder expression = new StringBuilder();
+        Iterator<QName> elementPathIterator = elementPath.iterator();
+        while (elementPathIterator.hasNext()) {
+            QName qName = elementPathIterator.next();
+            steps.add(
+                new Step(false, qName.getNamespaceURI(), qName.getLocalPart(),
+                    Collections.<Expr>emptyList())
+            );
+            expression.append('/').append(qName);
+        }
+        return new StreamingXPath(expression.toString(), steps);
+    }
+
+    /**
+     * @return true if the expression contains predicates, which need the XMLSecStartElement
+     * of a path to be evaluated
+     */
+    public boolean hasPredicates() {
+        return hasPredicates;
+    }
+
+    /**
+     * Test if the given element path matches this expression. Predicates evaluate to false.
+     */
+    public boolean matches(List<QName> elementPath) {
+        return matches(elementPath, null);
+    }
+
+    /**
+     * Test if the given element path matches this expression
+     * @param elementPath the path of the element from the document root
+     * @param xmlSecStartElement the start element of the last element of the path, used to
+     *        evaluate predicates. If it is null, predicates evaluate to false.
+     */
+    public boolean matches(List<QName> elementPath, XMLSecStartElement xmlSecStartElement) {
+        if (elementPath == null || elementPath.isEmpty()) {
+            return false;
+        }
+        XMLSecStartElement[] startElements = null;
+        if (hasPredicates) {
+            startElements = new XMLSecStartElement[elementPath.size()];
+            XMLSecStartElement current = xmlSecStartElement;
+            for (int i = startElements.length - 1; i >= 0 && current != null; i--) {
+                startElements[i] = current;
+                current = current.getParentXMLSecStartElement();
+            }
+        }
+
+        // states[i] is true if steps[0..i-1] matched the elements consumed so far
+        boolean[] states = new boolean[steps.length + 1];
+        boolean[] nextStates = new boolean[steps.length + 1];
+        states[0] = true;
+        int index = 0;
+        Iterator<QName> elementPathIterator = elementPath.iterator();
+        while (elementPathIterator.hasNext()) {
+            QName qName = elementPathIterator.next();
+            XMLSecStartElement startElement = startElements == null ? null : startElements[index];
+            boolean active = false;
+            for (int i = 0; i < steps.length; i++) {
+                if (!states[i]) {
+                    continue;
+                }
+                Step step = steps[i];
+                if (step.descendant) {
+                    nextStates[i] = true;
+                    active = true;
+                }
+                if (step.matches(qName, startElement)) {
+                    nextStates[i + 1] = true;
+                    active = true;
+                }
+            }
+            if (!active) {
+                return false;
+            }
+            boolean[] tmp = states;
+            states = nextStates;
+            nextStates = tmp;
+            Arrays.fill(nextStates, false);
+            index++;
+        }
+        return states[steps.length];
+    }
+
+    @Override
+    public String toString() {
+        return expression;
+    }
+
+    private static boolean namespaceMatches(String namespace, String other) {
+        if (namespace.equals(other)) {
+            return true;
+        }
+        if (WSSConstants.NS_SOAP11.equals(namespace) || WSSConstants.NS_SOAP12.equals(namespace)) {
+            return WSSConstants.NS_SOAP11.equals(other) || WSSConstants.NS_SOAP12.equals(other);
+        }
+        return false;
+    }
+
+    private static final class Step {
+        private final boolean descendant;
+        // null for any namespace
+        private final String namespace;
+        // null for any local name
+        private final String localName;
+        private final List<Expr> predicates;
+
+        Step(boolean descendant, String namespace, String localName, List<Expr> predicates) {
+            this.descendant = descendant;
+            this.namespace = namespace;
+            this.localName = localName;
+            this.predicates = predicates;
+        }
+
+        boolean matches(QName qName, XMLSecStartElement startElement) {
+            if (localName != null && !localName.equals(qName.getLocalPart())) {
+                return false;
+            }
+            if (namespace != null && !namespaceMatches(namespace, qName.getNamespaceURI())) {
+                return false;
+            }
+            for (int i = 0; i < predicates.size(); i++) {
+                if (startElement == null || !predicates.get(i).test(startElement)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * A predicate expression. It is evaluated either as a boolean or, for the operands of a
+     * comparison, as a string (null meaning the empty node-set).
+     */
+    private abstract static class Expr {
+        abstract boolean test(XMLSecStartElement startElement);
+
+        String value(XMLSecStartElement startElement) {
+            return test(startElement) ? "true" : "false";
+        }
+    }
+
+    private static final class Literal extends Expr {
+        private final String literal;
+
+        Literal(String literal) {
+            this.literal = literal;
+        }
+
+        @Override
+        boolean test(XMLSecStartElement startElement) {
+            return literal.length() > 0;
+        }
+
+        @Override
+        String value(XMLSecStartElement startElement) {
+            return literal;
+        }
+    }
+
+    private static final class AttributeValue extends Expr {
+        private final QName name;
+
+        AttributeValue(QName name) {
+            this.name = name;
+        }
+
+        @Override
+        boolean test(XMLSecStartElement startElement) {
+            return value(startElement) != null;
+        }
+
+        @Override
+        String value(XMLSecStartElement startElement) {
+            Attribute attribute = startElement.getAttributeByName(name);
+            return attribute == null ? null : attribute.getValue();
+        }
+    }
+
+    private static final class NameFunction extends Expr {
+        private final String function;
+
+        NameFunction(String function) {
+            this.function = function;
+        }
+
+        @Override
+        boolean test(XMLSecStartElement startElement) {
+            return value(startElement).length() > 0;
+        }
+
+        @Override
+        String value(XMLSecStartElement startElement) {
+            QName name = startElement.getName();
+            if ("local-name".equals(function)) {
+                return name.getLocalPart();
+            } else if ("namespace-uri".equals(function)) {
+                return name.getNamespaceURI();
+            }
+            if (name.getPrefix() == null || name.getPrefix().length() == 0) {
+                return name.getLocalPart();
+            }
+            return name.getPrefix() + ":" + name.getLocalPart();
+        }
+    }
+
+    private static final class Comparison extends Expr {
+        private final Expr left;
+        private final Expr right;
+        private final boolean equal;
+
+        Comparison(Expr left, Expr right, boolean equal) {
+            this.left = left;
+            this.right = right;
+            this.equal = equal;
+        }
+
+        @Override
+        boolean test(XMLSecStartElement startElement) {
+            String leftValue = left.value(startElement);
+            String rightValue = right.value(startElement);
+            // a comparison with an empty node-set is always false
+            if (leftValue == null || rightValue == null) {
+                return false;
+            }
+            return leftValue.equals(rightValue) == equal;
+        }
+    }
+
+    private static final class Junction extends Expr {
+        private final Expr left;
+        private final Expr right;
+        private final boolean and;
+
+        Junction(Expr left, Expr right, boolean and) {
+            this.left = left;
+            this.right = right;
+            this.and = and;
+        }
+
+        @Override
+        boolean test(XMLSecStartElement startElement) {
+            if (and) {
+                return left.test(startElement) && right.test(startElement);
+            }
+            return left.test(startElement) || right.test(startElement);
+        }
+    }
+
+    private static final class Not extends Expr {
+        private final Expr expr;
+
+        Not(Expr expr) {
+            this.expr = expr;
+        }
+
+        @Override
+        boolean test(XMLSecStartElement startElement) {
+            return !expr.test(startElement);
+        }
+    }
+
+    /**
+     * A recursive descent parser for the supported subset
+     */
+    private static final class Parser {
+        private final String expression;
+        private final Map<String, String> namespaces;
+        private int pos;
+
+        Parser(String expression, Map<String, String> namespaces) {
+            this.expression = expression == null ? "" : expression.trim();
+            this.namespaces = namespaces;
+        }
+
+        StreamingXPath parse() {
+            List<Step> steps = new ArrayList<Step>();
+            StringBuilder normalized = new StringBuilder();
+            boolean descendant = false;
+            if (consume("//")) {
+                descendant = true;
+            } else {
+                consume("/");
+            }
+            while (true) {
+                skipWhitespace();
+                if (consume("descendant-or-self::node()")) {
+                    expect("/");
+                    descendant = true;
+                    continue;
+                }
+                if (consume("descendant::")) {
+                    descendant = true;
+                } else {
+                    consume("child::");
+                }
+                int stepStart = pos;
+                Step step = parseStep(descendant);
+                steps.add(step);
+                normalized.append(descendant ? "//" : "/");
+                normalized.append(stepToString(step, expression.substring(stepStart, pos)));
+
+                skipWhitespace();
+                if (pos == expression.length()) {
+                    break;
+                }
+                if (consume("//")) {
+                    descendant = true;
+                } else if (consume("/")) {
+                    descendant = false;
+                } else {
+                    throw unsupported();
+                }
+            }
+            return new StreamingXPath(normalized.toString(), steps);
+        }
+
+        private String stepToString(Step step, String source) {
+            StringBuilder stringBuilder = new StringBuilder();
+            if (step.namespace == null && step.localName == null) {
+                stringBuilder.append('*');
+            } else if (step.localName == null) {
+                stringBuilder.append('{').append(step.namespace).append("}*");
+            } else {
+                stringBuilder.append(new QName(step.namespace, step.localName));
+            }
+            int predicateStart = source.indexOf('[');
+            if (predicateStart >= 0) {
+                stringBuilder.append(source.substring(predicateStart));
+            }
+            return stringBuilder.toString();
+        }
+
+        private Step parseStep(boolean descendant) {
+            String namespace;
+            String localName;
+            if (consume("*")) {
+                namespace = null;
+                localName = null;
+            } else {
+                String name = parseNCName();
+                if (consume(":")) {
+                    namespace = resolvePrefix(name);
+                    localName = consume("*") ? null : parseNCName();
+                } else {
+                    namespace = XMLConstants.NULL_NS_URI;
+                    localName = name;
+                }
+            }
+            List<Expr> predicates = new ArrayList<Expr>();
+            skipWhitespace();
+            while (consume("[")) {
+                predicates.add(parseOr());
+                skipWhitespace();
+                expect("]");
+                skipWhitespace();
+            }
+            if (predicates.isEmpty()) {
+                predicates = Collections.emptyList();
+            }
+            return new Step(descendant, namespace, localName, predicates);
+        }
+
+        private Expr parseOr() {
+            Expr expr = parseAnd();
+            while (consumeKeyword("or")) {
+                expr = new Junction(expr, parseAnd(), false);
+            }
+            return expr;
+        }
+
+        private Expr parseAnd() {
+            Expr expr = parseComparison();
+            while (consumeKeyword("and")) {
+                expr = new Junction(expr, parseComparison(), true);
+            }
+            return expr;
+        }
+
+        private Expr parseComparison() {
+            Expr expr = parsePrimary();
+            skipWhitespace();
+            if (consume("!=")) {
+                return new Comparison(expr, parsePrimary(), false);
+            } else if (consume("=")) {
+                return new Comparison(expr, parsePrimary(), true);
+            }
+            return expr;
+        }
+
+        private Expr parsePrimary() {
+            skipWhitespace();
+            if (consume("(")) {
+                Expr expr = parseOr();
+                skipWhitespace();
+                expect(")");
+                return expr;
+            }
+            if (consume("@")) {
+                String name = parseNCName();
+                if (consume(":")) {
+                    return new AttributeValue(new QName(resolvePrefix(name), parseNCName()));
+                }
+                return new AttributeValue(new QName(name));
+            }
+            if (pos < expression.length()
+                && (expression.charAt(pos) == '\'' || expression.charAt(pos) == '"')) {
+                char quote = expression.charAt(pos);
+                int end = expression.indexOf(quote, pos + 1);
+                if (end < 0) {
+                    throw unsupported();
+                }
+                String literal = expression.substring(pos + 1, end);
+                pos = end + 1;
+                return new Literal(literal);
+            }
+            String function = parseNCName();
+            skipWhitespace();
+            expect("(");
+            skipWhitespace();
+            if ("not".equals(function)) {
+                Expr expr = parseOr();
+                skipWhitespace();
+                expect(")");
+                return new Not(expr);
+            }
+            expect(")");
+            if ("local-name".equals(function) || "namespace-uri".equals(function)
+                || "name".equals(function)) {
+                return new NameFunction(function);
+            }
+            throw unsupported();
+        }
+
+        private String resolvePrefix(String prefix) {
+            String namespace = namespaces.get(prefix);
+            if (namespace == null) {
+                throw new IllegalArgumentException("Namespace not declared");
+            }
+            return namespace;
+        }
+
+        private String parseNCName() {
+            int start = pos;
+            while (pos < expression.length()) {
+                char c = expression.charAt(pos);
+                if (Character.isLetter(c) || c == '_'
+                    || pos > start && (Character.isDigit(c) || c == '-' || c == '.')) {
+                    pos++;
+                } else {
+                    break;
+                }
+            }
+            if (start == pos) {
+                throw unsupported();
+            }
+            return expression.substring(start, pos);
+        }
+
+        private boolean consumeKeyword(String keyword) {
+            skipWhitespace();
+            int end = pos + keyword.length();
+            if (expression.startsWith(keyword, pos)
+                && (end == expression.length() || !Character.isLetterOrDigit(expression.charAt(end)))) {
+                pos = end;
+                return true;
+            }
+            return false;
+        }
+
+        private boolean consume(String token) {
+            if (expression.startsWith(token, pos)) {
+                pos += token.length();
+                return true;
+            }
+            return false;
+        }
+
+        private void expect(String token) {
+            if (!consume(token)) {
+                throw unsupported();
+            }
+        }
+
+        private void skipWhitespace() {
+            while (pos < expression.length() && Character.isWhitespace(expression.charAt(pos))) {
+                pos++;
+            }
+        }
+
+        private IllegalArgumentException unsupported() {
+            return new IllegalArgumentException(
+                "Unsupported streaming XPath expression \"" + expression + "\" at position " + pos
+            );
+        }
+    }
+}
@@ -24,33 +24,41 @@ import org.apache.wss4j.policy.model.AbstractSecurityAssertion;
 import org.apache.wss4j.policy.model.EncryptedElements;
 import org.apache.wss4j.policy.model.XPath;
 import org.apache.xml.security.stax.securityEvent.EncryptedElementSecurityEvent;
+import org.apache.xml.security.stax.ext.stax.XMLSecStartElement;
 import org.apache.xml.security.stax.securityEvent.SecurityEvent;
 import org.apache.xml.security.stax.securityEvent.SecurityEventConstants;
 import org.apache.wss4j.policy.stax.Assertable;
 import org.apache.wss4j.policy.stax.PolicyUtils;
+import org.apache.wss4j.policy.stax.StreamingXPath;
 import org.apache.wss4j.stax.ext.WSSUtils;
 import org.apache.wss4j.stax.securityEvent.WSSecurityEventConstants;
 
-import javax.xml.namespace.QName;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 /**
  * WSP1.3, 4.2.2 EncryptedElements Assertion
  */
 public class EncryptedElementsAssertionState extends AssertionState implements Assertable {
 
-    private final List<List<QName>> pathElements = new ArrayList<List<QName>>();
+    private final List<StreamingXPath> xPaths = new ArrayList<StreamingXPath>();
 
-    public EncryptedElementsAssertionState(AbstractSecurityAssertion assertion, boolean asserted) {
+    public EncryptedElementsAssertionState(AbstractSecurityAssertion assertion, boolean asserted)
+            throws WSSPolicyException {
+        this(assertion, asserted, new HashMap<XPath, StreamingXPath>());
+    }
+
+    public EncryptedElementsAssertionState(AbstractSecurityAssertion assertion, boolean asserted,
+            Map<XPath, StreamingXPath> compiledXPaths) throws WSSPolicyException {
         super(assertion, asserted);
 
         EncryptedElements encryptedElements = (EncryptedElements) assertion;
         for (int i = 0; i < encryptedElements.getXPaths().size(); i++) {
             XPath xPath = encryptedElements.getXPaths().get(i);
-            List<QName> elements = PolicyUtils.getElementPath(xPath);
-            pathElements.add(elements);
+            xPaths.add(PolicyUtils.getStreamingXPath(xPath, compiledXPaths));
         }
     }
 
@@ -65,10 +73,11 @@ public class EncryptedElementsAssertionState extends AssertionState implements A
     public boolean assertEvent(SecurityEvent securityEvent) throws WSSPolicyException {
         EncryptedElementSecurityEvent encryptedElementSecurityEvent = (EncryptedElementSecurityEvent) securityEvent;
 
-        Iterator<List<QName>> pathElementIterator = pathElements.iterator();
-        while (pathElementIterator.hasNext()) {
-            List<QName> pathElements = pathElementIterator.next();
-            if (WSSUtils.pathMatches(pathElements, encryptedElementSecurityEvent.getElementPath(), true, false)) {
+        XMLSecStartElement xmlSecStartElement = PolicyUtils.getXMLSecStartElement(encryptedElementSecurityEvent.getXmlSecEvent());
+        Iterator<StreamingXPath> xPathIterator = xPaths.iterator();
+        while (xPathIterator.hasNext()) {
+            StreamingXPath xPath = xPathIterator.next();
+            if (xPath.matches(encryptedElementSecurityEvent.getElementPath(), xmlSecStartElement)) {
                 if (encryptedElementSecurityEvent.isEncrypted()) {
                     setAsserted(true);
                     return true;
@@ -27,13 +27,14 @@ import org.apache.xml.security.stax.securityEvent.SecurityEvent;
 import org.apache.xml.security.stax.securityEvent.SecurityEventConstants;
 import org.apache.wss4j.policy.stax.Assertable;
 import org.apache.wss4j.policy.stax.PolicyUtils;
-import org.apache.wss4j.stax.ext.WSSUtils;
+import org.apache.wss4j.policy.stax.StreamingXPath;
 import org.apache.wss4j.stax.securityEvent.RequiredElementSecurityEvent;
 import org.apache.wss4j.stax.securityEvent.WSSecurityEventConstants;
 
 import javax.xml.namespace.QName;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -42,23 +43,28 @@ import java.util.Map;
  */
 public class RequiredElementsAssertionState extends AssertionState implements Assertable {
 
-    private final Map<List<QName>, Boolean> pathElements = new HashMap<List<QName>, Boolean>();
+    private final Map<StreamingXPath, Boolean> xPaths = new LinkedHashMap<StreamingXPath, Boolean>();
 
-    public RequiredElementsAssertionState(AbstractSecurityAssertion assertion, boolean asserted) {
+    public RequiredElementsAssertionState(AbstractSecurityAssertion assertion, boolean asserted)
+            throws WSSPolicyException {
+        this(assertion, asserted, new HashMap<XPath, StreamingXPath>());
+    }
+
+    public RequiredElementsAssertionState(AbstractSecurityAssertion assertion, boolean asserted,
+            Map<XPath, StreamingXPath> compiledXPaths) throws WSSPolicyException {
         super(assertion, asserted);
 
         if (assertion instanceof RequiredElements) {
             RequiredElements requiredElements = (RequiredElements) assertion;
             for (int i = 0; i < requiredElements.getXPaths().size(); i++) {
                 XPath xPath = requiredElements.getXPaths().get(i);
-                List<QName> elements = PolicyUtils.getElementPath(xPath);
-                pathElements.put(elements, Boolean.FALSE);
+                xPaths.put(PolicyUtils.getStreamingXPath(xPath, compiledXPaths), Boolean.FALSE);
             }
         }
     }
 
     public void addElement(List<QName> pathElement) {
-        this.pathElements.put(pathElement, Boolean.FALSE);
+        this.xPaths.put(StreamingXPath.fromElementPath(pathElement), Boolean.FALSE);
     }
 
     @Override
@@ -72,11 +78,11 @@ public class RequiredElementsAssertionState extends AssertionState implements As
     public boolean assertEvent(SecurityEvent securityEvent) throws WSSPolicyException {
         RequiredElementSecurityEvent requiredElementSecurityEvent = (RequiredElementSecurityEvent) securityEvent;
 
-        Iterator<Map.Entry<List<QName>, Boolean>> elementMapIterator = pathElements.entrySet().iterator();
+        Iterator<Map.Entry<StreamingXPath, Boolean>> elementMapIterator = xPaths.entrySet().iterator();
         while (elementMapIterator.hasNext()) {
-            Map.Entry<List<QName>, Boolean> next = elementMapIterator.next();
-            List<QName> qNameList = next.getKey();
-            if (WSSUtils.pathMatches(qNameList, requiredElementSecurityEvent.getElementPath(), true, false)) {
+            Map.Entry<StreamingXPath, Boolean> next = elementMapIterator.next();
+            StreamingXPath xPath = next.getKey();
+            if (xPath.matches(requiredElementSecurityEvent.getElementPath(), requiredElementSecurityEvent.getXmlSecEvent())) {
                 next.setValue(Boolean.TRUE);
                 break;
             }
@@ -87,11 +93,11 @@ public class RequiredElementsAssertionState extends AssertionState implements As
 
     @Override
     public boolean isAsserted() {
-        Iterator<Map.Entry<List<QName>, Boolean>> elementMapIterator = pathElements.entrySet().iterator();
+        Iterator<Map.Entry<StreamingXPath, Boolean>> elementMapIterator = xPaths.entrySet().iterator();
         while (elementMapIterator.hasNext()) {
-            Map.Entry<List<QName>, Boolean> next = elementMapIterator.next();
+            Map.Entry<StreamingXPath, Boolean> next = elementMapIterator.next();
             if (Boolean.FALSE.equals(next.getValue())) {
-                setErrorMessage("Element " + WSSUtils.pathAsString(next.getKey()) + " must be present");
+                setErrorMessage("Element " + next.getKey() + " must be present");
                 return false;
             }
         }
@@ -69,7 +69,6 @@ public class SignatureProtectionAssertionState extends AssertionState implements
     public boolean assertEvent(SecurityEvent securityEvent) throws WSSPolicyException {
         EncryptedElementSecurityEvent encryptedElementSecurityEvent = (EncryptedElementSecurityEvent) securityEvent;
         AbstractSymmetricAsymmetricBinding abstractSymmetricAsymmetricBinding = (AbstractSymmetricAsymmetricBinding) getAssertion();
-        //todo better matching until we have a streaming xpath evaluation engine (work in progress)
 
         Iterator<List<QName>> pathElementsIterator = elementPaths.iterator();
         while (pathElementsIterator.hasNext()) {
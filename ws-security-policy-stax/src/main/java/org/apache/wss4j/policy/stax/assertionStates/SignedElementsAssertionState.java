@@ -23,34 +23,43 @@ import org.apache.wss4j.policy.WSSPolicyException;
 import org.apache.wss4j.policy.model.AbstractSecurityAssertion;
 import org.apache.wss4j.policy.model.SignedElements;
 import org.apache.wss4j.policy.model.XPath;
+import org.apache.xml.security.stax.ext.stax.XMLSecStartElement;
 import org.apache.xml.security.stax.securityEvent.SecurityEvent;
 import org.apache.xml.security.stax.securityEvent.SecurityEventConstants;
 import org.apache.xml.security.stax.securityEvent.SignedElementSecurityEvent;
 import org.apache.wss4j.policy.stax.Assertable;
 import org.apache.wss4j.policy.stax.PolicyUtils;
+import org.apache.wss4j.policy.stax.StreamingXPath;
 import org.apache.wss4j.stax.ext.WSSUtils;
 
 import javax.xml.namespace.QName;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 /**
  * WSP1.3, 4.1.2 SignedElements Assertion
  */
 public class SignedElementsAssertionState extends AssertionState implements Assertable {
 
-    private final List<List<QName>> pathElements = new ArrayList<List<QName>>();
+    private final List<StreamingXPath> xPaths = new ArrayList<StreamingXPath>();
 
-    public SignedElementsAssertionState(AbstractSecurityAssertion assertion, boolean asserted) {
+    public SignedElementsAssertionState(AbstractSecurityAssertion assertion, boolean asserted)
+            throws WSSPolicyException {
+        this(assertion, asserted, new HashMap<XPath, StreamingXPath>());
+    }
+
+    public SignedElementsAssertionState(AbstractSecurityAssertion assertion, boolean asserted,
+            Map<XPath, StreamingXPath> compiledXPaths) throws WSSPolicyException {
         super(assertion, asserted);
 
         if (assertion instanceof SignedElements) {
             SignedElements signedElements = (SignedElements) assertion;
             for (int i = 0; i < signedElements.getXPaths().size(); i++) {
                 XPath xPath = signedElements.getXPaths().get(i);
-                List<QName> elements = PolicyUtils.getElementPath(xPath);
-                pathElements.add(elements);
+                xPaths.add(PolicyUtils.getStreamingXPath(xPath, compiledXPaths));
             }
         }
     }
@@ -63,17 +72,18 @@ public class SignedElementsAssertionState extends AssertionState implements Asse
     }
 
     public void addElement(List<QName> pathElement) {
-        this.pathElements.add(pathElement);
+        this.xPaths.add(StreamingXPath.fromElementPath(pathElement));
     }
 
     @Override
     public boolean assertEvent(SecurityEvent securityEvent) throws WSSPolicyException {
         SignedElementSecurityEvent signedElementSecurityEvent = (SignedElementSecurityEvent) securityEvent;
 
-        Iterator<List<QName>> pathElementIterator = pathElements.iterator();
-        while (pathElementIterator.hasNext()) {
-            List<QName> pathElements = pathElementIterator.next();
-            if (WSSUtils.pathMatches(pathElements, signedElementSecurityEvent.getElementPath(), true, false)) {
+        XMLSecStartElement xmlSecStartElement = PolicyUtils.getXMLSecStartElement(signedElementSecurityEvent.getXmlSecEvent());
+        Iterator<StreamingXPath> xPathIterator = xPaths.iterator();
+        while (xPathIterator.hasNext()) {
+            StreamingXPath xPath = xPathIterator.next();
+            if (xPath.matches(signedElementSecurityEvent.getElementPath(), xmlSecStartElement)) {
                 if (signedElementSecurityEvent.isSigned()) {
                     setAsserted(true);
                     return true;
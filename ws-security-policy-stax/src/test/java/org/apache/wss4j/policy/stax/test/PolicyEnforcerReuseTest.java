@@ -0,0 +1,107 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.wss4j.policy.stax.test;
+
+import org.apache.wss4j.policy.WSSPolicyException;
+import org.apache.wss4j.policy.stax.PolicyEnforcer;
+import org.apache.wss4j.policy.stax.PolicyEnforcerFactory;
+import org.apache.wss4j.stax.securityEvent.OperationSecurityEvent;
+import org.apache.wss4j.stax.securityEvent.RequiredElementSecurityEvent;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import javax.xml.namespace.QName;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The PolicyEnforcers of a PolicyEnforcerFactory share the compiled assertion states of a
+ * Policy, but each of them must have its own per-message state.
+ */
+public class PolicyEnforcerReuseTest extends AbstractPolicyTestBase {
+
+    private static final String POLICY =
+            "<wsp:ExactlyOne xmlns:wsp=\"http://schemas.xmlsoap.org/ws/2004/09/policy\">\n" +
+                    "<sp:RequiredElements xmlns:sp=\"http://docs.oasis-open.org/ws-sx/ws-securitypolicy/200702\">\n" +
+                    "<sp:XPath xmlns:b=\"http://example.org\">/b:a</sp:XPath>\n" +
+                    "</sp:RequiredElements>\n" +
+                    "<sp:RequiredElements xmlns:sp=\"http://docs.oasis-open.org/ws-sx/ws-securitypolicy/200702\">\n" +
+                    "<sp:XPath xmlns:b=\"http://example.org\">/b:b</sp:XPath>\n" +
+                    "</sp:RequiredElements>\n" +
+                    "</wsp:ExactlyOne>";
+
+    @Test
+    public void testReusedPolicyEnforcerFactory() throws Exception {
+        PolicyEnforcerFactory policyEnforcerFactory = buildPolicyEnforcerFactory(POLICY, false, null);
+
+        for (int i = 0; i < 3; i++) {
+            // the first alternative is satisfied...
+            PolicyEnforcer policyEnforcer = policyEnforcerFactory.newPolicyEnforcer("", false);
+            startOperation(policyEnforcer);
+            policyEnforcer.registerSecurityEvent(createRequiredElementSecurityEvent("a"));
+            policyEnforcer.doFinal();
+
+            // ...the second one...
+            policyEnforcer = policyEnforcerFactory.newPolicyEnforcer("", false);
+            startOperation(policyEnforcer);
+            policyEnforcer.registerSecurityEvent(createRequiredElementSecurityEvent("b"));
+            policyEnforcer.doFinal();
+
+            // ...and none of them, so the state of the previous messages must not leak
+            policyEnforcer = policyEnforcerFactory.newPolicyEnforcer("", false);
+            startOperation(policyEnforcer);
+            policyEnforcer.registerSecurityEvent(createRequiredElementSecurityEvent("c"));
+            try {
+                policyEnforcer.doFinal();
+                Assert.fail("Exception expected");
+            } catch (WSSPolicyException e) {
+                Assert.assertTrue(e.getMessage().startsWith("Element /{http://example.org}"));
+                Assert.assertTrue(e.getMessage().endsWith(" must be present"));
+            }
+        }
+    }
+
+    @Test
+    public void testInitiatorAndRecipient() throws Exception {
+        PolicyEnforcerFactory policyEnforcerFactory = buildPolicyEnforcerFactory(POLICY, false, null);
+
+        PolicyEnforcer initiatorPolicyEnforcer = policyEnforcerFactory.newPolicyEnforcer("", true);
+        PolicyEnforcer recipientPolicyEnforcer = policyEnforcerFactory.newPolicyEnforcer("", false);
+        startOperation(initiatorPolicyEnforcer);
+        startOperation(recipientPolicyEnforcer);
+        initiatorPolicyEnforcer.registerSecurityEvent(createRequiredElementSecurityEvent("a"));
+        recipientPolicyEnforcer.registerSecurityEvent(createRequiredElementSecurityEvent("b"));
+        initiatorPolicyEnforcer.doFinal();
+        recipientPolicyEnforcer.doFinal();
+    }
+
+    private void startOperation(PolicyEnforcer policyEnforcer) throws Exception {
+        OperationSecurityEvent operationSecurityEvent = new OperationSecurityEvent();
+        operationSecurityEvent.setOperation(new QName("definitions"));
+        policyEnforcer.registerSecurityEvent(operationSecurityEvent);
+    }
+
+    private RequiredElementSecurityEvent createRequiredElementSecurityEvent(String localName) {
+        RequiredElementSecurityEvent requiredElementSecurityEvent = new RequiredElementSecurityEvent();
+        List<QName> elementPath = new ArrayList<QName>();
+        elementPath.add(new QName("http://example.org", localName));
+        requiredElementSecurityEvent.setElementPath(elementPath);
+        return requiredElementSecurityEvent;
+    }
+}
@@ -0,0 +1,175 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.wss4j.policy.stax.test;
+
+import org.apache.wss4j.policy.WSSPolicyException;
+import org.apache.wss4j.policy.model.XPath;
+import org.apache.wss4j.policy.stax.PolicyUtils;
+import org.apache.wss4j.policy.stax.StreamingXPath;
+import org.apache.xml.security.stax.ext.stax.XMLSecEvent;
+import org.apache.xml.security.stax.ext.stax.XMLSecEventFactory;
+import org.apache.xml.security.stax.ext.stax.XMLSecStartElement;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamReader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class StreamingXPathTest {
+
+    private static final String MESSAGE =
+            "<soap:Envelope xmlns:soap=\"http://schemas.xmlsoap.org/soap/envelope/\">" +
+                    "<soap:Header>" +
+                    "<a:To xmlns:a=\"http://example.org/a\">to</a:To>" +
+                    "</soap:Header>" +
+                    "<soap:Body>" +
+                    "<b:order xmlns:b=\"http://example.org/b\" type=\"express\">" +
+                    "<b:item id=\"i1\" secret=\"true\"><b:price>1</b:price></b:item>" +
+                    "<b:item id=\"i2\"><b:price>2</b:price></b:item>" +
+                    "</b:order>" +
+                    "</soap:Body>" +
+                    "</soap:Envelope>";
+
+    private final List<XMLSecStartElement> startElements = new ArrayList<XMLSecStartElement>();
+
+    public StreamingXPathTest() throws Exception {
+        XMLStreamReader xmlStreamReader =
+                XMLInputFactory.newInstance().createXMLStreamReader(new StringReader(MESSAGE));
+        XMLSecStartElement parent = null;
+        while (xmlStreamReader.hasNext()) {
+            xmlStreamReader.next();
+            XMLSecEvent xmlSecEvent = XMLSecEventFactory.allocate(xmlStreamReader, parent);
+            if (xmlSecEvent.getEventType() == XMLStreamConstants.START_ELEMENT) {
+                parent = xmlSecEvent.asStartElement();
+                startElements.add(parent);
+            } else if (xmlSecEvent.getEventType() == XMLStreamConstants.END_ELEMENT) {
+                parent = parent.getParentXMLSecStartElement();
+            }
+        }
+    }
+
+    private StreamingXPath compile(String expression) {
+        Map<String, String> namespaces = new HashMap<String, String>();
+        namespaces.put("soap", "http://schemas.xmlsoap.org/soap/envelope/");
+        namespaces.put("soap12", "http://www.w3.org/2003/05/soap-envelope");
+        namespaces.put("a", "http://example.org/a");
+        namespaces.put("x", "http://example.org/b");
+        return StreamingXPath.compile(new XPath(expression, XPath.Version.V1, null, namespaces));
+    }
+
+    /**
+     * @return the local names (and ids) of the elements that match the expression
+     */
+    private List<String> select(StreamingXPath streamingXPath) {
+        List<String> selected = new ArrayList<String>();
+        for (int i = 0; i < startElements.size(); i++) {
+            XMLSecStartElement startElement = startElements.get(i);
+            if (streamingXPath.matches(startElement.getElementPath(), startElement)) {
+                String name = startElement.getName().getLocalPart();
+                if (startElement.getAttributeByName(new QName("id")) != null) {
+                    name += "#" + startElement.getAttributeByName(new QName("id")).getValue();
+                }
+                selected.add(name);
+            }
+        }
+        return selected;
+    }
+
+    @Test
+    public void testChildPath() throws Exception {
+        Assert.assertEquals(select(compile("/soap:Envelope/soap:Header/a:To")).toString(), "[To]");
+        Assert.assertEquals(select(compile("soap:Envelope/soap:Body/x:order/x:item")).toString(), "[item#i1, item#i2]");
+        Assert.assertEquals(select(compile("/soap:Envelope/soap:Body/x:*")).toString(), "[order]");
+        Assert.assertEquals(select(compile("/soap:Envelope/soap:Body/*/*/*")).toString(), "[price, price]");
+        Assert.assertEquals(select(compile("/child::soap:Envelope/child::soap:Header")).toString(), "[Header]");
+        //the SOAP 1.1 and 1.2 namespaces are interchangeable
+        Assert.assertEquals(select(compile("/soap12:Envelope/soap12:Header/a:To")).toString(), "[To]");
+        Assert.assertTrue(select(compile("/soap:Envelope/x:item")).isEmpty());
+    }
+
+    @Test
+    public void testDescendantPath() throws Exception {
+        Assert.assertEquals(select(compile("//x:price")).toString(), "[price, price]");
+        Assert.assertEquals(select(compile("/soap:Envelope//x:item")).toString(), "[item#i1, item#i2]");
+        Assert.assertEquals(select(compile("/soap:Envelope/descendant::a:To")).toString(), "[To]");
+        Assert.assertEquals(select(compile("/descendant-or-self::node()/x:order")).toString(), "[order]");
+        Assert.assertEquals(select(compile("//x:order//x:price")).toString(), "[price, price]");
+        Assert.assertTrue(select(compile("//soap:Header//x:price")).isEmpty());
+    }
+
+    @Test
+    public void testPredicates() throws Exception {
+        Assert.assertEquals(select(compile("//x:item[@id='i2']")).toString(), "[item#i2]");
+        Assert.assertEquals(select(compile("//x:item[@secret]/x:price")).toString(), "[price]");
+        Assert.assertEquals(select(compile("//x:item[not(@secret)]")).toString(), "[item#i2]");
+        Assert.assertEquals(select(compile("//x:item[@id != \"i1\"]")).toString(), "[item#i2]");
+        Assert.assertEquals(select(compile("//x:order[@type='express']/x:item[@id='i1' or @id='i3']")).toString(), "[item#i1]");
+        Assert.assertEquals(select(compile("//*[local-name()='To' and namespace-uri()='http://example.org/a']")).toString(), "[To]");
+        Assert.assertTrue(select(compile("//x:order[@type='standard']//x:price")).isEmpty());
+    }
+
+    @Test
+    public void testPredicateWithoutStartElement() throws Exception {
+        StreamingXPath streamingXPath = compile("//x:item[@id='i1']");
+        Assert.assertTrue(streamingXPath.hasPredicates());
+        XMLSecStartElement item = startElements.get(5);
+        Assert.assertTrue(streamingXPath.matches(item.getElementPath(), item));
+        Assert.assertFalse(streamingXPath.matches(item.getElementPath()));
+    }
+
+    @Test
+    public void testToString() throws Exception {
+        Assert.assertEquals(compile("/soap:Envelope/soap:Header").toString(),
+                "/{http://schemas.xmlsoap.org/soap/envelope/}Envelope/{http://schemas.xmlsoap.org/soap/envelope/}Header");
+        Assert.assertEquals(compile("//x:item[@id='i1']/*").toString(), "//{http://example.org/b}item[@id='i1']/*");
+    }
+
+    @Test
+    public void testUnsupportedExpressions() throws Exception {
+        String[] expressions = new String[]{"//x:item[1]", "//x:item[last()]", "/soap:Envelope/..", "//x:item | //a:To", "/b:order"};
+        for (int i = 0; i < expressions.length; i++) {
+            try {
+                compile(expressions[i]);
+                Assert.fail("Exception expected for " + expressions[i]);
+            } catch (IllegalArgumentException e) {
+                //expected
+            }
+        }
+    }
+
+    @Test
+    public void testUnsupportedExpressionPolicyException() throws Exception {
+        Map<String, String> namespaces = new HashMap<String, String>();
+        namespaces.put("x", "http://example.org/b");
+        XPath xPath = new XPath("//x:item[1]", XPath.Version.V1, null, namespaces);
+        try {
+            PolicyUtils.getStreamingXPath(xPath, new HashMap<XPath, StreamingXPath>());
+            Assert.fail("Exception expected");
+        } catch (WSSPolicyException e) {
+            Assert.assertTrue(e.getCause() instanceof IllegalArgumentException);
+        }
+    }
+}
@@ -28,8 +28,11 @@ import javax.xml.namespace.QName;
 
 import org.apache.wss4j.common.ConfigurationConstants;
 import org.apache.wss4j.common.cache.ReplayCache;
+import org.apache.wss4j.common.cache.SamlAssertionCache;
+import org.apache.wss4j.common.cache.UsernameTokenDerivedKeyCache;
 import org.apache.wss4j.common.crypto.Crypto;
 import org.apache.wss4j.common.crypto.CryptoFactory;
+import org.apache.wss4j.common.cache.DerivedKeyCache;
 import org.apache.wss4j.common.ext.WSSecurityException;
 import org.apache.wss4j.common.util.Loader;
 import org.apache.wss4j.common.util.StringUtil;
@@ -476,6 +479,42 @@ public final class ConfigurationConverter {
         if (timestampCache != null) {
             properties.setTimestampReplayCache(timestampCache);
         }
+        
+        boolean enableSamlAssertionCache = 
+            decodeBooleanConfigValue(ConfigurationConstants.ENABLE_SAML_ASSERTION_CACHE, false, config);
+        if (enableSamlAssertionCache) {
+            Object samlAssertionCache = config.get(ConfigurationConstants.SAML_ASSERTION_CACHE_INSTANCE);
+            if (samlAssertionCache instanceof SamlAssertionCache) {
+                properties.setSamlAssertionCache((SamlAssertionCache)samlAssertionCache);
+            } else {
+                properties.setSamlAssertionCache(new SamlAssertionCache());
+            }
+        }
+        
+        boolean enableUsernameTokenDerivedKeyCache = 
+            decodeBooleanConfigValue(
+                ConfigurationConstants.ENABLE_USERNAME_TOKEN_DERIVED_KEY_CACHE, false, config
+            );
+        if (enableUsernameTokenDerivedKeyCache) {
+            Object derivedKeyCache = 
+                config.get(ConfigurationConstants.USERNAME_TOKEN_DERIVED_KEY_CACHE_INSTANCE);
+            if (derivedKeyCache instanceof UsernameTokenDerivedKeyCache) {
+                properties.setUsernameTokenDerivedKeyCache((UsernameTokenDerivedKeyCache)derivedKeyCache);
+            } else {
+                properties.setUsernameTokenDerivedKeyCache(new UsernameTokenDerivedKeyCache());
+            }
+        }
+        
+        boolean enableDerivedKeyCache = 
+            decodeBooleanConfigValue(ConfigurationConstants.ENABLE_DERIVED_KEY_CACHE, false, config);
+        if (enableDerivedKeyCache) {
+            Object derivedKeyCache = config.get(ConfigurationConstants.DERIVED_KEY_CACHE_INSTANCE);
+            if (derivedKeyCache instanceof DerivedKeyCache) {
+                properties.setDerivedKeyCache((DerivedKeyCache)derivedKeyCache);
+            } else {
+                properties.setDerivedKeyCache(new DerivedKeyCache());
+            }
+        }
     }
     
     private static WSSecurityTokenConstants.KeyIdentifier convertKeyIdentifier(String keyIdentifier) {
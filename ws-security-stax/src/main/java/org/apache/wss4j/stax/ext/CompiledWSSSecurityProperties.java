@@ -0,0 +1,136 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.wss4j.stax.ext;
+
+import org.apache.wss4j.common.ext.WSSecurityException;
+import org.apache.wss4j.stax.WSSec;
+
+/**
+ * A validated security configuration which can be built once (e.g. per endpoint) and shared by
+ * all the threads. The defaults are applied and the Crypto instances are loaded when it is
+ * compiled, so that the per-message work is limited to the set up of the processor chain.
+ */
+public final class CompiledWSSSecurityProperties {
+
+    private final WSSSecurityProperties securityProperties;
+    private final boolean outbound;
+    private final OutboundWSSec outboundWSSec;
+    private final InboundWSSec inboundWSSec;
+
+    private CompiledWSSSecurityProperties(WSSSecurityProperties securityProperties, boolean outbound) {
+        this.securityProperties = securityProperties;
+        this.outbound = outbound;
+        if (outbound) {
+            outboundWSSec = new OutboundWSSec(securityProperties);
+            inboundWSSec = null;
+        } else {
+            outboundWSSec = null;
+            inboundWSSec = new InboundWSSec(securityProperties);
+        }
+    }
+
+    /**
+     * Compiles the configuration of the outbound security engine. Later changes of the given
+     * WSSSecurityProperties are not reflected in the compiled configuration.
+     *
+     * @param securityProperties The user-defined security configuration
+     * @return The compiled configuration
+     * @throws WSSecurityException
+     *          if the configuration is invalid or the Crypto instances can't be loaded
+     */
+    public static CompiledWSSSecurityProperties compileOutbound(WSSSecurityProperties securityProperties)
+            throws WSSecurityException {
+        if (securityProperties == null) {
+            throw new WSSConfigurationException(WSSConfigurationException.ErrorCode.FAILURE, "missingSecurityProperties");
+        }
+        //validate a copy, because the validation adds to the signature parts of the given properties
+        WSSSecurityProperties validatedSecurityProperties =
+            WSSec.validateAndApplyDefaultsToOutboundSecurityProperties(new WSSSecurityProperties(securityProperties));
+        if (validatedSecurityProperties.getSignatureKeyStore() != null
+            || validatedSecurityProperties.getSignatureCryptoProperties() != null) {
+            validatedSecurityProperties.getSignatureCrypto();
+        }
+        if (validatedSecurityProperties.getEncryptionKeyStore() != null
+            || validatedSecurityProperties.getEncryptionCryptoProperties() != null) {
+            validatedSecurityProperties.getEncryptionCrypto();
+        }
+        return new CompiledWSSSecurityProperties(validatedSecurityProperties, true);
+    }
+
+    /**
+     * Compiles the configuration of the inbound security engine. Later changes of the given
+     * WSSSecurityProperties are not reflected in the compiled configuration.
+     *
+     * @param securityProperties The user-defined security configuration
+     * @return The compiled configuration
+     * @throws WSSecurityException
+     *          if the configuration is invalid or the Crypto instances can't be loaded
+     */
+    public static CompiledWSSSecurityProperties compileInbound(WSSSecurityProperties securityProperties)
+            throws WSSecurityException {
+        if (securityProperties == null) {
+            throw new WSSConfigurationException(WSSConfigurationException.ErrorCode.FAILURE, "missingSecurityProperties");
+        }
+        //validate a copy, like the outbound configuration, so that the given properties are not changed
+        WSSSecurityProperties validatedSecurityProperties =
+            WSSec.validateAndApplyDefaultsToInboundSecurityProperties(new WSSSecurityProperties(securityProperties));
+        if (validatedSecurityProperties.getSignatureVerificationKeyStore() != null
+            || validatedSecurityProperties.getSignatureVerificationCryptoProperties() != null) {
+            validatedSecurityProperties.getSignatureVerificationCrypto();
+        }
+        if (validatedSecurityProperties.getDecryptionKeyStore() != null
+            || validatedSecurityProperties.getDecryptionCryptoProperties() != null) {
+            validatedSecurityProperties.getDecryptionCrypto();
+        }
+        return new CompiledWSSSecurityProperties(validatedSecurityProperties, false);
+    }
+
+    public boolean isOutbound() {
+        return outbound;
+    }
+
+    /**
+     * Returns the outbound security engine, which can be used concurrently for any number of messages
+     */
+    public OutboundWSSec getOutboundWSSec() {
+        if (!outbound) {
+            throw new IllegalStateException("The configuration is compiled for the inbound security engine");
+        }
+        return outboundWSSec;
+    }
+
+    /**
+     * Returns the inbound security engine, which can be used concurrently for any number of messages
+     */
+    public InboundWSSec getInboundWSSec() {
+        if (outbound) {
+            throw new IllegalStateException("The configuration is compiled for the outbound security engine");
+        }
+        return inboundWSSec;
+    }
+
+    /**
+     * Returns a copy of the validated configuration, e.g. to set a per-message attachment
+     * CallbackHandler. The copy shares the loaded Crypto instances and can be handed over to
+     * the constructor of the In- or OutboundWSSec without validating it again.
+     */
+    public WSSSecurityProperties copySecurityProperties() {
+        return new WSSSecurityProperties(securityProperties);
+    }
+}
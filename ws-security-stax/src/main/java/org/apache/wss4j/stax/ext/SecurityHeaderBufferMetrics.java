@@ -0,0 +1,83 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.wss4j.stax.ext;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Statistics of the events that are buffered for the security header of inbound messages.
+ * The sizes are estimates of the memory used by the buffered events, in bytes.
+ */
+public class SecurityHeaderBufferMetrics {
+
+    private final AtomicLong messageCount = new AtomicLong();
+    private final AtomicLong spooledMessageCount = new AtomicLong();
+    private final AtomicLong totalBufferedBytes = new AtomicLong();
+    private final AtomicLong maxBufferedBytes = new AtomicLong();
+    private final AtomicLong totalSpooledBytes = new AtomicLong();
+
+    /**
+     * Record the buffer of the security header of a message
+     * @param bufferedBytes the size of all the buffered events
+     * @param spooledBytes the size of the events that have been spooled to a file
+     */
+    public void record(long bufferedBytes, long spooledBytes) {
+        messageCount.incrementAndGet();
+        totalBufferedBytes.addAndGet(bufferedBytes);
+        long max = maxBufferedBytes.get();
+        while (bufferedBytes > max && !maxBufferedBytes.compareAndSet(max, bufferedBytes)) {
+            max = maxBufferedBytes.get();
+        }
+        if (spooledBytes > 0) {
+            spooledMessageCount.incrementAndGet();
+            totalSpooledBytes.addAndGet(spooledBytes);
+        }
+    }
+
+    public long getMessageCount() {
+        return messageCount.get();
+    }
+
+    /**
+     * Get the number of messages of which some of the security header events have been spooled
+     */
+    public long getSpooledMessageCount() {
+        return spooledMessageCount.get();
+    }
+
+    public long getTotalBufferedBytes() {
+        return totalBufferedBytes.get();
+    }
+
+    public long getMaxBufferedBytes() {
+        return maxBufferedBytes.get();
+    }
+
+    public long getTotalSpooledBytes() {
+        return totalSpooledBytes.get();
+    }
+
+    /**
+     * Get the average size of the buffered events per message
+     */
+    public long getAverageBufferedBytes() {
+        long count = messageCount.get();
+        return count == 0 ? 0 : totalBufferedBytes.get() / count;
+    }
+}
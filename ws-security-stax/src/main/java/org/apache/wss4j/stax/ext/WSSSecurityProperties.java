@@ -18,6 +18,7 @@
  */
 package org.apache.wss4j.stax.ext;
 
+import java.io.File;
 import java.net.URL;
 import java.security.KeyStore;
 import java.security.cert.CertStore;
@@ -37,8 +38,11 @@ import javax.xml.namespace.QName;
 import org.apache.wss4j.common.bsp.BSPRule;
 import org.apache.wss4j.common.cache.ReplayCache;
 import org.apache.wss4j.common.cache.ReplayCacheFactory;
+import org.apache.wss4j.common.cache.SamlAssertionCache;
+import org.apache.wss4j.common.cache.UsernameTokenDerivedKeyCache;
 import org.apache.wss4j.common.crypto.Crypto;
 import org.apache.wss4j.common.crypto.Merlin;
+import org.apache.wss4j.common.cache.DerivedKeyCache;
 import org.apache.wss4j.common.ext.WSSecurityException;
 import org.apache.wss4j.stax.securityToken.WSSecurityTokenConstants;
 import org.apache.wss4j.stax.validate.Validator;
@@ -101,6 +105,15 @@ public class WSSSecurityProperties extends XMLSecurityProperties {
     private boolean enableRevocation = false;
     private ReplayCache timestampReplayCache;
     private ReplayCache nonceReplayCache;
+    private SamlAssertionCache samlAssertionCache;
+    private UsernameTokenDerivedKeyCache usernameTokenDerivedKeyCache;
+    private DerivedKeyCache derivedKeyCache;
+    private int outboundEventBufferThreshold;
+    private File outboundEventBufferDirectory;
+    private int securityHeaderBufferLimit;
+    private boolean spoolSecurityHeaderBuffer;
+    private File securityHeaderBufferDirectory;
+    private SecurityHeaderBufferMetrics securityHeaderBufferMetrics;
     private boolean validateSamlSubjectConfirmation = true;
 
     private CallbackHandler attachmentCallbackHandler;
@@ -146,6 +159,15 @@ public class WSSSecurityProperties extends XMLSecurityProperties {
         this.enableRevocation = wssSecurityProperties.enableRevocation;
         this.timestampReplayCache = wssSecurityProperties.timestampReplayCache;
         this.nonceReplayCache = wssSecurityProperties.nonceReplayCache;
+        this.samlAssertionCache = wssSecurityProperties.samlAssertionCache;
+        this.usernameTokenDerivedKeyCache = wssSecurityProperties.usernameTokenDerivedKeyCache;
+        this.derivedKeyCache = wssSecurityProperties.derivedKeyCache;
+        this.outboundEventBufferThreshold = wssSecurityProperties.outboundEventBufferThreshold;
+        this.outboundEventBufferDirectory = wssSecurityProperties.outboundEventBufferDirectory;
+        this.securityHeaderBufferLimit = wssSecurityProperties.securityHeaderBufferLimit;
+        this.spoolSecurityHeaderBuffer = wssSecurityProperties.spoolSecurityHeaderBuffer;
+        this.securityHeaderBufferDirectory = wssSecurityProperties.securityHeaderBufferDirectory;
+        this.securityHeaderBufferMetrics = wssSecurityProperties.securityHeaderBufferMetrics;
         this.allowRSA15KeyTransportAlgorithm = wssSecurityProperties.allowRSA15KeyTransportAlgorithm;
         this.derivedKeyIterations = wssSecurityProperties.derivedKeyIterations;
         this.useDerivedKeyForMAC = wssSecurityProperties.useDerivedKeyForMAC;
@@ -741,6 +763,120 @@ public class WSSSecurityProperties extends XMLSecurityProperties {
         return nonceReplayCache;
     }
 
+    /**
+     * Set the cache of verified signed SAML Assertions. The signature of a cached Assertion
+     * is not verified again. No cache is used by default.
+     */
+    public void setSamlAssertionCache(SamlAssertionCache samlAssertionCache) {
+        this.samlAssertionCache = samlAssertionCache;
+    }
+
+    /**
+     * Get the cache of verified signed SAML Assertions, or null if no cache is used
+     */
+    public SamlAssertionCache getSamlAssertionCache() {
+        return samlAssertionCache;
+    }
+
+    /**
+     * Set the cache of keys derived from UsernameTokens. No cache is used by default.
+     */
+    public void setUsernameTokenDerivedKeyCache(UsernameTokenDerivedKeyCache usernameTokenDerivedKeyCache) {
+        this.usernameTokenDerivedKeyCache = usernameTokenDerivedKeyCache;
+    }
+
+    /**
+     * Get the cache of keys derived from UsernameTokens, or null if no cache is used
+     */
+    public UsernameTokenDerivedKeyCache getUsernameTokenDerivedKeyCache() {
+        return usernameTokenDerivedKeyCache;
+    }
+
+    /**
+     * Set the cache of keys derived for DerivedKeyTokens. No cache is used by default.
+     */
+    public void setDerivedKeyCache(DerivedKeyCache derivedKeyCache) {
+        this.derivedKeyCache = derivedKeyCache;
+    }
+
+    /**
+     * Get the cache of keys derived for DerivedKeyTokens, or null if no cache is used
+     */
+    public DerivedKeyCache getDerivedKeyCache() {
+        return derivedKeyCache;
+    }
+
+    /**
+     * Set the number of XMLSecEvents that an outbound processor buffers in memory until the 
+     * security header can be written. The following events are spooled to a temporary file. 
+     * The default of 0 buffers all the events in memory.
+     */
+    public void setOutboundEventBufferThreshold(int outboundEventBufferThreshold) {
+        this.outboundEventBufferThreshold = outboundEventBufferThreshold;
+    }
+
+    public int getOutboundEventBufferThreshold() {
+        return outboundEventBufferThreshold;
+    }
+
+    /**
+     * Set the directory of the files that outbound XMLSecEvents are spooled to. The default
+     * temporary directory is used by default.
+     */
+    public void setOutboundEventBufferDirectory(File outboundEventBufferDirectory) {
+        this.outboundEventBufferDirectory = outboundEventBufferDirectory;
+    }
+
+    public File getOutboundEventBufferDirectory() {
+        return outboundEventBufferDirectory;
+    }
+
+    /**
+     * Set the (estimated) number of bytes of the events of an inbound security header that
+     * are buffered in memory. Above this limit, the events of the header elements that have
+     * been processed are spooled to a temporary file if spoolSecurityHeaderBuffer is set,
+     * otherwise the message is rejected. The default of 0 doesn't limit the buffer.
+     */
+    public void setSecurityHeaderBufferLimit(int securityHeaderBufferLimit) {
+        this.securityHeaderBufferLimit = securityHeaderBufferLimit;
+    }
+
+    public int getSecurityHeaderBufferLimit() {
+        return securityHeaderBufferLimit;
+    }
+
+    public void setSpoolSecurityHeaderBuffer(boolean spoolSecurityHeaderBuffer) {
+        this.spoolSecurityHeaderBuffer = spoolSecurityHeaderBuffer;
+    }
+
+    public boolean isSpoolSecurityHeaderBuffer() {
+        return spoolSecurityHeaderBuffer;
+    }
+
+    /**
+     * Set the directory of the spool files of the security header events. The default
+     * temporary directory is used if it isn't set.
+     */
+    public void setSecurityHeaderBufferDirectory(File securityHeaderBufferDirectory) {
+        this.securityHeaderBufferDirectory = securityHeaderBufferDirectory;
+    }
+
+    public File getSecurityHeaderBufferDirectory() {
+        return securityHeaderBufferDirectory;
+    }
+
+    /**
+     * Set the statistics of the buffered inbound security header events. No statistics are
+     * recorded by default.
+     */
+    public void setSecurityHeaderBufferMetrics(SecurityHeaderBufferMetrics securityHeaderBufferMetrics) {
+        this.securityHeaderBufferMetrics = securityHeaderBufferMetrics;
+    }
+
+    public SecurityHeaderBufferMetrics getSecurityHeaderBufferMetrics() {
+        return securityHeaderBufferMetrics;
+    }
+
     public boolean isDisableBSPEnforcement() {
         return disableBSPEnforcement;
     }
@@ -30,6 +30,7 @@ import org.apache.xml.security.stax.ext.stax.XMLSecStartElement;
 import org.apache.xml.security.stax.impl.EncryptionPartDef;
 import org.apache.wss4j.common.crypto.Merlin;
 import org.apache.wss4j.common.ext.WSSecurityException;
+import org.apache.wss4j.common.util.JCEInstanceCache;
 import org.apache.xml.security.stax.securityEvent.TokenSecurityEvent;
 import org.apache.xml.security.stax.securityToken.InboundSecurityToken;
 
@@ -115,8 +116,7 @@ public class WSSUtils extends XMLSecurityUtils {
 
             System.arraycopy(b3, 0, b4, offset, b3.length);
 
-            MessageDigest sha = MessageDigest.getInstance("SHA-1");
-            sha.reset();
+            MessageDigest sha = JCEInstanceCache.getMessageDigest("SHA-1");
             sha.update(b4);
             return new String(Base64.encodeBase64(sha.digest()));
         } catch (NoSuchAlgorithmException e) {
@@ -320,7 +320,7 @@ public class WSSUtils extends XMLSecurityUtils {
         attributes.add(abstractOutputProcessor.createAttribute(WSSConstants.ATT_NULL_ValueType, WSSConstants.NS_THUMBPRINT));
         abstractOutputProcessor.createStartElementAndOutputAsEvent(outputProcessorChain, WSSConstants.TAG_wsse_KeyIdentifier, false, attributes);
         try {
-            MessageDigest sha = MessageDigest.getInstance("SHA-1");
+            MessageDigest sha = JCEInstanceCache.getMessageDigest("SHA-1");
             byte[] data = sha.digest(x509Certificates[0].getEncoded());
             abstractOutputProcessor.createCharactersAndOutputAsEvent(outputProcessorChain, new Base64(76, new byte[]{'\n'}).encodeToString(data));
         } catch (CertificateEncodingException e) {
@@ -340,7 +340,7 @@ public class WSSUtils extends XMLSecurityUtils {
         attributes.add(abstractOutputProcessor.createAttribute(WSSConstants.ATT_NULL_ValueType, WSSConstants.NS_ENCRYPTED_KEY_SHA1));
         abstractOutputProcessor.createStartElementAndOutputAsEvent(outputProcessorChain, WSSConstants.TAG_wsse_KeyIdentifier, false, attributes);
         try {
-            MessageDigest sha = MessageDigest.getInstance("SHA-1");
+            MessageDigest sha = JCEInstanceCache.getMessageDigest("SHA-1");
             byte[] data = sha.digest(key.getEncoded());
             abstractOutputProcessor.createCharactersAndOutputAsEvent(outputProcessorChain, new Base64(76, new byte[]{'\n'}).encodeToString(data));
         } catch (NoSuchAlgorithmException e) {
@@ -0,0 +1,480 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.wss4j.stax.impl;
+
+import org.apache.xml.security.stax.ext.stax.XMLSecAttribute;
+import org.apache.xml.security.stax.ext.stax.XMLSecEvent;
+import org.apache.xml.security.stax.ext.stax.XMLSecEventFactory;
+import org.apache.xml.security.stax.ext.stax.XMLSecNamespace;
+import org.apache.xml.security.stax.ext.stax.XMLSecStartElement;
+import org.apache.xml.security.stax.impl.stax.XMLSecAttributeImpl;
+import org.apache.xml.security.stax.impl.stax.XMLSecNamespaceImpl;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLStreamConstants;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.AbstractQueue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A FIFO buffer of XMLSecEvents with a bounded memory usage. Once the given number of events
+ * is buffered in memory, the following events are serialized to a temporary spool file, and
+ * are deserialized again when they are taken from the head of the buffer. Start elements,
+ * end elements and characters are serialized in a compact binary form (with a dictionary of
+ * the names), and their parent start elements are restored when they are read. Other (rare)
+ * events such as comments are kept in memory in the order of the spooled events.
+ *
+ * The spool file is deleted once all its events have been taken, or when close() is called.
+ * The operations at the tail of the deque, other than adding events, and iterating the events
+ * are not supported while events are spooled.
+ */
+public class SpoolingXMLSecEventDeque extends AbstractQueue<XMLSecEvent>
+        implements Deque<XMLSecEvent>, Closeable {
+
+    private static final int NULL_NAME = 0;
+    private static final int NEW_NAME = 1;
+    private static final int RETAINED_EVENT = -1;
+    // The maximum length of a chunk of text that can be written with writeUTF
+    private static final int TEXT_CHUNK_LENGTH = 65535 / 3;
+
+    private final int memoryThreshold;
+    private final File directory;
+    private final ArrayDeque<XMLSecEvent> memoryEvents = new ArrayDeque<XMLSecEvent>();
+
+    private File spoolFile;
+    private DataOutputStream spoolOutput;
+    private DataInputStream spoolInput;
+    private int spooledEvents;
+    private final ArrayDeque<XMLSecEvent> retainedEvents = new ArrayDeque<XMLSecEvent>();
+    private final Map<String, Integer> writeNames = new HashMap<String, Integer>();
+    private final List<String> readNames = new ArrayList<String>();
+    private XMLSecStartElement readParent;
+
+    /**
+     * @param memoryThreshold the number of events that are buffered in memory before the
+     * following events are spooled
+     * @param directory the directory of the spool file, or null for the default temporary
+     * directory
+     */
+    public SpoolingXMLSecEventDeque(int memoryThreshold, File directory) {
+        this.memoryThreshold = memoryThreshold;
+        this.directory = directory;
+    }
+
+    @Override
+    public boolean offer(XMLSecEvent xmlSecEvent) {
+        if (xmlSecEvent == null) {
+            throw new NullPointerException();
+        }
+        if (spooledEvents == 0 && memoryEvents.size() < memoryThreshold) {
+            memoryEvents.offer(xmlSecEvent);
+            return true;
+        }
+        try {
+            if (spooledEvents == 0) {
+                startSpooling(xmlSecEvent);
+            }
+            writeEvent(xmlSecEvent);
+            spooledEvents++;
+        } catch (IOException e) {
+            close();
+            throw new IllegalStateException("Error in spooling the buffered XML events", e);
+        }
+        return true;
+    }
+
+    @Override
+    public XMLSecEvent poll() {
+        fillHead();
+        return memoryEvents.poll();
+    }
+
+    @Override
+    public XMLSecEvent peek() {
+        fillHead();
+        return memoryEvents.peek();
+    }
+
+    @Override
+    public int size() {
+        return memoryEvents.size() + spooledEvents;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return memoryEvents.isEmpty() && spooledEvents == 0;
+    }
+
+    @Override
+    public Iterator<XMLSecEvent> iterator() {
+        checkNotSpooled();
+        return memoryEvents.iterator();
+    }
+
+    @Override
+    public void clear() {
+        memoryEvents.clear();
+        close();
+    }
+
+    /**
+     * Delete the spool file, and discard the spooled events
+     */
+    public void close() {
+        spooledEvents = 0;
+        retainedEvents.clear();
+        writeNames.clear();
+        readNames.clear();
+        readParent = null;
+        try {
+            if (spoolOutput != null) {
+                spoolOutput.close();
+            }
+            if (spoolInput != null) {
+                spoolInput.close();
+            }
+        } catch (IOException e) {
+            // ignore, the file is deleted anyway
+        } finally {
+            spoolOutput = null;
+            spoolInput = null;
+            if (spoolFile != null && !spoolFile.delete()) {
+                spoolFile.deleteOnExit();
+            }
+            spoolFile = null;
+        }
+    }
+
+    /**
+     * Whether some of the buffered events are currently spooled to a file
+     */
+    public boolean isSpooled() {
+        return spooledEvents > 0;
+    }
+
+    //
+    // Deque methods
+    //
+
+    public void addFirst(XMLSecEvent xmlSecEvent) {
+        // The head of the deque is always in memory
+        memoryEvents.addFirst(xmlSecEvent);
+    }
+
+    public void addLast(XMLSecEvent xmlSecEvent) {
+        offer(xmlSecEvent);
+    }
+
+    public boolean offerFirst(XMLSecEvent xmlSecEvent) {
+        addFirst(xmlSecEvent);
+        return true;
+    }
+
+    public boolean offerLast(XMLSecEvent xmlSecEvent) {
+        return offer(xmlSecEvent);
+    }
+
+    public XMLSecEvent removeFirst() {
+        return remove();
+    }
+
+    public XMLSecEvent removeLast() {
+        checkNotSpooled();
+        return memoryEvents.removeLast();
+    }
+
+    public XMLSecEvent pollFirst() {
+        return poll();
+    }
+
+    public XMLSecEvent pollLast() {
+        checkNotSpooled();
+        return memoryEvents.pollLast();
+    }
+
+    public XMLSecEvent getFirst() {
+        return element();
+    }
+
+    public XMLSecEvent getLast() {
+        checkNotSpooled();
+        return memoryEvents.getLast();
+    }
+
+    public XMLSecEvent peekFirst() {
+        return peek();
+    }
+
+    public XMLSecEvent peekLast() {
+        checkNotSpooled();
+        return memoryEvents.peekLast();
+    }
+
+    public boolean removeFirstOccurrence(Object o) {
+        checkNotSpooled();
+        return memoryEvents.removeFirstOccurrence(o);
+    }
+
+    public boolean removeLastOccurrence(Object o) {
+        checkNotSpooled();
+        return memoryEvents.removeLastOccurrence(o);
+    }
+
+    public void push(XMLSecEvent xmlSecEvent) {
+        addFirst(xmlSecEvent);
+    }
+
+    public XMLSecEvent pop() {
+        return removeFirst();
+    }
+
+    public Iterator<XMLSecEvent> descendingIterator() {
+        checkNotSpooled();
+        return memoryEvents.descendingIterator();
+    }
+
+    private void checkNotSpooled() {
+        if (spooledEvents > 0) {
+            throw new UnsupportedOperationException("The operation is not supported on spooled events");
+        }
+    }
+
+    //
+    // Spooling
+    //
+
+    private void startSpooling(XMLSecEvent firstEvent) throws IOException {
+        spoolFile = File.createTempFile("wss4j-events", ".spool", directory);
+        spoolOutput =
+            new DataOutputStream(new BufferedOutputStream(new FileOutputStream(spoolFile)));
+        // The spooled events are restored within the parent of the first event
+        readParent = firstEvent.getParentXMLSecStartElement();
+    }
+
+    /**
+     * Move the next spooled event to the memory if the in-memory events are all taken
+     */
+    private void fillHead() {
+        if (!memoryEvents.isEmpty() || spooledEvents == 0) {
+            return;
+        }
+        try {
+            if (spoolInput == null) {
+                spoolInput =
+                    new DataInputStream(new BufferedInputStream(new FileInputStream(spoolFile)));
+            }
+            spoolOutput.flush();
+            memoryEvents.offer(readEvent());
+        } catch (IOException e) {
+            close();
+            throw new IllegalStateException("Error in reading the spooled XML events", e);
+        }
+        spooledEvents--;
+        if (spooledEvents == 0) {
+            XMLSecEvent lastEvent = memoryEvents.poll();
+            close();
+            memoryEvents.offer(lastEvent);
+        }
+    }
+
+    private void writeEvent(XMLSecEvent xmlSecEvent) throws IOException {
+        switch (xmlSecEvent.getEventType()) {
+            case XMLStreamConstants.START_ELEMENT:
+                XMLSecStartElement xmlSecStartElement = xmlSecEvent.asStartElement();
+                spoolOutput.writeByte(XMLStreamConstants.START_ELEMENT);
+                writeQName(xmlSecStartElement.getName());
+                List<XMLSecNamespace> namespaces = xmlSecStartElement.getOnElementDeclaredNamespaces();
+                writeInt(namespaces.size());
+                for (int i = 0; i < namespaces.size(); i++) {
+                    XMLSecNamespace namespace = namespaces.get(i);
+                    writeName(namespace.getPrefix());
+                    writeName(namespace.getNamespaceURI());
+                }
+                List<XMLSecAttribute> attributes = xmlSecStartElement.getOnElementDeclaredAttributes();
+                writeInt(attributes.size());
+                for (int i = 0; i < attributes.size(); i++) {
+                    XMLSecAttribute attribute = attributes.get(i);
+                    writeQName(attribute.getName());
+                    writeText(attribute.getValue());
+                }
+                break;
+            case XMLStreamConstants.END_ELEMENT:
+                spoolOutput.writeByte(XMLStreamConstants.END_ELEMENT);
+                writeQName(xmlSecEvent.asEndElement().getName());
+                break;
+            case XMLStreamConstants.CHARACTERS:
+                spoolOutput.writeByte(XMLStreamConstants.CHARACTERS);
+                writeText(xmlSecEvent.asCharacters().getText());
+                break;
+            default:
+                spoolOutput.writeByte(RETAINED_EVENT);
+                retainedEvents.offer(xmlSecEvent);
+                break;
+        }
+    }
+
+    private XMLSecEvent readEvent() throws IOException {
+        XMLSecEvent xmlSecEvent;
+        XMLSecStartElement parent = readParent;
+        int eventType = spoolInput.readByte();
+        switch (eventType) {
+            case XMLStreamConstants.START_ELEMENT:
+                QName name = readQName();
+                int namespaceCount = readInt();
+                List<XMLSecNamespace> namespaces = new ArrayList<XMLSecNamespace>(namespaceCount);
+                for (int i = 0; i < namespaceCount; i++) {
+                    namespaces.add(XMLSecNamespaceImpl.getInstance(readName(), readName()));
+                }
+                int attributeCount = readInt();
+                List<XMLSecAttribute> attributes = new ArrayList<XMLSecAttribute>(attributeCount);
+                for (int i = 0; i < attributeCount; i++) {
+                    attributes.add(new XMLSecAttributeImpl(readQName(), readText()));
+                }
+                XMLSecStartElement xmlSecStartElement =
+                    XMLSecEventFactory.createXmlSecStartElement(name, attributes, namespaces);
+                readParent = xmlSecStartElement;
+                xmlSecEvent = xmlSecStartElement;
+                break;
+            case XMLStreamConstants.END_ELEMENT:
+                xmlSecEvent = XMLSecEventFactory.createXmlSecEndElement(readQName());
+                if (parent != null) {
+                    readParent = parent.getParentXMLSecStartElement();
+                }
+                break;
+            case XMLStreamConstants.CHARACTERS:
+                xmlSecEvent = XMLSecEventFactory.createXmlSecCharacters(readText());
+                break;
+            default:
+                return retainedEvents.poll();
+        }
+        xmlSecEvent.setParentXMLSecStartElement(parent);
+        return xmlSecEvent;
+    }
+
+    private void writeQName(QName qName) throws IOException {
+        writeName(qName.getNamespaceURI());
+        writeName(qName.getLocalPart());
+        writeName(qName.getPrefix());
+    }
+
+    private QName readQName() throws IOException {
+        String namespaceURI = readName();
+        String localPart = readName();
+        String prefix = readName();
+        return new QName(namespaceURI, localPart, prefix);
+    }
+
+    /**
+     * Write a name, which is replaced by its index in the dictionary once it has been written
+     */
+    private void writeName(String name) throws IOException {
+        if (name == null) {
+            writeInt(NULL_NAME);
+            return;
+        }
+        Integer index = writeNames.get(name);
+        if (index == null) {
+            writeNames.put(name, writeNames.size());
+            writeInt(NEW_NAME);
+            spoolOutput.writeUTF(name);
+        } else {
+            writeInt(index + 2);
+        }
+    }
+
+    private String readName() throws IOException {
+        int index = readInt();
+        if (index == NULL_NAME) {
+            return null;
+        } else if (index == NEW_NAME) {
+            String name = spoolInput.readUTF();
+            readNames.add(name);
+            return name;
+        }
+        return readNames.get(index - 2);
+    }
+
+    /**
+     * Write a text of any length as a sequence of UTF chunks
+     */
+    private void writeText(String text) throws IOException {
+        if (text == null) {
+            writeInt(0);
+            return;
+        }
+        writeInt(text.length() + 1);
+        for (int i = 0; i < text.length(); i += TEXT_CHUNK_LENGTH) {
+            spoolOutput.writeUTF(text.substring(i, Math.min(text.length(), i + TEXT_CHUNK_LENGTH)));
+        }
+    }
+
+    private String readText() throws IOException {
+        int length = readInt() - 1;
+        if (length < 0) {
+            return null;
+        } else if (length == 0) {
+            // No chunk is written for an empty text
+            return "";
+        } else if (length <= TEXT_CHUNK_LENGTH) {
+            return spoolInput.readUTF();
+        }
+        StringBuilder text = new StringBuilder(length);
+        while (text.length() < length) {
+            text.append(spoolInput.readUTF());
+        }
+        return text.toString();
+    }
+
+    /**
+     * Write a non-negative int in a variable length form, 7 bits per byte
+     */
+    private void writeInt(int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            spoolOutput.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        spoolOutput.writeByte(value);
+    }
+
+    private int readInt() throws IOException {
+        int value = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = spoolInput.readByte();
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+}
@@ -133,7 +133,8 @@ public class DerivedKeyTokenInputHandler extends AbstractInputSecurityHeaderHand
                                 derivedKeyTokenType.getLength().intValue(),
                                 secret,
                                 nonce,
-                                derivedKeyTokenType.getOffset().intValue()
+                                derivedKeyTokenType.getOffset().intValue(),
+                                ((WSSSecurityProperties) securityProperties).getDerivedKeyCache()
                         );
                         XMLSecurityConstants.AlgorithmUsage derivedKeyAlgoryithmUsage;
                         if (WSSConstants.Enc.equals(algorithmUsage)) {
@@ -21,8 +21,10 @@ package org.apache.wss4j.stax.impl.processor.input;
 import org.apache.commons.codec.binary.Base64;
 import org.apache.wss4j.binding.wss10.ObjectFactory;
 import org.apache.wss4j.binding.wss10.SecurityTokenReferenceType;
+import org.apache.wss4j.common.cache.SamlAssertionCache;
 import org.apache.wss4j.common.ext.WSSecurityException;
 import org.apache.wss4j.common.saml.OpenSAMLUtil;
+import org.apache.wss4j.common.saml.SAMLKeyInfo;
 import org.apache.wss4j.common.saml.SAMLUtil;
 import org.apache.wss4j.common.saml.SamlAssertionWrapper;
 import org.apache.wss4j.stax.ext.WSInboundSecurityContext;
@@ -44,9 +46,7 @@ import org.apache.xml.security.binding.xmlenc.EncryptedKeyType;
 import org.apache.xml.security.exceptions.XMLSecurityException;
 import org.apache.xml.security.stax.config.JCEAlgorithmMapper;
 import org.apache.xml.security.stax.ext.*;
-import org.apache.xml.security.stax.ext.stax.XMLSecAttribute;
 import org.apache.xml.security.stax.ext.stax.XMLSecEvent;
-import org.apache.xml.security.stax.ext.stax.XMLSecNamespace;
 import org.apache.xml.security.stax.ext.stax.XMLSecStartElement;
 import org.apache.xml.security.stax.impl.XMLSecurityEventReader;
 import org.apache.xml.security.stax.impl.securityToken.AbstractInboundSecurityToken;
@@ -57,11 +57,7 @@ import org.apache.xml.security.stax.securityToken.InboundSecurityToken;
 import org.apache.xml.security.stax.securityToken.SecurityToken;
 import org.apache.xml.security.stax.securityToken.SecurityTokenFactory;
 import org.apache.xml.security.stax.securityToken.SecurityTokenProvider;
-import org.opensaml.xml.security.x509.BasicX509Credential;
 import org.opensaml.xml.signature.Signature;
-import org.opensaml.xml.signature.SignatureValidator;
-import org.opensaml.xml.validation.ValidationException;
-import org.w3c.dom.Attr;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
@@ -71,13 +67,8 @@ import javax.xml.bind.JAXBElement;
 import javax.xml.bind.JAXBException;
 import javax.xml.bind.Unmarshaller;
 import javax.xml.namespace.QName;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.stream.XMLStreamConstants;
 import javax.xml.stream.XMLStreamException;
-import javax.xml.stream.events.Comment;
-import javax.xml.stream.events.Namespace;
-import javax.xml.stream.events.ProcessingInstruction;
 import java.security.Key;
 import java.security.PublicKey;
 import java.security.cert.X509Certificate;
@@ -88,13 +79,13 @@ import java.util.*;
  */
 public class SAMLTokenInputHandler extends AbstractInputSecurityHeaderHandler {
 
-    private static final DocumentBuilderFactory documentBuilderFactory = DocumentBuilderFactory.newInstance();
+    private static final transient org.slf4j.Logger LOG =
+        org.slf4j.LoggerFactory.getLogger(SAMLTokenInputHandler.class);
 
     private static final List<QName> saml1TokenPath = new ArrayList<QName>(WSSConstants.WSSE_SECURITY_HEADER_PATH);
     private static final List<QName> saml2TokenPath = new ArrayList<QName>(WSSConstants.WSSE_SECURITY_HEADER_PATH);
 
     static {
-        documentBuilderFactory.setNamespaceAware(true);
         saml1TokenPath.add(WSSConstants.TAG_saml_Assertion);
         saml2TokenPath.add(WSSConstants.TAG_saml2_Assertion);
     }
@@ -116,7 +107,17 @@ public class SAMLTokenInputHandler extends AbstractInputSecurityHeaderHandler {
         }
 
         //important: check the signature before we do other processing...
-        if (samlAssertionWrapper.isSigned()) {
+        final SamlAssertionCache samlAssertionCache = wssSecurityProperties.getSamlAssertionCache();
+        SAMLKeyInfo cachedSignatureKeyInfo = null;
+        if (samlAssertionCache != null && samlAssertionWrapper.isSigned()) {
+            cachedSignatureKeyInfo = samlAssertionCache.get(samlAssertionWrapper);
+        }
+        if (cachedSignatureKeyInfo != null) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Signature of SAML Assertion " + samlAssertionWrapper.getId() + " verified from cache");
+            }
+            samlAssertionWrapper.setSignatureKeyInfoFromCache(cachedSignatureKeyInfo);
+        } else if (samlAssertionWrapper.isSigned()) {
             Signature signature = samlAssertionWrapper.getSignature();
             if (signature == null) {
                 throw new WSSecurityException(WSSecurityException.ErrorCode.INVALID_SECURITY_TOKEN,
@@ -135,23 +136,22 @@ public class SAMLTokenInputHandler extends AbstractInputSecurityHeaderHandler {
 
             samlTokenValidator.validate(sigSecurityToken, wssSecurityProperties);
 
-            BasicX509Credential credential = new BasicX509Credential();
+            SAMLKeyInfo signatureKeyInfo;
             if (sigSecurityToken.getX509Certificates() != null) {
-                credential.setEntityCertificate(sigSecurityToken.getX509Certificates()[0]);
+                signatureKeyInfo = new SAMLKeyInfo(sigSecurityToken.getX509Certificates());
             } else if (sigSecurityToken.getPublicKey() != null) {
-                credential.setPublicKey(sigSecurityToken.getPublicKey());
+                signatureKeyInfo = new SAMLKeyInfo(sigSecurityToken.getPublicKey());
             } else {
                 throw new WSSecurityException(
                         WSSecurityException.ErrorCode.FAILURE, "invalidSAMLsecurity",
                         "cannot get certificate or key"
                 );
             }
-            SignatureValidator sigValidator = new SignatureValidator(credential);
-            try {
-                sigValidator.validate(signature);
-            } catch (ValidationException ex) {
-                throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE,
-                        "empty", ex, "SAML signature validation failed");
+            //verifies the signature and keeps the signing key on the assertion
+            samlAssertionWrapper.verifySignature(signatureKeyInfo);
+
+            if (samlAssertionCache != null) {
+                samlAssertionCache.add(samlAssertionWrapper, signatureKeyInfo);
             }
         }
 
@@ -433,122 +433,21 @@ public class SAMLTokenInputHandler extends AbstractInputSecurityHeaderHandler {
     @Override
     protected <T> T parseStructure(Deque<XMLSecEvent> eventDeque, int index, XMLSecurityProperties securityProperties)
             throws XMLSecurityException {
-        Document document;
-        try {
-            document = documentBuilderFactory.newDocumentBuilder().newDocument();
-        } catch (ParserConfigurationException e) {
-            throw new WSSecurityException(WSSecurityException.ErrorCode.INVALID_SECURITY_TOKEN, e);
-        }
-
         Iterator<XMLSecEvent> xmlSecEventIterator = eventDeque.descendingIterator();
         int curIdx = 0;
         while (curIdx++ < index) {
             xmlSecEventIterator.next();
         }
-
-        Node currentNode = document;
-        while (xmlSecEventIterator.hasNext()) {
-            XMLSecEvent next = xmlSecEventIterator.next();
-            currentNode = parseXMLEvent(next, currentNode, document);
-        }
-        return (T) document;
+        return (T) XMLSecEventDOMBuilder.build(xmlSecEventIterator);
     }
 
-    //todo custom SAML unmarshaller directly to XMLObject?
+    /**
+     * @deprecated use {@link XMLSecEventDOMBuilder#build(Iterator)} to build the Document of all
+     * the events, or {@link XMLSecEventDOMBuilder#append(XMLSecEvent, Node, Document)}
+     */
+    @Deprecated
     public Node parseXMLEvent(XMLSecEvent xmlSecEvent, Node currentNode, Document document) throws WSSecurityException {
-        switch (xmlSecEvent.getEventType()) {
-            case XMLStreamConstants.START_ELEMENT:
-                XMLSecStartElement xmlSecStartElement = xmlSecEvent.asStartElement();
-                Element element = document.createElementNS(xmlSecStartElement.getName().getNamespaceURI(),
-                        xmlSecStartElement.getName().getLocalPart());
-                if (xmlSecStartElement.getName().getPrefix() != null && !xmlSecStartElement.getName().getPrefix().isEmpty()) {
-                    element.setPrefix(xmlSecStartElement.getName().getPrefix());
-                }
-                currentNode = currentNode.appendChild(element);
-                @SuppressWarnings("unchecked")
-                Iterator<XMLSecNamespace> namespaceIterator = xmlSecStartElement.getNamespaces();
-                while (namespaceIterator.hasNext()) {
-                    XMLSecNamespace next = namespaceIterator.next();
-                    parseXMLEvent(next, currentNode, document);
-                }
-                @SuppressWarnings("unchecked")
-                Iterator<XMLSecAttribute> attributesIterator = xmlSecStartElement.getAttributes();
-                while (attributesIterator.hasNext()) {
-                    XMLSecAttribute next = attributesIterator.next();
-                    parseXMLEvent(next, currentNode, document);
-                }
-                //add namespace which is not declared on current element but must be on a parent element:
-                String elementNs = document.lookupNamespaceURI(xmlSecStartElement.getName().getPrefix());
-                if (elementNs == null) {
-                    parseXMLEvent(xmlSecStartElement.getElementNamespace(), currentNode, document);
-                }
-                break;
-            case XMLStreamConstants.END_ELEMENT:
-                if (currentNode.getParentNode() != null) {
-                    currentNode = currentNode.getParentNode();
-                }
-                break;
-            case XMLStreamConstants.PROCESSING_INSTRUCTION:
-                Node piNode = document.createProcessingInstruction(
-                        ((ProcessingInstruction) xmlSecEvent).getTarget(),
-                        ((ProcessingInstruction) xmlSecEvent).getTarget()
-                );
-                currentNode.appendChild(piNode);
-                break;
-            case XMLStreamConstants.CHARACTERS:
-                Node characterNode = document.createTextNode(xmlSecEvent.asCharacters().getData());
-                currentNode.appendChild(characterNode);
-                break;
-            case XMLStreamConstants.COMMENT:
-                Node commentNode = document.createComment(((Comment) xmlSecEvent).getText());
-                currentNode.appendChild(commentNode);
-                break;
-            case XMLStreamConstants.START_DOCUMENT:
-                break;
-            case XMLStreamConstants.END_DOCUMENT:
-                return currentNode;
-            case XMLStreamConstants.ATTRIBUTE:
-                final XMLSecAttribute xmlSecAttribute = (XMLSecAttribute) xmlSecEvent;
-                Attr attributeNode = document.createAttributeNS(
-                        xmlSecAttribute.getName().getNamespaceURI(),
-                        xmlSecAttribute.getName().getLocalPart());
-                attributeNode.setPrefix(xmlSecAttribute.getName().getPrefix());
-                attributeNode.setValue(xmlSecAttribute.getValue());
-                ((Element) currentNode).setAttributeNodeNS(attributeNode);
-
-                //add namespace which is not declared on current element but must be on a parent element:
-                String attrNs = document.lookupNamespaceURI(xmlSecAttribute.getName().getPrefix());
-                if (attrNs == null) {
-                    parseXMLEvent(xmlSecAttribute.getAttributeNamespace(), currentNode, document);
-                }
-                break;
-            case XMLStreamConstants.DTD:
-                //todo?:
-                /*
-                Node dtdNode = document.getDoctype().getEntities()
-                ((DTD)xmlSecEvent).getDocumentTypeDeclaration():
-                ((DTD)xmlSecEvent).getEntities()
-                */
-                break;
-            case XMLStreamConstants.NAMESPACE:
-                Namespace namespace = (Namespace) xmlSecEvent;
-                Attr namespaceNode;
-                String prefix = namespace.getPrefix();
-                if (prefix == null || prefix.isEmpty()) {
-                    namespaceNode = document.createAttributeNS(WSSConstants.NS_XML, "xmlns");
-                } else {
-                    namespaceNode = document.createAttributeNS(WSSConstants.NS_XML, "xmlns:" + prefix);
-                }
-                namespaceNode.setValue(namespace.getNamespaceURI());
-                ((Element) currentNode).setAttributeNodeNS(namespaceNode);
-                break;
-            default:
-                throw new WSSecurityException(
-                        WSSecurityException.ErrorCode.INVALID_SECURITY_TOKEN,
-                        "empty",
-                        "Illegal XMLEvent received: " + xmlSecEvent.getEventType());
-        }
-        return currentNode;
+        return XMLSecEventDOMBuilder.append(xmlSecEvent, currentNode, document);
     }
 
     /**
@@ -20,25 +20,31 @@ package org.apache.wss4j.stax.impl.processor.input;
 
 import java.util.ArrayDeque;
 import java.util.Deque;
+import java.util.List;
 
 import javax.xml.namespace.QName;
 import javax.xml.stream.XMLStreamConstants;
 import javax.xml.stream.XMLStreamException;
 
 import org.apache.wss4j.common.bsp.BSPRule;
+import org.apache.wss4j.common.cache.PendingReplayChecks;
 import org.apache.wss4j.common.ext.WSSecurityException;
+import org.apache.wss4j.stax.ext.SecurityHeaderBufferMetrics;
 import org.apache.wss4j.stax.ext.WSInboundSecurityContext;
 import org.apache.wss4j.stax.ext.WSSConstants;
 import org.apache.wss4j.stax.ext.WSSSecurityProperties;
 import org.apache.wss4j.stax.ext.WSSUtils;
+import org.apache.wss4j.stax.impl.SpoolingXMLSecEventDeque;
 import org.apache.xml.security.exceptions.XMLSecurityException;
 import org.apache.xml.security.stax.config.SecurityHeaderHandlerMapper;
 import org.apache.xml.security.stax.ext.AbstractInputProcessor;
 import org.apache.xml.security.stax.ext.InputProcessorChain;
 import org.apache.xml.security.stax.ext.XMLSecurityHeaderHandler;
 import org.apache.xml.security.stax.ext.XMLSecurityProperties;
+import org.apache.xml.security.stax.ext.stax.XMLSecAttribute;
 import org.apache.xml.security.stax.ext.stax.XMLSecEndElement;
 import org.apache.xml.security.stax.ext.stax.XMLSecEvent;
+import org.apache.xml.security.stax.ext.stax.XMLSecNamespace;
 import org.apache.xml.security.stax.ext.stax.XMLSecStartElement;
 import org.apache.xml.security.stax.impl.processor.input.XMLEventReaderInputProcessor;
 
@@ -54,6 +60,13 @@ public class SecurityHeaderInputProcessor extends AbstractInputProcessor {
     private final ArrayDeque<XMLSecEvent> xmlSecEventList = new ArrayDeque<XMLSecEvent>();
     private int eventCount = 0;
     private int startIndexForProcessor = 0;
+    //the oldest events which are moved out of xmlSecEventList when the buffer limit is reached
+    private SpoolingXMLSecEventDeque spooledEventList;
+    private int spooledEventCount = 0;
+    private boolean inSecurityHeaderChild = false;
+    private long bufferedBytes = 0;
+    private long totalBufferedBytes = 0;
+    private long spooledBytes = 0;
 
     public SecurityHeaderInputProcessor(WSSSecurityProperties securityProperties) {
         super(securityProperties);
@@ -69,6 +82,22 @@ public class SecurityHeaderInputProcessor extends AbstractInputProcessor {
     @Override
     public XMLSecEvent processNextEvent(InputProcessorChain inputProcessorChain)
             throws XMLStreamException, XMLSecurityException {
+        try {
+            return processSecurityHeader(inputProcessorChain);
+        } catch (XMLStreamException e) {
+            closeSpooledEventList();
+            throw e;
+        } catch (XMLSecurityException e) {
+            closeSpooledEventList();
+            throw e;
+        } catch (RuntimeException e) {
+            closeSpooledEventList();
+            throw e;
+        }
+    }
+
+    private XMLSecEvent processSecurityHeader(InputProcessorChain inputProcessorChain)
+            throws XMLStreamException, XMLSecurityException {
 
         //buffer all events until the end of the security header
         final InputProcessorChain subInputProcessorChain = inputProcessorChain.createSubChain(this);
@@ -100,7 +129,7 @@ public class SecurityHeaderInputProcessor extends AbstractInputProcessor {
 
                         if (!WSSUtils.isResponsibleActorOrRole(xmlSecStartElement,
                                 ((WSSSecurityProperties) getSecurityProperties()).getActor())) {
-                            continue;
+                            break;
                         }
                         responsibleSecurityHeaderFound = true;
 
@@ -108,6 +137,7 @@ public class SecurityHeaderInputProcessor extends AbstractInputProcessor {
                             && WSSUtils.isInSecurityHeader(xmlSecStartElement,
                             ((WSSSecurityProperties) getSecurityProperties()).getActor())) {
                         startIndexForProcessor = eventCount - 1;
+                        inSecurityHeaderChild = true;
                     }
                     break;
                 case XMLStreamConstants.END_ELEMENT:
@@ -116,6 +146,13 @@ public class SecurityHeaderInputProcessor extends AbstractInputProcessor {
                     if (documentLevel == 3 && responsibleSecurityHeaderFound
                             && xmlSecEndElement.getName().equals(WSSConstants.TAG_wsse_Security)) {
 
+                        //wait for the results of the replay checks of the tokens in the header
+                        PendingReplayChecks pendingReplayChecks =
+                            subInputProcessorChain.getSecurityContext().get(WSSConstants.PROP_PENDING_REPLAY_CHECKS);
+                        if (pendingReplayChecks != null) {
+                            pendingReplayChecks.verify();
+                        }
+
                         //subInputProcessorChain.getDocumentContext().setInSecurityHeader(false);
                         subInputProcessorChain.removeProcessor(internalSecurityHeaderBufferProcessor);
                         subInputProcessorChain.addProcessor(
@@ -128,15 +165,23 @@ public class SecurityHeaderInputProcessor extends AbstractInputProcessor {
                         inputProcessorChain.getProcessors().clear();
                         inputProcessorChain.getProcessors().addAll(subInputProcessorChain.getProcessors());
 
+                        SecurityHeaderBufferMetrics metrics =
+                            ((WSSSecurityProperties) getSecurityProperties()).getSecurityHeaderBufferMetrics();
+                        if (metrics != null) {
+                            metrics.record(totalBufferedBytes, spooledBytes);
+                        }
+
                         //return first event now;
-                        return xmlSecEventList.pollLast();
+                        return pollBufferedEvent();
                     } else if (documentLevel == 4 && responsibleSecurityHeaderFound
                             && WSSUtils.isInSecurityHeader(xmlSecEndElement,
                             ((WSSSecurityProperties) getSecurityProperties()).getActor())) {
                         //we are in the security header and the depth is +1, so every child
                         //element should have a responsible handler:
                         engageSecurityHeaderHandler(subInputProcessorChain, getSecurityProperties(),
-                                xmlSecEventList, startIndexForProcessor, xmlSecEndElement.getName());
+                                xmlSecEventList, startIndexForProcessor - spooledEventCount,
+                                xmlSecEndElement.getName());
+                        inSecurityHeaderChild = false;
                         
                         // Check for multiple timestamps
                         if (xmlSecEndElement.getName().equals(WSSConstants.TAG_wsu_Timestamp)) {
@@ -150,6 +195,9 @@ public class SecurityHeaderInputProcessor extends AbstractInputProcessor {
                     }
                     break;
             }
+            //must be called after the switch since a start tag of a security header child
+            //changes the events which may be spooled
+            limitBuffer(xmlSecEvent);
 
         } while (!(xmlSecEvent.getEventType() == XMLStreamConstants.START_ELEMENT
                 && xmlSecEvent.asStartElement().getName().getLocalPart().equals(WSSConstants.TAG_soap_Body_LocalName)
@@ -160,6 +208,87 @@ public class SecurityHeaderInputProcessor extends AbstractInputProcessor {
         throw new WSSecurityException(WSSecurityException.ErrorCode.INVALID_SECURITY, "missingSecurityHeader");
     }
 
+    /**
+     * Keeps the (estimated) size of the buffered events below the security header buffer limit.
+     * The events of the processed header elements are not needed anymore by the handlers, so
+     * they can be spooled until they are replayed. The element which is processed currently
+     * must fit into the buffer.
+     */
+    private void limitBuffer(XMLSecEvent xmlSecEvent) throws XMLSecurityException {
+        long size = estimateSize(xmlSecEvent);
+        bufferedBytes += size;
+        totalBufferedBytes += size;
+
+        WSSSecurityProperties securityProperties = (WSSSecurityProperties) getSecurityProperties();
+        int limit = securityProperties.getSecurityHeaderBufferLimit();
+        if (limit <= 0 || bufferedBytes <= limit) {
+            return;
+        }
+        if (securityProperties.isSpoolSecurityHeaderBuffer()) {
+            if (spooledEventList == null) {
+                spooledEventList =
+                    new SpoolingXMLSecEventDeque(0, securityProperties.getSecurityHeaderBufferDirectory());
+            }
+            int spoolableEventCount = inSecurityHeaderChild ? startIndexForProcessor : eventCount;
+            while (spooledEventCount < spoolableEventCount) {
+                XMLSecEvent oldestXmlSecEvent = xmlSecEventList.pollLast();
+                size = estimateSize(oldestXmlSecEvent);
+                spooledEventList.offer(oldestXmlSecEvent);
+                spooledEventCount++;
+                bufferedBytes -= size;
+                spooledBytes += size;
+            }
+            if (bufferedBytes <= limit) {
+                return;
+            }
+        }
+        throw new WSSecurityException(WSSecurityException.ErrorCode.INVALID_SECURITY, "empty",
+                                      "The security header exceeds the buffer limit of " + limit + " bytes");
+    }
+
+    /**
+     * Returns the estimated number of bytes the given event occupies in the security header buffer.
+     */
+    public static long estimateSize(XMLSecEvent xmlSecEvent) {
+        switch (xmlSecEvent.getEventType()) {
+            case XMLStreamConstants.START_ELEMENT:
+                XMLSecStartElement xmlSecStartElement = xmlSecEvent.asStartElement();
+                long size = 64;
+                List<XMLSecAttribute> attributes = xmlSecStartElement.getOnElementDeclaredAttributes();
+                for (int i = 0; i < attributes.size(); i++) {
+                    size += 32 + 2 * attributes.get(i).getValue().length();
+                }
+                List<XMLSecNamespace> namespaces = xmlSecStartElement.getOnElementDeclaredNamespaces();
+                for (int i = 0; i < namespaces.size(); i++) {
+                    size += 32 + 2 * namespaces.get(i).getNamespaceURI().length();
+                }
+                return size;
+            case XMLStreamConstants.CHARACTERS:
+                return 48 + 2 * xmlSecEvent.asCharacters().getText().length();
+            default:
+                return 32;
+        }
+    }
+
+    private XMLSecEvent pollBufferedEvent() {
+        if (spooledEventList != null) {
+            XMLSecEvent xmlSecEvent = spooledEventList.poll();
+            if (xmlSecEvent != null) {
+                return xmlSecEvent;
+            }
+            spooledEventList.close();
+            spooledEventList = null;
+        }
+        return xmlSecEventList.pollLast();
+    }
+
+    private void closeSpooledEventList() {
+        if (spooledEventList != null) {
+            spooledEventList.close();
+            spooledEventList = null;
+        }
+    }
+
     @SuppressWarnings("unchecked")
     private void engageSecurityHeaderHandler(InputProcessorChain inputProcessorChain,
                                              XMLSecurityProperties securityProperties,
@@ -237,8 +366,9 @@ public class SecurityHeaderInputProcessor extends AbstractInputProcessor {
         public XMLSecEvent processNextEvent(InputProcessorChain inputProcessorChain)
                 throws XMLStreamException, XMLSecurityException {
 
-            if (!xmlSecEventList.isEmpty()) {
-                return xmlSecEventList.pollLast();
+            XMLSecEvent xmlSecEvent = pollBufferedEvent();
+            if (xmlSecEvent != null) {
+                return xmlSecEvent;
             } else {
                 inputProcessorChain.removeProcessor(this);
                 return inputProcessorChain.processEvent();
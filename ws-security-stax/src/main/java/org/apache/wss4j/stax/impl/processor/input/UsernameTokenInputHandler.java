@@ -23,6 +23,8 @@ import org.apache.wss4j.binding.wss10.PasswordString;
 import org.apache.wss4j.binding.wss10.UsernameTokenType;
 import org.apache.wss4j.binding.wsu10.AttributedDateTime;
 import org.apache.wss4j.common.bsp.BSPRule;
+import org.apache.wss4j.common.cache.BatchingReplayCache;
+import org.apache.wss4j.common.cache.PendingReplayChecks;
 import org.apache.wss4j.common.cache.ReplayCache;
 import org.apache.wss4j.common.ext.WSSecurityException;
 import org.apache.wss4j.common.util.DateUtil;
@@ -50,6 +52,7 @@ import javax.xml.stream.XMLStreamConstants;
 import java.util.Date;
 import java.util.Deque;
 import java.util.List;
+import java.util.concurrent.Future;
 
 /**
  * Processor for the UsernameToken XML Structure
@@ -79,7 +82,28 @@ public class UsernameTokenInputHandler extends AbstractInputSecurityHeaderHandle
         ReplayCache replayCache = wssSecurityProperties.getNonceReplayCache();
         final EncodedString encodedNonce =
                 XMLSecurityUtils.getQNameType(usernameTokenType.getAny(), WSSConstants.TAG_wsse_Nonce);
-        if (encodedNonce != null && replayCache != null) {
+        if (encodedNonce != null && replayCache instanceof BatchingReplayCache) {
+            // Don't wait for the result, it is verified at the end of the security header
+            BatchingReplayCache batchingReplayCache = (BatchingReplayCache)replayCache;
+            String nonce = encodedNonce.getValue();
+            int utTTL = wssSecurityProperties.getUtTTL();
+            Future<Boolean> result;
+            if (createdDate == null || utTTL <= 0) {
+                result = batchingReplayCache.addIfAbsent(nonce);
+            } else {
+                result = batchingReplayCache.addIfAbsent(nonce, utTTL + 1L);
+            }
+            SecurityContext securityContext = inputProcessorChain.getSecurityContext();
+            PendingReplayChecks pendingReplayChecks = 
+                securityContext.get(WSSConstants.PROP_PENDING_REPLAY_CHECKS);
+            if (pendingReplayChecks == null) {
+                // The checks are verified by the SecurityHeaderInputProcessor
+                pendingReplayChecks = new PendingReplayChecks();
+                pendingReplayChecks.start();
+                securityContext.put(WSSConstants.PROP_PENDING_REPLAY_CHECKS, pendingReplayChecks);
+            }
+            pendingReplayChecks.add(result, WSSecurityException.ErrorCode.FAILED_AUTHENTICATION, null);
+        } else if (encodedNonce != null && replayCache != null) {
             // Check for replay attacks
             String nonce = encodedNonce.getValue();
             if (replayCache.contains(nonce)) {
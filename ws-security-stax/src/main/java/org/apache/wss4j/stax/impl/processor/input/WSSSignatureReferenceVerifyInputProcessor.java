@@ -20,6 +20,8 @@ package org.apache.wss4j.stax.impl.processor.input;
 
 import org.apache.wss4j.binding.wss10.TransformationParametersType;
 import org.apache.wss4j.common.bsp.BSPRule;
+import org.apache.wss4j.common.cache.BatchingReplayCache;
+import org.apache.wss4j.common.cache.PendingReplayChecks;
 import org.apache.wss4j.common.cache.ReplayCache;
 import org.apache.wss4j.common.ext.Attachment;
 import org.apache.wss4j.common.ext.AttachmentRequestCallback;
@@ -284,6 +286,25 @@ public class WSSSignatureReferenceVerifyInputProcessor extends AbstractSignature
             final String cacheKey = String.valueOf(
                     timestampSecurityEvent.getCreated().getTimeInMillis()) +
                     "" + Arrays.hashCode(getSignatureType().getSignatureValue().getValue());
+            if (replayCache instanceof BatchingReplayCache) {
+                // Check and add the identifier in a single step. It is sent together with
+                // the identifiers of other messages that are processed at the same time
+                BatchingReplayCache batchingReplayCache = (BatchingReplayCache)replayCache;
+                Calendar expiresCal = timestampSecurityEvent.getExpires();
+                PendingReplayChecks pendingReplayChecks = new PendingReplayChecks();
+                if (expiresCal != null) {
+                    long currentTime = System.currentTimeMillis();
+                    pendingReplayChecks.add(
+                        batchingReplayCache.addIfAbsent(
+                            cacheKey, (expiresCal.getTimeInMillis() - currentTime) / 1000L),
+                        WSSecurityException.ErrorCode.MESSAGE_EXPIRED, null);
+                } else {
+                    pendingReplayChecks.add(batchingReplayCache.addIfAbsent(cacheKey),
+                        WSSecurityException.ErrorCode.MESSAGE_EXPIRED, null);
+                }
+                pendingReplayChecks.verify();
+                return;
+            }
             if (replayCache.contains(cacheKey)) {
                 throw new WSSecurityException(WSSecurityException.ErrorCode.MESSAGE_EXPIRED);
             }
@@ -0,0 +1,227 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.wss4j.stax.impl.processor.input;
+
+import java.util.Iterator;
+
+import javax.xml.namespace.QName;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.events.Comment;
+import javax.xml.stream.events.ProcessingInstruction;
+
+import org.apache.wss4j.common.ext.WSSecurityException;
+import org.apache.wss4j.stax.ext.WSSConstants;
+import org.apache.xml.security.stax.ext.stax.XMLSecAttribute;
+import org.apache.xml.security.stax.ext.stax.XMLSecEvent;
+import org.apache.xml.security.stax.ext.stax.XMLSecNamespace;
+import org.apache.xml.security.stax.ext.stax.XMLSecStartElement;
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.Text;
+
+/**
+ * Builds a DOM Document from a sequence of buffered XMLSecEvents in a single pass. It is used
+ * to hand a security header element (e.g. a SAML Assertion) to a DOM based library such as
+ * OpenSAML, whose unmarshallers and (enveloped) signature validation only work on a DOM.
+ *
+ * The builder only adds the namespace declarations that are really needed to the
+ * Document, adjacent character events are merged into one Text node, and the DocumentBuilder
+ * is reused per thread.
+ */
+public final class XMLSecEventDOMBuilder {
+
+    private static final DocumentBuilderFactory DOCUMENT_BUILDER_FACTORY = DocumentBuilderFactory.newInstance();
+
+    static {
+        DOCUMENT_BUILDER_FACTORY.setNamespaceAware(true);
+    }
+
+    private static final ThreadLocal<DocumentBuilder> DOCUMENT_BUILDER =
+        new ThreadLocal<DocumentBuilder>() {
+            @Override
+            protected DocumentBuilder initialValue() {
+                try {
+                    return DOCUMENT_BUILDER_FACTORY.newDocumentBuilder();
+                } catch (ParserConfigurationException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        };
+
+    private XMLSecEventDOMBuilder() {
+        // complete
+    }
+
+    /**
+     * Build a new Document from the given events. The events must start with the start
+     * element of the document element, and the building stops after its end element.
+     */
+    public static Document build(Iterator<XMLSecEvent> xmlSecEventIterator) throws WSSecurityException {
+        Document document;
+        try {
+            document = DOCUMENT_BUILDER.get().newDocument();
+        } catch (IllegalStateException e) {
+            throw new WSSecurityException(WSSecurityException.ErrorCode.INVALID_SECURITY_TOKEN, e);
+        }
+
+        Node currentNode = document;
+        while (xmlSecEventIterator.hasNext()) {
+            XMLSecEvent xmlSecEvent = xmlSecEventIterator.next();
+            int eventType = xmlSecEvent.getEventType();
+            if (eventType == XMLStreamConstants.END_DOCUMENT
+                    || eventType == XMLStreamConstants.END_ELEMENT && currentNode == document) {
+                return document;
+            }
+            currentNode = append(xmlSecEvent, currentNode, document);
+            if (eventType == XMLStreamConstants.END_ELEMENT && currentNode == document) {
+                return document;
+            }
+        }
+        return document;
+    }
+
+    /**
+     * Append a single event to the given node of the Document.
+     * @return the node to which the next event must be appended
+     */
+    public static Node append(XMLSecEvent xmlSecEvent, Node currentNode, Document document)
+            throws WSSecurityException {
+        switch (xmlSecEvent.getEventType()) {
+            case XMLStreamConstants.START_ELEMENT:
+                return addElement(document, currentNode, xmlSecEvent.asStartElement());
+            case XMLStreamConstants.END_ELEMENT:
+                if (currentNode.getParentNode() != null) {
+                    return currentNode.getParentNode();
+                }
+                break;
+            case XMLStreamConstants.CHARACTERS:
+                String data = xmlSecEvent.asCharacters().getData();
+                Node lastChild = currentNode.getLastChild();
+                if (lastChild != null && lastChild.getNodeType() == Node.TEXT_NODE) {
+                    ((Text) lastChild).appendData(data);
+                } else {
+                    currentNode.appendChild(document.createTextNode(data));
+                }
+                break;
+            case XMLStreamConstants.COMMENT:
+                currentNode.appendChild(document.createComment(((Comment) xmlSecEvent).getText()));
+                break;
+            case XMLStreamConstants.PROCESSING_INSTRUCTION:
+                ProcessingInstruction processingInstruction = (ProcessingInstruction) xmlSecEvent;
+                currentNode.appendChild(document.createProcessingInstruction(
+                        processingInstruction.getTarget(), processingInstruction.getData()));
+                break;
+            case XMLStreamConstants.ATTRIBUTE:
+                addAttribute((Element) currentNode, (XMLSecAttribute) xmlSecEvent);
+                break;
+            case XMLStreamConstants.NAMESPACE:
+                addNamespace((Element) currentNode, (XMLSecNamespace) xmlSecEvent);
+                break;
+            case XMLStreamConstants.START_DOCUMENT:
+            case XMLStreamConstants.END_DOCUMENT:
+            case XMLStreamConstants.DTD:
+                break;
+            default:
+                throw new WSSecurityException(
+                        WSSecurityException.ErrorCode.INVALID_SECURITY_TOKEN,
+                        "empty",
+                        "Illegal XMLEvent received: " + xmlSecEvent.getEventType());
+        }
+        return currentNode;
+    }
+
+    private static Element addElement(Document document, Node parentNode, XMLSecStartElement xmlSecStartElement) {
+        QName name = xmlSecStartElement.getName();
+        Element element = document.createElementNS(getNamespaceURI(name), getQualifiedName(name));
+        parentNode.appendChild(element);
+
+        @SuppressWarnings("unchecked")
+        Iterator<XMLSecNamespace> namespaceIterator = xmlSecStartElement.getNamespaces();
+        while (namespaceIterator.hasNext()) {
+            addNamespace(element, namespaceIterator.next());
+        }
+        //add the namespace of the element if it is declared on an element outside of the events:
+        if (!isInScope(element, name)) {
+            addNamespace(element, xmlSecStartElement.getElementNamespace());
+        }
+
+        @SuppressWarnings("unchecked")
+        Iterator<XMLSecAttribute> attributesIterator = xmlSecStartElement.getAttributes();
+        while (attributesIterator.hasNext()) {
+            addAttribute(element, attributesIterator.next());
+        }
+        return element;
+    }
+
+    private static void addAttribute(Element element, XMLSecAttribute xmlSecAttribute) {
+        QName attributeName = xmlSecAttribute.getName();
+        element.setAttributeNS(getNamespaceURI(attributeName), getQualifiedName(attributeName),
+                xmlSecAttribute.getValue());
+        //unprefixed attributes are never in a namespace, and the xml prefix is always bound
+        String attributePrefix = attributeName.getPrefix();
+        if (!attributePrefix.isEmpty() && !"xml".equals(attributePrefix)
+                && !isInScope(element, attributeName)) {
+            addNamespace(element, xmlSecAttribute.getAttributeNamespace());
+        }
+    }
+
+    private static void addNamespace(Element element, XMLSecNamespace namespace) {
+        String prefix = namespace.getPrefix();
+        if (prefix == null || prefix.isEmpty()) {
+            element.setAttributeNS(WSSConstants.NS_XML, "xmlns", namespace.getNamespaceURI());
+        } else {
+            element.setAttributeNS(WSSConstants.NS_XML, "xmlns:" + prefix, namespace.getNamespaceURI());
+        }
+    }
+
+    /**
+     * The DOM lookupNamespaceURI methods also take the namespaces of the element itself into
+     * account, so the namespace declarations are looked up explicitly.
+     */
+    private static boolean isInScope(Element element, QName name) {
+        String localName = name.getPrefix().isEmpty() ? "xmlns" : name.getPrefix();
+        Node node = element;
+        while (node != null && node.getNodeType() == Node.ELEMENT_NODE) {
+            Attr namespaceNode = ((Element) node).getAttributeNodeNS(WSSConstants.NS_XML, localName);
+            if (namespaceNode != null) {
+                return name.getNamespaceURI().equals(namespaceNode.getValue());
+            }
+            node = node.getParentNode();
+        }
+        return name.getNamespaceURI().isEmpty();
+    }
+
+    private static String getNamespaceURI(QName name) {
+        String namespaceURI = name.getNamespaceURI();
+        return namespaceURI.isEmpty() ? null : namespaceURI;
+    }
+
+    private static String getQualifiedName(QName name) {
+        String prefix = name.getPrefix();
+        if (prefix.isEmpty()) {
+            return name.getLocalPart();
+        }
+        return prefix + ":" + name.getLocalPart();
+    }
+}
@@ -19,6 +19,7 @@
 package org.apache.wss4j.stax.impl.processor.output;
 
 import org.apache.wss4j.stax.impl.SecurityHeaderOrder;
+import org.apache.wss4j.stax.impl.SpoolingXMLSecEventDeque;
 import org.apache.xml.security.exceptions.XMLSecurityException;
 import org.apache.xml.security.stax.ext.OutputProcessorChain;
 import org.apache.xml.security.stax.ext.stax.XMLSecEvent;
@@ -37,6 +38,10 @@ import java.util.*;
  */
 public class EncryptEndingOutputProcessor extends AbstractEncryptEndingOutputProcessor {
 
+    //used instead of the buffer of the superclass when an outbound event buffer threshold is set
+    private SpoolingXMLSecEventDeque eventBuffer;
+    private boolean eventBufferInitialized;
+
     public EncryptEndingOutputProcessor() throws XMLSecurityException {
         super();
         this.addAfterProcessor(EncryptOutputProcessor.class.getName());
@@ -54,13 +59,48 @@ public class EncryptEndingOutputProcessor extends AbstractEncryptEndingOutputPro
         }
     }
 
+    @Override
+    public void processEvent(XMLSecEvent xmlSecEvent, OutputProcessorChain outputProcessorChain)
+            throws XMLStreamException, XMLSecurityException {
+        if (!eventBufferInitialized) {
+            WSSSecurityProperties securityProperties = (WSSSecurityProperties) getSecurityProperties();
+            if (securityProperties.getOutboundEventBufferThreshold() > 0) {
+                eventBuffer = new SpoolingXMLSecEventDeque(
+                        securityProperties.getOutboundEventBufferThreshold(),
+                        securityProperties.getOutboundEventBufferDirectory());
+            }
+            eventBufferInitialized = true;
+        }
+        if (eventBuffer == null) {
+            super.processEvent(xmlSecEvent, outputProcessorChain);
+        } else {
+            eventBuffer.offer(xmlSecEvent);
+        }
+    }
+
     @Override
     public void flushBufferAndCallbackAfterHeader(OutputProcessorChain outputProcessorChain,
                                                    Deque<XMLSecEvent> xmlSecEventDeque)
             throws XMLStreamException, XMLSecurityException {
+        try {
+            flushEvents(outputProcessorChain, xmlSecEventDeque);
+        } finally {
+            //delete the spool file also when the output fails
+            if (eventBuffer != null) {
+                eventBuffer.close();
+            }
+        }
+    }
+
+    private void flushEvents(OutputProcessorChain outputProcessorChain, Deque<XMLSecEvent> xmlSecEventDeque)
+            throws XMLStreamException, XMLSecurityException {
 
         final String actor = ((WSSSecurityProperties) getSecurityProperties()).getActor();
 
+        if (eventBuffer != null) {
+            xmlSecEventDeque = eventBuffer;
+        }
+
         //loop until we reach our security header
         loop:
         while (!xmlSecEventDeque.isEmpty()) {
@@ -20,6 +20,7 @@ package org.apache.wss4j.stax.impl.processor.output;
 
 import org.apache.commons.codec.binary.Base64;
 import org.apache.wss4j.common.ext.WSSecurityException;
+import org.apache.wss4j.common.util.JCEInstanceCache;
 import org.apache.wss4j.stax.ext.WSSConstants;
 import org.apache.wss4j.stax.ext.WSSSecurityProperties;
 import org.apache.wss4j.stax.ext.WSSUtils;
@@ -79,7 +80,7 @@ public class EncryptedKeyOutputProcessor extends AbstractOutputProcessor {
             String keyAlgorithm = JCEAlgorithmMapper.getJCERequiredKeyFromURI(securityProperties.getEncryptionSymAlgorithm());
             KeyGenerator keyGen;
             try {
-                keyGen = KeyGenerator.getInstance(keyAlgorithm);
+                keyGen = JCEInstanceCache.getKeyGenerator(keyAlgorithm);
             } catch (NoSuchAlgorithmException e) {
                 throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE, e);
             }
@@ -244,7 +245,7 @@ public class EncryptedKeyOutputProcessor extends AbstractOutputProcessor {
                 try {
                     //encrypt the symmetric session key with the public key from the receiver:
                     String jceid = JCEAlgorithmMapper.translateURItoJCEID(encryptionKeyTransportAlgorithm);
-                    Cipher cipher = Cipher.getInstance(jceid);
+                    Cipher cipher = JCEInstanceCache.getCipher(jceid);
 
                     AlgorithmParameterSpec algorithmParameterSpec = null;
                     if (XMLSecurityConstants.NS_XENC11_RSAOAEP.equals(encryptionKeyTransportAlgorithm) ||
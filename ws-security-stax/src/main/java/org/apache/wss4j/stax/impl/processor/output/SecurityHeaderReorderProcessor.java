@@ -23,6 +23,7 @@ import org.apache.wss4j.stax.ext.WSSConstants;
 import org.apache.wss4j.stax.ext.WSSSecurityProperties;
 import org.apache.wss4j.stax.ext.WSSUtils;
 import org.apache.wss4j.stax.impl.SecurityHeaderOrder;
+import org.apache.wss4j.stax.impl.SpoolingXMLSecEventDeque;
 import org.apache.xml.security.exceptions.XMLSecurityException;
 import org.apache.xml.security.stax.ext.AbstractOutputProcessor;
 import org.apache.xml.security.stax.ext.OutputProcessorChain;
@@ -81,6 +82,22 @@ public class SecurityHeaderReorderProcessor extends AbstractOutputProcessor {
 
     @Override
     public void processEvent(XMLSecEvent xmlSecEvent, OutputProcessorChain outputProcessorChain) throws XMLStreamException, XMLSecurityException {
+        try {
+            processSecurityHeaderEvent(xmlSecEvent, outputProcessorChain);
+        } catch (XMLStreamException e) {
+            closeSpoolingDeques();
+            throw e;
+        } catch (XMLSecurityException e) {
+            closeSpoolingDeques();
+            throw e;
+        } catch (RuntimeException e) {
+            closeSpoolingDeques();
+            throw e;
+        }
+    }
+
+    private void processSecurityHeaderEvent(XMLSecEvent xmlSecEvent, OutputProcessorChain outputProcessorChain)
+            throws XMLStreamException, XMLSecurityException {
 
         int documentLevel = xmlSecEvent.getDocumentLevel();
         if (documentLevel < 3 ||
@@ -145,7 +162,14 @@ public class SecurityHeaderReorderProcessor extends AbstractOutputProcessor {
                             throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE, "empty", "No encrypt action found");
                         }
                     }
-                    currentDeque = new ArrayDeque<XMLSecEvent>();
+                    WSSSecurityProperties securityProperties = (WSSSecurityProperties) getSecurityProperties();
+                    if (securityProperties.getOutboundEventBufferThreshold() > 0) {
+                        currentDeque = new SpoolingXMLSecEventDeque(
+                                securityProperties.getOutboundEventBufferThreshold(),
+                                securityProperties.getOutboundEventBufferDirectory());
+                    } else {
+                        currentDeque = new ArrayDeque<XMLSecEvent>();
+                    }
                     map.put(securityHeaderOrder.getSecurityHeaderElementName(), currentDeque);
 
                     securityHeaderIndex++;
@@ -154,4 +178,20 @@ public class SecurityHeaderReorderProcessor extends AbstractOutputProcessor {
         }
         currentDeque.offer(xmlSecEvent);
     }
+
+    /**
+     * Deletes the spool files of the buffered security header elements
+     */
+    private void closeSpoolingDeques() {
+        Iterator<Map<QName, Deque<XMLSecEvent>>> iterator = actionEventMap.values().iterator();
+        while (iterator.hasNext()) {
+            Iterator<Deque<XMLSecEvent>> dequeIterator = iterator.next().values().iterator();
+            while (dequeIterator.hasNext()) {
+                Deque<XMLSecEvent> xmlSecEvents = dequeIterator.next();
+                if (xmlSecEvents instanceof SpoolingXMLSecEventDeque) {
+                    ((SpoolingXMLSecEventDeque) xmlSecEvents).close();
+                }
+            }
+        }
+    }
 }
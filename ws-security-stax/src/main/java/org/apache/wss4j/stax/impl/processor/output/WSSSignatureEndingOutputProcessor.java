@@ -23,6 +23,7 @@ import org.apache.wss4j.stax.ext.WSSConstants;
 import org.apache.wss4j.stax.ext.WSSSecurityProperties;
 import org.apache.wss4j.stax.ext.WSSUtils;
 import org.apache.wss4j.stax.impl.SecurityHeaderOrder;
+import org.apache.wss4j.stax.impl.SpoolingXMLSecEventDeque;
 import org.apache.wss4j.stax.securityToken.WSSecurityTokenConstants;
 import org.apache.xml.security.exceptions.XMLSecurityException;
 import org.apache.xml.security.stax.ext.OutputProcessorChain;
@@ -45,6 +46,12 @@ import java.util.*;
 public class WSSSignatureEndingOutputProcessor extends AbstractSignatureEndingOutputProcessor {
 
     private SignedInfoProcessor signedInfoProcessor = null;
+    /**
+     * The buffer of the events when they are spooled to a file above a threshold, 
+     * instead of the in-memory buffer of the superclass
+     */
+    private SpoolingXMLSecEventDeque eventBuffer;
+    private boolean eventBufferInitialized;
 
     public WSSSignatureEndingOutputProcessor(WSSSignatureOutputProcessor signatureOutputProcessor) throws XMLSecurityException {
         super(signatureOutputProcessor);
@@ -191,13 +198,48 @@ public class WSSSignatureEndingOutputProcessor extends AbstractSignatureEndingOu
         }
     }
 
+    @Override
+    public void processEvent(XMLSecEvent xmlSecEvent, OutputProcessorChain outputProcessorChain)
+            throws XMLStreamException, XMLSecurityException {
+        if (!eventBufferInitialized) {
+            WSSSecurityProperties securityProperties = (WSSSecurityProperties) getSecurityProperties();
+            if (securityProperties.getOutboundEventBufferThreshold() > 0) {
+                eventBuffer = new SpoolingXMLSecEventDeque(
+                        securityProperties.getOutboundEventBufferThreshold(),
+                        securityProperties.getOutboundEventBufferDirectory());
+            }
+            eventBufferInitialized = true;
+        }
+        if (eventBuffer == null) {
+            super.processEvent(xmlSecEvent, outputProcessorChain);
+        } else {
+            eventBuffer.offer(xmlSecEvent);
+        }
+    }
+
     @Override
     public void flushBufferAndCallbackAfterHeader(OutputProcessorChain outputProcessorChain,
                                                    Deque<XMLSecEvent> xmlSecEventDeque)
             throws XMLStreamException, XMLSecurityException {
+        try {
+            flushEvents(outputProcessorChain, xmlSecEventDeque);
+        } finally {
+            //delete the spool file also when the output fails
+            if (eventBuffer != null) {
+                eventBuffer.close();
+            }
+        }
+    }
+
+    private void flushEvents(OutputProcessorChain outputProcessorChain, Deque<XMLSecEvent> xmlSecEventDeque)
+            throws XMLStreamException, XMLSecurityException {
 
         final String actor = ((WSSSecurityProperties) getSecurityProperties()).getActor();
 
+        if (eventBuffer != null) {
+            xmlSecEventDeque = eventBuffer;
+        }
+
         //loop until we reach our security header
         loop:
         while (!xmlSecEventDeque.isEmpty()) {
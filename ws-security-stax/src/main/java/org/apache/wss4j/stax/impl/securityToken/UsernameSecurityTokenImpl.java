@@ -19,6 +19,7 @@
 package org.apache.wss4j.stax.impl.securityToken;
 
 import org.apache.wss4j.common.bsp.BSPRule;
+import org.apache.wss4j.common.cache.UsernameTokenDerivedKeyCache;
 import org.apache.wss4j.common.ext.WSSecurityException;
 import org.apache.wss4j.common.principal.UsernameTokenPrincipal;
 import org.apache.wss4j.common.util.UsernameTokenUtil;
@@ -50,6 +51,7 @@ public class UsernameSecurityTokenImpl extends AbstractInboundSecurityToken impl
     private final WSInboundSecurityContext wsInboundSecurityContext;
     private Subject subject;
     private Principal principal;
+    private UsernameTokenDerivedKeyCache derivedKeyCache;
 
     public UsernameSecurityTokenImpl(WSSConstants.UsernameTokenPasswordType usernameTokenPasswordType,
                                      String username, String password, String createdTime, byte[] nonce,
@@ -123,7 +125,15 @@ public class UsernameSecurityTokenImpl extends AbstractInboundSecurityToken impl
             }
         }
 
-        return UsernameTokenUtil.generateDerivedKey(password, salt, iteration.intValue());
+        return UsernameTokenUtil.generateDerivedKey(
+                username, password, salt, iteration.intValue(), derivedKeyCache);
+    }
+
+    /**
+     * Set the cache of derived keys, or null (the default) to always generate the derived key
+     */
+    public void setDerivedKeyCache(UsernameTokenDerivedKeyCache derivedKeyCache) {
+        this.derivedKeyCache = derivedKeyCache;
     }
 
     @Override
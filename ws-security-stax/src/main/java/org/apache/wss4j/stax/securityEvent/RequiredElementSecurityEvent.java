@@ -18,11 +18,26 @@
  */
 package org.apache.wss4j.stax.securityEvent;
 
+import org.apache.xml.security.stax.ext.stax.XMLSecStartElement;
 import org.apache.xml.security.stax.securityEvent.AbstractElementSecurityEvent;
 
 public class RequiredElementSecurityEvent extends AbstractElementSecurityEvent {
 
+    private XMLSecStartElement xmlSecEvent;
+
     public RequiredElementSecurityEvent() {
         super(WSSecurityEventConstants.RequiredElement);
     }
+
+    /**
+     * @return the start element of the required element, against which the predicates of
+     * an XPath policy are evaluated
+     */
+    public XMLSecStartElement getXmlSecEvent() {
+        return xmlSecEvent;
+    }
+
+    public void setXmlSecEvent(XMLSecStartElement xmlSecEvent) {
+        this.xmlSecEvent = xmlSecEvent;
+    }
 }
@@ -19,6 +19,7 @@
 package org.apache.wss4j.stax.validate;
 
 import org.apache.wss4j.binding.wssc.AbstractSecurityContextTokenType;
+import org.apache.wss4j.common.cache.DerivedKeyCache;
 import org.apache.wss4j.common.ext.WSPasswordCallback;
 import org.apache.wss4j.common.ext.WSSecurityException;
 import org.apache.wss4j.stax.ext.WSSUtils;
@@ -62,6 +63,11 @@ public class SecurityContextTokenValidatorImpl implements SecurityContextTokenVa
                         identifier, WSPasswordCallback.Usage.SECURITY_CONTEXT_TOKEN);
                 WSSUtils.doSecretKeyCallback(
                         tokenContext.getWssSecurityProperties().getCallbackHandler(), passwordCallback, null);
+                DerivedKeyCache derivedKeyCache = tokenContext.getWssSecurityProperties().getDerivedKeyCache();
+                if (derivedKeyCache != null) {
+                    // Remove the keys derived from a previous secret of the token
+                    derivedKeyCache.updateSecret(identifier, passwordCallback.getKey());
+                }
                 if (passwordCallback.getKey() == null) {
                     throw new WSSecurityException(WSSecurityException.ErrorCode.SECURITY_TOKEN_UNAVAILABLE,
                             "noKey", securityContextTokenType.getId());
@@ -153,6 +153,8 @@ public class UsernameTokenValidatorImpl implements UsernameTokenValidator {
                 WSSecurityTokenConstants.KeyIdentifier_SecurityTokenDirectReference);
         usernameSecurityToken.setElementPath(tokenContext.getElementPath());
         usernameSecurityToken.setXMLSecEvent(tokenContext.getFirstXMLSecEvent());
+        usernameSecurityToken.setDerivedKeyCache(
+                tokenContext.getWssSecurityProperties().getUsernameTokenDerivedKeyCache());
 
         @SuppressWarnings("unchecked")
         T token = (T)usernameSecurityToken;
@@ -285,6 +285,8 @@ public class PerformanceMemoryTest extends AbstractTestBase {
             WSSConstants.Action[] actions = new WSSConstants.Action[]{WSSConstants.TIMESTAMP, WSSConstants.SIGNATURE, WSSConstants.ENCRYPT};
             securityProperties.setOutAction(actions);
             securityProperties.setTimestampTTL(60 * 60 * 24 * 7); //a week for testing:)
+            //spool the buffered body to a file, so that the memory usage doesn't grow with the message size
+            securityProperties.setOutboundEventBufferThreshold(10000);
             outboundWSSec = WSSec.getOutboundWSSec(securityProperties);
         }
 
@@ -54,6 +54,7 @@ import org.apache.wss4j.dom.message.WSSecHeader;
 import org.apache.wss4j.dom.message.WSSecSignature;
 import org.apache.wss4j.stax.ConfigurationConverter;
 import org.apache.wss4j.stax.WSSec;
+import org.apache.wss4j.stax.ext.CompiledWSSSecurityProperties;
 import org.apache.wss4j.stax.ext.InboundWSSec;
 import org.apache.wss4j.stax.ext.OutboundWSSec;
 import org.apache.wss4j.stax.ext.WSSConstants;
@@ -153,6 +154,68 @@ public class SignatureTest extends AbstractTestBase {
         }
     }
     
+    @Test
+    public void testCompiledSecurityProperties() throws Exception {
+
+        WSSSecurityProperties outSecurityProperties = new WSSSecurityProperties();
+        outSecurityProperties.setOutAction(new WSSConstants.Action[]{WSSConstants.TIMESTAMP, WSSConstants.SIGNATURE});
+        outSecurityProperties.loadSignatureKeyStore(this.getClass().getClassLoader().getResource("transmitter.jks"), "default".toCharArray());
+        outSecurityProperties.setSignatureUser("transmitter");
+        outSecurityProperties.setCallbackHandler(new CallbackHandlerImpl());
+        CompiledWSSSecurityProperties compiledOutbound =
+            CompiledWSSSecurityProperties.compileOutbound(outSecurityProperties);
+
+        // the defaults are not applied to the given properties
+        Assert.assertNull(outSecurityProperties.getSignatureAlgorithm());
+
+        WSSSecurityProperties inSecurityProperties = new WSSSecurityProperties();
+        inSecurityProperties.loadSignatureVerificationKeystore(this.getClass().getClassLoader().getResource("receiver.jks"), "default".toCharArray());
+        CompiledWSSSecurityProperties compiledInbound =
+            CompiledWSSSecurityProperties.compileInbound(inSecurityProperties);
+
+        // the Crypto instances are loaded once and shared by the copies
+        Assert.assertSame(compiledOutbound.copySecurityProperties().getSignatureCrypto(),
+                compiledOutbound.copySecurityProperties().getSignatureCrypto());
+        Assert.assertSame(compiledInbound.copySecurityProperties().getSignatureVerificationCrypto(),
+                compiledInbound.copySecurityProperties().getSignatureVerificationCrypto());
+
+        // the engines are reused for several messages
+        for (int i = 0; i < 2; i++) {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            OutboundWSSec wsSecOut = compiledOutbound.getOutboundWSSec();
+            XMLStreamWriter xmlStreamWriter = wsSecOut.processOutMessage(baos, "UTF-8", new ArrayList<SecurityEvent>());
+            XMLStreamReader xmlStreamReader = xmlInputFactory.createXMLStreamReader(this.getClass().getClassLoader().getResourceAsStream("testdata/plain-soap-1.1.xml"));
+            XmlReaderToWriter.writeAll(xmlStreamReader, xmlStreamWriter);
+            xmlStreamWriter.close();
+
+            InboundWSSec wsSecIn = compiledInbound.getInboundWSSec();
+            xmlStreamReader = wsSecIn.processInMessage(xmlInputFactory.createXMLStreamReader(new ByteArrayInputStream(baos.toByteArray())));
+            Document document = StAX2DOM.readDoc(documentBuilderFactory.newDocumentBuilder(), xmlStreamReader);
+
+            NodeList nodeList = document.getElementsByTagNameNS(WSSConstants.TAG_dsig_Signature.getNamespaceURI(), WSSConstants.TAG_dsig_Signature.getLocalPart());
+            Assert.assertEquals(nodeList.getLength(), 1);
+        }
+    }
+
+    @Test
+    public void testCompileInboundKeepsSecurityProperties() throws Exception {
+
+        WSSSecurityProperties inSecurityProperties = new WSSSecurityProperties();
+        inSecurityProperties.loadSignatureVerificationKeystore(this.getClass().getClassLoader().getResource("receiver.jks"), "default".toCharArray());
+        inSecurityProperties.setActor("actor");
+        Integer timestampTTL = inSecurityProperties.getTimestampTTL();
+        CompiledWSSSecurityProperties compiledInbound =
+            CompiledWSSSecurityProperties.compileInbound(inSecurityProperties);
+
+        // the given properties are not changed by the compilation
+        Assert.assertEquals(inSecurityProperties.getActor(), "actor");
+        Assert.assertEquals(inSecurityProperties.getTimestampTTL(), timestampTTL);
+
+        // and later changes of the given properties are not reflected in the compiled configuration
+        inSecurityProperties.setActor("otherActor");
+        Assert.assertEquals(compiledInbound.copySecurityProperties().getActor(), "actor");
+    }
+
     @Test
     public void testSignatureCryptoPropertiesOutbound() throws Exception {
 
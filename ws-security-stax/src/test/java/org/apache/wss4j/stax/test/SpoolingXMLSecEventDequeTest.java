@@ -0,0 +1,167 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.wss4j.stax.test;
+
+import org.apache.wss4j.stax.impl.SpoolingXMLSecEventDeque;
+import org.apache.xml.security.stax.ext.stax.XMLSecAttribute;
+import org.apache.xml.security.stax.ext.stax.XMLSecCharacters;
+import org.apache.xml.security.stax.ext.stax.XMLSecEndElement;
+import org.apache.xml.security.stax.ext.stax.XMLSecEvent;
+import org.apache.xml.security.stax.ext.stax.XMLSecEventFactory;
+import org.apache.xml.security.stax.ext.stax.XMLSecNamespace;
+import org.apache.xml.security.stax.ext.stax.XMLSecStartElement;
+import org.apache.xml.security.stax.impl.stax.XMLSecAttributeImpl;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamReader;
+import java.io.File;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+public class SpoolingXMLSecEventDequeTest {
+
+    @Test
+    public void testSpooledEvents() throws Exception {
+        List<XMLSecEvent> xmlSecEvents = readEvents("testdata/plain-soap-1.1.xml");
+
+        File directory = new File("target/spoolingXMLSecEventDequeTest");
+        directory.mkdirs();
+        SpoolingXMLSecEventDeque deque = new SpoolingXMLSecEventDeque(10, directory);
+        for (int i = 0; i < xmlSecEvents.size(); i++) {
+            deque.offer(xmlSecEvents.get(i));
+        }
+        Assert.assertTrue(deque.isSpooled());
+        Assert.assertEquals(deque.size(), xmlSecEvents.size());
+        Assert.assertEquals(directory.list().length, 1);
+
+        for (int i = 0; i < xmlSecEvents.size(); i++) {
+            XMLSecEvent expected = xmlSecEvents.get(i);
+            XMLSecEvent xmlSecEvent = deque.pop();
+            Assert.assertEquals(xmlSecEvent.getEventType(), expected.getEventType());
+            Assert.assertEquals(xmlSecEvent.getDocumentLevel(), expected.getDocumentLevel());
+            switch (expected.getEventType()) {
+                case XMLStreamConstants.START_ELEMENT:
+                    XMLSecStartElement xmlSecStartElement = xmlSecEvent.asStartElement();
+                    Assert.assertEquals(xmlSecStartElement.getName(), expected.asStartElement().getName());
+                    Assert.assertEquals(xmlSecStartElement.getName().getPrefix(),
+                            expected.asStartElement().getName().getPrefix());
+                    Assert.assertEquals(xmlSecStartElement.getOnElementDeclaredNamespaces().size(),
+                            expected.asStartElement().getOnElementDeclaredNamespaces().size());
+                    List<XMLSecAttribute> attributes = expected.asStartElement().getOnElementDeclaredAttributes();
+                    Assert.assertEquals(xmlSecStartElement.getOnElementDeclaredAttributes().size(), attributes.size());
+                    for (int j = 0; j < attributes.size(); j++) {
+                        XMLSecAttribute attribute = xmlSecStartElement.getOnElementDeclaredAttributes().get(j);
+                        Assert.assertEquals(attribute.getName(), attributes.get(j).getName());
+                        Assert.assertEquals(attribute.getValue(), attributes.get(j).getValue());
+                    }
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    Assert.assertEquals(xmlSecEvent.asEndElement().getName(), expected.asEndElement().getName());
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                    Assert.assertEquals(xmlSecEvent.asCharacters().getText(), expected.asCharacters().getText());
+                    break;
+            }
+        }
+        Assert.assertTrue(deque.isEmpty());
+        // the spool file is deleted once all its events are taken
+        Assert.assertEquals(directory.list().length, 0);
+    }
+
+    @Test
+    public void testSpooledEmptyTexts() throws Exception {
+        List<XMLSecAttribute> attributes = new ArrayList<XMLSecAttribute>();
+        attributes.add(new XMLSecAttributeImpl(new QName("", "Id"), ""));
+        attributes.add(new XMLSecAttributeImpl(new QName("", "Type"), "value"));
+        XMLSecStartElement xmlSecStartElement = XMLSecEventFactory.createXmlSecStartElement(
+                new QName("urn:test", "Element", "t"), attributes, new ArrayList<XMLSecNamespace>());
+        XMLSecCharacters emptyCharacters = XMLSecEventFactory.createXmlSecCharacters("");
+        emptyCharacters.setParentXMLSecStartElement(xmlSecStartElement);
+        XMLSecCharacters characters = XMLSecEventFactory.createXmlSecCharacters("text");
+        characters.setParentXMLSecStartElement(xmlSecStartElement);
+        XMLSecEndElement xmlSecEndElement = XMLSecEventFactory.createXmlSecEndElement(xmlSecStartElement.getName());
+        xmlSecEndElement.setParentXMLSecStartElement(xmlSecStartElement);
+
+        SpoolingXMLSecEventDeque deque = new SpoolingXMLSecEventDeque(0, null);
+        deque.offer(xmlSecStartElement);
+        deque.offer(emptyCharacters);
+        deque.offer(characters);
+        deque.offer(xmlSecEndElement);
+        Assert.assertTrue(deque.isSpooled());
+
+        XMLSecStartElement spooledStartElement = deque.pop().asStartElement();
+        Assert.assertEquals(spooledStartElement.getName(), xmlSecStartElement.getName());
+        List<XMLSecAttribute> spooledAttributes = spooledStartElement.getOnElementDeclaredAttributes();
+        Assert.assertEquals(spooledAttributes.size(), 2);
+        Assert.assertEquals(spooledAttributes.get(0).getValue(), "");
+        Assert.assertEquals(spooledAttributes.get(1).getValue(), "value");
+        Assert.assertEquals(deque.pop().asCharacters().getText(), "");
+        Assert.assertEquals(deque.pop().asCharacters().getText(), "text");
+        Assert.assertEquals(deque.pop().asEndElement().getName(), xmlSecStartElement.getName());
+        Assert.assertTrue(deque.isEmpty());
+    }
+
+    @Test
+    public void testClose() throws Exception {
+        List<XMLSecEvent> xmlSecEvents = readEvents("testdata/plain-soap-1.1.xml");
+
+        File directory = new File("target/spoolingXMLSecEventDequeCloseTest");
+        directory.mkdirs();
+        SpoolingXMLSecEventDeque deque = new SpoolingXMLSecEventDeque(10, directory);
+        for (int i = 0; i < xmlSecEvents.size(); i++) {
+            deque.offer(xmlSecEvents.get(i));
+        }
+        Assert.assertEquals(directory.list().length, 1);
+        deque.pop();
+        // a failed output closes the deque before all its events are taken
+        deque.close();
+        Assert.assertFalse(deque.isSpooled());
+        Assert.assertEquals(directory.list().length, 0);
+    }
+
+    private List<XMLSecEvent> readEvents(String resource) throws Exception {
+        XMLInputFactory xmlInputFactory = XMLInputFactory.newInstance();
+        xmlInputFactory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.FALSE);
+        InputStream inputStream = this.getClass().getClassLoader().getResourceAsStream(resource);
+        XMLStreamReader xmlStreamReader = xmlInputFactory.createXMLStreamReader(inputStream);
+
+        List<XMLSecEvent> xmlSecEvents = new ArrayList<XMLSecEvent>();
+        XMLSecStartElement parentXmlSecStartElement = null;
+        while (xmlStreamReader.hasNext()) {
+            int eventType = xmlStreamReader.next();
+            XMLSecEvent xmlSecEvent = XMLSecEventFactory.allocate(xmlStreamReader, parentXmlSecStartElement);
+            if (eventType == XMLStreamConstants.START_ELEMENT) {
+                parentXmlSecStartElement = xmlSecEvent.asStartElement();
+            } else if (eventType == XMLStreamConstants.END_ELEMENT) {
+                parentXmlSecStartElement = parentXmlSecStartElement.getParentXMLSecStartElement();
+            }
+            if (eventType != XMLStreamConstants.END_DOCUMENT) {
+                xmlSecEvents.add(xmlSecEvent);
+            }
+        }
+        xmlStreamReader.close();
+        inputStream.close();
+        return xmlSecEvents;
+    }
+}
@@ -25,11 +25,16 @@ import org.apache.wss4j.common.ext.WSSecurityException;
 import org.apache.wss4j.dom.handler.WSHandlerConstants;
 import org.apache.wss4j.stax.WSSec;
 import org.apache.wss4j.stax.ext.InboundWSSec;
+import org.apache.wss4j.stax.ext.SecurityHeaderBufferMetrics;
 import org.apache.wss4j.stax.ext.WSSConstants;
 import org.apache.wss4j.stax.ext.WSSSecurityProperties;
+import org.apache.wss4j.stax.impl.processor.input.SecurityHeaderInputProcessor;
 import org.apache.wss4j.stax.test.utils.StAX2DOM;
 import org.apache.xml.security.stax.config.Init;
 import org.apache.xml.security.stax.config.TransformerAlgorithmMapper;
+import org.apache.xml.security.stax.ext.stax.XMLSecEvent;
+import org.apache.xml.security.stax.ext.stax.XMLSecEventFactory;
+import org.apache.xml.security.stax.ext.stax.XMLSecStartElement;
 import org.testng.Assert;
 import org.testng.annotations.Test;
 import org.w3c.dom.Attr;
@@ -45,6 +50,8 @@ import javax.xml.xpath.XPathConstants;
 import javax.xml.xpath.XPathExpression;
 import java.io.*;
 import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 
@@ -668,4 +675,147 @@ public class VulnerabliltyVectorsTest extends AbstractTestBase {
             Assert.assertEquals(((WSSecurityException) e.getCause()).getFaultCode(), WSSecurityException.FAILED_CHECK);
         }
     }
+
+    @Test
+    public void testSecurityHeaderBufferLimit() throws Exception {
+        ByteArrayOutputStream baos = getSignedDocument();
+
+        WSSSecurityProperties securityProperties = new WSSSecurityProperties();
+        securityProperties.loadSignatureVerificationKeystore(this.getClass().getClassLoader().getResource("receiver.jks"), "default".toCharArray());
+        securityProperties.setSecurityHeaderBufferLimit(1000);
+
+        try {
+            doInboundSecurity(securityProperties,
+                    xmlInputFactory.createXMLStreamReader(
+                            new ByteArrayInputStream(baos.toByteArray())));
+            Assert.fail("Expected XMLStreamException");
+        } catch (XMLStreamException e) {
+            Assert.assertTrue(e.getCause() instanceof WSSecurityException);
+            Assert.assertEquals(e.getCause().getMessage(),
+                    "The security header exceeds the buffer limit of 1000 bytes");
+            Assert.assertEquals(((WSSecurityException) e.getCause()).getFaultCode(), WSSecurityException.INVALID_SECURITY);
+        }
+    }
+
+    @Test
+    public void testSpoolSecurityHeaderBuffer() throws Exception {
+        ByteArrayOutputStream baos = getSignedDocument();
+
+        SecurityHeaderBufferMetrics metrics = new SecurityHeaderBufferMetrics();
+        WSSSecurityProperties securityProperties = new WSSSecurityProperties();
+        securityProperties.loadSignatureVerificationKeystore(this.getClass().getClassLoader().getResource("receiver.jks"), "default".toCharArray());
+        securityProperties.setSecurityHeaderBufferLimit(5000);
+        securityProperties.setSpoolSecurityHeaderBuffer(true);
+        securityProperties.setSecurityHeaderBufferMetrics(metrics);
+
+        Document document = doInboundSecurity(securityProperties,
+                xmlInputFactory.createXMLStreamReader(
+                        new ByteArrayInputStream(baos.toByteArray())));
+
+        //the replayed security header must be complete
+        NodeList nodeList = document.getElementsByTagNameNS(WSSConstants.TAG_dsig_Signature.getNamespaceURI(), WSSConstants.TAG_dsig_Signature.getLocalPart());
+        Assert.assertEquals(nodeList.getLength(), 1);
+        nodeList = document.getElementsByTagNameNS(WSSConstants.TAG_wsse_BinarySecurityToken.getNamespaceURI(), WSSConstants.TAG_wsse_BinarySecurityToken.getLocalPart());
+        Assert.assertEquals(nodeList.getLength(), 1);
+
+        Assert.assertEquals(metrics.getMessageCount(), 1);
+        Assert.assertEquals(metrics.getSpooledMessageCount(), 1);
+        Assert.assertTrue(metrics.getMaxBufferedBytes() > 5000);
+        Assert.assertTrue(metrics.getTotalSpooledBytes() > 0);
+    }
+
+    @Test
+    public void testSpoolSecurityHeaderBufferOnHeaderChildStartElement() throws Exception {
+        ByteArrayOutputStream baos = getSignedDocument();
+        long limit = getLimitExceededOnHeaderChildStartElement(baos.toByteArray());
+
+        SecurityHeaderBufferMetrics metrics = new SecurityHeaderBufferMetrics();
+        WSSSecurityProperties securityProperties = new WSSSecurityProperties();
+        securityProperties.loadSignatureVerificationKeystore(this.getClass().getClassLoader().getResource("receiver.jks"), "default".toCharArray());
+        securityProperties.setSecurityHeaderBufferLimit((int) limit);
+        securityProperties.setSpoolSecurityHeaderBuffer(true);
+        securityProperties.setSecurityHeaderBufferMetrics(metrics);
+
+        Document document = doInboundSecurity(securityProperties,
+                xmlInputFactory.createXMLStreamReader(
+                        new ByteArrayInputStream(baos.toByteArray())));
+
+        NodeList nodeList = document.getElementsByTagNameNS(WSSConstants.TAG_dsig_Signature.getNamespaceURI(), WSSConstants.TAG_dsig_Signature.getLocalPart());
+        Assert.assertEquals(nodeList.getLength(), 1);
+        nodeList = document.getElementsByTagNameNS(WSSConstants.TAG_wsse_BinarySecurityToken.getNamespaceURI(), WSSConstants.TAG_wsse_BinarySecurityToken.getLocalPart());
+        Assert.assertEquals(nodeList.getLength(), 1);
+        nodeList = document.getElementsByTagNameNS(WSSConstants.TAG_wsu_Timestamp.getNamespaceURI(), WSSConstants.TAG_wsu_Timestamp.getLocalPart());
+        Assert.assertEquals(nodeList.getLength(), 1);
+
+        Assert.assertEquals(metrics.getSpooledMessageCount(), 1);
+        Assert.assertTrue(metrics.getTotalSpooledBytes() > 0);
+    }
+
+    /**
+     * Returns a security header buffer limit which is exceeded exactly by the start tag of a
+     * child element of the security header, and which is large enough for every following
+     * child element.
+     */
+    private long getLimitExceededOnHeaderChildStartElement(byte[] document) throws Exception {
+        XMLStreamReader xmlStreamReader = xmlInputFactory.createXMLStreamReader(new ByteArrayInputStream(document));
+        List<Long> startElementLimits = new ArrayList<Long>();
+        List<Long> childElementSizes = new ArrayList<Long>();
+        XMLSecStartElement parentXMLSecStartElement = null;
+        long bufferedBytes = 0;
+        long childElementSize = 0;
+        boolean securityHeaderFound = false;
+        while (xmlStreamReader.hasNext()) {
+            xmlStreamReader.next();
+            XMLSecEvent xmlSecEvent = XMLSecEventFactory.allocate(xmlStreamReader, parentXMLSecStartElement);
+            long size = SecurityHeaderInputProcessor.estimateSize(xmlSecEvent);
+            bufferedBytes += size;
+            if (xmlSecEvent.isStartElement()) {
+                XMLSecStartElement xmlSecStartElement = xmlSecEvent.asStartElement();
+                parentXMLSecStartElement = xmlSecStartElement;
+                if (xmlSecStartElement.getName().equals(WSSConstants.TAG_soap11_Body)) {
+                    break;
+                } else if (xmlSecStartElement.getName().equals(WSSConstants.TAG_wsse_Security)) {
+                    securityHeaderFound = true;
+                } else if (securityHeaderFound && xmlSecStartElement.getDocumentLevel() == 4) {
+                    startElementLimits.add(bufferedBytes - 1);
+                    childElementSize = 0;
+                }
+            }
+            childElementSize += size;
+            if (xmlSecEvent.isEndElement()) {
+                if (securityHeaderFound && xmlSecEvent.asEndElement().getDocumentLevel() == 4) {
+                    childElementSizes.add(childElementSize);
+                }
+                parentXMLSecStartElement = parentXMLSecStartElement.getParentXMLSecStartElement();
+            }
+        }
+        xmlStreamReader.close();
+
+        for (int i = 0; i < startElementLimits.size(); i++) {
+            long limit = startElementLimits.get(i);
+            boolean fits = true;
+            for (int j = i; j < childElementSizes.size(); j++) {
+                fits &= childElementSizes.get(j) <= limit;
+            }
+            if (fits) {
+                return limit;
+            }
+        }
+        Assert.fail("No security header child element found which fits into the buffer");
+        return 0;
+    }
+
+    private ByteArrayOutputStream getSignedDocument() throws Exception {
+        InputStream sourceDocument = this.getClass().getClassLoader().getResourceAsStream("testdata/plain-soap-1.1.xml");
+
+        String action = WSHandlerConstants.TIMESTAMP + " " + WSHandlerConstants.SIGNATURE;
+        Properties properties = new Properties();
+        properties.setProperty(WSHandlerConstants.SIG_KEY_ID, "DirectReference");
+        Document securedDocument = doOutboundSecurityWithWSS4J(sourceDocument, action, properties);
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+
+        javax.xml.transform.Transformer transformer = TRANSFORMER_FACTORY.newTransformer();
+        transformer.transform(new DOMSource(securedDocument), new StreamResult(baos));
+        return baos;
+    }
 }
@@ -0,0 +1,142 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.wss4j.stax.test;
+
+import org.apache.wss4j.stax.ext.WSSConstants;
+import org.apache.wss4j.stax.impl.processor.input.XMLSecEventDOMBuilder;
+import org.apache.xml.security.stax.ext.stax.XMLSecEvent;
+import org.apache.xml.security.stax.ext.stax.XMLSecEventFactory;
+import org.apache.xml.security.stax.ext.stax.XMLSecStartElement;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamReader;
+import java.io.ByteArrayInputStream;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+public class XMLSecEventDOMBuilderTest {
+
+    private static final String ASSERTION =
+            "<saml2:Assertion xmlns:saml2=\"urn:oasis:names:tc:SAML:2.0:assertion\" "
+                    + "xmlns:xs=\"http://www.w3.org/2001/XMLSchema\" ID=\"_1234\" Version=\"2.0\">"
+                    + "<saml2:Issuer>www.example.com</saml2:Issuer>"
+                    + "<!--comment-->"
+                    + "<saml2:AttributeStatement>"
+                    + "<saml2:Attribute Name=\"role\" xml:lang=\"en\">"
+                    + "<saml2:AttributeValue xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\" "
+                    + "xsi:type=\"xs:string\">user &amp; admin</saml2:AttributeValue>"
+                    + "</saml2:Attribute>"
+                    + "</saml2:AttributeStatement>"
+                    + "</saml2:Assertion>";
+
+    @Test
+    public void testStandaloneElement() throws Exception {
+        Document document = XMLSecEventDOMBuilder.build(readEvents(ASSERTION, 0).iterator());
+
+        Document expected = parse(ASSERTION);
+        Assert.assertTrue(expected.getDocumentElement().isEqualNode(document.getDocumentElement()));
+    }
+
+    @Test
+    public void testAppendPerEvent() throws Exception {
+        Document document = parse("<root/>");
+        document.removeChild(document.getDocumentElement());
+        Node currentNode = document;
+        List<XMLSecEvent> xmlSecEvents = readEvents(ASSERTION, 0);
+        for (int i = 0; i < xmlSecEvents.size(); i++) {
+            currentNode = XMLSecEventDOMBuilder.append(xmlSecEvents.get(i), currentNode, document);
+        }
+
+        Document expected = parse(ASSERTION);
+        Assert.assertTrue(expected.getDocumentElement().isEqualNode(document.getDocumentElement()));
+    }
+
+    @Test
+    public void testNamespacesDeclaredOutside() throws Exception {
+        String message =
+                "<env:Envelope xmlns:env=\"http://schemas.xmlsoap.org/soap/envelope/\" "
+                        + "xmlns:saml2=\"urn:oasis:names:tc:SAML:2.0:assertion\" "
+                        + "xmlns:wsu=\"" + WSSConstants.NS_WSU10 + "\">"
+                        + "<saml2:Assertion wsu:Id=\"id-1\" ID=\"_1234\">"
+                        + "<saml2:Issuer>www.example.com</saml2:Issuer>"
+                        + "</saml2:Assertion>"
+                        + "</env:Envelope>";
+        Document document = XMLSecEventDOMBuilder.build(readEvents(message, 1).iterator());
+
+        Element assertion = document.getDocumentElement();
+        Assert.assertEquals(assertion.getNamespaceURI(), "urn:oasis:names:tc:SAML:2.0:assertion");
+        Assert.assertEquals(assertion.getAttributeNS(WSSConstants.NS_XML, "saml2"),
+                "urn:oasis:names:tc:SAML:2.0:assertion");
+        Assert.assertEquals(assertion.getAttributeNS(WSSConstants.NS_XML, "wsu"), WSSConstants.NS_WSU10);
+        // no declarations for unused or unprefixed names
+        Assert.assertFalse(assertion.hasAttributeNS(WSSConstants.NS_XML, "env"));
+        Assert.assertFalse(assertion.hasAttributeNS(WSSConstants.NS_XML, "xmlns"));
+        Assert.assertEquals(assertion.getAttributes().getLength(), 4);
+
+        Element issuer = (Element) assertion.getFirstChild();
+        Assert.assertEquals(issuer.getAttributes().getLength(), 0);
+        Assert.assertEquals(issuer.getTextContent(), "www.example.com");
+        Assert.assertNull(issuer.getNextSibling());
+    }
+
+    /**
+     * Read the events of the (depth + 1)th level element of the given XML
+     */
+    private List<XMLSecEvent> readEvents(String xml, int depth) throws Exception {
+        XMLInputFactory xmlInputFactory = XMLInputFactory.newInstance();
+        xmlInputFactory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.FALSE);
+        XMLStreamReader xmlStreamReader = xmlInputFactory.createXMLStreamReader(new StringReader(xml));
+
+        List<XMLSecEvent> xmlSecEvents = new ArrayList<XMLSecEvent>();
+        XMLSecStartElement parentXmlSecStartElement = null;
+        int level = 0;
+        while (xmlStreamReader.hasNext()) {
+            int eventType = xmlStreamReader.next();
+            XMLSecEvent xmlSecEvent = XMLSecEventFactory.allocate(xmlStreamReader, parentXmlSecStartElement);
+            if (eventType == XMLStreamConstants.START_ELEMENT) {
+                parentXmlSecStartElement = xmlSecEvent.asStartElement();
+                if (++level > depth) {
+                    xmlSecEvents.add(xmlSecEvent);
+                }
+            } else if (eventType == XMLStreamConstants.END_ELEMENT) {
+                parentXmlSecStartElement = parentXmlSecStartElement.getParentXMLSecStartElement();
+                if (level-- > depth) {
+                    xmlSecEvents.add(xmlSecEvent);
+                }
+            } else if (level > depth) {
+                xmlSecEvents.add(xmlSecEvent);
+            }
+        }
+        return xmlSecEvents;
+    }
+
+    private Document parse(String xml) throws Exception {
+        DocumentBuilderFactory documentBuilderFactory = DocumentBuilderFactory.newInstance();
+        documentBuilderFactory.setNamespaceAware(true);
+        return documentBuilderFactory.newDocumentBuilder().parse(new ByteArrayInputStream(xml.getBytes("UTF-8")));
+    }
+}